@@ -0,0 +1,44 @@
+#!/usr/bin/env bash
+# Local 3-primary Redis Cluster on ports 7000-7002, for RedisClusterRateLimiterTest
+# and for trying redis.cluster.enabled: true without Docker.
+#
+#   scripts/local-redis-cluster.sh start    # start (and form, if redis-cli is around)
+#   scripts/local-redis-cluster.sh stop     # stop and delete its data
+#
+# REDIS_SERVER / REDIS_CLI override the binaries. Without redis-cli the nodes
+# come up unformed; RedisClusterRateLimiterTest meets them and assigns slots itself.
+set -euo pipefail
+
+PORTS=(7000 7001 7002)
+DIR="${TMPDIR:-/tmp}/ratelimiter-cluster"
+REDIS_SERVER="${REDIS_SERVER:-redis-server}"
+REDIS_CLI="${REDIS_CLI:-redis-cli}"
+
+case "${1:-start}" in
+  start)
+    for port in "${PORTS[@]}"; do
+      mkdir -p "$DIR/$port"
+      "$REDIS_SERVER" --port "$port" --cluster-enabled yes \
+        --cluster-config-file "$DIR/$port/nodes.conf" --dir "$DIR/$port" \
+        --appendonly no --save "" --daemonize yes --logfile "$DIR/$port/redis.log"
+    done
+    if command -v "$REDIS_CLI" >/dev/null 2>&1; then
+      sleep 1
+      "$REDIS_CLI" --cluster create $(printf '127.0.0.1:%s ' "${PORTS[@]}") --cluster-yes
+    else
+      echo "$REDIS_CLI not found - nodes started unformed, the cluster test forms them"
+    fi
+    ;;
+  stop)
+    for port in "${PORTS[@]}"; do
+      if [ -f "$DIR/$port/nodes.conf" ]; then
+        pkill -f "redis-server .*:$port" || true
+      fi
+    done
+    rm -rf "$DIR"
+    ;;
+  *)
+    echo "usage: $0 start|stop" >&2
+    exit 1
+    ;;
+esac
@@ -1,14 +1,31 @@
 package org.ratelimiter.api.config;
 
 import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 public class MetricsConfig {
 
+    /**
+     * HyperLogLog precision for the per-scope key counts: 2^precision
+     * registers each, error ~1.04 / sqrt(2^precision) (12 → ~1.6%, 16KB)
+     */
+    @Value("${metrics.cardinality.precision:12}")
+    private int cardinalityPrecision;
+
+    /**
+     * Also count distinct keys over this sliding window, reported as the
+     * active key cardinality. 0 reports distinct keys since startup instead.
+     */
+    @Value("${metrics.cardinality.window-seconds:300}")
+    private long cardinalityWindowSeconds;
+
     @Bean
     public InMemoryRateLimiterMetrics inMemoryRateLimiterMetrics() {
-        return new InMemoryRateLimiterMetrics();
+        return new InMemoryRateLimiterMetrics(cardinalityPrecision, TimeUnit.SECONDS.toMillis(cardinalityWindowSeconds));
     }
 }
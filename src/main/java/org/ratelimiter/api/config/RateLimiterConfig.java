@@ -1,18 +1,52 @@
 package org.ratelimiter.api.config;
 
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.ratelimiter.core.BucketEngine;
+import org.ratelimiter.core.ClusterMembership;
+import org.ratelimiter.core.HotKeyDetector;
+import org.ratelimiter.core.LocalFallbackRateLimiter;
 import org.ratelimiter.core.LocalHotKeyRateLimiter;
+import org.ratelimiter.core.MeteredJedisPool;
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisBatchDispatcher;
+import org.ratelimiter.core.RedisCircuitBreaker;
+import org.ratelimiter.core.RedisConfigCache;
 import org.ratelimiter.core.RedisFailMode;
 import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.core.ScopedHotKeyRateLimiter;
+import org.ratelimiter.core.TokenLeaseRateLimiter;
 import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.policy.ClusterPolicyResolver;
+import org.ratelimiter.policy.DefaultPolicyResolver;
+import org.ratelimiter.policy.ResolvePolicy;
+import org.ratelimiter.time.CachedTimeSource;
+import org.ratelimiter.time.TimeSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
 import redis.clients.jedis.JedisPool;
-import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.UnifiedJedis;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 @Configuration
 public class RateLimiterConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(RateLimiterConfig.class);
+
     /* ---------------- Redis ---------------- */
 
     @Value("${redis.host}")
@@ -24,45 +58,435 @@ public class RateLimiterConfig {
     @Value("${redis.password:}")
     private String redisPassword;
 
+    @Value("${redis.timeout.connect-ms:2000}")
+    private int redisConnectTimeoutMs;
+
+    @Value("${redis.timeout.socket-ms:2000}")
+    private int redisSocketTimeoutMs;
+
+    @Value("${redis.pool.max-total:32}")
+    private int redisPoolMaxTotal;
+
+    @Value("${redis.pool.max-idle:32}")
+    private int redisPoolMaxIdle;
+
+    @Value("${redis.pool.min-idle:8}")
+    private int redisPoolMinIdle;
+
+    @Value("${redis.pool.max-wait-ms:500}")
+    private long redisPoolMaxWaitMs;
+
+    @Value("${redis.pool.prewarm:true}")
+    private boolean redisPoolPrewarm;
+
+    /**
+     * Pool for the hierarchical limiter's script calls. Sized from redis.pool:
+     * a borrow waits at most max-wait-ms for a free connection, then fails
+     * like any other Redis error (the fail mode decides). min-idle
+     * connections are opened at startup unless prewarm is off.
+     */
     @Bean
-    public JedisPool jedisPool() {
-        JedisPoolConfig poolConfig = new JedisPoolConfig();
+    public JedisPool jedisPool(InMemoryRateLimiterMetrics metrics) {
+        MeteredJedisPool pool = new MeteredJedisPool(poolConfig(), new HostAndPort(redisHost, redisPort),
+                clientConfig(redisSocketTimeoutMs), metrics);
+        if (redisPoolPrewarm && !redisClusterEnabled) {
+            pool.prewarm();
+        }
+        return pool;
+    }
+
+    // same sizing for every pool: JedisPool's, JedisPooled's, and each cluster node's
+    private <T> GenericObjectPoolConfig<T> poolConfig() {
+        GenericObjectPoolConfig<T> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(redisPoolMaxTotal);
+        poolConfig.setMaxIdle(redisPoolMaxIdle);
+        poolConfig.setMinIdle(redisPoolMinIdle);
+        poolConfig.setMaxWait(Duration.ofMillis(redisPoolMaxWaitMs)); // negative waits forever
         poolConfig.setJmxEnabled(false);
+        return poolConfig;
+    }
+
+    @Value("${redis.cluster.enabled:false}")
+    private boolean redisClusterEnabled;
+
+    @Value("${redis.cluster.nodes:}")
+    private List<String> redisClusterNodes;
+
+    /**
+     * Slot-aware client for everything that isn't on the limiter's hot path
+     * (admin writes, invalidations): a JedisCluster in cluster mode, which
+     * keeps a pool per node and routes each command by its key's slot, or a
+     * pooled client for the single Redis otherwise.
+     */
+    @Bean(destroyMethod = "close")
+    public UnifiedJedis redisClient() {
+        if (redisClusterEnabled) {
+            return new JedisCluster(clusterNodes(), clientConfig(redisSocketTimeoutMs),
+                    JedisCluster.DEFAULT_MAX_ATTEMPTS, poolConfig());
+        }
+        return new JedisPooled(poolConfig(), new HostAndPort(redisHost, redisPort), clientConfig(redisSocketTimeoutMs));
+    }
+
+    /**
+     * Cluster mode hash-tags each request's keys so its hierarchy shares a slot
+     */
+    @Bean
+    public ResolvePolicy policyResolver() {
+        return redisClusterEnabled ? new ClusterPolicyResolver() : new DefaultPolicyResolver();
+    }
+
+    // dedicated connection for SUBSCRIBE, which holds it indefinitely - no read timeout.
+    // In a cluster PUBLISH reaches every node, so any one of them will do.
+    private Jedis subscriberConnection() {
+        HostAndPort node = redisClusterEnabled ? clusterNodes().iterator().next() : new HostAndPort(redisHost, redisPort);
+        return new Jedis(node, clientConfig(0));
+    }
+
+    private DefaultJedisClientConfig clientConfig(int socketTimeoutMillis) {
+        DefaultJedisClientConfig.Builder config = DefaultJedisClientConfig.builder()
+                .connectionTimeoutMillis(redisConnectTimeoutMs)
+                .socketTimeoutMillis(socketTimeoutMillis);
         if (redisPassword != null && !redisPassword.isBlank()) {
-            return new JedisPool(poolConfig, redisHost, redisPort, 2000, redisPassword);
+            config.password(redisPassword);
+        }
+        return config.build();
+    }
+
+    private Set<HostAndPort> clusterNodes() {
+        if (redisClusterNodes.isEmpty()) {
+            throw new IllegalStateException("redis.cluster.enabled needs redis.cluster.nodes");
         }
-        return new JedisPool(poolConfig, redisHost, redisPort, 2000);
+        Set<HostAndPort> nodes = new LinkedHashSet<>();
+        for (String node : redisClusterNodes) {
+            nodes.add(HostAndPort.from(node.trim()));
+        }
+        return nodes;
     }
 
+    @Value("${redis.fail-mode:FAIL_OPEN}")
+    private RedisFailMode redisFailModeSetting;
+
     /**
-     * Configurable Redis failure behavior.
-     * Future enhancement: read from application.yml / env variable
+     * What a decision falls back to when Redis can't be asked: FAIL_OPEN
+     * (safe default), FAIL_CLOSED, or LOCAL_FALLBACK (this node's share of
+     * the limits, divided by the live node count from hot-key.cluster)
      */
     @Bean
     public RedisFailMode redisFailMode() {
-        return RedisFailMode.FAIL_OPEN; // safe default
+        return redisFailModeSetting;
     }
 
+    @Value("${redis.circuit-breaker.enabled:true}")
+    private boolean circuitBreakerEnabled;
+
+    @Value("${redis.circuit-breaker.window-size:100}")
+    private int circuitBreakerWindowSize;
+
+    @Value("${redis.circuit-breaker.min-calls:20}")
+    private int circuitBreakerMinCalls;
+
+    @Value("${redis.circuit-breaker.failure-rate-threshold:0.5}")
+    private double circuitBreakerFailureRate;
+
+    @Value("${redis.circuit-breaker.slow-call-ms:250}")
+    private long circuitBreakerSlowCallMs;
+
+    @Value("${redis.circuit-breaker.slow-call-rate-threshold:0.8}")
+    private double circuitBreakerSlowCallRate;
+
+    @Value("${redis.circuit-breaker.open-ms:5000}")
+    private long circuitBreakerOpenMs;
+
+    @Value("${redis.circuit-breaker.half-open-probes:5}")
+    private int circuitBreakerHalfOpenProbes;
+
+    /**
+     * Always built so its state can be exported; the limiter only goes
+     * through it with redis.circuit-breaker.enabled
+     */
     @Bean
+    public RedisCircuitBreaker redisCircuitBreaker(InMemoryRateLimiterMetrics metrics) {
+        return new RedisCircuitBreaker(circuitBreakerWindowSize, circuitBreakerMinCalls, circuitBreakerFailureRate,
+                circuitBreakerSlowCallMs, circuitBreakerSlowCallRate, circuitBreakerOpenMs,
+                circuitBreakerHalfOpenProbes, metrics);
+    }
+
+    @Value("${redis.algorithm:TOKEN_BUCKET}")
+    private RedisAlgorithm redisAlgorithm;
+
+    @Value("${redis.batch.enabled:false}")
+    private boolean redisBatchEnabled;
+
+    @Value("${redis.batch.max-size:64}")
+    private int redisBatchMaxSize;
+
+    @Value("${redis.batch.max-delay-micros:200}")
+    private long redisBatchMaxDelayMicros;
+
+    @Value("${redis.coalesce.window-micros:0}")
+    private long redisCoalesceWindowMicros;
+
+    @Value("${redis.config-cache.enabled:true}")
+    private boolean redisConfigCacheEnabled;
+
+    @Value("${redis.config-cache.max-age-ms:60000}")
+    private long redisConfigCacheMaxAgeMs;
+
+    @Value("${redis.config-cache.max-entries:100000}")
+    private int redisConfigCacheMaxEntries;
+
+    @Bean(destroyMethod = "close") // stops the config cache's subscriber and the batch dispatcher built here
     public RedisHierarchicalRateLimiter redisHierarchicalRateLimiter(
             JedisPool jedisPool,
+            UnifiedJedis redisClient,
             InMemoryRateLimiterMetrics metrics,
-            RedisFailMode redisFailMode
+            RedisFailMode redisFailMode,
+            RedisCircuitBreaker redisCircuitBreaker
     ) {
-        return new RedisHierarchicalRateLimiter(jedisPool, metrics, redisFailMode);
+        RedisCircuitBreaker breaker = circuitBreakerEnabled ? redisCircuitBreaker : null;
+        LocalFallbackRateLimiter fallback = redisFailMode == RedisFailMode.LOCAL_FALLBACK
+                ? new LocalFallbackRateLimiter(1, redisConfigCacheMaxEntries) // node count from clusterMembership
+                : null;
+
+        if (redisClient instanceof JedisCluster cluster) {
+            // limits can't be read by the script across slots, so the config cache is always on here
+            if (redisBatchEnabled) {
+                log.warn("redis.batch is not supported in cluster mode, calling Redis directly");
+            }
+            RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(cluster, metrics, redisFailMode,
+                    redisAlgorithm, redisCoalesceWindowMicros,
+                    new RedisConfigCache(this::subscriberConnection, redisConfigCacheMaxAgeMs,
+                            redisConfigCacheMaxEntries, metrics),
+                    breaker, fallback);
+            limiter.loadScripts();
+            return limiter;
+        }
+
+        // batching: concurrent requests share one pipelined round trip instead of a connection each
+        RedisBatchDispatcher dispatcher = redisBatchEnabled
+                ? new RedisBatchDispatcher(jedisPool, redisBatchMaxSize, redisBatchMaxDelayMicros)
+                : null;
+        // config cache: limits go to the script as ARGV, kept fresh by pub/sub invalidation
+        RedisConfigCache configCache = redisConfigCacheEnabled
+                ? new RedisConfigCache(this::subscriberConnection, redisConfigCacheMaxAgeMs,
+                        redisConfigCacheMaxEntries, metrics)
+                : null;
+        RedisHierarchicalRateLimiter limiter =
+                new RedisHierarchicalRateLimiter(jedisPool, metrics, redisFailMode, redisAlgorithm, dispatcher,
+                        redisCoalesceWindowMicros, configCache, breaker, fallback);
+        limiter.loadScripts(); // SCRIPT LOAD once, requests use EVALSHA
+        return limiter;
+    }
+
+    @Value("${redis.lease.enabled:false}")
+    private boolean redisLeaseEnabled;
+
+    @Value("${redis.lease.scopes:org}")
+    private Set<String> redisLeaseScopes;
+
+    @Value("${redis.lease.window-ms:100}")
+    private long redisLeaseWindowMs;
+
+    @Value("${redis.lease.min-size:1}")
+    private long redisLeaseMinSize;
+
+    @Value("${redis.lease.max-size:100}")
+    private long redisLeaseMaxSize;
+
+    @Value("${redis.lease.idle-return-ms:1000}")
+    private long redisLeaseIdleReturnMs;
+
+    /**
+     * Token leasing for the scopes in redis.lease.scopes: their keys are
+     * decided from tokens withdrawn from Redis in blocks instead of a
+     * round trip each. Disabled means no scope is leased.
+     */
+    @Bean(destroyMethod = "close") // hand unused tokens back on shutdown
+    public TokenLeaseRateLimiter tokenLeaseRateLimiter(
+            UnifiedJedis redisClient,
+            InMemoryRateLimiterMetrics metrics,
+            RedisFailMode redisFailMode,
+            RedisHierarchicalRateLimiter redisHierarchicalRateLimiter
+    ) {
+        return new TokenLeaseRateLimiter(redisClient, metrics, redisFailMode,
+                redisLeaseEnabled ? redisLeaseScopes : Set.of(),
+                redisLeaseWindowMs, redisLeaseMinSize, redisLeaseMaxSize, redisLeaseIdleReturnMs,
+                redisHierarchicalRateLimiter.configCache()); // same limits as the hierarchical path
+    }
+
+    /* ---------------- Local Clock ---------------- */
+
+    @Value("${hot-key.clock-tick-micros:0}")
+    private long clockTickMicros;
+
+    /**
+     * Clock for the in-JVM limiters. 0 reads System.nanoTime() every time;
+     * anything above that is a cached clock refreshed every that many micros,
+     * cheaper to read but only accurate to one tick.
+     */
+    @Bean
+    public TimeSource localTimeSource() {
+        return clockTickMicros > 0 ? new CachedTimeSource(clockTickMicros) : TimeSource.SYSTEM;
     }
 
     /* ---------------- Hot-Key Limiter ---------------- */
 
+    @Value("${hot-key.bucket-engine:LOCKED}")
+    private BucketEngine hotKeyBucketEngine;
+
+    @Value("${hot-key.idle-ttl-ms:60000}")
+    private long hotKeyIdleTtlMs;
+
+    @Value("${hot-key.max-entries:10000}")
+    private int hotKeyMaxEntries;
+
+    @Value("${hot-key.detection.enabled:true}")
+    private boolean hotKeyDetectionEnabled;
+
+    @Value("${hot-key.detection.threshold-per-second:2}")
+    private double hotKeyThresholdPerSecond;
+
+    @Value("${hot-key.detection.window-ms:1000}")
+    private long hotKeyWindowMs;
+
+    @Value("${hot-key.detection.max-hot-keys:1000}")
+    private int hotKeyMaxHotKeys;
+
+    @Value("${hot-key.detection.expected-rate-per-second:10000}")
+    private double hotKeyExpectedRatePerSecond;
+
+    @Value("${hot-key.detection.sketch-width:0}")
+    private int hotKeySketchWidth;
+
+    /**
+     * Heavy-hitter detector in front of the hot-key limiter. Always created so
+     * /admin/hot-keys has something to report; the limiter only consults it
+     * when detection is enabled (otherwise the set just stays empty). The
+     * sketch is sized for hot-key.detection.expected-rate-per-second unless
+     * sketch-width sets it outright.
+     */
+    @Bean
+    public HotKeyDetector hotKeyDetector(TimeSource localTimeSource) {
+        int width = hotKeySketchWidth > 0
+                ? hotKeySketchWidth
+                : HotKeyDetector.widthFor(hotKeyExpectedRatePerSecond, hotKeyThresholdPerSecond);
+        return new HotKeyDetector(hotKeyThresholdPerSecond, hotKeyWindowMs, hotKeyMaxHotKeys,
+                HotKeyDetector.DEFAULT_DEPTH, width, localTimeSource);
+    }
+
+    @Value("${hot-key.shard-count:4}")
+    private int hotKeyShardCount;
+
+    @Value("${hot-key.scopes:ip,user,org}")
+    private Set<String> hotKeyScopes;
+
+    @Value("${hot-key.scope.ip.capacity:10}")
+    private long hotKeyIpCapacity;
+
+    @Value("${hot-key.scope.ip.refill-rate:5}")
+    private double hotKeyIpRefillRate;
+
+    @Value("${hot-key.scope.user.capacity:10}")
+    private long hotKeyUserCapacity;
+
+    @Value("${hot-key.scope.user.refill-rate:5}")
+    private double hotKeyUserRefillRate;
+
+    @Value("${hot-key.scope.org.capacity:10}")
+    private long hotKeyOrgCapacity;
+
+    @Value("${hot-key.scope.org.refill-rate:5}")
+    private double hotKeyOrgRefillRate;
+
+    @Value("${hot-key.cluster.headroom:1.5}")
+    private double hotKeyClusterHeadroom;
+
+    @Value("${hot-key.max-limit-pairs:8}")
+    private int hotKeyMaxLimitPairs;
+
+    /**
+     * Local pre-filter for every scope in hot-key.scopes. Each key is held to
+     * its share of its Redis limits once the Redis limiter has read them, and
+     * of its scope's hot-key.scope.* limits until then: limit x headroom /
+     * live nodes, see clusterMembership. The detector sits in front of the
+     * whole pre-filter rather than in each limit pair's table, so a cold key
+     * is never resolved; each table holds up to hot-key.max-entries buckets,
+     * and at most hot-key.max-limit-pairs tables are kept.
+     */
     @Bean
-    public LocalHotKeyRateLimiter localHotKeyRateLimiter(
-            InMemoryRateLimiterMetrics metrics
+    public ScopedHotKeyRateLimiter hotKeyRateLimiter(
+            InMemoryRateLimiterMetrics metrics,
+            TimeSource localTimeSource,
+            HotKeyDetector hotKeyDetector,
+            RedisHierarchicalRateLimiter redisHierarchicalRateLimiter
     ) {
-        return new LocalHotKeyRateLimiter(
-                5,  // hot-key capacity
-                1,  // refill rate
-                4,  // shard count
-                metrics
-        );
+        Map<String, ScopedHotKeyRateLimiter.Limits> configured = Map.of(
+                "ip", new ScopedHotKeyRateLimiter.Limits(hotKeyIpCapacity, hotKeyIpRefillRate),
+                "user", new ScopedHotKeyRateLimiter.Limits(hotKeyUserCapacity, hotKeyUserRefillRate),
+                "org", new ScopedHotKeyRateLimiter.Limits(hotKeyOrgCapacity, hotKeyOrgRefillRate));
+        Map<String, ScopedHotKeyRateLimiter.Limits> scopes = new HashMap<>();
+        for (String scope : hotKeyScopes) {
+            if (configured.containsKey(scope)) {
+                scopes.put(scope, configured.get(scope));
+            } else {
+                log.warn("hot-key.scopes: unknown scope '{}' ignored", scope);
+            }
+        }
+
+        ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(scopes, redisConfigCacheMaxEntries, metrics,
+                limits -> new LocalHotKeyRateLimiter(
+                        limits.capacity(),
+                        limits.refillRate(),
+                        hotKeyShardCount,  // stripes per key (LOCK_FREE)
+                        metrics,
+                        hotKeyBucketEngine,
+                        hotKeyIdleTtlMs,
+                        localTimeSource,
+                        null,              // the pre-filter consults the detector itself
+                        hotKeyMaxEntries
+                ),
+                hotKeyClusterHeadroom,
+                hotKeyDetectionEnabled ? hotKeyDetector : null,
+                redisHierarchicalRateLimiter.configCache(),
+                hotKeyMaxLimitPairs);
+        redisHierarchicalRateLimiter.addLimitsListener(limiter);
+        return limiter;
+    }
+
+    @Value("${hot-key.cluster.enabled:true}")
+    private boolean clusterMembershipEnabled;
+
+    @Value("${hot-key.cluster.node-id:}")
+    private String clusterNodeId;
+
+    @Value("${hot-key.cluster.heartbeat-ms:1000}")
+    private long clusterHeartbeatMs;
+
+    @Value("${hot-key.cluster.ttl-ms:5000}")
+    private long clusterTtlMs;
+
+    /**
+     * Live node count from Redis heartbeats, fed to the hot-key pre-filter and
+     * the local fallback so their per-node shares follow nodes joining and
+     * leaving, and agree with each other. Always built so the count can be
+     * reported; it only heartbeats with hot-key.cluster.enabled, otherwise
+     * this node budgets as if it were alone.
+     */
+    @Bean(destroyMethod = "close") // leave the cluster on shutdown
+    public ClusterMembership clusterMembership(UnifiedJedis redisClient, ScopedHotKeyRateLimiter hotKeyRateLimiter,
+                                               RedisHierarchicalRateLimiter redisHierarchicalRateLimiter) {
+        String nodeId = clusterNodeId.isBlank() ? UUID.randomUUID().toString() : clusterNodeId;
+        LocalFallbackRateLimiter fallback = redisHierarchicalRateLimiter.localFallback();
+        ClusterMembership membership = new ClusterMembership(redisClient, nodeId, clusterHeartbeatMs, clusterTtlMs,
+                nodes -> {
+                    hotKeyRateLimiter.setLiveNodes(nodes);
+                    if (fallback != null) {
+                        fallback.setLiveNodes(nodes);
+                    }
+                });
+        if (clusterMembershipEnabled) {
+            membership.start();
+        }
+        return membership;
     }
 }
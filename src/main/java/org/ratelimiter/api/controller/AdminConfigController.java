@@ -1,19 +1,23 @@
 package org.ratelimiter.api.controller;
 
+import org.ratelimiter.core.RedisConfigCache;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.UnifiedJedis;
 
 import java.util.Map;
 import java.util.Set;
 
 /**
  * Lets capacity/refill be changed for a key without redeploying - just an
- * HSET on the same "<key>:config" hash the Lua scripts already read from.
+ * HSET on the same "<key>:config" hash the Lua scripts already read from,
+ * plus a pub/sub invalidation so every node's config cache drops its copy.
+ * The limits are also copied into the key's bucket hash, where the
+ * TOKEN_BUCKET_HASH layout reads them along with the bucket's state.
  * No auth: this is meant for local/demo use, not a real admin surface.
  */
 @RestController
@@ -22,10 +26,10 @@ public class AdminConfigController {
 
     private static final Set<String> VALID_SCOPES = Set.of("ip", "user", "org");
 
-    private final JedisPool jedisPool;
+    private final UnifiedJedis redisClient;
 
-    public AdminConfigController(JedisPool jedisPool) {
-        this.jedisPool = jedisPool;
+    public AdminConfigController(UnifiedJedis redisClient) {
+        this.redisClient = redisClient;
     }
 
     @PostMapping("/config")
@@ -42,13 +46,19 @@ public class AdminConfigController {
             return ResponseEntity.badRequest().body("id must be non-blank, capacity must be positive, refillRate must not be negative");
         }
 
-        String configKey = "rate_limit:" + scope + ":" + id + ":config";
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.hset(configKey, Map.of(
-                    "capacity", String.valueOf(capacity),
-                    "refill_rate", String.valueOf(refillRate)
-            ));
+        String key = "rate_limit:" + scope + ":" + id;
+        String configKey = key + ":config";
+        // untagged even in cluster mode: a key's config is the same whatever slot its buckets are on
+        Map<String, String> limits = Map.of(
+                "capacity", String.valueOf(capacity),
+                "refill_rate", String.valueOf(refillRate)
+        );
+        redisClient.hset(configKey, limits);
+        if (!(redisClient instanceof JedisCluster)) {
+            // cluster buckets are tagged per anchor and get their limits as ARGV, no copy to keep there
+            redisClient.hset(key, limits);
         }
+        RedisConfigCache.publishInvalidation(redisClient, key);
 
         return ResponseEntity.ok("updated " + configKey);
     }
@@ -0,0 +1,38 @@
+package org.ratelimiter.api.controller;
+
+import org.ratelimiter.core.HotKeyDetector;
+import org.ratelimiter.core.ScopedHotKeyRateLimiter;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * What this node's hot-key limiter currently treats as hot: the detector's
+ * hot set, hottest first, with the sketch estimate of each key's permits in
+ * the decaying window. Per node - every node detects on its own traffic.
+ * No auth, same as /admin/config.
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminHotKeyController {
+
+    private final HotKeyDetector detector;
+    private final ScopedHotKeyRateLimiter hotKeyLimiter;
+
+    public AdminHotKeyController(HotKeyDetector detector, ScopedHotKeyRateLimiter hotKeyLimiter) {
+        this.detector = detector;
+        this.hotKeyLimiter = hotKeyLimiter;
+    }
+
+    @GetMapping("/hot-keys")
+    public Map<String, Object> hotKeys() {
+        return Map.of(
+                "threshold", detector.threshold(),
+                "local_buckets", hotKeyLimiter.size(),
+                "live_nodes", hotKeyLimiter.liveNodes(),
+                "hot_keys", detector.hotKeys()
+        );
+    }
+}
@@ -1,16 +1,31 @@
 package org.ratelimiter.api.controller;
 
+import org.ratelimiter.core.RedisCircuitBreaker;
 import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.metrics.KeyCardinality;
+import org.ratelimiter.metrics.LatencyHistogram;
+import org.ratelimiter.metrics.LatencyStage;
+import redis.clients.jedis.JedisPool;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
 public class PrometheusMetricsController {
 
+    // histogram buckets at powers of two from ~1µs (2^10 ns) to ~2.1s (2^31 ns)
+    private static final int FIRST_BUCKET_EXPONENT = 10;
+    private static final int LAST_BUCKET_EXPONENT = 31;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
     private final InMemoryRateLimiterMetrics metrics;
+    private final JedisPool jedisPool;
+    private final RedisCircuitBreaker circuitBreaker;
 
-    public PrometheusMetricsController(InMemoryRateLimiterMetrics metrics) {
+    public PrometheusMetricsController(InMemoryRateLimiterMetrics metrics, JedisPool jedisPool,
+                                       RedisCircuitBreaker circuitBreaker) {
         this.metrics = metrics;
+        this.jedisPool = jedisPool;
+        this.circuitBreaker = circuitBreaker;
     }
 
     @GetMapping(value = "/prometheus/metrics", produces = "text/plain; version=0.0.4")
@@ -32,20 +47,195 @@ public class PrometheusMetricsController {
             # TYPE ratelimiter_redis_hits counter
             ratelimiter_redis_hits %d
 
+            # HELP ratelimiter_local_bucket_evictions Idle local buckets evicted
+            # TYPE ratelimiter_local_bucket_evictions counter
+            ratelimiter_local_bucket_evictions %d
+
+            # HELP ratelimiter_hot_key_table_lookups Hot-key table lookups, by outcome
+            # TYPE ratelimiter_hot_key_table_lookups counter
+            ratelimiter_hot_key_table_lookups{result="hit"} %d
+            ratelimiter_hot_key_table_lookups{result="miss"} %d
+
+            # HELP ratelimiter_hot_key_table_hit_ratio Share of hot-key table lookups that found a bucket
+            # TYPE ratelimiter_hot_key_table_hit_ratio gauge
+            ratelimiter_hot_key_table_hit_ratio %.4f
+
+            # HELP ratelimiter_hot_key_admission_rejections New keys the hot-key table turned away as less frequent
+            # TYPE ratelimiter_hot_key_admission_rejections counter
+            ratelimiter_hot_key_admission_rejections %d
+
+            # HELP ratelimiter_hot_key_table_evictions Hot-key buckets dropped for a more frequent key
+            # TYPE ratelimiter_hot_key_table_evictions counter
+            ratelimiter_hot_key_table_evictions %d
+
+            # HELP ratelimiter_config_cache_hits Limits served from the node-local config cache
+            # TYPE ratelimiter_config_cache_hits counter
+            ratelimiter_config_cache_hits %d
+
+            # HELP ratelimiter_config_cache_misses Limits the script had to read from Redis
+            # TYPE ratelimiter_config_cache_misses counter
+            ratelimiter_config_cache_misses %d
+
+            # HELP ratelimiter_config_invalidations Config invalidations received over pub/sub
+            # TYPE ratelimiter_config_invalidations counter
+            ratelimiter_config_invalidations %d
+
+            # HELP ratelimiter_config_invalidation_lag_avg_ms Average delay from config change to invalidation
+            # TYPE ratelimiter_config_invalidation_lag_avg_ms gauge
+            ratelimiter_config_invalidation_lag_avg_ms %.2f
+
+            # HELP ratelimiter_config_invalidation_lag_max_ms Longest delay from config change to invalidation
+            # TYPE ratelimiter_config_invalidation_lag_max_ms gauge
+            ratelimiter_config_invalidation_lag_max_ms %d
+
+            # HELP ratelimiter_lease_refills Token leases withdrawn from Redis
+            # TYPE ratelimiter_lease_refills counter
+            ratelimiter_lease_refills %d
+
+            # HELP ratelimiter_leased_tokens Tokens withdrawn from Redis by leases
+            # TYPE ratelimiter_leased_tokens counter
+            ratelimiter_leased_tokens %d
+
+            # HELP ratelimiter_returned_tokens Unused leased tokens given back to Redis
+            # TYPE ratelimiter_returned_tokens counter
+            ratelimiter_returned_tokens %d
+
+            # HELP ratelimiter_redis_pool_active Redis connections borrowed right now
+            # TYPE ratelimiter_redis_pool_active gauge
+            ratelimiter_redis_pool_active %d
+
+            # HELP ratelimiter_redis_pool_idle Redis connections idle in the pool
+            # TYPE ratelimiter_redis_pool_idle gauge
+            ratelimiter_redis_pool_idle %d
+
+            # HELP ratelimiter_redis_pool_waiters Threads waiting for a Redis connection
+            # TYPE ratelimiter_redis_pool_waiters gauge
+            ratelimiter_redis_pool_waiters %d
+
+            # HELP ratelimiter_redis_pool_borrow_wait_seconds Time spent waiting for a Redis connection
+            # TYPE ratelimiter_redis_pool_borrow_wait_seconds summary
+            ratelimiter_redis_pool_borrow_wait_seconds_sum %.6f
+            ratelimiter_redis_pool_borrow_wait_seconds_count %d
+
+            # HELP ratelimiter_redis_pool_exhausted Borrows that gave up after redis.pool.max-wait-ms
+            # TYPE ratelimiter_redis_pool_exhausted counter
+            ratelimiter_redis_pool_exhausted %d
+
+            # HELP ratelimiter_redis_circuit_state Redis circuit breaker state (0 closed, 1 open, 2 half-open)
+            # TYPE ratelimiter_redis_circuit_state gauge
+            ratelimiter_redis_circuit_state %d
+
+            # HELP ratelimiter_redis_circuit_transitions Redis circuit breaker state changes, by new state
+            # TYPE ratelimiter_redis_circuit_transitions counter
+            ratelimiter_redis_circuit_transitions{to="open"} %d
+            ratelimiter_redis_circuit_transitions{to="half_open"} %d
+            ratelimiter_redis_circuit_transitions{to="closed"} %d
+
+            # HELP ratelimiter_redis_circuit_short_circuited Decisions that skipped Redis because the breaker was open
+            # TYPE ratelimiter_redis_circuit_short_circuited counter
+            ratelimiter_redis_circuit_short_circuited %d
+
             # HELP ratelimiter_redis_latency_avg_ms Average Redis latency in ms
             # TYPE ratelimiter_redis_latency_avg_ms gauge
             ratelimiter_redis_latency_avg_ms %.2f
 
-            # HELP ratelimiter_key_cardinality Active key cardinality
-            # TYPE ratelimiter_key_cardinality gauge
-            ratelimiter_key_cardinality %d
             """.formatted(
-                metrics.allowed.get(),
-                metrics.rejected.get(),
-                metrics.localHits.get(),
-                metrics.redisHits.get(),
-                metrics.getAverageRedisLatencyMs(),
-                metrics.getKeyCardinality()
-        );
+                metrics.getAllowed(),
+                metrics.getRejected(),
+                metrics.getLocalHits(),
+                metrics.getRedisHits(),
+                metrics.getLocalBucketEvictions(),
+                metrics.getHotKeyTableHits(),
+                metrics.getHotKeyTableMisses(),
+                metrics.getHotKeyTableHitRatio(),
+                metrics.getHotKeyAdmissionRejections(),
+                metrics.getHotKeyTableEvictions(),
+                metrics.getConfigCacheHits(),
+                metrics.getConfigCacheMisses(),
+                metrics.getConfigInvalidations(),
+                metrics.getAverageConfigInvalidationLagMs(),
+                metrics.getMaxConfigInvalidationLagMs(),
+                metrics.getLeaseRefills(),
+                metrics.getLeasedTokens(),
+                metrics.getReturnedTokens(),
+                jedisPool.getNumActive(),
+                jedisPool.getNumIdle(),
+                jedisPool.getNumWaiters(),
+                metrics.getRedisPoolBorrowWaitNanos() / 1e9,
+                metrics.getRedisPoolBorrows(),
+                metrics.getRedisPoolExhausted(),
+                circuitBreaker.state().ordinal(),
+                metrics.getCircuitOpened(),
+                metrics.getCircuitHalfOpened(),
+                metrics.getCircuitClosed(),
+                metrics.getCircuitShortCircuited(),
+                metrics.getAverageRedisLatencyMs()
+        ) + keyCardinalityMetrics() + latencyMetrics();
+    }
+
+    private String keyCardinalityMetrics() {
+        KeyCardinality cardinality = metrics.keyCardinality();
+        StringBuilder out = new StringBuilder();
+        out.append("# HELP ratelimiter_key_cardinality Estimated distinct keys per scope since startup\n");
+        out.append("# TYPE ratelimiter_key_cardinality gauge\n");
+        for (String scope : KeyCardinality.SCOPES) {
+            out.append("ratelimiter_key_cardinality{scope=\"").append(scope).append("\"} ")
+                    .append(cardinality.allTime(scope)).append('\n');
+        }
+        if (cardinality.hasWindow()) {
+            out.append("\n# HELP ratelimiter_key_cardinality_window Estimated distinct keys per scope in the sliding window\n");
+            out.append("# TYPE ratelimiter_key_cardinality_window gauge\n");
+            for (String scope : KeyCardinality.SCOPES) {
+                out.append("ratelimiter_key_cardinality_window{scope=\"").append(scope).append("\"} ")
+                        .append(cardinality.window(scope)).append('\n');
+            }
+        }
+        return out.append('\n').toString();
+    }
+
+    /**
+     * Per-stage latency: a cumulative histogram for rates and
+     * histogram_quantile(), plus this scrape interval's percentiles and max.
+     */
+    private String latencyMetrics() {
+        StringBuilder out = new StringBuilder();
+        out.append("# HELP ratelimiter_latency_seconds Time spent in each decision stage\n");
+        out.append("# TYPE ratelimiter_latency_seconds histogram\n");
+        for (LatencyStage stage : LatencyStage.values()) {
+            LatencyHistogram histogram = metrics.latency(stage);
+            long count = histogram.getCount();
+            for (int exponent = FIRST_BUCKET_EXPONENT; exponent <= LAST_BUCKET_EXPONENT; exponent++) {
+                out.append("ratelimiter_latency_seconds_bucket{stage=\"").append(stage.label())
+                        .append("\",le=\"").append(seconds(1L << exponent)).append("\"} ")
+                        .append(histogram.countBelowPowerOfTwo(exponent)).append('\n');
+            }
+            out.append("ratelimiter_latency_seconds_bucket{stage=\"").append(stage.label())
+                    .append("\",le=\"+Inf\"} ").append(count).append('\n');
+            out.append("ratelimiter_latency_seconds_sum{stage=\"").append(stage.label()).append("\"} ")
+                    .append(seconds(histogram.getSumNanos())).append('\n');
+            out.append("ratelimiter_latency_seconds_count{stage=\"").append(stage.label()).append("\"} ")
+                    .append(count).append('\n');
+        }
+
+        out.append("\n# HELP ratelimiter_latency_interval_seconds Stage latency percentiles since the previous scrape\n");
+        out.append("# TYPE ratelimiter_latency_interval_seconds gauge\n");
+        StringBuilder max = new StringBuilder();
+        max.append("\n# HELP ratelimiter_latency_interval_max_seconds Slowest call per stage since the previous scrape\n");
+        max.append("# TYPE ratelimiter_latency_interval_max_seconds gauge\n");
+        for (LatencyStage stage : LatencyStage.values()) {
+            LatencyHistogram.Snapshot interval = metrics.latency(stage).intervalSnapshot();
+            for (double quantile : QUANTILES) {
+                out.append("ratelimiter_latency_interval_seconds{stage=\"").append(stage.label())
+                        .append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(interval.valueAt(quantile))).append('\n');
+            }
+            max.append("ratelimiter_latency_interval_max_seconds{stage=\"").append(stage.label()).append("\"} ")
+                    .append(seconds(interval.getMaxNanos())).append('\n');
+        }
+        return out.append(max).toString();
+    }
+
+    private static String seconds(long nanos) {
+        return String.format("%.9f", nanos / 1e9);
     }
 }
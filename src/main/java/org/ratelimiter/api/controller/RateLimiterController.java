@@ -1,38 +1,210 @@
 package org.ratelimiter.api.controller;
 
-import org.ratelimiter.core.LocalHotKeyRateLimiter;
 import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.core.RedisKeys;
+import org.ratelimiter.core.ScopedHotKeyRateLimiter;
+import org.ratelimiter.core.TokenLeaseRateLimiter;
+import org.ratelimiter.metrics.LatencyStage;
+import org.ratelimiter.metrics.RateLimiterMetrics;
 import org.ratelimiter.policy.ResolvePolicy;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api")
 public class RateLimiterController {
 
-    private final LocalHotKeyRateLimiter hotKeyLimiter;
+    private final ScopedHotKeyRateLimiter hotKeyLimiter;
     private final RedisHierarchicalRateLimiter redisRateLimiter;
+    private final TokenLeaseRateLimiter leaseLimiter;
     private final ResolvePolicy policyResolver;
+    private final RateLimiterMetrics metrics;
 
     public RateLimiterController(
-            LocalHotKeyRateLimiter hotKeyLimiter,
+            ScopedHotKeyRateLimiter hotKeyLimiter,
             RedisHierarchicalRateLimiter redisRateLimiter,
-            ResolvePolicy policyResolver
+            TokenLeaseRateLimiter leaseLimiter,
+            ResolvePolicy policyResolver,
+            RateLimiterMetrics metrics
     ) {
         this.hotKeyLimiter = hotKeyLimiter;
         this.redisRateLimiter = redisRateLimiter;
+        this.leaseLimiter = leaseLimiter;
         this.policyResolver = policyResolver;
+        this.metrics = metrics;
     }
 
     @GetMapping("/request")
     public ResponseEntity<String> handleRequest(
             @RequestParam(required = false) String user,
             @RequestParam(required = false) String ip,
-            @RequestParam(required = false) String org
+            @RequestParam(required = false) String org,
+            @RequestParam(defaultValue = "1") long cost
     ) {
+        long start = System.nanoTime();
+        try {
+            ResponseEntity<String> invalid = validate(user, ip, org, cost);
+            if (invalid != null) {
+                return invalid;
+            }
+            List<String> keys = resolveKeys(user, ip, org);
+            ResponseEntity<String> shed = shedLocally(keys, cost);
+            if (shed != null) {
+                return shed;
+            }
+
+            // Leased scopes first, from tokens already on this node
+            List<String> leased = new ArrayList<>();
+            RedisHierarchicalRateLimiter.Result leaseResult = acquireLeased(keys, cost, leased, true);
+            if (!leaseResult.allowed() || leased.size() == keys.size()) {
+                return toResponse(decidedByLeases(leaseResult));
+            }
+
+            // Redis authoritative path (hierarchical + dynamic), one round trip charges the full cost
+            RedisHierarchicalRateLimiter.Result result = redisRateLimiter.tryAcquire(unleased(keys, leased), cost);
+            if (!result.allowed()) {
+                refund(leased, cost);
+            }
+            return toResponse(result);
+        } finally {
+            metrics.recordLatency(LatencyStage.DECISION, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Same decision as /request, but the servlet thread is handed back while
+     * Redis answers: the response is written once the pipelined reply comes in
+     * on the batch dispatcher. Only non-blocking with redis.batch.enabled.
+     * Leased levels are charged only from tokens this node already holds; one
+     * whose lease would need refilling goes to Redis with the rest, while the
+     * refill happens in the background.
+     */
+    @GetMapping("/request-async")
+    public CompletableFuture<ResponseEntity<String>> handleRequestAsync(
+            @RequestParam(required = false) String user,
+            @RequestParam(required = false) String ip,
+            @RequestParam(required = false) String org,
+            @RequestParam(defaultValue = "1") long cost
+    ) {
+        long start = System.nanoTime();
+        ResponseEntity<String> invalid = validate(user, ip, org, cost);
+        if (invalid != null) {
+            return CompletableFuture.completedFuture(decided(invalid, start));
+        }
+        List<String> keys = resolveKeys(user, ip, org);
+        ResponseEntity<String> shed = shedLocally(keys, cost);
+        if (shed != null) {
+            return CompletableFuture.completedFuture(decided(shed, start));
+        }
+
+        List<String> leased = new ArrayList<>();
+        RedisHierarchicalRateLimiter.Result leaseResult = acquireLeased(keys, cost, leased, false);
+        if (leased.size() == keys.size()) {
+            return CompletableFuture.completedFuture(decided(toResponse(decidedByLeases(leaseResult)), start));
+        }
+
+        return redisRateLimiter.tryAcquireAsync(unleased(keys, leased), cost)
+                .thenApply(result -> {
+                    if (!result.allowed()) {
+                        refund(leased, cost);
+                    }
+                    return toResponse(result);
+                })
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        refund(leased, cost);
+                    }
+                    // the decision ended either way, even with no response to show for it
+                    metrics.recordLatency(LatencyStage.DECISION, System.nanoTime() - start);
+                })
+                .toCompletableFuture();
+    }
+
+    // the async decision ends when its response is ready, not when the handler returns
+    private ResponseEntity<String> decided(ResponseEntity<String> response, long start) {
+        metrics.recordLatency(LatencyStage.DECISION, System.nanoTime() - start);
+        return response;
+    }
+
+    private List<String> resolveKeys(String user, String ip, String org) {
+        long start = System.nanoTime();
+        List<String> keys = policyResolver.resolveKeys(user, ip, org);
+        metrics.recordLatency(LatencyStage.POLICY_RESOLUTION, System.nanoTime() - start);
+        return keys;
+    }
+
+    /**
+     * Charge the keys whose scope is leased, all or nothing. Keys whose tokens
+     * came out of a lease go into {@code leased}; on a reject they have
+     * already been refunded. A key let through without a lease (Redis down,
+     * fail-open, or nothing held and {@code mayRefill} false) is left out,
+     * so it goes to Redis with the rest and nothing is refunded for it.
+     *
+     * @param mayRefill whether an empty lease may be refilled from Redis, blocking
+     */
+    private RedisHierarchicalRateLimiter.Result acquireLeased(List<String> keys, long cost, List<String> leased,
+                                                              boolean mayRefill) {
+        for (String key : keys) {
+            if (!leaseLimiter.covers(key)) {
+                continue;
+            }
+            TokenLeaseRateLimiter.Grant grant = mayRefill
+                    ? leaseLimiter.acquire(key, cost)
+                    : leaseLimiter.acquireHeld(key, cost);
+            if (!grant.allowed()) {
+                refund(leased, cost);
+                leased.clear();
+                return new RedisHierarchicalRateLimiter.Result(false, key, grant.waitNanos());
+            }
+            if (grant.debited()) {
+                leased.add(key);
+            }
+        }
+        return new RedisHierarchicalRateLimiter.Result(true, null, 0);
+    }
+
+    // Redis counts the requests it decides; one decided by leases alone never gets there
+    private RedisHierarchicalRateLimiter.Result decidedByLeases(RedisHierarchicalRateLimiter.Result result) {
+        metrics.incrementTotalRequests();
+        if (result.allowed()) {
+            metrics.incrementAllowed();
+            return result;
+        }
+        metrics.incrementRejected();
+        switch (String.valueOf(RedisKeys.scope(result.blockedKey()))) {
+            case "ip" -> metrics.incrementBlockedIp();
+            case "user" -> metrics.incrementBlockedUser();
+            case "org" -> metrics.incrementBlockedOrg();
+            default -> {
+                // a custom scope, only the total counts it
+            }
+        }
+        return result;
+    }
+
+    private void refund(List<String> leased, long cost) {
+        for (String key : leased) {
+            leaseLimiter.refund(key, cost);
+        }
+    }
+
+    private static List<String> unleased(List<String> keys, List<String> leased) {
+        if (leased.isEmpty()) {
+            return keys;
+        }
+        List<String> rest = new ArrayList<>(keys);
+        rest.removeAll(leased);
+        return rest;
+    }
+
+    // null means the request is well-formed
+    private static ResponseEntity<String> validate(String user, String ip, String org, long cost) {
         if (user != null && user.isBlank()) {
             return ResponseEntity.badRequest().body("user must not be blank");
         }
@@ -42,27 +214,50 @@ public class RateLimiterController {
         if (org != null && org.isBlank()) {
             return ResponseEntity.badRequest().body("org must not be blank");
         }
+        if (hashTagged(user) || hashTagged(ip) || hashTagged(org)) {
+            return ResponseEntity.badRequest().body("user, ip and org must not contain '{' or '}'");
+        }
         if (user == null && ip == null && org == null) {
             return ResponseEntity.badRequest().body("at least one of user, ip, org is required");
         }
+        if (cost < 1) {
+            return ResponseEntity.badRequest().body("cost must be at least 1");
+        }
+        return null;
+    }
+
+    // braces would read as a Redis Cluster hash tag and move the key's slot
+    private static boolean hashTagged(String id) {
+        return id != null && (id.indexOf('{') >= 0 || id.indexOf('}') >= 0);
+    }
 
-        // Local hot-key pre-filter: sheds load on a known-hot key before it hits Redis.
-        // Only ever short-circuits a reject, never an allow - Redis stays the source of truth.
-        // Skipped when there's no user, since it's a per-user local budget.
-        if (user != null && !hotKeyLimiter.allowRequest(user)) {
+    // Local hot-key pre-filter: sheds load on a key that's over budget at any
+    // level (ip, user, org) before it hits Redis. Only ever short-circuits a
+    // reject, never an allow - Redis stays the source of truth. Null means
+    // "go ask Redis".
+    private ResponseEntity<String> shedLocally(List<String> keys, long cost) {
+        long start = System.nanoTime();
+        String shedBy = hotKeyLimiter.tryAcquire(keys, cost);
+        metrics.recordLatency(LatencyStage.HOT_KEY_FILTER, System.nanoTime() - start);
+        if (shedBy != null) {
             return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
                     .body("Rate limit exceeded (hot-key) ❌");
         }
+        return null;
+    }
 
-        // Redis authoritative path (hierarchical + dynamic)
-        List<String> keys = policyResolver.resolveKeys(user, ip, org);
-        boolean allowed = redisRateLimiter.allowRequest(keys).allowed();
-
-        if (allowed) {
+    private static ResponseEntity<String> toResponse(RedisHierarchicalRateLimiter.Result result) {
+        if (result.allowed()) {
             return ResponseEntity.ok("Request allowed (redis) ✅");
         }
 
-        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
-                .body("Rate limit exceeded ❌");
+        // Tell the client when the blocking level will have refilled, so it
+        // waits once instead of retrying in a tight loop
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS);
+        if (result.waitNanos() != Long.MAX_VALUE) {
+            long retryAfterSeconds = Math.max(1, (result.waitNanos() + 999_999_999) / 1_000_000_000);
+            response.header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        }
+        return response.body("Rate limit exceeded ❌");
     }
 }
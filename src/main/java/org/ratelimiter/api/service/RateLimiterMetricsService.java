@@ -16,8 +16,14 @@ public class RateLimiterMetricsService {
 
     public Map<String, Object> getMetrics() {
         return Map.of(
-                "allowed_requests", metrics.allowed.get(),
-                "rejected_requests", metrics.rejected.get(),
+                "allowed_requests", metrics.getAllowed(),
+                "rejected_requests", metrics.getRejected(),
+                "local_bucket_evictions", metrics.getLocalBucketEvictions(),
+                "config_cache_hits", metrics.getConfigCacheHits(),
+                "config_cache_misses", metrics.getConfigCacheMisses(),
+                "config_invalidation_lag_max_ms", metrics.getMaxConfigInvalidationLagMs(),
+                "lease_refills", metrics.getLeaseRefills(),
+                "leased_tokens", metrics.getLeasedTokens(),
                 "redis_latency_avg_ms", metrics.getAverageRedisLatencyMs(),
                 "key_cardinality", metrics.getKeyCardinality()
         );
@@ -0,0 +1,17 @@
+package org.ratelimiter.core;
+
+import org.ratelimiter.model.AtomicTokenBucket;
+import org.ratelimiter.model.Bucket;
+import org.ratelimiter.model.TokenBucket;
+import org.ratelimiter.time.TimeSource;
+
+public enum BucketEngine {
+    LOCKED,    // TokenBucket - ReentrantLock around refill + consume
+    LOCK_FREE; // AtomicTokenBucket - CAS on a single state word, no parking
+
+    Bucket newBucket(long capacity, double refillRatePerSecond, TimeSource timeSource) {
+        return this == LOCK_FREE
+                ? new AtomicTokenBucket(capacity, refillRatePerSecond, timeSource)
+                : new TokenBucket(capacity, refillRatePerSecond, timeSource);
+    }
+}
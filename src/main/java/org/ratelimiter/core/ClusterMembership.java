@@ -0,0 +1,133 @@
+package org.ratelimiter.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.UnifiedJedis;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * How many app nodes are alive, from heartbeats in Redis
+ *
+ * Each node heartbeats into one sorted set, NODES_KEY: its id, scored with
+ * the instant (Redis's clock) its heartbeat runs out. The same script drops
+ * members that have run out and counts the rest, so a node that dies stops
+ * being counted one ttl later and one that shuts down cleanly removes itself
+ * at once. The set carries the ttl too, so it goes away with the last node.
+ * One key rather than a key per node, so counting needs no SCAN, and it
+ * works unchanged on a cluster.
+ *
+ * onChange is told the live count whenever it changes. If Redis can't be
+ * reached the last count stands - a Redis outage is not a membership change.
+ *
+ * DSA/Concepts Used:
+ * - Sorted set scored by expiry: heartbeat, expire and count in one script
+ * - Redis TIME as the one clock, so node clock drift doesn't matter
+ */
+public class ClusterMembership implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterMembership.class);
+
+    /** Sorted set of node id -> heartbeat expiry, epoch millis on Redis's clock */
+    public static final String NODES_KEY = "rate_limit:nodes";
+
+    // ARGV[1] = node id, ARGV[2] = heartbeat ttl in ms; returns the live node count
+    private static final RedisScript HEARTBEAT_SCRIPT = new RedisScript("""
+        local time = redis.call("TIME")
+        local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+        local ttl = tonumber(ARGV[2])
+        redis.call("ZADD", KEYS[1], now + ttl, ARGV[1])
+        redis.call("ZREMRANGEBYSCORE", KEYS[1], "-inf", now)
+        redis.call("PEXPIRE", KEYS[1], ttl)
+        return redis.call("ZCARD", KEYS[1])
+    """);
+
+    private final UnifiedJedis redis;
+    private final String nodeId;
+    private final long heartbeatMillis;
+    private final long ttlMillis;
+    private final IntConsumer onChange;
+    private final ScheduledExecutorService heartbeats;
+    private volatile int liveNodes = 1;
+
+    /**
+     * @param nodeId          this node's id, unique across the cluster
+     * @param heartbeatMillis how often this node heartbeats (and re-counts)
+     * @param ttlMillis       how long a node counts as alive after its last heartbeat;
+     *                        a few heartbeats' worth, so one slow beat doesn't drop it
+     * @param onChange        told the live node count whenever it changes
+     */
+    public ClusterMembership(UnifiedJedis redis, String nodeId, long heartbeatMillis, long ttlMillis,
+                             IntConsumer onChange) {
+        if (heartbeatMillis <= 0 || ttlMillis <= heartbeatMillis) {
+            throw new IllegalArgumentException("need 0 < heartbeatMillis < ttlMillis");
+        }
+        this.redis = redis;
+        this.nodeId = nodeId;
+        this.heartbeatMillis = heartbeatMillis;
+        this.ttlMillis = ttlMillis;
+        this.onChange = onChange;
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Heartbeat now and every heartbeatMillis from here on
+     */
+    public void start() {
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Renew this node's heartbeat and re-count the live nodes
+     *
+     * @return the live node count, this one included; the last known count if Redis is unreachable
+     */
+    public int heartbeat() {
+        try {
+            Object reply = HEARTBEAT_SCRIPT.eval(redis,
+                    RedisScript.encode(List.of(NODES_KEY)),
+                    RedisScript.encode(List.of(nodeId, String.valueOf(ttlMillis))));
+            update((int) Math.max(1, (Long) reply));
+        } catch (Exception e) {
+            log.warn("cluster heartbeat failed, keeping {} live nodes: {}", liveNodes, e.toString());
+        }
+        return liveNodes;
+    }
+
+    public int liveNodes() {
+        return liveNodes;
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Stop heartbeating and leave, so the other nodes re-count at their next heartbeat
+     */
+    @Override
+    public void close() {
+        heartbeats.shutdownNow();
+        try {
+            redis.zrem(NODES_KEY, nodeId);
+        } catch (Exception e) {
+            log.warn("could not leave the cluster, the heartbeat will expire instead: {}", e.toString());
+        }
+    }
+
+    private synchronized void update(int count) {
+        if (count != liveNodes) {
+            log.info("live nodes: {} -> {}", liveNodes, count);
+            liveNodes = count;
+            onChange.accept(count);
+        }
+    }
+}
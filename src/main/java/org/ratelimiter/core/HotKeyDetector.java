@@ -0,0 +1,279 @@
+package org.ratelimiter.core;
+
+import org.ratelimiter.time.TimeSource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Streaming heavy-hitter detection for the local hot-key limiter: which
+ * keys are hot enough to be worth a local bucket
+ *
+ * Every request adds its permits to a count-min sketch - depth rows of width
+ * counters, one counter per row picked by hashing the key - and the key's
+ * estimate is the smallest of its counters. The hash is over the key's
+ * characters with a random per-instance seed, not String.hashCode, whose
+ * collisions are easy to craft: keys built to share one counter would
+ * otherwise pool their counts and push each other hot. Collisions only ever inflate a
+ * counter, so the estimate may run high but never low. For a cold key that's
+ * the whole cost: a few atomic adds, no map lookup, nothing allocated.
+ *
+ * The sketch has to be wide enough for the traffic. Every counter carries
+ * the mass of all the keys hashed onto it, and once that reaches the
+ * threshold every key looks hot. widthFor() sizes a row from the expected
+ * request rate, so that a key's share of the collisions stays well under
+ * the threshold.
+ *
+ * A key whose estimate reaches the threshold enters the hot set: a bounded
+ * top-K in the Space-Saving style, held in a fixed array of slots. A new key
+ * takes a free slot, or evicts the coldest of a few sampled slots if its own
+ * estimate is bigger, as TinyLFU samples its victim. It is one CAS with no
+ * lock and a bounded cost (VICTIM_SAMPLE x depth counter reads), so an
+ * overloaded sketch can churn the set but never serializes requests. Counts
+ * are not duplicated there, they are read back from the sketch, so a key
+ * already in the set costs one ConcurrentHashMap lookup.
+ *
+ * Every windowMillis all counters are halved (exponential decay), and hot
+ * keys whose estimate has dropped below the threshold leave the set. The
+ * sweep is spread over the next DECAY_STEPS requests, each halving its own
+ * chunk, so no request pays for the whole sketch; counts read meanwhile may
+ * be halved in some rows and not yet in others. A key
+ * at the threshold rate crosses it within one window; in the steady state
+ * its counter settles at about twice rate x window, so it stays hot until
+ * its rate has halved - hysteresis rather than flapping at the boundary.
+ *
+ * DSA/Concepts Used:
+ * - Count-min sketch over AtomicLongArray rows, decayed by halving
+ * - Space-Saving style top-K, lock-free: CAS on slots, sampled min-estimate victim
+ * - CAS on the next decay time starts a sweep; an atomic cursor hands out its chunks
+ * - Seeded multiply-xorshift string hash, split into rows by double hashing
+ */
+public class HotKeyDetector {
+
+    /** Sketch rows used by the 3-argument constructor and the app config */
+    public static final int DEFAULT_DEPTH = 4;
+
+    /** Requests a decay sweep is spread over, each halving 1/DECAY_STEPS of the sketch */
+    public static final int DECAY_STEPS = 1024;
+
+    // hot-set slots compared when picking a victim; the whole set when it's smaller
+    private static final int VICTIM_SAMPLE = 8;
+    // widest row widthFor() asks for: 2^20 counters, 8 MB per row
+    private static final int MAX_WIDTH = 1 << 20;
+
+    private final int depth;
+    private final int widthMask;
+    private final AtomicLongArray counters;
+    private final long threshold;
+    private final long windowNanos;
+    private final TimeSource timeSource;
+    private final AtomicLong nextDecay;
+    private final long seed = ThreadLocalRandom.current().nextLong();
+
+    // the decay sweep runs over counters then slots, decayChunk indexes a request;
+    // decayCursor is the next index to hand out, at or past decayEnd when idle
+    private final int decayEnd;
+    private final int decayChunk;
+    private final AtomicInteger decayCursor;
+
+    // the hot set: slots holds its keys (null = free), hotKeys maps each key to its slot
+    private final AtomicReferenceArray<String> slots;
+    private final ConcurrentHashMap<String, Integer> hotKeys = new ConcurrentHashMap<>();
+
+    public HotKeyDetector(double thresholdPerSecond, long windowMillis, int maxHotKeys) {
+        this(thresholdPerSecond, windowMillis, maxHotKeys, DEFAULT_DEPTH, 4096, TimeSource.SYSTEM);
+    }
+
+    /**
+     * Row width for a sketch that has to tell keys at {@code thresholdPerSecond}
+     * apart while {@code expectedPerSecond} permits a second arrive over all keys
+     *
+     * A counter settles at about twice rate x window, so a row carries about
+     * 2 x expected x window in total and a counter about that over width.
+     * Count-min's error bound (e / width of the total) is kept below the
+     * threshold; the window cancels out.
+     */
+    public static int widthFor(double expectedPerSecond, double thresholdPerSecond) {
+        if (expectedPerSecond <= 0 || thresholdPerSecond <= 0) {
+            throw new IllegalArgumentException("rates must be positive");
+        }
+        double width = Math.ceil(Math.E * 2 * expectedPerSecond / thresholdPerSecond);
+        return (int) Math.min(MAX_WIDTH, Math.max(64, width));
+    }
+
+    /**
+     * @param thresholdPerSecond rate at which a key becomes hot, in permits per second
+     * @param windowMillis       decay period: counters halve this often
+     * @param maxHotKeys         most keys held in the hot set
+     * @param depth              sketch rows; more rows, fewer over-estimates
+     * @param width              counters per row, rounded up to a power of two
+     */
+    public HotKeyDetector(double thresholdPerSecond, long windowMillis, int maxHotKeys, int depth, int width,
+                          TimeSource timeSource) {
+        if (thresholdPerSecond <= 0 || windowMillis <= 0 || maxHotKeys < 1 || depth < 1 || width < 1) {
+            throw new IllegalArgumentException("threshold, window, maxHotKeys, depth and width must be positive");
+        }
+        int roundedWidth = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.depth = depth;
+        this.widthMask = roundedWidth - 1;
+        this.counters = new AtomicLongArray(depth * roundedWidth);
+        this.threshold = Math.max(1, Math.round(thresholdPerSecond * windowMillis / 1000.0));
+        this.slots = new AtomicReferenceArray<>(maxHotKeys);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.timeSource = timeSource;
+        this.nextDecay = new AtomicLong(timeSource.nanoTime() + windowNanos);
+        this.decayEnd = counters.length() + maxHotKeys;
+        this.decayChunk = Math.max(1, (decayEnd + DECAY_STEPS - 1) / DECAY_STEPS);
+        this.decayCursor = new AtomicInteger(decayEnd);
+    }
+
+    /**
+     * Count {@code permits} for the key.
+     *
+     * @return true if the key is in the hot set
+     */
+    public boolean record(String key, long permits) {
+        maybeDecay();
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.addAndGet(slot(hash, row), permits));
+        }
+        if (estimate < threshold) {
+            return false;
+        }
+        return hotKeys.containsKey(key) || admit(key, estimate);
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * Sketch estimate for the key: at least the permits counted for it in
+     * the decaying window, possibly more
+     */
+    public long estimate(String key) {
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(slot(hash, row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * @return the hot set, hottest first
+     */
+    public List<HotKey> hotKeys() {
+        List<HotKey> hot = new ArrayList<>();
+        for (String key : hotKeys.keySet()) {
+            hot.add(new HotKey(key, estimate(key)));
+        }
+        hot.sort(Comparator.comparingLong(HotKey::estimate).reversed());
+        return hot;
+    }
+
+    public long threshold() {
+        return threshold;
+    }
+
+    // Take a free slot, or the coldest sampled one if it's colder than this key.
+    // Losing a race just means "not hot yet": the key tries again on its next request.
+    private boolean admit(String key, long estimate) {
+        int size = slots.length();
+        int sample = Math.min(size, VICTIM_SAMPLE);
+        int start = sample == size ? 0 : ThreadLocalRandom.current().nextInt(size);
+        int victimSlot = -1;
+        String victim = null;
+        long victimEstimate = estimate; // a victim must be strictly colder
+        for (int i = 0; i < sample; i++) {
+            int slot = start + i < size ? start + i : start + i - size;
+            String current = slots.get(slot);
+            if (current == null) {
+                victimSlot = slot;
+                victim = null;
+                break;
+            }
+            long e = estimate(current);
+            if (e < victimEstimate) {
+                victimSlot = slot;
+                victim = current;
+                victimEstimate = e;
+            }
+        }
+        if (victimSlot < 0) {
+            return false;
+        }
+        // claim the key first, so two threads can't put it in two slots
+        if (hotKeys.putIfAbsent(key, victimSlot) != null) {
+            return true;
+        }
+        if (!slots.compareAndSet(victimSlot, victim, key)) {
+            hotKeys.remove(key, victimSlot);
+            return false;
+        }
+        if (victim != null) {
+            hotKeys.remove(victim, victimSlot);
+        }
+        return true;
+    }
+
+    // one request's part of the decay: start a sweep when one is due, then
+    // halve the next chunk of counters, or drop cooled keys from the next slots
+    private void maybeDecay() {
+        if (decayCursor.get() >= decayEnd) {
+            long due = nextDecay.get();
+            long now = timeSource.nanoTime();
+            if (now - due < 0 || !nextDecay.compareAndSet(due, now + windowNanos)) {
+                return;
+            }
+            decayCursor.set(0);
+        }
+        int from = decayCursor.getAndAdd(decayChunk);
+        int to = Math.min(decayEnd, from + decayChunk);
+        for (int i = from; i < to; i++) {
+            if (i < counters.length()) {
+                counters.getAndUpdate(i, c -> c >>> 1);
+                continue;
+            }
+            int slot = i - counters.length();
+            String key = slots.get(slot);
+            if (key != null && estimate(key) < threshold && slots.compareAndSet(slot, key, null)) {
+                hotKeys.remove(key, slot);
+            }
+        }
+    }
+
+    private int slot(long hash, int row) {
+        // row-specific hash from one 64-bit hash (Kirsch-Mitzenmacher double hashing)
+        int h = (int) hash + row * (int) (hash >>> 32);
+        return row * (widthMask + 1) + (h & widthMask);
+    }
+
+    // 64-bit hash of the characters, seeded per instance so collisions can't be precomputed
+    private long hash(String key) {
+        long h = seed;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 32;
+        }
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 29;
+        return h;
+    }
+
+    /**
+     * A hot key and its current sketch estimate (permits in the decaying window)
+     */
+    public record HotKey(String key, long estimate) {
+    }
+}
@@ -0,0 +1,16 @@
+package org.ratelimiter.core;
+
+/**
+ * Told a key's Redis limits whenever RedisHierarchicalRateLimiter reads its
+ * "<key>:config" hash, so node-local limiters can follow them without
+ * reading Redis themselves
+ */
+public interface LimitsListener {
+
+    /**
+     * @param key        the key, without its hash tag
+     * @param capacity   raw config value, null if the hash had none (the scripts use their default)
+     * @param refillRate raw config value, null if the hash had none
+     */
+    void learn(String key, String capacity, String refillRate);
+}
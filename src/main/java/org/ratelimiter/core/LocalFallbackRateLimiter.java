@@ -0,0 +1,128 @@
+package org.ratelimiter.core;
+
+import org.ratelimiter.model.LruMap;
+import org.ratelimiter.time.TimeSource;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-node stand-in for the Redis limits while Redis is unreachable
+ * (RedisFailMode.LOCAL_FALLBACK)
+ *
+ * Each key gets this node's share of its Redis limits: capacity and
+ * refill_rate divided by the number of live nodes, so the cluster as a whole
+ * lets through roughly what Redis would have. The node count comes from
+ * setLiveNodes(), fed by ClusterMembership like the hot-key pre-filter, so
+ * both divide by the same count; during an outage it's the last one seen.
+ * The limits are whatever the node last saw for the key - learn() is fed
+ * every time a script or the config cache reads them - or the script
+ * defaults for keys it never saw.
+ *
+ * Buckets live in one TokenBucketRateLimiter per distinct (capacity, refill)
+ * pair, which also expires idle keys. They hold the full Redis limits and a
+ * permit costs one token per live node (at most the whole bucket, so every
+ * node keeps at least one), which is the same share without rebuilding
+ * buckets when the count changes. Unlike the script, the check isn't
+ * atomic across levels: a request turned away by the user level has already
+ * been charged at the ip level. Good enough for a degraded mode.
+ *
+ * DSA/Concepts Used:
+ * - LRU-bounded map of last-known limits, like the config cache
+ * - One in-JVM token bucket limiter per limit pair, buckets created lazily
+ * - Share by cost scaling: full-size buckets, permits priced per live node
+ */
+public class LocalFallbackRateLimiter implements LimitsListener {
+
+    // loadedAt is left 0 throughout, so equal limits share one limiter
+    private static final RedisConfigCache.Limits DEFAULT_LIMITS = new RedisConfigCache.Limits(
+            RedisConfigCache.DEFAULT_CAPACITY, RedisConfigCache.DEFAULT_REFILL_RATE, 0);
+
+    private final long idleTtlMillis;
+    private final BucketEngine engine;
+    private final TimeSource timeSource;
+    private volatile int liveNodes;
+
+    private final LruMap<String, RedisConfigCache.Limits> knownLimits;
+    private final ConcurrentHashMap<RedisConfigCache.Limits, TokenBucketRateLimiter> limiters =
+            new ConcurrentHashMap<>();
+
+    public LocalFallbackRateLimiter(int liveNodes, int maxKnownKeys) {
+        this(liveNodes, maxKnownKeys, BucketEngine.LOCK_FREE, 60_000, TimeSource.SYSTEM);
+    }
+
+    /**
+     * @param liveNodes    nodes sharing the Redis limits until setLiveNodes() says otherwise;
+     *                     each gets 1/liveNodes of them
+     * @param maxKnownKeys most keys whose limits are remembered; the least recently used make room
+     */
+    public LocalFallbackRateLimiter(int liveNodes, int maxKnownKeys, BucketEngine engine, long idleTtlMillis,
+                                    TimeSource timeSource) {
+        if (liveNodes < 1) {
+            throw new IllegalArgumentException("liveNodes must be at least 1");
+        }
+        this.liveNodes = liveNodes;
+        this.knownLimits = new LruMap<>(maxKnownKeys);
+        this.engine = engine;
+        this.idleTtlMillis = idleTtlMillis;
+        this.timeSource = timeSource;
+    }
+
+    /**
+     * Remember a key's Redis limits, as the raw config values (null = default)
+     */
+    @Override
+    public void learn(String key, String capacity, String refillRate) {
+        try {
+            if (capacity != null) {
+                Double.parseDouble(capacity);
+            }
+            if (refillRate != null) {
+                Double.parseDouble(refillRate);
+            }
+        } catch (NumberFormatException e) {
+            return; // not a limit the scripts could use either, leave the defaults
+        }
+        knownLimits.put(RedisKeys.untagged(key), new RedisConfigCache.Limits(
+                capacity != null ? capacity : DEFAULT_LIMITS.capacity(),
+                refillRate != null ? refillRate : DEFAULT_LIMITS.refillRate(), 0));
+    }
+
+    /**
+     * Re-divide the limits over {@code nodes} live nodes, e.g. from ClusterMembership.
+     * Buckets keep their fill level; only the price of a permit changes.
+     */
+    public void setLiveNodes(int nodes) {
+        liveNodes = Math.max(1, nodes);
+    }
+
+    public int liveNodes() {
+        return liveNodes;
+    }
+
+    /**
+     * Charge {@code permits} at each level in order, stopping at the first
+     * that can't cover them.
+     */
+    public RedisHierarchicalRateLimiter.Result tryAcquire(List<String> keys, long permits) {
+        int nodes = liveNodes;
+        for (String key : keys) {
+            TokenBucketRateLimiter limiter = limiterFor(key);
+            long perPermit = Math.min(nodes, Math.max(1, limiter.capacity()));
+            long cost = permits > Long.MAX_VALUE / perPermit ? Long.MAX_VALUE : permits * perPermit;
+            long waitNanos = limiter.reserve(key, cost, 0);
+            if (waitNanos != 0) {
+                return new RedisHierarchicalRateLimiter.Result(false, key, waitNanos);
+            }
+        }
+        return new RedisHierarchicalRateLimiter.Result(true, null, 0);
+    }
+
+    // buckets for the key's Redis-wide limits, not divided by the node count
+    private TokenBucketRateLimiter limiterFor(String key) {
+        RedisConfigCache.Limits limits = knownLimits.getOrDefault(RedisKeys.untagged(key), DEFAULT_LIMITS);
+        return limiters.computeIfAbsent(limits, l -> new TokenBucketRateLimiter(
+                (long) Double.parseDouble(l.capacity()), Double.parseDouble(l.refillRate()),
+                engine, idleTtlMillis, timeSource));
+    }
+}
@@ -1,91 +1,196 @@
 package org.ratelimiter.core;
 
 import org.ratelimiter.metrics.RateLimiterMetrics;
-
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.locks.ReentrantLock;
+import org.ratelimiter.model.BoundedBucketMap;
+import org.ratelimiter.model.Bucket;
+import org.ratelimiter.model.BucketMap;
+import org.ratelimiter.model.ExpiringBucketMap;
+import org.ratelimiter.model.StripedTokenBucket;
+import org.ratelimiter.time.TimeSource;
 
 /**
  * Local, per-JVM pre-filter for hot keys. Sheds load on a key that's clearly
  * over budget on this node before it reaches Redis - it never grants an
  * allowance on its own, Redis is still the authoritative check.
+ *
+ * Each key has one bucket holding exactly capacity. With the LOCK_FREE
+ * engine and shardCount > 1 it is a StripedTokenBucket: the budget is split
+ * over shardCount padded stripes that threads take from independently and
+ * steal between when theirs runs dry, so a hot key's load is spread without
+ * the local budget growing to shardCount x capacity. A request costs one
+ * map lookup on the caller's key and allocates nothing.
+ *
+ * Buckets that have refilled and gone idle are evicted (same idea as the
+ * Redis-side PEXPIRE), so a scan across many keys doesn't grow the heap forever.
+ *
+ * With a HotKeyDetector, only keys it has found hot get buckets at all: a
+ * cold key passes straight through after a sketch increment, with no bucket,
+ * no map insert and no local-hit count. Once a key cools off its bucket goes
+ * idle and is evicted like any other.
+ *
+ * With maxEntries set, the buckets live in a BoundedBucketMap instead: never
+ * more than maxEntries of them, W-TinyLFU deciding which stay, so a key scan
+ * can't grow the table or push the hot keys out. Idle expiry is then left to
+ * the eviction policy.
  */
 public class LocalHotKeyRateLimiter {
 
-    private final ConcurrentHashMap<String, ShardedBucket> hotBuckets = new ConcurrentHashMap<>();
+    private final BucketMap hotBuckets;
     private final long capacity;
-    private final double refillRatePerMillis;
+    private final double refillRatePerSecond;
     private final int shardCount;
     private final RateLimiterMetrics metrics;
+    private final BucketEngine engine;
+    private final TimeSource timeSource;
+    private final HotKeyDetector detector;
 
     public LocalHotKeyRateLimiter(long capacity, double refillRatePerSecond, int shardCount, RateLimiterMetrics metrics) {
+        this(capacity, refillRatePerSecond, shardCount, metrics, BucketEngine.LOCKED);
+    }
+
+    public LocalHotKeyRateLimiter(long capacity, double refillRatePerSecond, int shardCount,
+                                  RateLimiterMetrics metrics, BucketEngine engine) {
+        this(capacity, refillRatePerSecond, shardCount, metrics, engine, ExpiringBucketMap.DEFAULT_IDLE_TTL_MILLIS);
+    }
+
+    public LocalHotKeyRateLimiter(long capacity, double refillRatePerSecond, int shardCount,
+                                  RateLimiterMetrics metrics, BucketEngine engine, long idleTtlMillis) {
+        this(capacity, refillRatePerSecond, shardCount, metrics, engine, idleTtlMillis, TimeSource.SYSTEM);
+    }
+
+    public LocalHotKeyRateLimiter(long capacity, double refillRatePerSecond, int shardCount,
+                                  RateLimiterMetrics metrics, BucketEngine engine, long idleTtlMillis,
+                                  TimeSource timeSource) {
+        this(capacity, refillRatePerSecond, shardCount, metrics, engine, idleTtlMillis, timeSource, null);
+    }
+
+    /**
+     * @param detector decides which keys get local buckets; null gives every key one
+     */
+    public LocalHotKeyRateLimiter(long capacity, double refillRatePerSecond, int shardCount,
+                                  RateLimiterMetrics metrics, BucketEngine engine, long idleTtlMillis,
+                                  TimeSource timeSource, HotKeyDetector detector) {
+        this(capacity, refillRatePerSecond, shardCount, metrics, engine, idleTtlMillis, timeSource, detector, 0);
+    }
+
+    /**
+     * @param maxEntries most buckets held at once, 0 for no limit (idle expiry only)
+     */
+    public LocalHotKeyRateLimiter(long capacity, double refillRatePerSecond, int shardCount,
+                                  RateLimiterMetrics metrics, BucketEngine engine, long idleTtlMillis,
+                                  TimeSource timeSource, HotKeyDetector detector, int maxEntries) {
         this.capacity = capacity;
-        this.refillRatePerMillis = refillRatePerSecond / 1000.0;
+        this.refillRatePerSecond = refillRatePerSecond;
         this.shardCount = shardCount;
         this.metrics = metrics;
+        this.engine = engine;
+        this.timeSource = timeSource;
+        this.detector = detector;
+        this.hotBuckets = maxEntries > 0
+                ? new BoundedBucketMap(maxEntries, this::newBucket, new TableListener(metrics))
+                : new ExpiringBucketMap(refillCapacity(), refillRatePerSecond, idleTtlMillis,
+                        this::newBucket, metrics::incrementLocalBucketEviction, timeSource);
     }
 
     public boolean allowRequest(String key) {
-        // Random shard per request, not derived from the key - otherwise every
-        // request for the same key always lands on the same bucket and sharding
-        // buys nothing. Spreads a hot key's load across shardCount buckets, at
-        // the cost of the local budget effectively becoming shardCount x capacity.
-        int shardIndex = ThreadLocalRandom.current().nextInt(shardCount);
-        String shardKey = key + "#" + shardIndex;
-
-        ShardedBucket shard = hotBuckets.computeIfAbsent(shardKey,
-                k -> new ShardedBucket(capacity, refillRatePerMillis));
-
-        boolean allowed = shard.tryConsume();
-        if (allowed) {
+        return tryAcquire(key, 1);
+    }
+
+    /**
+     * Charge a weighted request to the key's local budget.
+     *
+     * A request costing more than the bucket holds is charged a full bucket
+     * rather than shed outright: this filter only sheds what is clearly over
+     * budget, and Redis still decides whether the full cost fits.
+     */
+    public boolean tryAcquire(String key, long permits) {
+        Check check = check(key, permits);
+        if (check == Check.PASSED) {
             // request still goes on to Redis - don't count it here, Redis owns
             // total/allowed/rejected for anything it actually decides on
             metrics.incrementLocalHit();
-        } else {
+        } else if (check == Check.SHED) {
             // shed here, request never reaches Redis - this is the terminal outcome
             metrics.incrementTotalRequests();
             metrics.incrementRejected();
         }
-        return allowed;
-    }
-
-    // ShardedBucket handles request coalescing for each shard
-    private static class ShardedBucket {
-        private double tokens;
-        private long lastRefill;
-        private final long capacity;
-        private final double refillRatePerMillis;
-        private final ReentrantLock lock = new ReentrantLock();
-
-        public ShardedBucket(long capacity, double refillRatePerMillis) {
-            this.capacity = capacity;
-            this.refillRatePerMillis = refillRatePerMillis;
-            this.tokens = capacity;
-            this.lastRefill = System.currentTimeMillis();
-        }
+        return check != Check.SHED;
+    }
+
+    /**
+     * tryAcquire without counting the outcome, for a caller that checks
+     * several keys and counts the request once (ScopedHotKeyRateLimiter).
+     */
+    public Check check(String key, long permits) {
+        return check(key, permits, permits);
+    }
 
-        public boolean tryConsume() {
-            lock.lock();  // coalescing: only one thread refills at a time
-            try {
-                refill();
-                if (tokens >= 1) {
-                    tokens -= 1;
-                    return true;
-                }
-                return false;
-            } finally {
-                lock.unlock();
-            }
+    /**
+     * check() with the bucket charged {@code cost} rather than {@code permits},
+     * for a caller whose buckets count in finer units than a permit. The
+     * detector still counts permits.
+     */
+    public Check check(String key, long permits, long cost) {
+        if (permits < 1 || cost < 1) {
+            throw new IllegalArgumentException("permits and cost must be at least 1");
+        }
+        if (detector != null && !detector.record(key, permits)) {
+            // cold key: nothing to shed, Redis decides
+            return Check.COLD;
         }
+        return hotBuckets.get(key).tryConsume(Math.min(cost, capacity)) ? Check.PASSED : Check.SHED;
+    }
+
+    /**
+     * @return number of keys with a bucket currently held
+     */
+    public int size() {
+        return hotBuckets.size();
+    }
+
+    // LOCKED buckets are plain TokenBuckets; LOCK_FREE ones stop a hot key
+    // from turning into a lock convoy, striped ones from piling onto one CAS word
+    private Bucket newBucket() {
+        return striped()
+                ? new StripedTokenBucket(capacity, refillRatePerSecond, shardCount, timeSource)
+                : engine.newBucket(capacity, refillRatePerSecond, timeSource);
+    }
+
+    private boolean striped() {
+        return engine == BucketEngine.LOCK_FREE && shardCount > 1 && capacity > 1;
+    }
 
-        private void refill() {
-            long now = System.currentTimeMillis();
-            long elapsed = now - lastRefill;
-            if (elapsed > 0) {
-                tokens = Math.min(capacity, tokens + elapsed * refillRatePerMillis);
-                lastRefill = now;
-            }
+    // A striped bucket's fullest stripe refills at its share of the rate, so
+    // it takes as long to refill as a bucket of stripes x that stripe's capacity
+    private long refillCapacity() {
+        if (!striped()) {
+            return capacity;
         }
+        long stripes = Math.min(shardCount, capacity);
+        return (capacity + stripes - 1) / stripes * stripes;
+    }
+
+    /**
+     * What the pre-filter made of one key: not hot enough to have a bucket,
+     * within its local budget, or over it
+     */
+    public enum Check {
+        COLD,
+        PASSED,
+        SHED
+    }
+
+    private record TableListener(RateLimiterMetrics metrics) implements BoundedBucketMap.Listener {
+        @Override
+        public void hit() { metrics.incrementHotKeyTableHit(); }
+
+        @Override
+        public void miss() { metrics.incrementHotKeyTableMiss(); }
+
+        @Override
+        public void admissionRejected() { metrics.incrementHotKeyAdmissionRejected(); }
+
+        @Override
+        public void evicted() { metrics.incrementHotKeyTableEviction(); }
     }
 }
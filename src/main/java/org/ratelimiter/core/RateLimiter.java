@@ -1,6 +1,10 @@
 // RateLimiter.java
 package org.ratelimiter.core;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Core RateLimiter interface
  * Step 1: Core Token Bucket
@@ -9,8 +13,67 @@ package org.ratelimiter.core;
  * DSA/Concepts Used:
  * - Abstraction to define common rate-limiting behavior
  * - Allows swapping single-node or distributed implementations
+ * - Weighted requests: an expensive call is charged N tokens in one step
+ * - Reservations: instead of a bare no, say how long until the tokens refill,
+ *   so callers wait once instead of retrying in a loop
  */
 
 public interface RateLimiter {
-    boolean allowRequest(String key);
+
+    default boolean allowRequest(String key) {
+        return tryAcquire(key, 1);
+    }
+
+    /**
+     * Charge {@code permits} tokens to the key in one atomic step - either
+     * all of them are taken or none are.
+     *
+     * @param permits tokens this request costs, at least 1
+     * @return true if allowed, false if rate limit exceeded
+     */
+    boolean tryAcquire(String key, long permits);
+
+    /**
+     * Reserve {@code permits} tokens however long they take to refill.
+     *
+     * @return nanos to wait before using the permits, 0 if they're available now;
+     *         Long.MAX_VALUE if they never will be (nothing is reserved then)
+     */
+    default long reserve(String key, long permits) {
+        return reserve(key, permits, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reserve {@code permits} tokens if they'll be available within
+     * {@code maxWaitNanos}. Nothing is taken when the wait is longer, so
+     * {@code maxWaitNanos = 0} is a tryAcquire that also reports the wait.
+     *
+     * @return nanos until the permits are available, reserved only if that's
+     *         within maxWaitNanos; Long.MAX_VALUE if they never will be
+     */
+    long reserve(String key, long permits, long maxWaitNanos);
+
+    default CompletableFuture<Boolean> acquireAsync(String key, Duration timeout) {
+        return acquireAsync(key, 1, timeout);
+    }
+
+    /**
+     * Wait for {@code permits} tokens without holding a thread: the permits are
+     * reserved up front and the future completes true exactly when they're
+     * due, or false right away if that's further out than {@code timeout}.
+     *
+     * The delay runs on CompletableFuture's shared timer thread, so chain
+     * anything slow with the *Async variants.
+     */
+    default CompletableFuture<Boolean> acquireAsync(String key, long permits, Duration timeout) {
+        long timeoutNanos = timeout.toNanos();
+        long wait = reserve(key, permits, timeoutNanos);
+        if (wait == 0) {
+            return CompletableFuture.completedFuture(true);
+        }
+        if (wait > timeoutNanos) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return new CompletableFuture<Boolean>().completeOnTimeout(true, wait, TimeUnit.NANOSECONDS);
+    }
 }
@@ -0,0 +1,7 @@
+package org.ratelimiter.core;
+
+public enum RedisAlgorithm {
+    TOKEN_BUCKET,      // "<key>" hash of tokens + last_refill, refilled on every call
+    TOKEN_BUCKET_HASH, // same, with the key's limits in that hash too: one HMGET per level
+    GCRA               // "<key>:tat" string holding one theoretical arrival time
+}
@@ -0,0 +1,215 @@
+package org.ratelimiter.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Micro-batches script calls from many concurrent requests into one
+ * pipelined Redis round trip
+ *
+ * Callers enqueue a script call and get a future back. A single flusher
+ * thread takes the first waiting call, then keeps collecting until it has
+ * maxBatchSize calls or maxDelayMicros has passed since it started, and sends
+ * the whole batch as one pipeline on one pooled connection. Replies come back
+ * in order and complete each caller's future.
+ *
+ * While one batch is in flight the next one builds up in the queue, so under
+ * load batches grow on their own even with maxDelayMicros = 0; the delay only
+ * trades a little latency for bigger batches when traffic is light. Futures
+ * complete on the flusher thread - chain anything slow with the *Async variants.
+ *
+ * DSA/Concepts Used:
+ * - Producer/consumer queue, one consumer
+ * - Size- or time-bounded batching (whichever comes first)
+ * - Pipelining: N commands, one network round trip
+ */
+public class RedisBatchDispatcher implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisBatchDispatcher.class);
+
+    private final JedisPool jedisPool;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+
+    private final BlockingQueue<Call> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+
+    /**
+     * @param maxBatchSize   most calls sent in one pipeline
+     * @param maxDelayMicros longest a batch waits for more calls after its first one, 0 = never wait
+     */
+    public RedisBatchDispatcher(JedisPool jedisPool, int maxBatchSize, long maxDelayMicros) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        if (maxDelayMicros < 0) {
+            throw new IllegalArgumentException("maxDelayMicros must not be negative");
+        }
+        this.jedisPool = jedisPool;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+
+        this.flusher = new Thread(this::run, "redis-batch-dispatcher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queue an EVALSHA for the next batch.
+     *
+     * @return the script's raw reply, or an exceptional future if Redis failed
+     */
+    public CompletableFuture<Object> submit(RedisScript script, List<byte[]> keys, List<byte[]> args) {
+        Call call = new Call(script, keys, args);
+        queue.add(call);
+        if (closed && queue.remove(call)) {
+            // raced with close(), which may already have drained the queue
+            call.future.completeExceptionally(new IllegalStateException("dispatcher is closed"));
+        }
+        return call.future;
+    }
+
+    /**
+     * @return pipelines sent so far; calls() / batches() is the average batch size
+     */
+    public long batches() {
+        return batches.get();
+    }
+
+    /**
+     * @return script calls sent so far
+     */
+    public long calls() {
+        return calls.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        flusher.interrupt();
+        Call call;
+        while ((call = queue.poll()) != null) {
+            call.future.completeExceptionally(new IllegalStateException("dispatcher is closed"));
+        }
+    }
+
+    private void run() {
+        List<Call> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                collect(batch);
+            } catch (InterruptedException e) {
+                failAll(batch, new IllegalStateException("dispatcher is closed"));
+                return;
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    // fill the batch until it's full or the latency budget is spent
+    private void collect(List<Call> batch) throws InterruptedException {
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            Call next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+    }
+
+    private void flush(List<Call> batch) {
+        batches.incrementAndGet();
+        calls.addAndGet(batch.size());
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<Call> missingScript = send(jedis, batch);
+            if (!missingScript.isEmpty()) {
+                // Redis lost its scripts (restart/failover) - load them and resend just those calls
+                Set<RedisScript> scripts = new LinkedHashSet<>();
+                for (Call call : missingScript) {
+                    scripts.add(call.script);
+                }
+                log.info("{} Lua script(s) missing on Redis (restart or failover?), reloading", scripts.size());
+                for (RedisScript script : scripts) {
+                    script.load(jedis);
+                }
+                failAll(send(jedis, missingScript), new IllegalStateException("script missing after reload"));
+            }
+        } catch (Exception e) {
+            // connection-level failure - every caller still waiting gets it (completed ones are unaffected)
+            failAll(batch, e);
+        }
+    }
+
+    /**
+     * @return calls that failed with NOSCRIPT, everything else is completed
+     */
+    private List<Call> send(Jedis jedis, List<Call> calls) {
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Object>> responses = new ArrayList<>(calls.size());
+        for (Call call : calls) {
+            responses.add(call.script.eval(pipeline, call.keys, call.args));
+        }
+        pipeline.sync();
+
+        List<Call> missingScript = new ArrayList<>();
+        for (int i = 0; i < calls.size(); i++) {
+            Call call = calls.get(i);
+            try {
+                call.future.complete(responses.get(i).get());
+            } catch (JedisNoScriptException e) {
+                missingScript.add(call);
+            } catch (Exception e) {
+                call.future.completeExceptionally(e);
+            }
+        }
+        return missingScript;
+    }
+
+    private static void failAll(List<Call> calls, Exception e) {
+        for (Call call : calls) {
+            call.future.completeExceptionally(e);
+        }
+    }
+
+    // One caller's script call and where its reply goes
+    private static final class Call {
+        private final RedisScript script;
+        private final List<byte[]> keys;
+        private final List<byte[]> args;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Call(RedisScript script, List<byte[]> keys, List<byte[]> args) {
+            this.script = script;
+            this.keys = keys;
+            this.args = args;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.ratelimiter.core;
+
+import org.ratelimiter.metrics.RateLimiterMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker around the Redis calls, so an outage costs one fast
+ * fallback per request instead of a connect timeout each
+ *
+ * CLOSED: every call goes to Redis, and its outcome lands in a window of the
+ * last windowSize calls. Once the window holds minCalls or more and failures,
+ * or calls slower than slowCallMillis, make up their threshold share of it,
+ * the breaker trips.
+ *
+ * OPEN: calls are refused on the spot (tryAcquirePermission() is false) and
+ * the limiter applies its fail mode without touching Redis. After openMillis
+ * the breaker lets a few probes through.
+ *
+ * HALF_OPEN: up to halfOpenProbes calls go to Redis. If they all come back
+ * fast and fine the breaker closes with an empty window; the first failed or
+ * slow one opens it again for another openMillis.
+ *
+ * DSA/Concepts Used:
+ * - Three-state machine, state in a volatile so the CLOSED check takes no lock
+ * - Count-based sliding window: ring buffer of outcomes + running totals
+ */
+public class RedisCircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisCircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Thrown instead of calling Redis while the breaker is open. No stack
+     * trace: during an outage one is created per request.
+     */
+    public static final class OpenException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public OpenException() {
+            super("redis circuit breaker is open", null, false, false);
+        }
+    }
+
+    private final int windowSize;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowCallRateThreshold;
+    private final long openNanos;
+    private final int halfOpenProbes;
+    private final RateLimiterMetrics metrics;
+
+    private volatile State state = State.CLOSED;
+
+    // guarded by this
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+    private long openedAt;
+    private int probesIssued;
+    private int probesSucceeded;
+
+    /**
+     * @param windowSize            calls the failure and slow-call rates are taken over
+     * @param minCalls              calls needed in the window before the breaker can trip
+     * @param failureRateThreshold  share of failed calls (0..1] that trips it
+     * @param slowCallMillis        a call taking at least this long counts as slow
+     * @param slowCallRateThreshold share of slow calls (0..1] that trips it
+     * @param openMillis            how long calls are refused before probing
+     * @param halfOpenProbes        probe calls that must all succeed to close again
+     */
+    public RedisCircuitBreaker(int windowSize, int minCalls, double failureRateThreshold, long slowCallMillis,
+                               double slowCallRateThreshold, long openMillis, int halfOpenProbes,
+                               RateLimiterMetrics metrics) {
+        if (windowSize < 1 || minCalls < 1 || minCalls > windowSize || halfOpenProbes < 1) {
+            throw new IllegalArgumentException("need 1 <= minCalls <= windowSize and at least 1 probe");
+        }
+        this.windowSize = windowSize;
+        this.minCalls = minCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.halfOpenProbes = halfOpenProbes;
+        this.metrics = metrics;
+        this.failed = new boolean[windowSize];
+        this.slow = new boolean[windowSize];
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * @return true if this call may go to Redis; it must then report back
+     *         through onSuccess or onFailure
+     */
+    public boolean tryAcquirePermission() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openNanos) {
+                    metrics.incrementCircuitShortCircuited();
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesIssued >= halfOpenProbes) {
+                    metrics.incrementCircuitShortCircuited();
+                    return false;
+                }
+                probesIssued++;
+            }
+            return true;
+        }
+    }
+
+    public synchronized void onSuccess(long latencyNanos) {
+        boolean isSlow = latencyNanos >= slowCallNanos;
+        if (state == State.HALF_OPEN) {
+            if (isSlow) {
+                transition(State.OPEN);
+            } else if (++probesSucceeded >= halfOpenProbes) {
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        record(false, isSlow);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            transition(State.OPEN);
+            return;
+        }
+        record(true, false);
+    }
+
+    // CLOSED (or a late reply while OPEN): slide the window, trip if over a threshold
+    private void record(boolean isFailure, boolean isSlow) {
+        if (calls == windowSize) {
+            failures -= failed[next] ? 1 : 0;
+            slowCalls -= slow[next] ? 1 : 0;
+        } else {
+            calls++;
+        }
+        failed[next] = isFailure;
+        slow[next] = isSlow;
+        failures += isFailure ? 1 : 0;
+        slowCalls += isSlow ? 1 : 0;
+        next = (next + 1) % windowSize;
+
+        if (state == State.CLOSED && calls >= minCalls
+                && (failures >= failureRateThreshold * calls || slowCalls >= slowCallRateThreshold * calls)) {
+            transition(State.OPEN);
+        }
+    }
+
+    private void transition(State to) {
+        log.warn("redis circuit breaker {} -> {} (window: {} calls, {} failed, {} slow)",
+                state, to, calls, failures, slowCalls);
+        switch (to) {
+            case OPEN -> {
+                openedAt = System.nanoTime();
+                metrics.incrementCircuitOpened();
+            }
+            case HALF_OPEN -> {
+                probesIssued = 0;
+                probesSucceeded = 0;
+                metrics.incrementCircuitHalfOpened();
+            }
+            case CLOSED -> {
+                // start over: the outcomes that tripped it say nothing about Redis now
+                calls = 0;
+                failures = 0;
+                slowCalls = 0;
+                next = 0;
+                metrics.incrementCircuitClosed();
+            }
+        }
+        state = to;
+    }
+}
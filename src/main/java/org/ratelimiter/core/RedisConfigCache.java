@@ -0,0 +1,237 @@
+package org.ratelimiter.core;
+
+import org.ratelimiter.metrics.RateLimiterMetrics;
+import org.ratelimiter.model.LruMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.UnifiedJedis;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Node-local copy of the per-key "<key>:config" limits (capacity, refill_rate)
+ *
+ * Limits change rarely, but the scripts used to read them with HGETs on every
+ * decision for every level. With this cache the limits travel as ARGV
+ * instead, and a level the cache doesn't know yet is read by the script
+ * itself, which hands the values back in its reply - so filling the cache
+ * never costs a round trip of its own.
+ *
+ * Changes reach every node over Redis pub/sub: whoever writes a config
+ * publishes the key on INVALIDATION_CHANNEL and each node drops its copy.
+ * Messages published while a node is disconnected are lost, so the whole
+ * cache is dropped on every (re)subscribe, and entries older than maxAge are
+ * re-read regardless, as a backstop.
+ *
+ * At most maxEntries keys are cached. A new key past that evicts the least
+ * recently used one, and an entry found past its max age is dropped on the
+ * spot, so stale and cold keys make room for the ones that are hot now.
+ *
+ * A reply can race with an invalidation (the script read the old value, the
+ * invalidation lands before the reply does). Every invalidation bumps a
+ * generation counter, and a reply only fills the cache if no invalidation
+ * happened since its call was sent.
+ *
+ * DSA/Concepts Used:
+ * - LRU-bounded concurrent map, read-through via the decision call itself
+ * - Pub/sub invalidation + TTL backstop
+ * - Generation counter to drop fills that raced with an invalidation
+ */
+public class RedisConfigCache implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisConfigCache.class);
+
+    /** Channel that carries "<key>@<publish epoch millis>" for every config change */
+    public static final String INVALIDATION_CHANNEL = "rate_limit:config:invalidate";
+
+    // what the scripts fall back to for a level with no config hash
+    static final String DEFAULT_CAPACITY = "10";
+    static final String DEFAULT_REFILL_RATE = "5";
+
+    private static final long RESUBSCRIBE_DELAY_MILLIS = 1_000;
+
+    private final LruMap<String, Limits> limits;
+    private final AtomicLong generation = new AtomicLong();
+    private final long maxAgeNanos;
+    private final RateLimiterMetrics metrics;
+
+    private final Supplier<Jedis> subscriberConnection;
+    private final Subscriber subscriber = new Subscriber();
+    private final CountDownLatch subscribed = new CountDownLatch(1);
+    private final Thread listener;
+    private volatile boolean closed;
+
+    /**
+     * @param subscriberConnection opens the dedicated connection SUBSCRIBE holds
+     *                             on to; it needs no read timeout
+     * @param maxAgeMillis         entries older than this are re-read even without an invalidation
+     * @param maxEntries           most keys cached; past that, the least recently used is evicted
+     */
+    public RedisConfigCache(Supplier<Jedis> subscriberConnection, long maxAgeMillis, int maxEntries,
+                            RateLimiterMetrics metrics) {
+        if (maxAgeMillis <= 0) {
+            throw new IllegalArgumentException("maxAgeMillis must be positive");
+        }
+        this.subscriberConnection = subscriberConnection;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.limits = new LruMap<>(maxEntries);
+        this.metrics = metrics;
+
+        this.listener = new Thread(this::listen, "redis-config-invalidation");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    /**
+     * Tell every node's cache that {@code key}'s config changed. Call it right
+     * after writing "<key>:config".
+     */
+    public static void publishInvalidation(Jedis jedis, String key) {
+        jedis.publish(INVALIDATION_CHANNEL, key + "@" + System.currentTimeMillis());
+    }
+
+    /**
+     * publishInvalidation for a JedisPooled / JedisCluster client. PUBLISH
+     * reaches subscribers on every node of a cluster.
+     */
+    public static void publishInvalidation(UnifiedJedis redis, String key) {
+        redis.publish(INVALIDATION_CHANNEL, key + "@" + System.currentTimeMillis());
+    }
+
+    /**
+     * @return the key's cached limits, or null if it has to be read from Redis
+     */
+    public Limits get(String key) {
+        Limits cached = limits.get(key);
+        if (cached != null && System.nanoTime() - cached.loadedAt > maxAgeNanos) {
+            // stale: drop it now rather than let it hold a slot until evicted
+            limits.remove(key, cached);
+            cached = null;
+        }
+        if (cached == null) {
+            metrics.incrementConfigCacheMiss();
+            return null;
+        }
+        metrics.incrementConfigCacheHit();
+        return cached;
+    }
+
+    /**
+     * @return a token to pass back to put(), taken before the call that reads the limits
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Cache limits read from Redis, unless an invalidation arrived since
+     * {@code generation} was taken.
+     *
+     * @param capacity   raw config value, null if the hash had none
+     * @param refillRate raw config value, null if the hash had none
+     * @return the limits, with defaults filled in, whether they were cached or not
+     */
+    public Limits put(String key, String capacity, String refillRate, long generation) {
+        Limits loaded = new Limits(
+                capacity != null ? capacity : DEFAULT_CAPACITY,
+                refillRate != null ? refillRate : DEFAULT_REFILL_RATE,
+                System.nanoTime());
+        if (this.generation.get() == generation) {
+            limits.put(key, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * Drop one key, or everything for null
+     */
+    public void invalidate(String key) {
+        generation.incrementAndGet();
+        if (key == null) {
+            limits.clear();
+        } else {
+            limits.remove(key);
+        }
+    }
+
+    public int size() {
+        return limits.size();
+    }
+
+    /**
+     * Wait until the invalidation subscription is live
+     *
+     * @return false if it isn't within the timeout
+     */
+    public boolean awaitSubscribed(long timeout, TimeUnit unit) throws InterruptedException {
+        return subscribed.await(timeout, unit);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (subscriber.isSubscribed()) {
+            subscriber.unsubscribe();
+        }
+        listener.interrupt();
+    }
+
+    private void listen() {
+        while (!closed) {
+            try (Jedis jedis = subscriberConnection.get()) {
+                jedis.subscribe(subscriber, INVALIDATION_CHANNEL); // blocks until unsubscribed or disconnected
+            } catch (Exception e) {
+                if (!closed) {
+                    log.warn("config invalidation subscription lost, retrying in {}ms: {}",
+                            RESUBSCRIBE_DELAY_MILLIS, e.toString());
+                }
+            }
+            // anything published while we weren't listening is gone - trust nothing cached
+            invalidate(null);
+            if (!closed) {
+                try {
+                    Thread.sleep(RESUBSCRIBE_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A level's limits, as the raw strings the script takes as ARGV
+     */
+    public record Limits(String capacity, String refillRate, long loadedAt) {
+    }
+
+    private final class Subscriber extends JedisPubSub {
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            invalidate(null); // changes made before this point may not have been seen
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            int at = message.lastIndexOf('@');
+            String key = at >= 0 ? message.substring(0, at) : message;
+            invalidate(key);
+
+            long lagMillis = 0;
+            if (at >= 0) {
+                try {
+                    // publisher's wall clock vs ours, so only as good as the nodes' clock sync
+                    lagMillis = Math.max(0, System.currentTimeMillis() - Long.parseLong(message.substring(at + 1)));
+                } catch (NumberFormatException ignored) {
+                    // not one of ours, treat it as instant
+                }
+            }
+            metrics.recordConfigInvalidation(lagMillis);
+        }
+    }
+}
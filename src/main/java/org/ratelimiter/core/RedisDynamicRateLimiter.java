@@ -21,7 +21,7 @@ public class RedisDynamicRateLimiter implements RateLimiter {
     private static final Logger log = LoggerFactory.getLogger(RedisDynamicRateLimiter.class);
 
     private final JedisPool jedisPool;
-    private final String luaScript;
+    private final RedisScript luaScript;
     private final RateLimiterMetrics metrics;
     private final RedisFailMode failMode;
 
@@ -34,11 +34,14 @@ public class RedisDynamicRateLimiter implements RateLimiter {
         this.metrics = metrics;
         this.failMode = failMode;
 
-        this.luaScript = """
+        this.luaScript = new RedisScript("""
+            local permits = tonumber(ARGV[1])
+            local max_wait = tonumber(ARGV[2])
             local time = redis.call("TIME")
             local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
             local allowed = 1
             local missingConfig = 0
+            local waitNanos = 0
             local buckets = {}
             for i, key in ipairs(KEYS) do
                 local configKey = key .. ":config"
@@ -54,29 +57,71 @@ public class RedisDynamicRateLimiter implements RateLimiter {
                 local last_refill = tonumber(redis.call("HGET", key, "last_refill") or now)
                 local elapsed = now - last_refill
                 tokens = math.min(capacity, tokens + elapsed * refill_rate_per_ms)
-                if tokens < 1 then
+                local wait = 0
+                if tokens < permits then
+                    if refill_rate <= 0 or permits > capacity then
+                        wait = -1
+                    else
+                        wait = math.ceil((permits - tokens) / refill_rate * 1000000000)
+                    end
+                end
+                if wait < 0 or wait > max_wait then
                     allowed = 0
+                    waitNanos = wait
                     break
                 end
+                waitNanos = math.max(waitNanos, wait)
                 buckets[i] = tokens
             end
             if allowed == 1 then
                 for i, key in ipairs(KEYS) do
-                    local tokens = buckets[i] - 1
+                    local tokens = buckets[i] - permits
                     redis.call("HSET", key, "tokens", tokens, "last_refill", now)
-                    redis.call("PEXPIRE", key, 60000)
+                    redis.call("PEXPIRE", key, 60000 + math.ceil(waitNanos / 1000000))
                 end
             end
-            return {allowed, missingConfig}
-        """;
+            return {allowed, missingConfig, waitNanos}
+        """);
+    }
+
+    /**
+     * SCRIPT LOAD this limiter's script, so requests can go straight to EVALSHA
+     */
+    public void loadScripts() {
+        RedisScript.loadAll(jedisPool, luaScript);
+    }
+
+    @Override
+    public boolean tryAcquire(String key, long permits) {
+        return tryAcquire(List.of(key), permits);
     }
 
     @Override
-    public boolean allowRequest(String key) {
-        return allowRequest(List.of(key));
+    public long reserve(String key, long permits, long maxWaitNanos) {
+        return reserve(List.of(key), permits, maxWaitNanos);
     }
 
     public boolean allowRequest(List<String> keys) {
+        return tryAcquire(keys, 1);
+    }
+
+    /**
+     * @param permits tokens charged to every key, all or nothing
+     */
+    public boolean tryAcquire(List<String> keys, long permits) {
+        return reserve(keys, permits, 0) == 0;
+    }
+
+    /**
+     * Reserve permits at every key if all can cover them within maxWaitNanos
+     *
+     * @return nanos until the permits are available (reserved only if within
+     *         maxWaitNanos), Long.MAX_VALUE if never
+     */
+    public long reserve(List<String> keys, long permits, long maxWaitNanos) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
 
         metrics.incrementTotalRequests();
         metrics.recordKeys(keys);
@@ -85,14 +130,17 @@ public class RedisDynamicRateLimiter implements RateLimiter {
 
             long start = System.nanoTime();
 
-            Object raw = jedis.eval(luaScript, keys, List.of());
+            // ARGV[1] = permits, charged to every level of the hierarchy; ARGV[2] = longest acceptable wait
+            Object raw = luaScript.eval(jedis, RedisScript.encode(keys),
+                    RedisScript.encode(List.of(String.valueOf(permits), String.valueOf(maxWaitNanos))));
 
             long end = System.nanoTime();
-            metrics.recordRedisLatency((end - start) / 1_000_000);
+            metrics.recordRedisLatency(end - start);
 
             List<?> result = (List<?>) raw;
             boolean allowed = Long.parseLong(result.get(0).toString()) == 1;
             boolean missingConfig = Integer.parseInt(result.get(1).toString()) == 1;
+            long waitNanos = Long.parseLong(result.get(2).toString());
 
             if (missingConfig) {
                 log.warn("no rate-limit config found for one or more of {}, defaults were used", keys);
@@ -105,7 +153,7 @@ public class RedisDynamicRateLimiter implements RateLimiter {
                 metrics.incrementRejected();
             }
 
-            return allowed;
+            return waitNanos < 0 ? Long.MAX_VALUE : waitNanos;
 
         } catch (Exception e) {
             log.warn("redis call failed, applying {}: {}", failMode, e.toString());
@@ -113,11 +161,11 @@ public class RedisDynamicRateLimiter implements RateLimiter {
 
             if (failMode == RedisFailMode.FAIL_OPEN) {
                 metrics.incrementAllowed();
-                return true;
+                return 0;
             }
 
             metrics.incrementRejected();
-            return false;
+            return Long.MAX_VALUE;
         }
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package org.ratelimiter.core;
 
 public enum RedisFailMode {
-    FAIL_OPEN,   // allow traffic if Redis is down
-    FAIL_CLOSED  // block traffic if Redis is down
+    FAIL_OPEN,      // allow traffic if Redis is down
+    FAIL_CLOSED,    // block traffic if Redis is down
+    LOCAL_FALLBACK  // enforce this node's share of the limits in-JVM if Redis is down
 }
@@ -4,88 +4,501 @@ import org.ratelimiter.metrics.RateLimiterMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
 import redis.clients.jedis.JedisPool;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Distributed hierarchical token bucket using Redis + Lua script
  * Step 5: Multi-level rate limiting (IP -> User -> Org)
  *
+ * The per-key algorithm is pluggable: the classic token bucket (a hash of
+ * tokens + last_refill per key), or GCRA, which keeps a single timestamp per
+ * key and touches Redis half as often for the same decisions. TOKEN_BUCKET_HASH
+ * is the token bucket with each level's limits copied into its bucket hash, so
+ * a level is one HMGET to read and one HSET + PEXPIRE to write.
+ *
  * Each key in the hierarchy carries its own capacity/refill_rate, read from
  * a "<key>:config" hash (same convention RedisDynamicRateLimiter uses), so
  * an org can have a bigger budget than a user, which can have a bigger
  * budget than a single IP.
  *
  * DSA / Concepts:
- * - Redis hash for bucket state
- * - Lua script for atomic operations across multiple keys
+ * - Redis hash for bucket state (token bucket) or one integer per key (GCRA)
+ * - Single-hash layout: state and limits read together by one HMGET, old-format keys still read
+ * - Lua script for atomic operations across multiple keys, run by EVALSHA
  * - Fail-fast hierarchical check, reports which level blocked the request
  * - Distributed consistency across JVMs
+ * - Optional micro-batching: concurrent requests share pipelined round trips
+ * - Optional single-flight coalescing: identical concurrent requests share one script call
+ * - Redis Cluster mode: hash-tagged keys keep a request's hierarchy on one slot
+ * - Optional node-local config cache: limits go in as ARGV instead of being read per call
+ * - Non-blocking variant (allowRequestAsync) that completes off the dispatcher's pipeline
+ * - Optional circuit breaker: while Redis is failing or slow, requests skip it and go to the fail mode
+ * - LOCAL_FALLBACK fail mode: per-node share of the last-known limits, in-JVM
  */
-public class RedisHierarchicalRateLimiter implements RateLimiter {
+public class RedisHierarchicalRateLimiter implements RateLimiter, AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(RedisHierarchicalRateLimiter.class);
 
-    private final JedisPool jedisPool;
-    private final RateLimiterMetrics metrics;
-    private final RedisFailMode failMode;
-    private final String luaScript;
-
-    public RedisHierarchicalRateLimiter(JedisPool jedisPool, RateLimiterMetrics metrics, RedisFailMode failMode) {
-        this.jedisPool = jedisPool;
-        this.metrics = metrics;
-        this.failMode = failMode;
+    // Token bucket: Lua script for atomic refill + check + decrement across multiple keys.
+    // ARGV[1] = permits per request, ARGV[2] = longest acceptable wait (nanos),
+    // ARGV[3] = how many identical requests this call decides for (coalescing),
+    // ARGV[2 + 2i], ARGV[3 + 2i] = capacity, refill_rate of KEYS[i] from the
+    // node's config cache; missing or "" reads them from "<key>:config".
+    //
+    // Stops at the first key that can't cover one request within max_wait
+    // (fail-fast). Otherwise grants as many of the requests as every level can
+    // cover right now - always at least the first, which may be a reservation
+    // that leaves levels in debt. Returns
+    // {granted, blockedIndex, missingConfig, waitNanos, nextWaitNanos, loaded}:
+    // blockedIndex is the level that stopped the first ungranted request (0 if
+    // all were granted), waitNanos the longest reservation wait among the
+    // granted, nextWaitNanos how long that level needs for one more (-1 never).
+    // loaded holds capacity, refill_rate per key as read from its config hash
+    // ("" if the hash had none), nil for levels the caller passed or never reached,
+    // so the caller can cache them.
+    private static final RedisScript TOKEN_BUCKET_SCRIPT = new RedisScript("""
+        local permits = tonumber(ARGV[1])
+        local max_wait = tonumber(ARGV[2])
+        local count = tonumber(ARGV[3])
+        local time = redis.call("TIME")
+        local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+        local granted = count
+        local blockedIndex = 0
+        local missingConfig = 0
+        local waitNanos = 0
+        local nextWaitNanos = 0
+        local loaded = {}
+        for i = 1, 2 * #KEYS do
+            loaded[i] = false
+        end
+        local buckets = {}
+        for i, key in ipairs(KEYS) do
+            local capacityRaw = ARGV[2 + 2 * i]
+            local refillRaw = ARGV[3 + 2 * i]
+            if not capacityRaw or capacityRaw == "" then
+                local config = redis.call("HMGET", key .. ":config", "capacity", "refill_rate")
+                capacityRaw = config[1]
+                refillRaw = config[2]
+                if not capacityRaw or not refillRaw then
+                    missingConfig = 1
+                end
+                loaded[2 * i - 1] = capacityRaw or ""
+                loaded[2 * i] = refillRaw or ""
+            end
+            local capacity = tonumber(capacityRaw or 10)
+            local refill_rate = tonumber(refillRaw or 5)
+            local refill_rate_per_ms = refill_rate / 1000.0
+            local tokens = tonumber(redis.call("HGET", key, "tokens") or capacity)
+            local last_refill = tonumber(redis.call("HGET", key, "last_refill") or now)
+            local elapsed = now - last_refill
+            tokens = math.min(capacity, tokens + elapsed * refill_rate_per_ms)
+            local wait = 0
+            if tokens < permits then
+                if refill_rate <= 0 or permits > capacity then
+                    wait = -1
+                else
+                    wait = math.ceil((permits - tokens) / refill_rate * 1000000000)
+                end
+            end
+            if wait < 0 or wait > max_wait then
+                granted = 0
+                blockedIndex = i
+                nextWaitNanos = wait
+                break
+            end
+            waitNanos = math.max(waitNanos, wait)
+            buckets[i] = tokens
+            local fit = math.max(1, math.floor(tokens / permits + 1e-9))
+            if fit < granted then
+                granted = fit
+                blockedIndex = i
+                if refill_rate <= 0 then
+                    nextWaitNanos = -1
+                else
+                    nextWaitNanos = math.ceil(((fit + 1) * permits - tokens) / refill_rate * 1000000000)
+                end
+            end
+        end
+        if granted > 0 then
+            for i, key in ipairs(KEYS) do
+                local tokens = buckets[i] - granted * permits
+                redis.call("HSET", key, "tokens", tokens, "last_refill", now)
+                redis.call("PEXPIRE", key, 60000 + math.ceil(waitNanos / 1000000))
+            end
+        end
+        return {granted, blockedIndex, missingConfig, waitNanos, nextWaitNanos, loaded}
+    """);
 
-        // Lua script for atomic refill + check + decrement across multiple keys.
-        // Stops at the first key that's out of tokens (fail-fast) and reports its
-        // index, plus whether any key was missing its config hash (defaults used).
-        this.luaScript = """
-            local time = redis.call("TIME")
-            local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
-            local allowed = 1
-            local blockedIndex = 0
-            local missingConfig = 0
-            local buckets = {}
+    // Token bucket, single-hash layout: a level's limits sit next to its state
+    // in "<key>" (tokens, last_refill, capacity, refill_rate), so the script
+    // reads a level with one HMGET instead of an HMGET of "<key>:config" plus
+    // two HGETs, and writes it with one HSET. Same state fields and arithmetic
+    // as TOKEN_BUCKET_SCRIPT, so either script can pick up the other's buckets.
+    //
+    // The copy of the limits in the bucket is written by /admin/config next to
+    // "<key>:config", which stays the source of truth: a bucket that has no
+    // limits of its own (never configured since the switch, or expired while
+    // idle) falls back to reading "<key>:config", like the old layout.
+    // Limits passed as ARGV (config cache, cluster mode) win over both.
+    // Same arguments, fail-fast, coalescing and return shape as the other scripts.
+    private static final RedisScript TOKEN_BUCKET_HASH_SCRIPT = new RedisScript("""
+        local permits = tonumber(ARGV[1])
+        local max_wait = tonumber(ARGV[2])
+        local count = tonumber(ARGV[3])
+        local time = redis.call("TIME")
+        local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+        local granted = count
+        local blockedIndex = 0
+        local missingConfig = 0
+        local waitNanos = 0
+        local nextWaitNanos = 0
+        local loaded = {}
+        for i = 1, 2 * #KEYS do
+            loaded[i] = false
+        end
+        local buckets = {}
+        for i, key in ipairs(KEYS) do
+            local bucket = redis.call("HMGET", key, "tokens", "last_refill", "capacity", "refill_rate")
+            local capacityRaw = ARGV[2 + 2 * i]
+            local refillRaw = ARGV[3 + 2 * i]
+            if not capacityRaw or capacityRaw == "" then
+                capacityRaw = bucket[3]
+                refillRaw = bucket[4]
+                if not capacityRaw or not refillRaw then
+                    -- old layout: limits only in the config hash
+                    local config = redis.call("HMGET", key .. ":config", "capacity", "refill_rate")
+                    capacityRaw = config[1]
+                    refillRaw = config[2]
+                    if not capacityRaw or not refillRaw then
+                        missingConfig = 1
+                    end
+                end
+                loaded[2 * i - 1] = capacityRaw or ""
+                loaded[2 * i] = refillRaw or ""
+            end
+            local capacity = tonumber(capacityRaw or 10)
+            local refill_rate = tonumber(refillRaw or 5)
+            local tokens = tonumber(bucket[1] or capacity)
+            local last_refill = tonumber(bucket[2] or now)
+            tokens = math.min(capacity, tokens + (now - last_refill) * refill_rate / 1000.0)
+            local wait = 0
+            if tokens < permits then
+                if refill_rate <= 0 or permits > capacity then
+                    wait = -1
+                else
+                    wait = math.ceil((permits - tokens) / refill_rate * 1000000000)
+                end
+            end
+            if wait < 0 or wait > max_wait then
+                granted = 0
+                blockedIndex = i
+                nextWaitNanos = wait
+                break
+            end
+            waitNanos = math.max(waitNanos, wait)
+            buckets[i] = tokens
+            local fit = math.max(1, math.floor(tokens / permits + 1e-9))
+            if fit < granted then
+                granted = fit
+                blockedIndex = i
+                if refill_rate <= 0 then
+                    nextWaitNanos = -1
+                else
+                    nextWaitNanos = math.ceil(((fit + 1) * permits - tokens) / refill_rate * 1000000000)
+                end
+            end
+        end
+        if granted > 0 then
+            local ttl = 60000 + math.ceil(waitNanos / 1000000)
             for i, key in ipairs(KEYS) do
-                local configKey = key .. ":config"
-                local capacityRaw = redis.call("HGET", configKey, "capacity")
-                local refillRaw = redis.call("HGET", configKey, "refill_rate")
+                redis.call("HSET", key, "tokens", buckets[i] - granted * permits, "last_refill", now)
+                redis.call("PEXPIRE", key, ttl)
+            end
+        end
+        return {granted, blockedIndex, missingConfig, waitNanos, nextWaitNanos, loaded}
+    """);
+
+    // GCRA: each key holds only its theoretical arrival time (TAT), in micros
+    // on Redis's clock, under "<key>:tat" - one GET and one SET PX per level,
+    // and the key expires the moment the bucket would be full again. A level
+    // with emission interval T = 1/refill_rate has capacity - (TAT - now)/T
+    // tokens available, and granting n permits moves its TAT n*T further out.
+    // Same arguments, fail-fast, coalescing and return shape as the token
+    // bucket script.
+    private static final RedisScript GCRA_SCRIPT = new RedisScript("""
+        local permits = tonumber(ARGV[1])
+        local max_wait = tonumber(ARGV[2])
+        local count = tonumber(ARGV[3])
+        local time = redis.call("TIME")
+        local now = tonumber(time[1]) * 1000000 + tonumber(time[2])
+        local granted = count
+        local blockedIndex = 0
+        local missingConfig = 0
+        local waitNanos = 0
+        local nextWaitNanos = 0
+        local loaded = {}
+        for i = 1, 2 * #KEYS do
+            loaded[i] = false
+        end
+        local tats = {}
+        local intervals = {}
+        local refills = {}
+        for i, key in ipairs(KEYS) do
+            local capacityRaw = ARGV[2 + 2 * i]
+            local refillRaw = ARGV[3 + 2 * i]
+            if not capacityRaw or capacityRaw == "" then
+                local config = redis.call("HMGET", key .. ":config", "capacity", "refill_rate")
+                capacityRaw = config[1]
+                refillRaw = config[2]
                 if not capacityRaw or not refillRaw then
                     missingConfig = 1
                 end
-                local capacity = tonumber(capacityRaw or 10)
-                local refill_rate = tonumber(refillRaw or 5)
-                local refill_rate_per_ms = refill_rate / 1000.0
-                local tokens = tonumber(redis.call("HGET", key, "tokens") or capacity)
-                local last_refill = tonumber(redis.call("HGET", key, "last_refill") or now)
-                local elapsed = now - last_refill
-                tokens = math.min(capacity, tokens + elapsed * refill_rate_per_ms)
-                if tokens < 1 then
-                    allowed = 0
-                    blockedIndex = i
-                    break
+                loaded[2 * i - 1] = capacityRaw or ""
+                loaded[2 * i] = refillRaw or ""
+            end
+            local capacity = tonumber(capacityRaw or 10)
+            local refill_rate = tonumber(refillRaw or 5)
+            -- with no refill the clock is frozen at 0 and the TAT just counts
+            -- permits handed out, so both cases share one code path
+            local interval = 1
+            local clock = 0
+            if refill_rate > 0 then
+                interval = 1000000 / refill_rate
+                clock = now
+            end
+            local tat = math.max(tonumber(redis.call("GET", key .. ":tat") or 0), clock)
+            local tokens = capacity - (tat - clock) / interval
+            local wait = 0
+            if tokens < permits then
+                if refill_rate <= 0 or permits > capacity then
+                    wait = -1
+                else
+                    wait = math.ceil((permits - tokens) * interval * 1000)
+                end
+            end
+            if wait < 0 or wait > max_wait then
+                granted = 0
+                blockedIndex = i
+                nextWaitNanos = wait
+                break
+            end
+            waitNanos = math.max(waitNanos, wait)
+            tats[i] = tat
+            intervals[i] = interval
+            refills[i] = refill_rate > 0
+            local fit = math.max(1, math.floor(tokens / permits + 1e-9))
+            if fit < granted then
+                granted = fit
+                blockedIndex = i
+                if refill_rate <= 0 then
+                    nextWaitNanos = -1
+                else
+                    nextWaitNanos = math.ceil(((fit + 1) * permits - tokens) * interval * 1000)
                 end
-                buckets[i] = tokens
             end
-            if allowed == 1 then
-                for i, key in ipairs(KEYS) do
-                    local tokens = buckets[i] - 1
-                    redis.call("HSET", key, "tokens", tokens, "last_refill", now)
-                    redis.call("PEXPIRE", key, 60000)
+        end
+        if granted > 0 then
+            for i, key in ipairs(KEYS) do
+                local new_tat = math.ceil(tats[i] + granted * permits * intervals[i])
+                local ttl = 60000
+                if refills[i] then
+                    ttl = math.max(1, math.ceil((new_tat - now) / 1000))
                 end
+                -- %.0f, a plain number would be stringified at 14 digits and lose micros
+                redis.call("SET", key .. ":tat", string.format("%.0f", new_tat), "PX", ttl)
             end
-            return {allowed, blockedIndex, missingConfig}
-        """;
+        end
+        return {granted, blockedIndex, missingConfig, waitNanos, nextWaitNanos, loaded}
+    """);
+
+    // most identical requests decided by one script call
+    private static final int MAX_COALESCED = 1024;
+
+    private final JedisPool jedisPool;
+    private final JedisCluster cluster;
+    private final RateLimiterMetrics metrics;
+    private final RedisFailMode failMode;
+    private final RedisScript luaScript;
+    private final RedisBatchDispatcher dispatcher;
+    private final SingleFlight<Flight, Object> coalescer;
+    private final RedisConfigCache configCache;
+    private final RedisCircuitBreaker breaker;
+    private final LocalFallbackRateLimiter fallback;
+    private final List<LimitsListener> limitsListeners = new CopyOnWriteArrayList<>();
+
+    public RedisHierarchicalRateLimiter(JedisPool jedisPool, RateLimiterMetrics metrics, RedisFailMode failMode) {
+        this(jedisPool, metrics, failMode, RedisAlgorithm.TOKEN_BUCKET);
+    }
+
+    public RedisHierarchicalRateLimiter(JedisPool jedisPool, RateLimiterMetrics metrics, RedisFailMode failMode,
+                                        RedisAlgorithm algorithm) {
+        this(jedisPool, metrics, failMode, algorithm, null);
+    }
+
+    /**
+     * @param dispatcher batches script calls from concurrent requests into
+     *                   pipelined round trips; null calls Redis directly per request
+     */
+    public RedisHierarchicalRateLimiter(JedisPool jedisPool, RateLimiterMetrics metrics, RedisFailMode failMode,
+                                        RedisAlgorithm algorithm, RedisBatchDispatcher dispatcher) {
+        this(jedisPool, metrics, failMode, algorithm, dispatcher, 0);
+    }
+
+    /**
+     * @param coalesceWindowMicros how long identical concurrent tryAcquire calls
+     *                             are gathered into one script call; 0 disables it
+     */
+    public RedisHierarchicalRateLimiter(JedisPool jedisPool, RateLimiterMetrics metrics, RedisFailMode failMode,
+                                        RedisAlgorithm algorithm, RedisBatchDispatcher dispatcher,
+                                        long coalesceWindowMicros) {
+        this(jedisPool, metrics, failMode, algorithm, dispatcher, coalesceWindowMicros, null);
+    }
+
+    /**
+     * @param configCache node-local copy of each key's limits, sent as ARGV so the
+     *                    script skips its config reads; null reads them every time
+     */
+    public RedisHierarchicalRateLimiter(JedisPool jedisPool, RateLimiterMetrics metrics, RedisFailMode failMode,
+                                        RedisAlgorithm algorithm, RedisBatchDispatcher dispatcher,
+                                        long coalesceWindowMicros, RedisConfigCache configCache) {
+        this(jedisPool, metrics, failMode, algorithm, dispatcher, coalesceWindowMicros, configCache, null, null);
+    }
+
+    /**
+     * @param breaker  skips Redis while it's failing or slow, straight to the fail mode;
+     *                 null always calls Redis
+     * @param fallback per-node limits for RedisFailMode.LOCAL_FALLBACK, required for that mode
+     */
+    public RedisHierarchicalRateLimiter(JedisPool jedisPool, RateLimiterMetrics metrics, RedisFailMode failMode,
+                                        RedisAlgorithm algorithm, RedisBatchDispatcher dispatcher,
+                                        long coalesceWindowMicros, RedisConfigCache configCache,
+                                        RedisCircuitBreaker breaker, LocalFallbackRateLimiter fallback) {
+        this(jedisPool, null, metrics, failMode, algorithm, dispatcher, coalesceWindowMicros, configCache,
+                breaker, fallback);
+    }
+
+    /**
+     * Redis Cluster mode. Every key of one call must share a hash tag (see
+     * ClusterPolicyResolver) so the script runs on a single slot. Config
+     * hashes are global and live on other slots, so the script can't read
+     * them: limits always come from the config cache, which loads misses
+     * with an HMGET of its own. Calls go straight to the owning node, one at
+     * a time - no batching, and allowRequestAsync falls back to blocking.
+     */
+    public RedisHierarchicalRateLimiter(JedisCluster cluster, RateLimiterMetrics metrics, RedisFailMode failMode,
+                                        RedisAlgorithm algorithm, long coalesceWindowMicros,
+                                        RedisConfigCache configCache) {
+        this(cluster, metrics, failMode, algorithm, coalesceWindowMicros, configCache, null, null);
+    }
+
+    /**
+     * Redis Cluster mode with a circuit breaker and/or LOCAL_FALLBACK, see the pool variant
+     */
+    public RedisHierarchicalRateLimiter(JedisCluster cluster, RateLimiterMetrics metrics, RedisFailMode failMode,
+                                        RedisAlgorithm algorithm, long coalesceWindowMicros,
+                                        RedisConfigCache configCache, RedisCircuitBreaker breaker,
+                                        LocalFallbackRateLimiter fallback) {
+        this(null, cluster, metrics, failMode, algorithm, null, coalesceWindowMicros, configCache, breaker, fallback);
+        if (configCache == null) {
+            throw new IllegalArgumentException("cluster mode needs a config cache");
+        }
+    }
+
+    private RedisHierarchicalRateLimiter(JedisPool jedisPool, JedisCluster cluster, RateLimiterMetrics metrics,
+                                         RedisFailMode failMode, RedisAlgorithm algorithm,
+                                         RedisBatchDispatcher dispatcher, long coalesceWindowMicros,
+                                         RedisConfigCache configCache, RedisCircuitBreaker breaker,
+                                         LocalFallbackRateLimiter fallback) {
+        if (failMode == RedisFailMode.LOCAL_FALLBACK && fallback == null) {
+            throw new IllegalArgumentException("LOCAL_FALLBACK needs a LocalFallbackRateLimiter");
+        }
+        this.jedisPool = jedisPool;
+        this.cluster = cluster;
+        this.configCache = configCache;
+        this.dispatcher = dispatcher;
+        this.coalescer = coalesceWindowMicros > 0
+                ? new SingleFlight<>(coalesceWindowMicros, MAX_COALESCED)
+                : null;
+        this.metrics = metrics;
+        this.failMode = failMode;
+        this.breaker = breaker;
+        this.fallback = fallback;
+        if (fallback != null) {
+            limitsListeners.add(fallback);
+        }
+
+        this.luaScript = switch (algorithm) {
+            case TOKEN_BUCKET -> TOKEN_BUCKET_SCRIPT;
+            case TOKEN_BUCKET_HASH -> TOKEN_BUCKET_HASH_SCRIPT;
+            case GCRA -> GCRA_SCRIPT;
+        };
+    }
+
+    /**
+     * Tell {@code listener} every key's limits as they're read from Redis,
+     * from here on. Each key's limits are read once per config cache entry
+     * (or on every call without the cache).
+     */
+    public void addLimitsListener(LimitsListener listener) {
+        limitsListeners.add(listener);
+    }
+
+    /**
+     * @return the config cache limits are read through, or null without one
+     */
+    public RedisConfigCache configCache() {
+        return configCache;
+    }
+
+    /**
+     * @return the per-node limits RedisFailMode.LOCAL_FALLBACK applies, or null in other modes
+     */
+    public LocalFallbackRateLimiter localFallback() {
+        return fallback;
+    }
+
+    /**
+     * SCRIPT LOAD this limiter's script, so requests can go straight to EVALSHA
+     */
+    public void loadScripts() {
+        if (cluster != null) {
+            RedisScript.loadAll(cluster, luaScript);
+        } else {
+            RedisScript.loadAll(jedisPool, luaScript);
+        }
+    }
+
+    /**
+     * Stop the batch dispatcher's flusher thread and the config cache's
+     * pub/sub subscriber this limiter was built with. Both close idempotently,
+     * so a caller that also closes them itself loses nothing.
+     */
+    @Override
+    public void close() {
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+        if (configCache != null) {
+            configCache.close();
+        }
     }
 
     /**
      * Single-key method required by RateLimiter interface
      */
     @Override
-    public boolean allowRequest(String key) {
-        return allowRequest(Arrays.asList(key)).allowed();
+    public boolean tryAcquire(String key, long permits) {
+        return tryAcquire(Arrays.asList(key), permits).allowed();
     }
 
     /**
@@ -95,64 +508,323 @@ public class RedisHierarchicalRateLimiter implements RateLimiter {
      * @return result telling whether the request passed, and if not, which key blocked it
      */
     public Result allowRequest(List<String> keys) {
+        return tryAcquire(keys, 1);
+    }
+
+    /**
+     * Weighted multi-key hierarchical rate limiting: the request costs
+     * {@code permits} tokens at every level, and is only charged if every
+     * level can cover it.
+     *
+     * @param keys    ordered Redis keys, e.g. [ip, user, org]
+     * @param permits tokens this request costs, at least 1
+     * @return result telling whether the request passed, and if not, which key blocked it
+     */
+    public Result tryAcquire(List<String> keys, long permits) {
+        if (coalescer == null) {
+            return reserve(keys, permits, 0);
+        }
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
+
         metrics.incrementTotalRequests();
         metrics.recordKeys(keys);
 
-        try (Jedis jedis = jedisPool.getResource()) {
-            long start = System.nanoTime();
+        try {
+            // identical [ip, user, org] + permits in flight together share one script call,
+            // which grants up to one request per member; members are served in join order
+            SingleFlight.Ticket<Object> ticket =
+                    coalescer.join(new Flight(keys, permits), count -> call(keys, permits, 0, count));
+            return decide(keys, ticket.result(), ticket.index());
+        } catch (Exception e) {
+            return failOver(keys, permits, unwrap(e));
+        }
+    }
 
-            Object raw = jedis.eval(luaScript, keys, List.of());
+    /**
+     * Non-blocking multi-key rate limiting, see tryAcquireAsync.
+     */
+    public CompletionStage<Result> allowRequestAsync(List<String> keys) {
+        return tryAcquireAsync(keys, 1);
+    }
 
-            long end = System.nanoTime();
-            metrics.recordRedisLatency((end - start) / 1_000_000);
+    /**
+     * Non-blocking tryAcquire: the script call is queued on the dispatcher and
+     * the returned stage completes when its pipeline's reply arrives, so no
+     * thread waits on Redis in the meantime - many decisions in flight share a
+     * single connection. Redis failures complete it with the fail-mode result,
+     * never exceptionally.
+     *
+     * Without a dispatcher there's nothing to multiplex onto, and this runs
+     * the blocking call on the caller's thread and returns a completed stage.
+     * Requests are never coalesced here - the coalescing leader parks for its
+     * window, which is exactly what this path is meant to avoid.
+     *
+     * The stage completes on the dispatcher thread: chain anything slow with
+     * the *Async variants.
+     */
+    public CompletionStage<Result> tryAcquireAsync(List<String> keys, long permits) {
+        if (dispatcher == null) {
+            return CompletableFuture.completedFuture(tryAcquire(keys, permits));
+        }
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
 
-            List<?> result = (List<?>) raw;
-            boolean allowed = Long.parseLong(result.get(0).toString()) == 1;
-            int blockedIndex = Integer.parseInt(result.get(1).toString());
-            boolean missingConfig = Integer.parseInt(result.get(2).toString()) == 1;
-            String blockedKey = blockedIndex > 0 ? keys.get(blockedIndex - 1) : null;
+        metrics.incrementTotalRequests();
+        metrics.recordKeys(keys);
+
+        if (breaker != null && !breaker.tryAcquirePermission()) {
+            return CompletableFuture.completedFuture(failOver(keys, permits, new RedisCircuitBreaker.OpenException()));
+        }
+        long start = System.nanoTime();
+        long generation = configCache != null ? configCache.generation() : 0;
+        return dispatcher.submit(luaScript, RedisScript.encode(keys), arguments(keys, permits, 0, 1, generation))
+                .handle((raw, error) -> {
+                    long latency = System.nanoTime() - start;
+                    metrics.recordRedisLatency(latency);
+                    if (error != null) {
+                        if (breaker != null) {
+                            breaker.onFailure();
+                        }
+                        return failOver(keys, permits, unwrap(error));
+                    }
+                    if (breaker != null) {
+                        breaker.onSuccess(latency);
+                    }
+                    cacheLoadedConfig(keys, raw, generation);
+                    return decide(keys, raw, 0);
+                });
+    }
 
-            if (missingConfig) {
-                log.warn("no rate-limit config found for one or more of {}, defaults were used", keys);
+    @Override
+    public long reserve(String key, long permits, long maxWaitNanos) {
+        return reserve(Arrays.asList(key), permits, maxWaitNanos).waitNanos();
+    }
+
+    /**
+     * Hierarchical reservation: takes {@code permits} at every level if all of
+     * them can cover it within {@code maxWaitNanos}, possibly leaving levels
+     * in debt until they refill.
+     *
+     * @return allowed if reserved - the caller then waits waitNanos before
+     *         using the permits; otherwise the blocking key and its wait
+     */
+    public Result reserve(List<String> keys, long permits, long maxWaitNanos) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
+
+        metrics.incrementTotalRequests();
+        metrics.recordKeys(keys);
+
+        try {
+            return decide(keys, call(keys, permits, maxWaitNanos, 1), 0);
+        } catch (Exception e) {
+            return failOver(keys, permits, unwrap(e));
+        }
+    }
+
+    // one script call deciding for `count` identical requests, through the breaker if there is one
+    private Object call(List<String> keys, long permits, long maxWaitNanos, int count) {
+        if (breaker == null) {
+            return callRedis(keys, permits, maxWaitNanos, count);
+        }
+        if (!breaker.tryAcquirePermission()) {
+            throw new RedisCircuitBreaker.OpenException();
+        }
+        long start = System.nanoTime();
+        Object raw;
+        try {
+            raw = callRedis(keys, permits, maxWaitNanos, count);
+        } catch (RuntimeException e) {
+            breaker.onFailure();
+            throw e;
+        }
+        breaker.onSuccess(System.nanoTime() - start);
+        return raw;
+    }
+
+    private Object callRedis(List<String> keys, long permits, long maxWaitNanos, int count) {
+        long generation = configCache != null ? configCache.generation() : 0;
+        List<byte[]> encodedKeys = RedisScript.encode(keys);
+        List<byte[]> args = arguments(keys, permits, maxWaitNanos, count, generation);
+
+        Object raw;
+        long start;
+        if (dispatcher != null) {
+            // shares a pipelined round trip with whatever else is in flight
+            start = System.nanoTime();
+            raw = dispatcher.submit(luaScript, encodedKeys, args).join();
+        } else if (cluster != null) {
+            // routed to the node owning the keys' shared slot
+            start = System.nanoTime();
+            raw = luaScript.eval(cluster, encodedKeys, args);
+        } else {
+            try (Jedis jedis = jedisPool.getResource()) {
+                // the borrow is timed by the pool
+                start = System.nanoTime();
+                raw = luaScript.eval(jedis, encodedKeys, args);
             }
+        }
+
+        metrics.recordRedisLatency(System.nanoTime() - start);
+        cacheLoadedConfig(keys, raw, generation);
+        return raw;
+    }
 
-            if (allowed) {
-                metrics.incrementRedisHit();
-                metrics.incrementAllowed();
-            } else {
-                metrics.incrementRejected();
-                recordBlockedLevel(blockedKey);
+    // ARGV[1] = permits, charged to every level of the hierarchy; ARGV[2] = longest acceptable wait;
+    // ARGV[3] = number of identical requests decided together; then capacity, refill_rate
+    // per key from the config cache, "" for a key the script has to read itself
+    private List<byte[]> arguments(List<String> keys, long permits, long maxWaitNanos, int count,
+                                   long generation) {
+        List<String> args = new ArrayList<>(3 + 2 * keys.size());
+        args.add(String.valueOf(permits));
+        args.add(String.valueOf(maxWaitNanos));
+        args.add(String.valueOf(count));
+        if (configCache != null) {
+            for (String key : keys) {
+                RedisConfigCache.Limits limits = configCache.get(configKey(key));
+                if (limits == null && cluster != null) {
+                    limits = loadConfig(key, generation);
+                }
+                args.add(limits != null ? limits.capacity() : "");
+                args.add(limits != null ? limits.refillRate() : "");
             }
+        }
+        return RedisScript.encode(args);
+    }
 
-            return new Result(allowed, blockedKey);
+    // cluster mode: the config hash is on some other slot, read it before the script runs
+    private RedisConfigCache.Limits loadConfig(String key, long generation) {
+        String configKey = configKey(key);
+        List<String> config = cluster.hmget(configKey + ":config", "capacity", "refill_rate");
+        if (config.get(0) == null || config.get(1) == null) {
+            log.warn("no rate-limit config found for {}, defaults were used", configKey);
+        }
+        for (LimitsListener listener : limitsListeners) {
+            listener.learn(configKey, config.get(0), config.get(1));
+        }
+        return configCache.put(configKey, config.get(0), config.get(1), generation);
+    }
 
-        } catch (Exception e) {
+    // the key whose ":config" hash holds a bucket's limits: the hash tag only exists
+    // in cluster mode; on a single node the braces are part of the key itself
+    private String configKey(String key) {
+        return cluster != null ? RedisKeys.untagged(key) : key;
+    }
+
+    // the script hands back the limits it had to read, see "loaded" in the scripts;
+    // they go to the config cache, and to the limits listeners (e.g. the local fallback)
+    private void cacheLoadedConfig(List<String> keys, Object raw, long generation) {
+        if (configCache == null && limitsListeners.isEmpty()) {
+            return;
+        }
+        List<?> loaded = (List<?>) ((List<?>) raw).get(5);
+        for (int i = 0; i < keys.size(); i++) {
+            if (loaded.get(2 * i) != null) {
+                String key = configKey(keys.get(i));
+                String capacity = configValue(loaded.get(2 * i));
+                String refillRate = configValue(loaded.get(2 * i + 1));
+                if (configCache != null) {
+                    configCache.put(key, capacity, refillRate, generation);
+                }
+                for (LimitsListener listener : limitsListeners) {
+                    listener.learn(key, capacity, refillRate);
+                }
+            }
+        }
+    }
+
+    // "" is how the script says the config hash had no such field
+    private static String configValue(Object value) {
+        String text = value instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : value.toString();
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * Turn the script's {granted, blockedIndex, missingConfig, waitNanos, nextWaitNanos}
+     * into one caller's Result. The caller at {@code index} in a merged call is
+     * allowed if it's among the first {@code granted}.
+     */
+    private Result decide(List<String> keys, Object raw, int index) {
+        List<?> result = (List<?>) raw;
+        long granted = Long.parseLong(result.get(0).toString());
+        int blockedIndex = Integer.parseInt(result.get(1).toString());
+        boolean missingConfig = Integer.parseInt(result.get(2).toString()) == 1;
+        long waitNanos = Long.parseLong(result.get(3).toString());
+        long nextWaitNanos = Long.parseLong(result.get(4).toString());
+        boolean allowed = index < granted;
+
+        if (missingConfig && index == 0) {
+            log.warn("no rate-limit config found for one or more of {}, defaults were used", keys);
+        }
+
+        if (allowed) {
+            metrics.incrementRedisHit();
+            metrics.incrementAllowed();
+            return new Result(true, null, waitNanos);
+        }
+
+        String blockedKey = blockedIndex > 0 ? keys.get(blockedIndex - 1) : null;
+        metrics.incrementRejected();
+        recordBlockedLevel(blockedKey);
+        return new Result(false, blockedKey, nextWaitNanos < 0 ? Long.MAX_VALUE : nextWaitNanos);
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    // Redis unreachable, erroring, or skipped by the open breaker - fall back to the configured fail mode
+    private Result failOver(List<String> keys, long permits, Throwable e) {
+        if (e instanceof RedisCircuitBreaker.OpenException) {
+            log.debug("redis circuit open, applying {}", failMode);
+        } else {
             log.warn("redis call failed, applying {}: {}", failMode, e.toString());
             metrics.incrementRedisFailure();
+        }
 
-            boolean allowed = failMode == RedisFailMode.FAIL_OPEN;
-            if (allowed) {
-                metrics.incrementAllowed();
-            } else {
-                metrics.incrementRejected();
-            }
-            return new Result(allowed, null);
+        Result result = switch (failMode) {
+            case FAIL_OPEN -> new Result(true, null, 0);
+            case FAIL_CLOSED -> new Result(false, null, Long.MAX_VALUE);
+            case LOCAL_FALLBACK -> fallback.tryAcquire(keys, permits);
+        };
+        if (result.allowed()) {
+            metrics.incrementAllowed();
+        } else {
+            metrics.incrementRejected();
+            recordBlockedLevel(result.blockedKey());
         }
+        return result;
     }
 
+    // by scope rather than prefix, so cluster keys (rate_limit:{org:acme}:ip:...) count too
     private void recordBlockedLevel(String blockedKey) {
-        if (blockedKey == null) {
+        String scope = blockedKey != null ? RedisKeys.scope(blockedKey) : null;
+        if (scope == null) {
             return;
         }
-        if (blockedKey.startsWith("rate_limit:ip:")) {
-            metrics.incrementBlockedIp();
-        } else if (blockedKey.startsWith("rate_limit:user:")) {
-            metrics.incrementBlockedUser();
-        } else if (blockedKey.startsWith("rate_limit:org:")) {
-            metrics.incrementBlockedOrg();
+        switch (scope) {
+            case "ip" -> metrics.incrementBlockedIp();
+            case "user" -> metrics.incrementBlockedUser();
+            case "org" -> metrics.incrementBlockedOrg();
+            default -> {
+                // a custom scope, only the total counts it
+            }
         }
     }
 
-    public record Result(boolean allowed, String blockedKey) {
+    /**
+     * @param waitNanos if allowed, how long until the reserved permits may be
+     *                  used (always 0 for tryAcquire); if not, at least how long
+     *                  the blocking key needs, Long.MAX_VALUE if it never refills
+     */
+    public record Result(boolean allowed, String blockedKey, long waitNanos) {
+    }
+
+    // what makes two requests identical for coalescing
+    private record Flight(List<String> keys, long permits) {
     }
 }
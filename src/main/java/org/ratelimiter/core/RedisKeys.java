@@ -0,0 +1,51 @@
+package org.ratelimiter.core;
+
+/**
+ * Hash tags for Redis Cluster
+ *
+ * Cluster places a key by CRC16 of its first "{...}" section when it has
+ * one, so keys sharing a tag share a slot - the only way one Lua script can
+ * touch all of them. Bucket keys are tagged with the request's anchor
+ * (rate_limit:ip:1.2.3.4 -> rate_limit:{org:acme}:ip:1.2.3.4); the tag is
+ * stripped again wherever a key has to mean the same thing on every slot,
+ * e.g. its "<key>:config" hash and its config cache entry.
+ */
+public final class RedisKeys {
+
+    private RedisKeys() {
+    }
+
+    /**
+     * Insert {@code {tag}:} after the key's first segment
+     */
+    public static String tagged(String key, String tag) {
+        int colon = key.indexOf(':');
+        return colon < 0
+                ? "{" + tag + "}:" + key
+                : key.substring(0, colon + 1) + "{" + tag + "}:" + key.substring(colon + 1);
+    }
+
+    /**
+     * @return the key without its hash tag, or the key itself if it has none
+     */
+    public static String untagged(String key) {
+        int open = key.indexOf('{');
+        int close = open < 0 ? -1 : key.indexOf('}', open + 1);
+        if (close < 0) {
+            return key;
+        }
+        int rest = close + 1 < key.length() && key.charAt(close + 1) == ':' ? close + 2 : close + 1;
+        return key.substring(0, open) + key.substring(rest);
+    }
+
+    /**
+     * @return the key's scope - "org" for rate_limit:org:acme, tagged or not -
+     *         or null if it has none
+     */
+    public static String scope(String key) {
+        String plain = untagged(key);
+        int start = plain.indexOf(':') + 1;
+        int end = plain.indexOf(':', start);
+        return start > 0 && end > start ? plain.substring(start, end) : null;
+    }
+}
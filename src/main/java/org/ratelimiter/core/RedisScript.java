@@ -0,0 +1,155 @@
+package org.ratelimiter.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.ConnectionPool;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * A Lua script run by SHA instead of by source
+ *
+ * EVAL ships the whole script on every call and Redis hashes it every time;
+ * EVALSHA sends 40 bytes. The source and its SHA1 are encoded to bytes once,
+ * here, so the hot path encodes nothing but its own keys and args.
+ *
+ * Redis forgets loaded scripts on restart, failover to a replica that never
+ * saw SCRIPT LOAD, or SCRIPT FLUSH - a NOSCRIPT reply reloads the source on
+ * that connection and retries once, so callers never see it.
+ *
+ * DSA/Concepts Used:
+ * - Content addressing: the SHA1 is computed locally, no round trip needed
+ * - Lazy self-healing cache on the server side
+ */
+public final class RedisScript {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisScript.class);
+
+    private final byte[] source;
+    private final byte[] sha;
+
+    public RedisScript(String source) {
+        this.source = source.getBytes(StandardCharsets.UTF_8);
+        this.sha = sha1Hex(this.source);
+    }
+
+    /**
+     * SCRIPT LOAD on one connection, e.g. at startup so the first real
+     * request doesn't pay for a NOSCRIPT round trip.
+     */
+    public void load(Jedis jedis) {
+        jedis.scriptLoad(source);
+    }
+
+    /**
+     * Load every script up front. A Redis that's down at startup isn't
+     * fatal - the scripts are loaded on first use instead.
+     */
+    public static void loadAll(JedisPool jedisPool, RedisScript... scripts) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            for (RedisScript script : scripts) {
+                script.load(jedis);
+            }
+        } catch (Exception e) {
+            log.warn("could not preload Lua scripts, they will be loaded on first use: {}", e.toString());
+        }
+    }
+
+    /**
+     * Load every script on every cluster node, same deal as loadAll(JedisPool, ...)
+     */
+    public static void loadAll(JedisCluster cluster, RedisScript... scripts) {
+        for (ConnectionPool node : cluster.getClusterNodes().values()) {
+            try (Connection connection = node.getResource()) {
+                Jedis jedis = new Jedis(connection);
+                for (RedisScript script : scripts) {
+                    script.load(jedis);
+                }
+            } catch (Exception e) {
+                log.warn("could not preload Lua scripts on a cluster node, they will be loaded on first use: {}",
+                        e.toString());
+            }
+        }
+    }
+
+    /**
+     * EVALSHA through a JedisPooled or JedisCluster client. On a cluster it's
+     * routed by the first key's slot, so every key must hash to that slot (see
+     * RedisKeys). A node that doesn't have the script gets it loaded and the
+     * call is retried once.
+     */
+    public Object eval(UnifiedJedis redis, List<byte[]> keys, List<byte[]> args) {
+        try {
+            return redis.evalsha(sha, keys, args);
+        } catch (JedisNoScriptException e) {
+            log.info("Lua script {} missing on Redis (restart or failover?), reloading",
+                    new String(sha, StandardCharsets.US_ASCII));
+            redis.scriptLoad(source, keys.get(0));
+            return redis.evalsha(sha, keys, args);
+        }
+    }
+
+    /**
+     * EVALSHA, reloading the script and retrying once if Redis doesn't have it.
+     */
+    public Object eval(Jedis jedis, List<byte[]> keys, List<byte[]> args) {
+        try {
+            return jedis.evalsha(sha, keys, args);
+        } catch (JedisNoScriptException e) {
+            log.info("Lua script {} missing on Redis (restart or failover?), reloading",
+                    new String(sha, StandardCharsets.US_ASCII));
+            jedis.scriptLoad(source);
+            return jedis.evalsha(sha, keys, args);
+        }
+    }
+
+    /**
+     * Queue an EVALSHA on a pipeline. A NOSCRIPT reply surfaces as a
+     * JedisNoScriptException from the Response - the caller loads the script
+     * and resends, since a pipeline can't retry a single command in place.
+     */
+    public Response<Object> eval(Pipeline pipeline, List<byte[]> keys, List<byte[]> args) {
+        return pipeline.evalsha(sha, keys, args);
+    }
+
+    /**
+     * @return SHA1 of the source as the 40 lowercase hex bytes EVALSHA expects
+     */
+    public byte[] sha() {
+        return sha.clone();
+    }
+
+    /**
+     * Encode keys or args for eval(). Small helper so callers don't each
+     * carry their own UTF-8 loop.
+     */
+    public static List<byte[]> encode(List<String> values) {
+        List<byte[]> encoded = new ArrayList<>(values.size());
+        for (String value : values) {
+            encoded.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return encoded;
+    }
+
+    private static byte[] sha1Hex(byte[] source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(source);
+            return HexFormat.of().formatHex(digest).getBytes(StandardCharsets.US_ASCII);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is a required JDK algorithm", e);
+        }
+    }
+}
@@ -21,46 +21,74 @@ public class RedisTokenBucketRateLimiter implements RateLimiter {
     private final JedisPool jedisPool;
     private final long capacity;
     private final double refillRatePerMillis;
-    private final String luaScript;
+    private final RedisScript luaScript;
 
     public RedisTokenBucketRateLimiter(JedisPool jedisPool, long capacity, double refillRatePerSecond) {
         this.jedisPool = jedisPool;
         this.capacity = capacity;
         this.refillRatePerMillis = refillRatePerSecond / 1000.0;
 
-        // Lua script embedded as string
-        this.luaScript = """
+        // Lua script embedded as string. Reserves the permits if they're due
+        // within max_wait - the bucket may go negative (debt) - and returns
+        // the wait in nanos, -1 if they'll never be available.
+        this.luaScript = new RedisScript("""
             local key = KEYS[1]
             local capacity = tonumber(ARGV[1])
             local refill_rate_per_ms = tonumber(ARGV[2])
+            local permits = tonumber(ARGV[3])
+            local max_wait = tonumber(ARGV[4])
             local time = redis.call("TIME")
             local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
             local tokens = tonumber(redis.call("HGET", key, "tokens") or capacity)
             local last_refill = tonumber(redis.call("HGET", key, "last_refill") or now)
             local elapsed = now - last_refill
             tokens = math.min(capacity, tokens + elapsed * refill_rate_per_ms)
-            local allowed = 0
-            if tokens >= 1 then
-                tokens = tokens - 1
-                allowed = 1
+            local wait = 0
+            if tokens < permits then
+                if refill_rate_per_ms <= 0 or permits > capacity then
+                    wait = -1
+                else
+                    wait = math.ceil((permits - tokens) / refill_rate_per_ms * 1000000)
+                end
+            end
+            if wait >= 0 and wait <= max_wait then
+                tokens = tokens - permits
             end
             redis.call("HSET", key, "tokens", tokens, "last_refill", now)
-            redis.call("PEXPIRE", key, 60000)
-            return allowed
-        """;
+            redis.call("PEXPIRE", key, 60000 + math.ceil(math.max(wait, 0) / 1000000))
+            return wait
+        """);
+    }
+
+    /**
+     * SCRIPT LOAD this limiter's script, so requests can go straight to EVALSHA
+     */
+    public void loadScripts() {
+        RedisScript.loadAll(jedisPool, luaScript);
     }
 
     @Override
-    public boolean allowRequest(String key) {
+    public boolean tryAcquire(String key, long permits) {
+        return reserve(key, permits, 0) == 0;
+    }
+
+    @Override
+    public long reserve(String key, long permits, long maxWaitNanos) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
         try (Jedis jedis = jedisPool.getResource()) {
-            Object result = jedis.eval(
-                    luaScript,
-                    Collections.singletonList("rate_limit:user:" + key),
-                    // ARGV[1] = capacity, ARGV[2] = refillRatePerMillis - now comes from Redis's own clock
-                    Arrays.asList(String.valueOf(capacity), String.valueOf(refillRatePerMillis))
+            Object result = luaScript.eval(
+                    jedis,
+                    RedisScript.encode(Collections.singletonList("rate_limit:user:" + key)),
+                    // ARGV[1] = capacity, ARGV[2] = refillRatePerMillis, ARGV[3] = permits,
+                    // ARGV[4] = maxWaitNanos - now comes from Redis's own clock
+                    RedisScript.encode(Arrays.asList(String.valueOf(capacity), String.valueOf(refillRatePerMillis),
+                            String.valueOf(permits), String.valueOf(maxWaitNanos)))
             );
 
-            return Integer.valueOf(result.toString()) == 1;
+            long wait = Long.parseLong(result.toString());
+            return wait < 0 ? Long.MAX_VALUE : wait;
         }
     }
 }
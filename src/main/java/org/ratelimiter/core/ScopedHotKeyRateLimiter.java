@@ -0,0 +1,318 @@
+package org.ratelimiter.core;
+
+import org.ratelimiter.metrics.RateLimiterMetrics;
+import org.ratelimiter.model.LruMap;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The hot-key pre-filter for every level of a request - ip, user and org -
+ * not just the user, so a flood from one IP or one big org is shed on this
+ * node before it costs a Redis call
+ *
+ * Takes the same keys the Redis script gets (from ResolvePolicy) and checks
+ * each one whose scope is configured, in order. A key's limit is its Redis
+ * limit once this node has seen it - learn() is fed whenever
+ * RedisHierarchicalRateLimiter reads a "<key>:config" hash - and its scope's
+ * configured limit before that. Like LocalHotKeyRateLimiter it only ever
+ * sheds: a request that passes every level still goes to Redis.
+ *
+ * Those limits are cluster-wide, so each node holds its share: capacity and
+ * refill x headroom / live nodes (ClusterMembership keeps the count). With
+ * traffic spread evenly a node sheds what the cluster as a whole is over
+ * budget on; the headroom covers uneven spread, so a node busier than its
+ * share doesn't turn away requests Redis would have allowed.
+ *
+ * The share isn't built into the buckets. They hold the cluster-wide limits
+ * in thousandths of a token, and the share sets what a permit costs:
+ * UNITS_PER_TOKEN x live nodes / headroom. A node count change only changes
+ * that price, so every bucket keeps its fill level at the new share - half
+ * full stays half full - rather than starting over with a fresh burst.
+ * A permit priced above a whole bucket is charged the whole bucket, so a
+ * node always holds at least one request's worth of a key.
+ *
+ * With a HotKeyDetector, each key goes through it first, and only keys it
+ * reports hot are looked at any further: a cold key costs a sketch
+ * increment, with no lookup, insert or lock. The limiterFactory's limiters
+ * are then built without a detector of their own.
+ *
+ * What a hot key resolves to - its scope and limits - is cached by the key
+ * as requested, tagged or not, in an LRU map beside the learned limits, so a
+ * request doesn't re-derive the untagged key and the scope from substrings.
+ * Both maps hold the same KnownKey: learn() updates its limits in place. A
+ * request touches the key in both, so a key in use keeps its learned limits
+ * however many others pass through. One evicted from the learned side is
+ * marked so requests resolve it afresh, and a key resolved afresh takes its
+ * Redis limits from the config cache when it holds them, not its scope's.
+ * A hot key costs three hash lookups and allocates nothing.
+ *
+ * Buckets live in one LocalHotKeyRateLimiter per distinct (capacity, refill)
+ * pair, so all keys with the same limits share a table. At most
+ * maxLimitPairs of those tables are held, least recently used dropped first
+ * (its keys start over with full buckets), so the buckets held stay within
+ * the limiterFactory's per-table bound x maxLimitPairs. The levels aren't
+ * charged atomically: a request shed at the org level has already spent its
+ * ip and user tokens here. That only makes the filter a little stricter on
+ * a key that was already over budget somewhere in its hierarchy.
+ *
+ * DSA/Concepts Used:
+ * - Count-min sketch in front, so only hot keys reach the maps below
+ * - LRU maps of last-known limits and of resolved request keys, bounded like the config cache
+ * - LRU-bounded set of hot-key limiters, one per limit pair, created lazily
+ * - Per-node share of a cluster-wide budget as a per-permit price, rescaled in place
+ */
+public class ScopedHotKeyRateLimiter implements LimitsListener {
+
+    /** Bucket units in one token: buckets hold limits x this, so a share needn't be whole tokens */
+    public static final long UNITS_PER_TOKEN = 1_000;
+
+    /** Limit pairs with a bucket table, for the constructors that don't take it */
+    public static final int DEFAULT_MAX_LIMIT_PAIRS = 16;
+
+    /** What a key's Redis limits are when its config hash has no such field */
+    public static final Limits REDIS_DEFAULT_LIMITS = new Limits(
+            Long.parseLong(RedisConfigCache.DEFAULT_CAPACITY), Double.parseDouble(RedisConfigCache.DEFAULT_REFILL_RATE));
+
+    // what a request key resolves to when its scope isn't pre-filtered
+    private static final KnownKey UNFILTERED = new KnownKey(null, null, null);
+
+    private final Map<String, Limits> scopeLimits;
+    private final RateLimiterMetrics metrics;
+    private final Function<Limits, LocalHotKeyRateLimiter> limiterFactory;
+    private final HotKeyDetector detector;
+    private final RedisConfigCache configCache;
+    private final double headroom;
+    private volatile int liveNodes = 1;
+    // bucket units a permit costs at this node's share
+    private volatile double unitsPerPermit;
+
+    // by untagged key; the keys learn() has seen or requests have resolved
+    private final LruMap<String, KnownKey> knownKeys;
+    // by key as requested, tagged or not
+    private final LruMap<String, KnownKey> resolvedKeys;
+    private final LruMap<Limits, LocalHotKeyRateLimiter> limiters;
+
+    public ScopedHotKeyRateLimiter(Map<String, Limits> scopeLimits, RateLimiterMetrics metrics) {
+        this(scopeLimits, 100_000, metrics,
+                limits -> new LocalHotKeyRateLimiter(limits.capacity(), limits.refillRate(), 1, metrics));
+    }
+
+    /**
+     * @param scopeLimits    scopes to pre-filter ("ip", "user", "org"), each with the
+     *                       limits its keys get until their Redis limits are known
+     * @param maxKnownKeys   most keys whose Redis limits are remembered, least recently used
+     *                       evicted first; an evicted key is re-read from the config cache, or
+     *                       has its scope's until learned again
+     * @param limiterFactory builds the hot-key limiter for one (capacity, refill) pair,
+     *                       given in units of 1 / UNITS_PER_TOKEN of a token
+     */
+    public ScopedHotKeyRateLimiter(Map<String, Limits> scopeLimits, int maxKnownKeys, RateLimiterMetrics metrics,
+                                   Function<Limits, LocalHotKeyRateLimiter> limiterFactory) {
+        this(scopeLimits, maxKnownKeys, metrics, limiterFactory, 1.0);
+    }
+
+    /**
+     * @param headroom multiple of its even share of the cluster-wide limits a node holds, at least 1
+     */
+    public ScopedHotKeyRateLimiter(Map<String, Limits> scopeLimits, int maxKnownKeys, RateLimiterMetrics metrics,
+                                   Function<Limits, LocalHotKeyRateLimiter> limiterFactory, double headroom) {
+        this(scopeLimits, maxKnownKeys, metrics, limiterFactory, headroom, null, null, DEFAULT_MAX_LIMIT_PAIRS);
+    }
+
+    /**
+     * @param detector      decides which keys are hot enough to be resolved and charged;
+     *                      null charges every key. The limiterFactory's limiters shouldn't
+     *                      have one too.
+     * @param configCache   where a key resolved afresh finds its Redis limits; null leaves
+     *                      it on its scope's until learn() hears of them again
+     * @param maxLimitPairs most (capacity, refill) pairs with a bucket table at once
+     */
+    public ScopedHotKeyRateLimiter(Map<String, Limits> scopeLimits, int maxKnownKeys, RateLimiterMetrics metrics,
+                                   Function<Limits, LocalHotKeyRateLimiter> limiterFactory, double headroom,
+                                   HotKeyDetector detector, RedisConfigCache configCache, int maxLimitPairs) {
+        if (headroom < 1) {
+            throw new IllegalArgumentException("headroom must be at least 1");
+        }
+        this.scopeLimits = Map.copyOf(scopeLimits);
+        this.knownKeys = new LruMap<>(maxKnownKeys, known -> known.evicted = true);
+        this.resolvedKeys = new LruMap<>(maxKnownKeys);
+        this.limiters = new LruMap<>(maxLimitPairs);
+        this.detector = detector;
+        this.configCache = configCache;
+        this.metrics = metrics;
+        this.limiterFactory = limits -> limiterFactory.apply(new Limits(
+                Math.min(limits.capacity(), Long.MAX_VALUE / UNITS_PER_TOKEN) * UNITS_PER_TOKEN,
+                limits.refillRate() * UNITS_PER_TOKEN));
+        this.headroom = headroom;
+        this.unitsPerPermit = UNITS_PER_TOKEN / headroom;
+    }
+
+    /**
+     * Charge {@code permits} to each pre-filtered level in order, stopping at
+     * the first that's out of local budget.
+     *
+     * @return the key that shed the request, or null if Redis should decide
+     */
+    public String tryAcquire(List<String> keys, long permits) {
+        boolean passed = false;
+        for (int i = 0; i < keys.size(); i++) { // indexed, so a cold request allocates no Iterator
+            String key = keys.get(i);
+            if (detector != null && !detector.record(key, permits)) {
+                continue; // cold: Redis decides, nothing resolved or stored for it
+            }
+            KnownKey known = resolve(key);
+            Limits limits = known.limits();
+            if (limits == null) {
+                continue;
+            }
+            LocalHotKeyRateLimiter.Check check = limiterFor(limits).check(key, permits, cost(permits));
+            passed |= check == LocalHotKeyRateLimiter.Check.PASSED;
+            if (check == LocalHotKeyRateLimiter.Check.SHED) {
+                // shed here, request never reaches Redis - this is the terminal outcome
+                metrics.incrementTotalRequests();
+                metrics.incrementRejected();
+                recordBlockedLevel(known.scope);
+                return key;
+            }
+        }
+        if (passed) {
+            // request still goes on to Redis, which owns total/allowed/rejected for it
+            metrics.incrementLocalHit();
+        }
+        return null;
+    }
+
+    /**
+     * Remember a key's Redis limits, as the raw config values (null = default)
+     */
+    @Override
+    public void learn(String key, String capacity, String refillRate) {
+        KnownKey known = known(RedisKeys.untagged(key), false);
+        if (known != null) {
+            learn(known, capacity, refillRate);
+        }
+    }
+
+    /**
+     * Re-divide the limits over {@code nodes} live nodes, e.g. from ClusterMembership.
+     * Buckets keep their fill level; only the price of a permit changes.
+     */
+    public synchronized void setLiveNodes(int nodes) {
+        int count = Math.max(1, nodes);
+        if (count != liveNodes) {
+            unitsPerPermit = UNITS_PER_TOKEN * count / headroom;
+            liveNodes = count;
+        }
+    }
+
+    public int liveNodes() {
+        return liveNodes;
+    }
+
+    /**
+     * @return number of keys with a local bucket, over all limit pairs
+     */
+    public int size() {
+        return limiters.values().stream().mapToInt(LocalHotKeyRateLimiter::size).sum();
+    }
+
+    // cached; a miss or a key evicted from knownKeys is resolved again, once
+    private KnownKey resolve(String key) {
+        KnownKey known = resolvedKeys.get(key);
+        if (known != null && !known.evicted) {
+            if (known.plain != null) {
+                knownKeys.get(known.plain); // in use, so its learned limits are too
+            }
+            return known;
+        }
+        known = known(RedisKeys.untagged(key), true);
+        if (known == null) {
+            known = UNFILTERED;
+        }
+        resolvedKeys.put(key, known);
+        return known;
+    }
+
+    // null: not a pre-filtered scope. A new entry for a request takes the key's
+    // Redis limits from the config cache, if it has them
+    private KnownKey known(String plain, boolean fromCache) {
+        KnownKey known = knownKeys.get(plain);
+        if (known != null) {
+            return known;
+        }
+        String scope = RedisKeys.scope(plain);
+        Limits limits = scope != null ? scopeLimits.get(scope) : null;
+        if (limits == null) {
+            return null;
+        }
+        known = new KnownKey(plain, scope, limits);
+        RedisConfigCache.Limits cached = fromCache && configCache != null ? configCache.get(plain) : null;
+        if (cached != null) {
+            learn(known, cached.capacity(), cached.refillRate());
+        }
+        return knownKeys.putIfAbsent(plain, known);
+    }
+
+    private static void learn(KnownKey known, String capacity, String refillRate) {
+        try {
+            known.learned = new Limits(
+                    capacity != null ? (long) Double.parseDouble(capacity) : REDIS_DEFAULT_LIMITS.capacity(),
+                    refillRate != null ? Double.parseDouble(refillRate) : REDIS_DEFAULT_LIMITS.refillRate());
+        } catch (NumberFormatException e) {
+            // not a limit the scripts could use either, keep the scope's
+        }
+    }
+
+    // rounded down, so a node's share never comes out a token short
+    private long cost(long permits) {
+        return Math.max(1, (long) (permits * unitsPerPermit));
+    }
+
+    private LocalHotKeyRateLimiter limiterFor(Limits limits) {
+        LocalHotKeyRateLimiter limiter = limiters.get(limits);
+        return limiter != null ? limiter : limiters.putIfAbsent(limits, limiterFactory.apply(limits));
+    }
+
+    private void recordBlockedLevel(String scope) {
+        switch (scope) {
+            case "ip" -> metrics.incrementBlockedIp();
+            case "user" -> metrics.incrementBlockedUser();
+            case "org" -> metrics.incrementBlockedOrg();
+            default -> {
+                // a custom scope, only the total counts it
+            }
+        }
+    }
+
+    /**
+     * A level's limits: bucket capacity and refill per second
+     */
+    public record Limits(long capacity, double refillRate) {
+    }
+
+    // one untagged key: its scope, and its Redis limits once learned
+    private static final class KnownKey {
+        final String plain;
+        final String scope;
+        final Limits scopeLimits;
+        volatile Limits learned;
+        volatile boolean evicted;
+
+        KnownKey(String plain, String scope, Limits scopeLimits) {
+            this.plain = plain;
+            this.scope = scope;
+            this.scopeLimits = scopeLimits;
+        }
+
+        // cluster-wide limits; null: not pre-filtered, or a limit (capacity 0) only Redis can enforce
+        Limits limits() {
+            Limits limits = learned;
+            if (limits == null) {
+                limits = scopeLimits;
+            }
+            return limits == null || limits.capacity() < 1 ? null : limits;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.ratelimiter.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/**
+ * Merges concurrent identical calls into one
+ *
+ * The first caller for a key opens a group and becomes its leader; anyone
+ * else arriving for the same key within the window joins that group instead
+ * of making their own call. When the window closes the leader seals the
+ * group and makes one call on behalf of all of its members, telling it how
+ * many there are. Every member gets the shared result plus its own position
+ * in the group, so a call that grants "k of n" can be split up fairly.
+ *
+ * DSA/Concepts Used:
+ * - ConcurrentHashMap of open groups, one per key
+ * - Lock-free join: CAS on the member count, sealed by swapping in a sentinel
+ */
+public class SingleFlight<K, R> {
+
+    private static final int SEALED = -1;
+
+    private final ConcurrentHashMap<K, Group<R>> groups = new ConcurrentHashMap<>();
+    private final long windowNanos;
+    private final int maxGroupSize;
+
+    /**
+     * @param windowMicros how long a leader waits for others to join before calling
+     * @param maxGroupSize most callers merged into one call
+     */
+    public SingleFlight(long windowMicros, int maxGroupSize) {
+        if (maxGroupSize < 1) {
+            throw new IllegalArgumentException("maxGroupSize must be at least 1");
+        }
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxGroupSize = maxGroupSize;
+    }
+
+    /**
+     * Join the key's open group, or open one and lead it. The leader runs
+     * {@code call} with the final group size on its own thread; members
+     * block until it's done.
+     *
+     * @return this caller's position in the group (0 = leader) and the shared result
+     */
+    public Ticket<R> join(K key, IntFunction<R> call) {
+        while (true) {
+            Group<R> group = groups.computeIfAbsent(key, k -> new Group<>());
+            int index = group.join(maxGroupSize);
+            if (index == 0) {
+                lead(key, group, call);
+            }
+            if (index >= 0) {
+                return new Ticket<>(index, group.result);
+            }
+            // sealed or full - make way for a fresh group and try again
+            groups.remove(key, group);
+        }
+    }
+
+    private void lead(K key, Group<R> group, IntFunction<R> call) {
+        if (windowNanos > 0) {
+            LockSupport.parkNanos(windowNanos);
+        }
+        int size = group.seal();
+        groups.remove(key, group);
+        try {
+            group.result.complete(call.apply(size));
+        } catch (RuntimeException e) {
+            group.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * One caller's share of a merged call
+     */
+    public static final class Ticket<R> {
+        private final int index;
+        private final CompletableFuture<R> result;
+
+        Ticket(int index, CompletableFuture<R> result) {
+            this.index = index;
+            this.result = result;
+        }
+
+        /**
+         * @return position in the group, in join order; 0 is the leader
+         */
+        public int index() {
+            return index;
+        }
+
+        /**
+         * Wait for the merged call
+         *
+         * @throws java.util.concurrent.CompletionException if the call failed
+         */
+        public R result() {
+            return result.join();
+        }
+    }
+
+    private static final class Group<R> {
+        private final AtomicInteger size = new AtomicInteger();
+        private final CompletableFuture<R> result = new CompletableFuture<>();
+
+        /**
+         * @return this caller's index, or -1 if the group no longer takes members
+         */
+        int join(int maxGroupSize) {
+            while (true) {
+                int current = size.get();
+                if (current == SEALED || current >= maxGroupSize) {
+                    return -1;
+                }
+                if (size.compareAndSet(current, current + 1)) {
+                    return current;
+                }
+            }
+        }
+
+        int seal() {
+            return size.getAndSet(SEALED);
+        }
+    }
+}
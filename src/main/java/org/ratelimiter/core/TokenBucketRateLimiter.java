@@ -1,9 +1,9 @@
 // TokenBucketRateLimiter.java
 package org.ratelimiter.core;
 
-import org.ratelimiter.model.TokenBucket;
-
-import java.util.concurrent.ConcurrentHashMap;
+import org.ratelimiter.model.Bucket;
+import org.ratelimiter.model.ExpiringBucketMap;
+import org.ratelimiter.time.TimeSource;
 
 /**
  * Thread-safe per-key token bucket rate limiter
@@ -14,37 +14,89 @@ import java.util.concurrent.ConcurrentHashMap;
  * - O(1) access per key using HashMap
  * - Thread-safety using ConcurrentHashMap
  * - Lazy bucket initialization (computeIfAbsent)
+ * - Pluggable bucket engine: locked TokenBucket or lock-free AtomicTokenBucket
+ * - Idle buckets expire via a timing wheel, so the map doesn't grow forever
  */
 public class TokenBucketRateLimiter implements RateLimiter {
 
     // Mapping from key (user/IP/etc.) to their respective token bucket
-    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final ExpiringBucketMap buckets;
 
     private final long capacity;                 // Max tokens per bucket
     private final double refillRatePerSecond;    // Tokens added per second
+    private final BucketEngine engine;           // Locked or lock-free buckets
+    private final TimeSource timeSource;         // Clock for refill and expiry
 
     public TokenBucketRateLimiter(long capacity, double refillRatePerSecond) {
+        this(capacity, refillRatePerSecond, BucketEngine.LOCKED);
+    }
+
+    public TokenBucketRateLimiter(long capacity, double refillRatePerSecond, BucketEngine engine) {
+        this(capacity, refillRatePerSecond, engine, ExpiringBucketMap.DEFAULT_IDLE_TTL_MILLIS);
+    }
+
+    /**
+     * @param idleTtlMillis how long a refilled bucket may sit untouched before it's evicted
+     */
+    public TokenBucketRateLimiter(long capacity, double refillRatePerSecond, BucketEngine engine, long idleTtlMillis) {
+        this(capacity, refillRatePerSecond, engine, idleTtlMillis, TimeSource.SYSTEM);
+    }
+
+    public TokenBucketRateLimiter(long capacity, double refillRatePerSecond, BucketEngine engine,
+                                  long idleTtlMillis, TimeSource timeSource) {
         this.capacity = capacity;
         this.refillRatePerSecond = refillRatePerSecond;
+        this.engine = engine;
+        this.timeSource = timeSource;
+        this.buckets = new ExpiringBucketMap(capacity, refillRatePerSecond, idleTtlMillis,
+                this::newBucket, () -> { }, timeSource);
     }
 
     /**
-     * Attempt to consume a token for the given key
+     * Attempt to consume {@code permits} tokens for the given key
      * Step 1: Core consumption logic
-     * Step 2: Thread-safe via per-bucket lock in TokenBucket
+     * Step 2: Thread-safe via per-bucket lock in TokenBucket (or CAS in AtomicTokenBucket)
      *
-     * @param key unique identifier (user/IP)
+     * @param key     unique identifier (user/IP)
+     * @param permits tokens this request costs
      * @return true if allowed, false if rate limit exceeded
      */
     @Override
-    public boolean allowRequest(String key) {
+    public boolean tryAcquire(String key, long permits) {
         // Lazily create a bucket for this key if it doesn't exist
-        TokenBucket bucket = buckets.computeIfAbsent(
-                key,
-                k -> new TokenBucket(capacity, refillRatePerSecond)
-        );
+        Bucket bucket = buckets.get(key);
 
         // Step 2: Thread-safe consume
-        return bucket.tryConsume();
+        return bucket.tryConsume(permits);
+    }
+
+    @Override
+    public long reserve(String key, long permits, long maxWaitNanos) {
+        return buckets.reserve(key, permits, maxWaitNanos);
+    }
+
+    /**
+     * @return max tokens per bucket
+     */
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of keys currently holding a bucket
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * @return number of idle buckets evicted so far
+     */
+    public long evictionCount() {
+        return buckets.evictions();
+    }
+
+    private Bucket newBucket() {
+        return engine.newBucket(capacity, refillRatePerSecond, timeSource);
     }
 }
@@ -0,0 +1,505 @@
+package org.ratelimiter.core;
+
+import org.ratelimiter.metrics.RateLimiterMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.UnifiedJedis;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token leasing: a node withdraws a block of tokens from a key's Redis bucket
+ * in one round trip, then hands them out from an in-memory counter
+ *
+ * Meant for high-volume keys that can live with a little imprecision, like
+ * org-level quotas. Redis still holds the budget - tokens are withdrawn, not
+ * copied, so nodes together never spend more than the bucket had - but the
+ * tokens one node is holding are invisible to the others. A node can turn
+ * requests away while another node still holds spare tokens, and the spend
+ * over time is lumpier than a per-request check. Both effects are bounded by
+ * the lease size.
+ *
+ * Lease size follows the key's observed local rate: roughly leaseWindow's
+ * worth of traffic, clamped to [minLease, maxLease]. A busy key gets big
+ * leases and rarely touches Redis; a quiet key holds back little. When a
+ * lease runs low the next one is fetched in the background. A node that hasn't
+ * used a key for idleReturn gives the remaining tokens back, and so does
+ * close() on shutdown.
+ *
+ * Leases use the token bucket's layout (tokens + last_refill hash), whatever
+ * algorithm the hierarchical limiter runs. Limits come from the key's
+ * untagged "<key>:config" like everywhere else: resolved here through the
+ * config cache and passed to the scripts, since on a cluster that hash is on
+ * another slot.
+ *
+ * Only this level's own outcomes (local / Redis hits, lease traffic) are
+ * counted here. A request's total / allowed / rejected belong to whoever
+ * decides the whole request - the hierarchical limiter, or the caller when
+ * leases alone decided it.
+ *
+ * DSA/Concepts Used:
+ * - CAS-decremented counter per key, no lock on the fast path
+ * - One refill in flight per key (lock + background prefetch at a low-water mark)
+ * - EWMA of the local spend rate to size leases
+ */
+public class TokenLeaseRateLimiter implements RateLimiter, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenLeaseRateLimiter.class);
+
+    // Withdraw up to ARGV[1] tokens, and at least ARGV[2] - nothing is taken if
+    // the bucket can't cover that. ARGV[3], ARGV[4] = capacity, refill_rate, or
+    // "" for the script to read them itself. Returns {granted, waitNanos}: the
+    // wait until ARGV[2] would be there when nothing was granted, -1 for never.
+    private static final RedisScript LEASE_SCRIPT = new RedisScript("""
+        local want = tonumber(ARGV[1])
+        local least = tonumber(ARGV[2])
+        local time = redis.call("TIME")
+        local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+        local config = {ARGV[3], ARGV[4]}
+        if ARGV[3] == "" then
+            config = redis.call("HMGET", KEYS[1] .. ":config", "capacity", "refill_rate")
+        end
+        local capacity = tonumber(config[1] or 10)
+        local refill_rate = tonumber(config[2] or 5)
+        local tokens = tonumber(redis.call("HGET", KEYS[1], "tokens") or capacity)
+        local last_refill = tonumber(redis.call("HGET", KEYS[1], "last_refill") or now)
+        tokens = math.min(capacity, tokens + (now - last_refill) * refill_rate / 1000.0)
+        local grant = math.min(want, math.floor(tokens + 1e-9))
+        if grant < least then
+            if refill_rate <= 0 or least > capacity then
+                return {0, -1}
+            end
+            return {0, math.ceil((least - tokens) / refill_rate * 1000000000)}
+        end
+        redis.call("HSET", KEYS[1], "tokens", tokens - grant, "last_refill", now)
+        redis.call("PEXPIRE", KEYS[1], 60000)
+        return {grant, 0}
+    """);
+
+    // Give ARGV[1] unspent tokens back, never past capacity; ARGV[2], ARGV[3] as LEASE_SCRIPT's limits
+    private static final RedisScript RETURN_SCRIPT = new RedisScript("""
+        local time = redis.call("TIME")
+        local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+        local config = {ARGV[2], ARGV[3]}
+        if ARGV[2] == "" then
+            config = redis.call("HMGET", KEYS[1] .. ":config", "capacity", "refill_rate")
+        end
+        local capacity = tonumber(config[1] or 10)
+        local refill_rate = tonumber(config[2] or 5)
+        local tokens = tonumber(redis.call("HGET", KEYS[1], "tokens") or capacity)
+        local last_refill = tonumber(redis.call("HGET", KEYS[1], "last_refill") or now)
+        tokens = math.min(capacity, tokens + (now - last_refill) * refill_rate / 1000.0 + tonumber(ARGV[1]))
+        redis.call("HSET", KEYS[1], "tokens", tokens, "last_refill", now)
+        redis.call("PEXPIRE", KEYS[1], 60000)
+        return 1
+    """);
+
+    private static final Grant TAKEN = new Grant(0, true);
+    // fail-open pass: nothing was taken, so nothing to refund
+    private static final Grant UNLEASED = new Grant(0, false);
+    private static final Grant NEVER = new Grant(Long.MAX_VALUE, false);
+
+    // fetch the next lease in the background once a quarter of this one is left
+    private static final int LOW_WATER_DIVISOR = 4;
+    // weight of the latest rate sample in the EWMA
+    private static final double RATE_ALPHA = 0.5;
+
+    private final UnifiedJedis redis;
+    private final RedisConfigCache configCache;
+    private final RateLimiterMetrics metrics;
+    private final RedisFailMode failMode;
+    private final Set<String> scopes;
+    private final long leaseWindowNanos;
+    private final long minLease;
+    private final long maxLease;
+    private final long idleReturnNanos;
+
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private final ExecutorService prefetcher;
+    private final ScheduledExecutorService idleSweeper;
+
+    /**
+     * @param scopes           key scopes (ip / user / org) served from leases, see covers()
+     * @param leaseWindowMillis how much of a key's observed traffic one lease should cover;
+     *                          longer means fewer Redis calls but tokens held back longer
+     * @param minLease         smallest lease, also the first one for a key
+     * @param maxLease         largest lease - bounds how many tokens a node can hold back
+     * @param idleReturnMillis unused tokens go back to Redis after the key is idle this long
+     */
+    public TokenLeaseRateLimiter(UnifiedJedis redis, RateLimiterMetrics metrics, RedisFailMode failMode,
+                                 Set<String> scopes, long leaseWindowMillis, long minLease, long maxLease,
+                                 long idleReturnMillis) {
+        this(redis, metrics, failMode, scopes, leaseWindowMillis, minLease, maxLease, idleReturnMillis, null);
+    }
+
+    /**
+     * @param configCache the hierarchical limiter's config cache, so both read the same
+     *                    limits; null reads "<key>:config" on every lease fetch and return
+     */
+    public TokenLeaseRateLimiter(UnifiedJedis redis, RateLimiterMetrics metrics, RedisFailMode failMode,
+                                 Set<String> scopes, long leaseWindowMillis, long minLease, long maxLease,
+                                 long idleReturnMillis, RedisConfigCache configCache) {
+        if (minLease < 1 || maxLease < minLease) {
+            throw new IllegalArgumentException("need 1 <= minLease <= maxLease");
+        }
+        if (idleReturnMillis <= 0) {
+            throw new IllegalArgumentException("idleReturnMillis must be positive");
+        }
+        this.redis = redis;
+        this.configCache = configCache;
+        this.metrics = metrics;
+        this.failMode = failMode;
+        this.scopes = Set.copyOf(scopes);
+        this.leaseWindowNanos = TimeUnit.MILLISECONDS.toNanos(leaseWindowMillis);
+        this.minLease = minLease;
+        this.maxLease = maxLease;
+        this.idleReturnNanos = TimeUnit.MILLISECONDS.toNanos(idleReturnMillis);
+
+        this.prefetcher = Executors.newSingleThreadExecutor(daemon("redis-lease-prefetch"));
+        this.idleSweeper = Executors.newSingleThreadScheduledExecutor(daemon("redis-lease-return"));
+        long sweepMillis = Math.max(1, idleReturnMillis / 2);
+        idleSweeper.scheduleWithFixedDelay(this::returnIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if this key's scope is served from leases, e.g.
+     *         rate_limit:org:acme (or rate_limit:{org:acme}:org:acme on a cluster) for "org"
+     */
+    public boolean covers(String key) {
+        String scope = RedisKeys.scope(key);
+        return scope != null && scopes.contains(scope);
+    }
+
+    @Override
+    public boolean tryAcquire(String key, long permits) {
+        return reserve(key, permits, 0) == 0;
+    }
+
+    /**
+     * Leased tokens can't go into debt, so only what's there right now can be
+     * reserved. Otherwise the return value is the estimated wait, pushed
+     * past maxWaitNanos so it can't be mistaken for a reservation.
+     */
+    @Override
+    public long reserve(String key, long permits, long maxWaitNanos) {
+        long wait = acquire(key, permits).waitNanos();
+        if (wait == 0 || wait == Long.MAX_VALUE) {
+            return wait;
+        }
+        return Math.max(wait, maxWaitNanos == Long.MAX_VALUE ? Long.MAX_VALUE : maxWaitNanos + 1);
+    }
+
+    /**
+     * tryAcquire that also says whether tokens actually left a lease. When
+     * Redis can't be reached and the fail mode lets the request through,
+     * nothing is taken: there is nothing to refund, and the key is still
+     * undecided as far as this limiter goes.
+     */
+    public Grant acquire(String key, long permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
+        while (true) {
+            Lease lease = leases.computeIfAbsent(key, Lease::new);
+            lease.lastUse = System.nanoTime();
+            if (lease.take(permits)) {
+                metrics.incrementLocalHit();
+                prefetchIfLow(lease);
+                return TAKEN;
+            }
+            Grant grant = refillAndTake(lease, permits);
+            if (grant != null) {
+                return grant;
+            }
+            // lease was retired while we waited for it, start over on a fresh one
+        }
+    }
+
+    /**
+     * acquire() from tokens already on this node only, never waiting on Redis:
+     * for callers that must not block, like the async endpoint. A key without
+     * enough held tokens comes back UNLEASED - allowed but not debited, so
+     * the caller sends it to Redis with the other levels - and has its next
+     * lease fetched in the background.
+     */
+    public Grant acquireHeld(String key, long permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
+        Lease lease = leases.computeIfAbsent(key, Lease::new);
+        lease.lastUse = System.nanoTime();
+        boolean taken = lease.take(permits);
+        if (taken) {
+            metrics.incrementLocalHit();
+        }
+        prefetchIfLow(lease);
+        return taken ? TAKEN : UNLEASED;
+    }
+
+    /**
+     * Put back tokens a Grant took for a request that was turned down
+     * elsewhere (e.g. by another level of the hierarchy), so they aren't lost.
+     * Only pass what was actually debited.
+     */
+    public void refund(String key, long permits) {
+        while (true) {
+            Lease lease = leases.computeIfAbsent(key, Lease::new);
+            // under the lock retire() holds, so a refund can't land in tokens already sent back
+            lease.refillLock.lock();
+            try {
+                if (!lease.retired) {
+                    lease.tokens.addAndGet(permits);
+                    lease.spent.addAndGet(-permits);
+                    return;
+                }
+            } finally {
+                lease.refillLock.unlock();
+            }
+            // retired and returned without these tokens: keep them on the key's next lease
+        }
+    }
+
+    /**
+     * @return tokens this node currently holds for the key
+     */
+    public long held(String key) {
+        Lease lease = leases.get(key);
+        return lease == null ? 0 : lease.tokens.get();
+    }
+
+    /**
+     * Return every held token to Redis and stop the background threads
+     */
+    @Override
+    public void close() {
+        idleSweeper.shutdownNow();
+        prefetcher.shutdownNow();
+        for (Lease lease : leases.values()) {
+            retire(lease);
+        }
+    }
+
+    /**
+     * @return the grant, or null if the lease was retired (or emptied by
+     *         others after a refill) and the caller should retry
+     */
+    private Grant refillAndTake(Lease lease, long permits) {
+        lease.refillLock.lock();
+        try {
+            if (lease.retired) {
+                return null;
+            }
+            // someone else may have refilled while we waited for the lock
+            if (lease.take(permits)) {
+                metrics.incrementLocalHit();
+                return TAKEN;
+            }
+            long now = System.nanoTime();
+            if (now - lease.emptyUntil < 0) {
+                return new Grant(lease.emptyUntil - now, false); // Redis told us it's empty, don't ask again yet
+            }
+            long wait = fetch(lease, permits);
+            if (wait != 0) {
+                return wait == Long.MAX_VALUE ? NEVER : new Grant(wait, false);
+            }
+            if (lease.take(permits)) {
+                metrics.incrementRedisHit();
+                return TAKEN;
+            }
+            return null; // the fresh lease was taken by others first, go around again
+        } catch (RuntimeException e) {
+            return failOver(e);
+        } finally {
+            lease.refillLock.unlock();
+        }
+    }
+
+    // one LEASE_SCRIPT call, under the lease's refillLock; @return 0 if tokens were added
+    private long fetch(Lease lease, long least) {
+        long now = System.nanoTime();
+        long size = Math.max(least, leaseSize(lease, now));
+        List<String> limits = limits(lease.key);
+        List<?> reply = (List<?>) LEASE_SCRIPT.eval(redis,
+                RedisScript.encode(List.of(lease.key)),
+                RedisScript.encode(List.of(String.valueOf(size), String.valueOf(least), limits.get(0), limits.get(1))));
+        long granted = (Long) reply.get(0);
+        long wait = (Long) reply.get(1);
+        if (granted == 0) {
+            lease.emptyUntil = wait < 0 ? now + idleReturnNanos : now + wait;
+            return wait < 0 ? Long.MAX_VALUE : Math.max(1, wait);
+        }
+        lease.tokens.addAndGet(granted);
+        metrics.recordLeaseRefill(granted);
+        return 0;
+    }
+
+    // {capacity, refill_rate} for the scripts' ARGV: from the config cache, else read
+    // and cached here. On a cluster the tagged key's ":config" hash is the untagged
+    // key's, on another slot, so it is always read here. Otherwise, with no cache,
+    // {"", ""} lets the script read it in the same round trip.
+    private List<String> limits(String key) {
+        boolean clustered = redis instanceof JedisCluster;
+        String configKey = clustered ? RedisKeys.untagged(key) : key;
+        RedisConfigCache.Limits limits = configCache != null ? configCache.get(configKey) : null;
+        if (limits == null && configCache == null && !clustered) {
+            return List.of("", "");
+        }
+        if (limits == null) {
+            long generation = configCache != null ? configCache.generation() : 0;
+            List<String> config = redis.hmget(configKey + ":config", "capacity", "refill_rate");
+            if (configCache == null) {
+                return List.of(Objects.requireNonNullElse(config.get(0), RedisConfigCache.DEFAULT_CAPACITY),
+                        Objects.requireNonNullElse(config.get(1), RedisConfigCache.DEFAULT_REFILL_RATE));
+            }
+            limits = configCache.put(configKey, config.get(0), config.get(1), generation);
+        }
+        return List.of(limits.capacity(), limits.refillRate());
+    }
+
+    // tokens this key should get next: leaseWindow's worth of its recent spend rate
+    private long leaseSize(Lease lease, long now) {
+        long spent = Math.max(0, lease.spent.getAndSet(0)); // refunds can outrun spends on a fresh lease
+        long elapsed = now - lease.lastFetch;
+        lease.lastFetch = now;
+        if (elapsed > 0) {
+            double rate = spent * 1e9 / elapsed;
+            lease.ratePerSecond = lease.ratePerSecond == 0
+                    ? rate
+                    : RATE_ALPHA * rate + (1 - RATE_ALPHA) * lease.ratePerSecond;
+        }
+        long size = (long) Math.ceil(lease.ratePerSecond * leaseWindowNanos / 1e9);
+        return Math.min(maxLease, Math.max(minLease, size));
+    }
+
+    private void prefetchIfLow(Lease lease) {
+        if (lease.tokens.get() * LOW_WATER_DIVISOR > lease.lastSize()
+                || !lease.prefetching.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            prefetcher.execute(() -> {
+                lease.refillLock.lock();
+                try {
+                    if (!lease.retired && System.nanoTime() - lease.emptyUntil >= 0) {
+                        fetch(lease, 1);
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("background lease for {} failed: {}", lease.key, e.toString());
+                } finally {
+                    lease.refillLock.unlock();
+                    lease.prefetching.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            lease.prefetching.set(false); // shutting down
+        }
+    }
+
+    private void returnIdle() {
+        long now = System.nanoTime();
+        for (Lease lease : leases.values()) {
+            if (now - lease.lastUse > idleReturnNanos) {
+                retire(lease);
+            }
+        }
+    }
+
+    // take the lease out of service and give back whatever it still holds
+    private void retire(Lease lease) {
+        lease.refillLock.lock();
+        try {
+            lease.retired = true;
+            leases.remove(lease.key, lease);
+            long unused = lease.tokens.getAndSet(0);
+            if (unused > 0) {
+                List<String> limits = limits(lease.key);
+                RETURN_SCRIPT.eval(redis,
+                        RedisScript.encode(List.of(lease.key)),
+                        RedisScript.encode(List.of(String.valueOf(unused), limits.get(0), limits.get(1))));
+                metrics.recordLeaseReturn(unused);
+            }
+        } catch (RuntimeException e) {
+            log.warn("could not return leased tokens for {}: {}", lease.key, e.toString());
+        } finally {
+            lease.refillLock.unlock();
+        }
+    }
+
+    // Redis unreachable or erroring - fall back to the configured fail mode. Anything but
+    // FAIL_CLOSED lets the level through without taking a token, so the caller can hand the
+    // key to the hierarchical limiter, whose fail mode (e.g. LOCAL_FALLBACK's limits) applies
+    private Grant failOver(RuntimeException e) {
+        log.warn("redis lease failed, applying {}: {}", failMode, e.toString());
+        metrics.incrementRedisFailure();
+        return failMode == RedisFailMode.FAIL_CLOSED ? NEVER : UNLEASED;
+    }
+
+    private static java.util.concurrent.ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * One leased charge: the wait as reserve(key, permits, 0) reports it (0 =
+     * allowed), and whether that allowance came out of a lease
+     */
+    public record Grant(long waitNanos, boolean debited) {
+        public boolean allowed() {
+            return waitNanos == 0;
+        }
+    }
+
+    // One key's tokens on this node
+    private final class Lease {
+        private final String key;
+        private final AtomicLong tokens = new AtomicLong();
+        private final AtomicLong spent = new AtomicLong();       // since the last fetch, for the rate
+        private final ReentrantLock refillLock = new ReentrantLock();
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+        private volatile long lastUse;
+        private volatile long emptyUntil;
+        private volatile boolean retired;
+        private volatile double ratePerSecond;                    // guarded by refillLock
+        private long lastFetch;                                   // guarded by refillLock
+
+        Lease(String key) {
+            this.key = key;
+            long now = System.nanoTime();
+            this.lastUse = now;
+            this.emptyUntil = now;
+            this.lastFetch = now;
+        }
+
+        boolean take(long permits) {
+            while (true) {
+                long current = tokens.get();
+                if (current < permits) {
+                    return false;
+                }
+                if (tokens.compareAndSet(current, current - permits)) {
+                    spent.addAndGet(permits);
+                    return true;
+                }
+            }
+        }
+
+        long lastSize() {
+            return Math.min(maxLease, Math.max(minLease,
+                    (long) Math.ceil(ratePerSecond * leaseWindowNanos / 1e9)));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.ratelimiter.metrics;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fixed-memory distinct count estimator
+ *
+ * The 64-bit hash of each item picks one of 2^precision registers with its
+ * top bits; the register keeps the longest run of leading zeros seen in the
+ * remaining bits. Long runs are rare, so the runs together say how many
+ * distinct hashes went by: the estimate is a bias-corrected harmonic mean
+ * over the registers, with linear counting while most registers are still
+ * empty. Relative error is about 1.04 / sqrt(2^precision), ~1.6% at 12.
+ *
+ * Registers only ever grow, so add() is a read and, rarely, a CAS - no lock,
+ * and adding an item already seen writes nothing. Memory is 4 bytes per
+ * register whatever the number of items.
+ *
+ * DSA/Concepts Used:
+ * - HyperLogLog (Flajolet et al.), small-range linear counting
+ * - AtomicIntegerArray registers, CAS max
+ * - Union = register-wise max, for sliding windows
+ */
+public class HyperLogLog {
+
+    private final int precision;
+    private final AtomicIntegerArray registers;
+    private final double alphaMM;
+
+    /**
+     * @param precision 4..18; 2^precision registers
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("precision must be between 4 and 18");
+        }
+        this.precision = precision;
+        int m = 1 << precision;
+        this.registers = new AtomicIntegerArray(m);
+        double alpha = switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+        this.alphaMM = alpha * m * m;
+    }
+
+    public void add(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // leading zeros of the bits below the index, plus one; the sentinel bit caps the run
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        int current = registers.get(index);
+        while (rank > current) {
+            if (registers.compareAndSet(index, current, rank)) {
+                return;
+            }
+            current = registers.get(index);
+        }
+    }
+
+    public long estimate() {
+        int[] snapshot = new int[registers.length()];
+        mergeInto(snapshot);
+        return estimate(snapshot, alphaMM);
+    }
+
+    /**
+     * Register-wise max into {@code target}, i.e. the union of the two
+     */
+    public void mergeInto(int[] target) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] = Math.max(target[i], registers.get(i));
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < registers.length(); i++) {
+            registers.set(i, 0);
+        }
+    }
+
+    public int registerCount() {
+        return registers.length();
+    }
+
+    /**
+     * Estimate of a union built with mergeInto()
+     */
+    public long estimate(int[] merged) {
+        return estimate(merged, alphaMM);
+    }
+
+    private static long estimate(int[] registers, double alphaMM) {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (int register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alphaMM / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+}
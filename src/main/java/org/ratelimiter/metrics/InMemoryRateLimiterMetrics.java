@@ -1,66 +1,266 @@
 package org.ratelimiter.metrics;
 
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Default metrics: counters in memory, read by the /metrics and
+ * /prometheus/metrics endpoints
+ *
+ * Every request bumps several counters, from every request thread. With one
+ * AtomicLong per counter those threads fight over the same cache lines;
+ * a LongAdder gives each contending thread its own padded cell and only
+ * adds them up when read. Reads are a snapshot: sum() of the cells at that
+ * moment, not an atomic view across counters.
+ *
+ * DSA/Concepts Used:
+ * - LongAdder: striped, cache-line padded cells, summed on read
+ * - Lock-free per-stage latency histograms (LatencyHistogram)
+ * - Per-scope HyperLogLog key counts instead of a set of every key seen
+ */
 public class InMemoryRateLimiterMetrics implements RateLimiterMetrics {
 
-    public final AtomicLong total = new AtomicLong();
-    public final AtomicLong allowed = new AtomicLong();
-    public final AtomicLong rejected = new AtomicLong();
+    private final LongAdder total = new LongAdder();
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
 
-    public final AtomicLong blockedIp = new AtomicLong();
-    public final AtomicLong blockedUser = new AtomicLong();
-    public final AtomicLong blockedOrg = new AtomicLong();
+    private final LongAdder blockedIp = new LongAdder();
+    private final LongAdder blockedUser = new LongAdder();
+    private final LongAdder blockedOrg = new LongAdder();
 
-    public final AtomicLong localHits = new AtomicLong();
-    public final AtomicLong redisHits = new AtomicLong();
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder redisHits = new LongAdder();
 
-    public final AtomicLong redisFailure = new AtomicLong();
+    private final LongAdder redisFailure = new LongAdder();
 
-    private final Set<String> uniqueKeys = ConcurrentHashMap.newKeySet();
-    private final AtomicLong totalRedisLatencyMs = new AtomicLong();
-    private final AtomicLong redisCalls = new AtomicLong();
+    private final LongAdder localBucketEvictions = new LongAdder();
+
+    private final LongAdder hotKeyTableHits = new LongAdder();
+    private final LongAdder hotKeyTableMisses = new LongAdder();
+    private final LongAdder hotKeyAdmissionRejections = new LongAdder();
+    private final LongAdder hotKeyTableEvictions = new LongAdder();
+
+    private final LongAdder configCacheHits = new LongAdder();
+    private final LongAdder configCacheMisses = new LongAdder();
+    private final LongAdder configInvalidations = new LongAdder();
+
+    private final LongAdder leaseRefills = new LongAdder();
+    private final LongAdder leasedTokens = new LongAdder();
+    private final LongAdder returnedTokens = new LongAdder();
+
+    private final LongAdder redisPoolBorrows = new LongAdder();
+    private final LongAdder redisPoolBorrowWaitNanos = new LongAdder();
+    private final LongAdder redisPoolExhausted = new LongAdder();
+
+    private final LongAdder circuitOpened = new LongAdder();
+    private final LongAdder circuitHalfOpened = new LongAdder();
+    private final LongAdder circuitClosed = new LongAdder();
+    private final LongAdder circuitShortCircuited = new LongAdder();
+
+    private final KeyCardinality keyCardinality;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[LatencyStage.values().length];
+    private final LongAdder totalConfigInvalidationLagMs = new LongAdder();
+    private final AtomicLong maxConfigInvalidationLagMs = new AtomicLong();
+
+    public InMemoryRateLimiterMetrics() {
+        this(12, 0);
+    }
+
+    /**
+     * @param cardinalityPrecision      HyperLogLog precision for the per-scope key counts
+     * @param cardinalityWindowMillis   also count distinct keys over this sliding window, 0 = off
+     */
+    public InMemoryRateLimiterMetrics(int cardinalityPrecision, long cardinalityWindowMillis) {
+        this.keyCardinality = new KeyCardinality(cardinalityPrecision, cardinalityWindowMillis, 5);
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void incrementTotalRequests() { total.increment(); }
+
+    @Override
+    public void incrementAllowed() { allowed.increment(); }
+
+    @Override
+    public void incrementRejected() { rejected.increment(); }
+
+    @Override
+    public void incrementBlockedIp() { blockedIp.increment(); }
+
+    @Override
+    public void incrementBlockedUser() { blockedUser.increment(); }
+
+    @Override
+    public void incrementBlockedOrg() { blockedOrg.increment(); }
 
     @Override
-    public void incrementTotalRequests() { total.incrementAndGet(); }
+    public void incrementLocalHit() { localHits.increment(); }
 
     @Override
-    public void incrementAllowed() { allowed.incrementAndGet(); }
+    public void incrementRedisFailure() { redisFailure.increment(); }
 
     @Override
-    public void incrementRejected() { rejected.incrementAndGet(); }
+    public void incrementRedisHit() { redisHits.increment(); }
 
     @Override
-    public void incrementBlockedIp() { blockedIp.incrementAndGet(); }
+    public void incrementLocalBucketEviction() { localBucketEvictions.increment(); }
 
     @Override
-    public void incrementBlockedUser() { blockedUser.incrementAndGet(); }
+    public void incrementHotKeyTableHit() { hotKeyTableHits.increment(); }
 
     @Override
-    public void incrementBlockedOrg() { blockedOrg.incrementAndGet(); }
+    public void incrementHotKeyTableMiss() { hotKeyTableMisses.increment(); }
 
     @Override
-    public void incrementLocalHit() { localHits.incrementAndGet(); }
+    public void incrementHotKeyAdmissionRejected() { hotKeyAdmissionRejections.increment(); }
 
     @Override
-    public void incrementRedisFailure() { redisFailure.incrementAndGet(); }
+    public void incrementHotKeyTableEviction() { hotKeyTableEvictions.increment(); }
 
     @Override
-    public void incrementRedisHit() { redisHits.incrementAndGet(); }
+    public void incrementConfigCacheHit() { configCacheHits.increment(); }
 
-    public void recordKeys(List<String> keys) { uniqueKeys.addAll(keys); }
+    @Override
+    public void incrementConfigCacheMiss() { configCacheMisses.increment(); }
 
-    public int getKeyCardinality() { return uniqueKeys.size(); }
+    @Override
+    public void recordConfigInvalidation(long lagMs) {
+        configInvalidations.increment();
+        totalConfigInvalidationLagMs.add(lagMs);
+        maxConfigInvalidationLagMs.accumulateAndGet(lagMs, Math::max);
+    }
 
-    public void recordRedisLatency(long ms) {
-        totalRedisLatencyMs.addAndGet(ms);
-        redisCalls.incrementAndGet();
+    @Override
+    public void recordLeaseRefill(long tokens) {
+        leaseRefills.increment();
+        leasedTokens.add(tokens);
     }
+
+    @Override
+    public void recordLeaseReturn(long tokens) { returnedTokens.add(tokens); }
+
+    @Override
+    public void recordRedisPoolBorrow(long waitNanos) {
+        redisPoolBorrows.increment();
+        redisPoolBorrowWaitNanos.add(waitNanos);
+        recordLatency(LatencyStage.POOL_BORROW, waitNanos);
+    }
+
+    @Override
+    public void incrementRedisPoolExhausted() { redisPoolExhausted.increment(); }
+
+    @Override
+    public void incrementCircuitOpened() { circuitOpened.increment(); }
+
+    @Override
+    public void incrementCircuitHalfOpened() { circuitHalfOpened.increment(); }
+
+    @Override
+    public void incrementCircuitClosed() { circuitClosed.increment(); }
+
+    @Override
+    public void incrementCircuitShortCircuited() { circuitShortCircuited.increment(); }
+
+    public long getTotal() { return total.sum(); }
+
+    public long getAllowed() { return allowed.sum(); }
+
+    public long getRejected() { return rejected.sum(); }
+
+    public long getBlockedIp() { return blockedIp.sum(); }
+
+    public long getBlockedUser() { return blockedUser.sum(); }
+
+    public long getBlockedOrg() { return blockedOrg.sum(); }
+
+    public long getLocalHits() { return localHits.sum(); }
+
+    public long getRedisHits() { return redisHits.sum(); }
+
+    public long getRedisFailure() { return redisFailure.sum(); }
+
+    public long getLocalBucketEvictions() { return localBucketEvictions.sum(); }
+
+    public long getConfigCacheHits() { return configCacheHits.sum(); }
+
+    public long getConfigCacheMisses() { return configCacheMisses.sum(); }
+
+    public long getConfigInvalidations() { return configInvalidations.sum(); }
+
+    public long getLeaseRefills() { return leaseRefills.sum(); }
+
+    public long getLeasedTokens() { return leasedTokens.sum(); }
+
+    public long getReturnedTokens() { return returnedTokens.sum(); }
+
+    public long getRedisPoolBorrows() { return redisPoolBorrows.sum(); }
+
+    public long getRedisPoolBorrowWaitNanos() { return redisPoolBorrowWaitNanos.sum(); }
+
+    public long getRedisPoolExhausted() { return redisPoolExhausted.sum(); }
+
+    public long getCircuitOpened() { return circuitOpened.sum(); }
+
+    public long getCircuitHalfOpened() { return circuitHalfOpened.sum(); }
+
+    public long getCircuitClosed() { return circuitClosed.sum(); }
+
+    public long getCircuitShortCircuited() { return circuitShortCircuited.sum(); }
+
+    public long getHotKeyTableHits() { return hotKeyTableHits.sum(); }
+
+    public long getHotKeyTableMisses() { return hotKeyTableMisses.sum(); }
+
+    public long getHotKeyAdmissionRejections() { return hotKeyAdmissionRejections.sum(); }
+
+    public long getHotKeyTableEvictions() { return hotKeyTableEvictions.sum(); }
+
+    public double getHotKeyTableHitRatio() {
+        long hits = hotKeyTableHits.sum();
+        long lookups = hits + hotKeyTableMisses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public double getAverageConfigInvalidationLagMs() {
+        long invalidations = configInvalidations.sum();
+        return invalidations == 0 ? 0 : (double) totalConfigInvalidationLagMs.sum() / invalidations;
+    }
+
+    public long getMaxConfigInvalidationLagMs() { return maxConfigInvalidationLagMs.get(); }
+
+    public void recordKeys(List<String> keys) {
+        for (int i = 0; i < keys.size(); i++) {
+            keyCardinality.record(keys.get(i));
+        }
+    }
+
+    /**
+     * Estimated distinct keys across all scopes: within the sliding window if
+     * there is one, else since startup
+     */
+    public int getKeyCardinality() {
+        long total = 0;
+        for (String scope : KeyCardinality.SCOPES) {
+            total += keyCardinality.window(scope);
+        }
+        return (int) Math.min(total, Integer.MAX_VALUE);
+    }
+
+    public KeyCardinality keyCardinality() { return keyCardinality; }
+
+    public void recordRedisLatency(long latencyNanos) { recordLatency(LatencyStage.REDIS_EVAL, latencyNanos); }
+
+    @Override
+    public void recordLatency(LatencyStage stage, long nanos) { latencies[stage.ordinal()].record(nanos); }
+
+    public LatencyHistogram latency(LatencyStage stage) { return latencies[stage.ordinal()]; }
+
     public double getAverageRedisLatencyMs() {
-        long calls = redisCalls.get();
-        return calls == 0 ? 0 : (double) totalRedisLatencyMs.get() / calls;
+        LatencyHistogram redis = latency(LatencyStage.REDIS_EVAL);
+        long calls = redis.getCount();
+        return calls == 0 ? 0 : redis.getSumNanos() / 1e6 / calls;
     }
 }
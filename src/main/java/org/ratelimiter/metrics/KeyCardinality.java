@@ -0,0 +1,176 @@
+package org.ratelimiter.metrics;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distinct rate limit keys per scope (ip / user / org), all-time and over a
+ * sliding window, in fixed memory
+ *
+ * A key's scope is the segment after "rate_limit:", past any cluster hash
+ * tag; keys that don't follow the pattern count under "other". The tag is
+ * left out of the hash too, so an ip counts once whichever org anchored it.
+ * Hashing walks the key's chars in place, nothing is allocated per key.
+ *
+ * The window is a ring of HyperLogLogs, one per slice of it. A key goes into
+ * the all-time sketch and the current slice's; a slice is cleared by the
+ * first add that finds it belongs to an older round of the ring. The window
+ * estimate is the union of the slices still inside it, so it moves in
+ * slice-sized steps. A few adds racing with a slice's clear may be lost.
+ *
+ * DSA/Concepts Used:
+ * - One HyperLogLog per scope, plus a ring buffer of per-slice HyperLogLogs
+ * - FNV-1a over the chars, finished with the murmur3 64-bit mixer
+ * - Slice epochs in an AtomicLongArray, CAS decides who clears
+ */
+public class KeyCardinality {
+
+    public static final List<String> SCOPES = List.of("ip", "user", "org", "other");
+
+    private static final String PREFIX = "rate_limit:";
+    private static final int OTHER = SCOPES.size() - 1;
+
+    private final HyperLogLog[] allTime = new HyperLogLog[SCOPES.size()];
+
+    // null when there's no window
+    private final HyperLogLog[][] slices;
+    private final AtomicLongArray sliceEpochs;
+    private final long sliceNanos;
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param precision    HyperLogLog precision, 2^precision registers per sketch
+     * @param windowMillis sliding window length, 0 for all-time counts only
+     * @param sliceCount   slices the window is made of
+     */
+    public KeyCardinality(int precision, long windowMillis, int sliceCount) {
+        for (int s = 0; s < allTime.length; s++) {
+            allTime[s] = new HyperLogLog(precision);
+        }
+        if (windowMillis <= 0) {
+            this.slices = null;
+            this.sliceEpochs = null;
+            this.sliceNanos = 0;
+            return;
+        }
+        if (sliceCount < 1) {
+            throw new IllegalArgumentException("sliceCount must be at least 1");
+        }
+        this.slices = new HyperLogLog[SCOPES.size()][sliceCount];
+        for (HyperLogLog[] ring : slices) {
+            for (int i = 0; i < sliceCount; i++) {
+                ring[i] = new HyperLogLog(precision);
+            }
+        }
+        this.sliceEpochs = new AtomicLongArray(sliceCount);
+        for (int i = 0; i < sliceCount; i++) {
+            sliceEpochs.set(i, -1);
+        }
+        this.sliceNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(windowMillis) / sliceCount);
+    }
+
+    public boolean hasWindow() {
+        return slices != null;
+    }
+
+    public void record(String key) {
+        int scopeStart = scopeStart(key);
+        int scope = scopeOf(key, scopeStart);
+        long hash = hash(key, scopeStart);
+        allTime[scope].add(hash);
+        if (slices != null) {
+            currentSlice(scope).add(hash);
+        }
+    }
+
+    /**
+     * Distinct keys ever seen in the scope
+     */
+    public long allTime(String scope) {
+        return allTime[SCOPES.indexOf(scope)].estimate();
+    }
+
+    /**
+     * Distinct keys seen in the scope within the window; the all-time count
+     * if there's no window
+     */
+    public long window(String scope) {
+        int s = SCOPES.indexOf(scope);
+        if (slices == null) {
+            return allTime[s].estimate();
+        }
+        long epoch = epoch();
+        int[] union = new int[allTime[s].registerCount()];
+        for (int i = 0; i < slices[s].length; i++) {
+            if (epoch - sliceEpochs.get(i) < slices[s].length) {
+                slices[s][i].mergeInto(union);
+            }
+        }
+        return allTime[s].estimate(union);
+    }
+
+    private HyperLogLog currentSlice(int scope) {
+        long epoch = epoch();
+        int ring = slices[scope].length;
+        int index = (int) (epoch % ring);
+        long seen = sliceEpochs.get(index);
+        if (seen < epoch && sliceEpochs.compareAndSet(index, seen, epoch)) {
+            // first add of a new round: the slice still holds a round ago's keys
+            for (HyperLogLog[] perScope : slices) {
+                perScope[index].clear();
+            }
+        }
+        return slices[scope][index];
+    }
+
+    private long epoch() {
+        // from construction, so epochs start at 0 and the initial -1 is always older
+        return (System.nanoTime() - origin) / sliceNanos;
+    }
+
+    // index past "rate_limit:" and any "{tag}:", or -1 if the key isn't one of ours
+    private static int scopeStart(String key) {
+        if (!key.startsWith(PREFIX)) {
+            return -1;
+        }
+        int start = PREFIX.length();
+        if (start < key.length() && key.charAt(start) == '{') {
+            int close = key.indexOf('}', start);
+            if (close < 0) {
+                return -1;
+            }
+            start = close + 1 < key.length() && key.charAt(close + 1) == ':' ? close + 2 : close + 1;
+        }
+        return start;
+    }
+
+    private static int scopeOf(String key, int start) {
+        if (start < 0) {
+            return OTHER;
+        }
+        for (int s = 0; s < OTHER; s++) {
+            String scope = SCOPES.get(s);
+            if (key.startsWith(scope, start) && key.length() > start + scope.length()
+                    && key.charAt(start + scope.length()) == ':') {
+                return s;
+            }
+        }
+        return OTHER;
+    }
+
+    // hash of the key without its hash tag: everything from the scope on
+    private static long hash(String key, int start) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = Math.max(start, 0); i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,154 @@
+package org.ratelimiter.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram in nanoseconds, HdrHistogram style
+ *
+ * Every power of two [2^e, 2^(e+1)) is split into 32 equal slices, so a
+ * recorded value is known to within ~3% however small or large it is: a 40µs
+ * Redis call and a 2s pool wait both land in a slice about 3% wide. Values
+ * below 32ns get a slice each; values past ~137s all land in the last slice.
+ *
+ * Counts only ever grow, which is what a Prometheus histogram wants. The
+ * percentiles are per interval instead: intervalSnapshot() diffs the counts
+ * against the previous snapshot and starts a new interval, so p99 describes
+ * the last scrape period rather than everything since startup. Interval max
+ * is exact (tracked separately); percentiles report the top of their slice.
+ *
+ * DSA/Concepts Used:
+ * - Log-linear bucketing: exponent from numberOfLeadingZeros, 5 mantissa bits
+ * - AtomicLongArray of counts, one incrementAndGet per record, no locks
+ * - LongAdder for the sum, which every record touches
+ * - Interval = difference of two cumulative snapshots
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    static final int BUCKETS = SUB_COUNT * (MAX_EXPONENT - SUB_BITS + 2);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong intervalMax = new AtomicLong();
+
+    // guarded by this: cumulative counts at the start of the current interval
+    private long[] intervalStart = new long[BUCKETS];
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(value));
+        sum.add(value);
+        if (value > intervalMax.get()) {
+            intervalMax.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sum.sum();
+    }
+
+    /**
+     * Cumulative count of values below 2^exponent ns, for a Prometheus
+     * {@code le} bucket. Exact, since powers of two are slice boundaries.
+     */
+    public long countBelowPowerOfTwo(int exponent) {
+        int end = exponent <= SUB_BITS ? 1 << exponent : SUB_COUNT * (exponent - SUB_BITS + 1);
+        long count = 0;
+        for (int i = 0; i < Math.min(end, BUCKETS); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Percentiles and max of what was recorded since the previous call, then
+     * start a new interval. Two scrapers share the intervals between them.
+     */
+    public synchronized Snapshot intervalSnapshot() {
+        long[] now = new long[BUCKETS];
+        long[] interval = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            now[i] = counts.get(i);
+            interval[i] = now[i] - intervalStart[i];
+            total += interval[i];
+        }
+        intervalStart = now;
+        return new Snapshot(interval, total, intervalMax.getAndSet(0));
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        return SUB_COUNT * (shift + 1) + (int) ((value >>> shift) & (SUB_COUNT - 1));
+    }
+
+    // largest value that lands in the same slice as index
+    static long highestValueAt(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long lowest = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * One interval's distribution.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMaxNanos() {
+            return max;
+        }
+
+        /**
+         * @param quantile 0..1, e.g. 0.999
+         * @return the value at that quantile (top of its slice, never above max), 0 if empty
+         */
+        public long valueAt(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return max > 0 ? Math.min(highestValueAt(i), max) : highestValueAt(i);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.ratelimiter.metrics;
+
+/**
+ * The timed steps of a rate limit decision, each with its own histogram
+ */
+public enum LatencyStage {
+
+    /** Local per-user hot-key pre-filter */
+    HOT_KEY_FILTER("hot_key_filter"),
+
+    /** Turning user / ip / org into the ordered Redis keys */
+    POLICY_RESOLUTION("policy_resolution"),
+
+    /** Waiting for a connection from the Redis pool */
+    POOL_BORROW("pool_borrow"),
+
+    /** The script call itself, or the pipelined round trip carrying it */
+    REDIS_EVAL("redis_eval"),
+
+    /** Whole decision, from request in to response out */
+    DECISION("decision");
+
+    private final String label;
+
+    LatencyStage(String label) {
+        this.label = label;
+    }
+
+    /** Value of the Prometheus {@code stage} label */
+    public String label() {
+        return label;
+    }
+}
@@ -17,8 +17,31 @@ public interface RateLimiterMetrics {
 
     void incrementRedisFailure();
 
+    void incrementLocalBucketEviction();
+
+    void incrementHotKeyTableHit();
+    void incrementHotKeyTableMiss();
+    void incrementHotKeyAdmissionRejected();
+    void incrementHotKeyTableEviction();
+
+    void incrementConfigCacheHit();
+    void incrementConfigCacheMiss();
+    void recordConfigInvalidation(long lagMs);
+
+    void recordLeaseRefill(long tokens);
+    void recordLeaseReturn(long tokens);
+
+    void recordRedisPoolBorrow(long waitNanos);
+    void incrementRedisPoolExhausted();
+
+    void incrementCircuitOpened();
+    void incrementCircuitHalfOpened();
+    void incrementCircuitClosed();
+    void incrementCircuitShortCircuited();
+
     void recordKeys(List<String> keys);
-    void recordRedisLatency(long latencyMs);
+    void recordRedisLatency(long latencyNanos);
+    void recordLatency(LatencyStage stage, long nanos);
 
     int getKeyCardinality();
     double getAverageRedisLatencyMs();
@@ -0,0 +1,106 @@
+package org.ratelimiter.model;
+
+import org.ratelimiter.time.TimeSource;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, same refill/consume semantics as TokenBucket
+ *
+ * The whole bucket state lives in one AtomicLong: the instant (in nanos) at
+ * which the bucket would have been empty. Tokens are just the time elapsed
+ * since then, in fixed-point units of nanosPerToken, so the token count and
+ * the last-refill time are folded into one word and a refill + consume is a
+ * single compareAndSet - no lock, no thread ever parks on a hot key.
+ *
+ * DSA/Concepts Used:
+ * - CAS loop instead of a lock (retry only on a real conflicting update)
+ * - Fixed-point arithmetic on longs, no floating point on the hot path
+ * - O(1) per request, monotonic TimeSource clock
+ */
+public class AtomicTokenBucket implements Bucket {
+
+    private final long capacity;
+    private final long nanosPerToken;   // refill cost of one token
+    private final long burstNanos;      // capacity expressed in the same units
+    private final boolean refills;      // false when refill rate is 0
+    private final TimeSource timeSource;
+
+    // instant at which the bucket was (virtually) empty
+    private final AtomicLong emptyAt;
+
+    public AtomicTokenBucket(long capacity, double refillRatePerSecond) {
+        this(capacity, refillRatePerSecond, TimeSource.SYSTEM);
+    }
+
+    public AtomicTokenBucket(long capacity, double refillRatePerSecond, TimeSource timeSource) {
+        this.capacity = RefillUnits.capacity(capacity);
+        this.timeSource = timeSource;
+        this.refills = refillRatePerSecond > 0;
+        // with no refill the clock is frozen at 0 and a "nanosecond" just
+        // counts tokens, so both cases share one code path
+        this.nanosPerToken = RefillUnits.nanosPerToken(capacity, refillRatePerSecond);
+        this.burstNanos = this.capacity * nanosPerToken;
+        this.emptyAt = new AtomicLong(now() - burstNanos); // start full
+    }
+
+    /**
+     * Try to consume {@code permits} tokens at once
+     *
+     * @return true if tokens consumed, false if rate limit exceeded
+     */
+    @Override
+    public boolean tryConsume(long permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
+        if (permits > capacity) {
+            return false; // can never fit, and permits * nanosPerToken could overflow
+        }
+        long cost = permits * nanosPerToken;
+        long now = now();
+        while (true) {
+            long current = emptyAt.get();
+            // refill is implicit: tokens grow with now, capped at capacity
+            long available = Math.min(now - current, burstNanos);
+            if (available < cost) {
+                return false; // nothing to write back, a reject never contends
+            }
+            if (emptyAt.compareAndSet(current, now - available + cost)) {
+                return true;
+            }
+            // lost the race to another consumer, re-read and retry
+        }
+    }
+
+    @Override
+    public long reserve(long permits, long maxWaitNanos) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
+        if (permits > capacity) {
+            return Long.MAX_VALUE;
+        }
+        long cost = permits * nanosPerToken;
+        long now = now();
+        while (true) {
+            long current = emptyAt.get();
+            // a bucket in debt has emptyAt in the future; a full one is capped at burst
+            long next = Math.max(current, now - burstNanos) + cost;
+            long wait = Math.max(0, next - now);
+            if (wait > 0 && !refills) {
+                return Long.MAX_VALUE; // frozen clock, the tokens never come
+            }
+            if (wait > maxWaitNanos) {
+                return wait;
+            }
+            if (emptyAt.compareAndSet(current, next)) {
+                return wait;
+            }
+        }
+    }
+
+    private long now() {
+        return refills ? timeSource.nanoTime() : 0;
+    }
+}
@@ -0,0 +1,238 @@
+package org.ratelimiter.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Key -> Bucket map holding at most maxEntries buckets, W-TinyLFU style
+ *
+ * New keys land in a small LRU window (1% of the budget). The window's
+ * oldest entry then competes for a place in the main area against the main
+ * area's next victim: whichever the FrequencySketch has seen more often
+ * stays, the other is dropped. A scan over millions of one-off keys only
+ * churns the window - a key seen once can't outbid one seen a hundred times -
+ * so the genuinely hot keys stay resident.
+ *
+ * The main area is a segmented LRU: admitted keys start in probation and a
+ * second hit promotes them to protected (80% of main). Protected overflow
+ * is demoted back to probation, and victims are taken from probation first.
+ *
+ * Hits are a ConcurrentHashMap read. Their bookkeeping (sketch increment,
+ * LRU move) happens only if the policy lock is free at that moment; when
+ * it's busy the update is skipped, as a busy cache drops reads from its
+ * read buffer. Misses take the lock. An evicted bucket still held by an
+ * in-flight request is simply forgotten - the next request starts a fresh,
+ * full one, which is all a pre-filter can lose.
+ *
+ * DSA/Concepts Used:
+ * - W-TinyLFU: LRU window + TinyLFU admission + segmented LRU main area
+ * - Intrusive doubly linked lists, O(1) move-to-front and removal
+ * - ConcurrentHashMap for lookup, one lock for the policy
+ */
+public class BoundedBucketMap implements BucketMap {
+
+    /**
+     * Callbacks for the table's hit ratio and what its policy turned away
+     */
+    public interface Listener {
+        void hit();
+        void miss();
+        /** A window entry lost the admission contest and was dropped */
+        void admissionRejected();
+        /** A main-area entry was dropped to make room for a more frequent key */
+        void evicted();
+    }
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int GONE = -1;
+
+    private final ConcurrentHashMap<String, Node> buckets = new ConcurrentHashMap<>();
+    private final Supplier<Bucket> bucketFactory;
+    private final Listener listener;
+
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final LinkedDeque window = new LinkedDeque();
+    private final LinkedDeque probation = new LinkedDeque();
+    private final LinkedDeque protectedArea = new LinkedDeque();
+    private final int maxWindow;
+    private final int maxMain;
+    private final int maxProtected;
+
+    /**
+     * @param maxEntries    most buckets held at once
+     * @param bucketFactory creates a fresh (full) bucket for a key not held
+     */
+    public BoundedBucketMap(int maxEntries, Supplier<Bucket> bucketFactory, Listener listener) {
+        if (maxEntries < 2) {
+            throw new IllegalArgumentException("maxEntries must be at least 2");
+        }
+        this.bucketFactory = bucketFactory;
+        this.listener = listener;
+        this.sketch = new FrequencySketch(maxEntries);
+        this.maxWindow = Math.max(1, maxEntries / 100);
+        this.maxMain = maxEntries - maxWindow;
+        this.maxProtected = Math.max(1, maxMain * 8 / 10);
+    }
+
+    @Override
+    public Bucket get(String key) {
+        Node node = buckets.get(key);
+        if (node != null) {
+            listener.hit();
+            if (policyLock.tryLock()) {
+                try {
+                    onHit(node);
+                } finally {
+                    policyLock.unlock();
+                }
+            }
+            return node.bucket;
+        }
+
+        listener.miss();
+        policyLock.lock();
+        try {
+            node = buckets.get(key);
+            if (node != null) {
+                // another thread just added it
+                onHit(node);
+                return node.bucket;
+            }
+            node = new Node(key, bucketFactory.get());
+            buckets.put(key, node);
+            sketch.increment(hash(key));
+            window.addFirst(node, WINDOW);
+            if (window.size > maxWindow) {
+                admit(window.removeLast());
+            }
+            return node.bucket;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return buckets.size();
+    }
+
+    // ---- policy, all under policyLock ----
+
+    private void onHit(Node node) {
+        sketch.increment(hash(node.key));
+        switch (node.queue) {
+            case WINDOW -> window.moveToFront(node);
+            case PROBATION -> {
+                probation.remove(node);
+                protectedArea.addFirst(node, PROTECTED);
+                if (protectedArea.size > maxProtected) {
+                    probation.addFirst(protectedArea.removeLast(), PROBATION);
+                }
+            }
+            case PROTECTED -> protectedArea.moveToFront(node);
+            default -> {
+                // already evicted, nothing to track
+            }
+        }
+    }
+
+    // the window's oldest entry asks for a place in the main area
+    private void admit(Node candidate) {
+        if (probation.size + protectedArea.size < maxMain) {
+            probation.addFirst(candidate, PROBATION);
+            return;
+        }
+        LinkedDeque victims = probation.size > 0 ? probation : protectedArea;
+        Node victim = victims.last();
+        if (sketch.frequency(hash(candidate.key)) > sketch.frequency(hash(victim.key))) {
+            victims.remove(victim);
+            drop(victim);
+            listener.evicted();
+            probation.addFirst(candidate, PROBATION);
+        } else {
+            drop(candidate);
+            listener.admissionRejected();
+        }
+    }
+
+    private void drop(Node node) {
+        node.queue = GONE;
+        buckets.remove(node.key, node);
+    }
+
+    private static long hash(String key) {
+        long h = key.hashCode() * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static final class Node {
+        final String key;
+        final Bucket bucket;
+        Node prev;
+        Node next;
+        int queue = GONE;
+
+        Node(String key, Bucket bucket) {
+            this.key = key;
+            this.bucket = bucket;
+        }
+    }
+
+    // head = most recently used, tail = next victim
+    private static final class LinkedDeque {
+        Node head;
+        Node tail;
+        int size;
+
+        void addFirst(Node node, int queue) {
+            node.queue = queue;
+            node.prev = null;
+            node.next = head;
+            if (head != null) {
+                head.prev = node;
+            } else {
+                tail = node;
+            }
+            head = node;
+            size++;
+        }
+
+        Node last() {
+            return tail;
+        }
+
+        Node removeLast() {
+            Node node = tail;
+            remove(node);
+            return node;
+        }
+
+        void remove(Node node) {
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                head = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            } else {
+                tail = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToFront(Node node) {
+            if (head != node) {
+                int queue = node.queue;
+                remove(node);
+                addFirst(node, queue);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.ratelimiter.model;
+
+/**
+ * Common contract for the in-JVM bucket implementations, so a limiter can
+ * swap the locked TokenBucket for the lock-free AtomicTokenBucket without
+ * caring which one it's holding.
+ */
+public interface Bucket {
+
+    /**
+     * @return true if a token was consumed, false if the bucket is empty
+     */
+    default boolean tryConsume() {
+        return tryConsume(1);
+    }
+
+    /**
+     * Take {@code permits} tokens in one step, all or nothing - a request
+     * that doesn't fit leaves the bucket untouched.
+     *
+     * @param permits tokens to take, at least 1
+     * @return true if all permits were consumed, false if not enough tokens
+     */
+    boolean tryConsume(long permits);
+
+    /**
+     * Reserve {@code permits} tokens that may not have refilled yet. If the
+     * wait is within {@code maxWaitNanos} the tokens are taken now - the
+     * bucket goes into debt until they refill - and the caller owns them once
+     * the returned wait has passed. Otherwise nothing is taken.
+     *
+     * @param permits      tokens to reserve, at least 1
+     * @param maxWaitNanos longest wait the caller accepts, 0 behaves like tryConsume
+     * @return nanos until the permits are available, 0 if they are now;
+     *         Long.MAX_VALUE if they never will be (nothing is taken then)
+     */
+    long reserve(long permits, long maxWaitNanos);
+}
@@ -0,0 +1,18 @@
+package org.ratelimiter.model;
+
+/**
+ * Key -> Bucket lookup used by the local limiters: ExpiringBucketMap drops
+ * idle buckets, BoundedBucketMap caps how many are held at all
+ */
+public interface BucketMap {
+
+    /**
+     * @return the key's bucket, created full on first use
+     */
+    Bucket get(String key);
+
+    /**
+     * @return number of buckets currently held
+     */
+    int size();
+}
@@ -0,0 +1,196 @@
+package org.ratelimiter.model;
+
+import org.ratelimiter.time.TimeSource;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Key -> Bucket map whose entries go away once they're idle, the local
+ * counterpart of the PEXPIRE 60000 the Redis scripts put on every bucket
+ *
+ * A bucket is evicted once it has had time to refill all the way to
+ * capacity and then sat untouched for the idle TTL on top of that - at that
+ * point a fresh bucket would behave exactly the same, so dropping it is
+ * invisible to callers. Buckets that never refill are never evicted.
+ *
+ * Per request this costs one volatile write (last access) and one volatile
+ * read; nothing is allocated. Eviction is driven by a TimingWheel that the
+ * request path itself advances, at most once per tick and only by whichever
+ * thread wins a tryLock, so no background thread is needed.
+ *
+ * DSA/Concepts Used:
+ * - ConcurrentHashMap for lookup, TimingWheel for expiry
+ * - Dekker-style handshake (volatile write, then volatile read on each side)
+ *   so a bucket is never evicted out from under a request that's using it
+ */
+public class ExpiringBucketMap implements BucketMap {
+
+    /** Matches the PEXPIRE 60000 on the Redis side */
+    public static final long DEFAULT_IDLE_TTL_MILLIS = 60_000;
+
+    private static final long MIN_TICK_NANOS = 1_000_000;    // 1 ms
+    private static final int TICKS_PER_IDLE_TTL = 32;
+
+    private static final AtomicLongFieldUpdater<Slot> RESERVED_UNTIL =
+            AtomicLongFieldUpdater.newUpdater(Slot.class, "reservedUntil");
+
+    private final ConcurrentHashMap<String, Slot> buckets = new ConcurrentHashMap<>();
+    private final Supplier<Bucket> bucketFactory;
+    private final Function<String, Slot> slotFactory = this::newSlot; // held once, not allocated per call
+    private final long expireAfterNanos;
+    private final boolean expires;
+    private final Runnable onEviction;
+    private final TimeSource timeSource;
+
+    private final TimingWheel wheel;
+    private final ReentrantLock wheelLock = new ReentrantLock();
+    private volatile long nextTickAt;
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param capacity            bucket capacity, to work out how long a full refill takes
+     * @param refillRatePerSecond bucket refill rate, 0 disables eviction
+     * @param idleTtlMillis       how long a full bucket may sit untouched before it's dropped
+     * @param bucketFactory       creates a fresh (full) bucket for a key seen for the first time
+     * @param onEviction          called once per evicted bucket, e.g. to feed metrics
+     * @param timeSource          clock for last-access times and the wheel, same one the buckets use
+     */
+    public ExpiringBucketMap(long capacity, double refillRatePerSecond, long idleTtlMillis,
+                             Supplier<Bucket> bucketFactory, Runnable onEviction, TimeSource timeSource) {
+        this.bucketFactory = bucketFactory;
+        this.onEviction = onEviction;
+        this.timeSource = timeSource;
+        this.expires = refillRatePerSecond > 0 && idleTtlMillis >= 0;
+
+        long idleNanos = Math.max(0, idleTtlMillis) * 1_000_000;
+        // capped like the buckets' own burst, so the deadline arithmetic can't overflow
+        long fullRefillNanos = expires
+                ? (long) Math.min(RefillUnits.MAX_BURST_NANOS, Math.ceil(capacity * 1_000_000_000.0 / refillRatePerSecond))
+                : 0;
+        this.expireAfterNanos = fullRefillNanos + idleNanos;
+
+        long now = timeSource.nanoTime();
+        this.wheel = new TimingWheel(Math.max(MIN_TICK_NANOS, idleNanos / TICKS_PER_IDLE_TTL), now);
+        this.nextTickAt = wheel.nextTickAt();
+    }
+
+    @Override
+    public Bucket get(String key) {
+        return slot(key, timeSource.nanoTime()).bucket;
+    }
+
+    /**
+     * Reserve permits from the key's bucket (see Bucket.reserve). A bucket
+     * holding a reservation counts as in use until the reservation comes due,
+     * so its debt can't be forgiven by evicting it early.
+     */
+    public long reserve(String key, long permits, long maxWaitNanos) {
+        long now = timeSource.nanoTime();
+        Slot slot = slot(key, now);
+        long wait = slot.bucket.reserve(permits, maxWaitNanos);
+        if (wait > 0 && wait <= maxWaitNanos) {
+            RESERVED_UNTIL.accumulateAndGet(slot, now + wait, Math::max);
+        }
+        return wait;
+    }
+
+    /**
+     * Advance the expiry wheel now instead of waiting for the next request.
+     */
+    public void expireIdle() {
+        expireIdle(timeSource.nanoTime());
+    }
+
+    @Override
+    public int size() {
+        return buckets.size();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    private Slot slot(String key, long now) {
+        if (expires && now - nextTickAt >= 0) {
+            expireIdle(now);
+        }
+
+        while (true) {
+            Slot slot = buckets.computeIfAbsent(key, slotFactory);
+            slot.lastAccess = now;
+            if (!slot.evicted) {
+                return slot;
+            }
+            // lost the race with eviction - it's on its way out of the map, take a fresh one
+            Thread.onSpinWait();
+        }
+    }
+
+    private void expireIdle(long now) {
+        if (!wheelLock.tryLock()) {
+            return; // someone else is already doing it
+        }
+        try {
+            wheel.advance(now);
+            nextTickAt = wheel.nextTickAt();
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    private Slot newSlot(String key) {
+        Slot slot = new Slot(key, bucketFactory.get());
+        slot.lastAccess = timeSource.nanoTime();
+        slot.reservedUntil = slot.lastAccess;  // nanoTime can be negative, 0 isn't "never"
+        if (expires) {
+            wheel.schedule(slot);
+        }
+        return slot;
+    }
+
+    // Map value: the bucket plus what the wheel needs to decide when it's idle
+    private final class Slot extends TimingWheel.Entry {
+        private final String key;
+        private final Bucket bucket;
+        private volatile long lastAccess;
+        private volatile long reservedUntil;    // only ever moves forward, see reserve()
+        private volatile boolean evicted;
+
+        Slot(String key, Bucket bucket) {
+            this.key = key;
+            this.bucket = bucket;
+        }
+
+        @Override
+        protected long deadline() {
+            return lastUse(lastAccess) + expireAfterNanos;
+        }
+
+        // a pending reservation is a use that hasn't happened yet
+        private long lastUse(long access) {
+            long reserved = reservedUntil;
+            return reserved - access > 0 ? reserved : access;
+        }
+
+        @Override
+        protected boolean expire(long now) {
+            // announce first, then re-check: a request either sees evicted and
+            // retries, or wrote lastAccess early enough for us to see it here
+            long seen = lastAccess;
+            evicted = true;
+            if (lastAccess != seen || now - (lastUse(seen) + expireAfterNanos) < 0) {
+                evicted = false;
+                return false;
+            }
+            buckets.remove(key, this);
+            evictions.incrementAndGet();
+            onEviction.run();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.ratelimiter.model;
+
+/**
+ * Approximate access frequency of keys, the "TinyLFU" half of W-TinyLFU
+ *
+ * A count-min sketch of 4-bit counters, sixteen to a long: each key maps to
+ * one counter in each of four rows and its frequency is the smallest of them,
+ * capped at 15. After sampleSize increments every counter is halved, so the
+ * sketch follows what is popular now rather than what ever was.
+ *
+ * Not thread-safe: the owner calls it under its own lock.
+ *
+ * DSA/Concepts Used:
+ * - Count-min sketch with 4-bit saturating counters packed into long[]
+ * - Periodic halving ("reset") as a cheap aging window
+ */
+public class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int DEPTH = 4;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedEntries entries the owner holds; sizes the table and the aging period
+     */
+    public FrequencySketch(int expectedEntries) {
+        int size = Integer.highestOneBit(Math.max(2, expectedEntries) - 1) << 1;
+        this.table = new long[size];
+        this.tableMask = size - 1;
+        this.sampleSize = 10 * Math.max(1, expectedEntries);
+    }
+
+    public int frequency(long hash) {
+        int frequency = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            int shift = offsetOf(hash, row);
+            frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 0xfL));
+        }
+        return frequency;
+    }
+
+    public void increment(long hash) {
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            int shift = offsetOf(hash, row);
+            if (((table[index] >>> shift) & 0xfL) != 0xfL) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(long hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        return (int) (h >>> 40) & tableMask;
+    }
+
+    // which of the long's 16 counters: a different one per row
+    private int offsetOf(long hash, int row) {
+        return (int) ((hash >>> (row << 3)) & 0xf) << 2;
+    }
+}
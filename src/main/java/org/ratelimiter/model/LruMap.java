@@ -0,0 +1,229 @@
+package org.ratelimiter.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Concurrent map holding at most maxEntries entries, evicting the least
+ * recently used to make room for a new one
+ *
+ * For the small per-key lookups (config limits, learned limits) that must
+ * keep taking new keys once full: refusing them instead would pin whatever
+ * keys happened to arrive first, hot or not, for the life of the process.
+ *
+ * Reads are a ConcurrentHashMap lookup. Moving the entry to the front of the
+ * LRU list happens only if the lock is free at that moment, as in
+ * BoundedBucketMap - under contention the order is approximate, which only
+ * means a busy entry can occasionally be evicted a little early. Writes and
+ * removals take the lock.
+ *
+ * DSA/Concepts Used:
+ * - ConcurrentHashMap for lookup + intrusive doubly linked list for recency
+ * - Best-effort (tryLock) recency updates on the read path
+ */
+public class LruMap<K, V> {
+
+    private final ConcurrentHashMap<K, Node<K, V>> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int maxEntries;
+    private final Consumer<? super V> onEviction;
+    private Node<K, V> head;   // most recently used
+    private Node<K, V> tail;   // next to be evicted
+
+    public LruMap(int maxEntries) {
+        this(maxEntries, value -> { });
+    }
+
+    /**
+     * @param onEviction told of each value evicted to make room, under the map's lock
+     */
+    public LruMap(int maxEntries, Consumer<? super V> onEviction) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.maxEntries = maxEntries;
+        this.onEviction = onEviction;
+    }
+
+    /**
+     * @return the key's value, or null if it isn't held
+     */
+    public V get(K key) {
+        Node<K, V> node = entries.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (lock.tryLock()) {
+            try {
+                if (node.linked) {
+                    unlink(node);
+                    linkFirst(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    public V getOrDefault(K key, V defaultValue) {
+        V value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Set the key's value, evicting the least recently used entry if the map is full
+     */
+    public void put(K key, V value) {
+        Node<K, V> node = new Node<>(key, value);
+        lock.lock();
+        try {
+            Node<K, V> old = entries.put(key, node);
+            if (old != null) {
+                unlink(old);
+            }
+            linkFirst(node);
+            evictOverflow();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Set the key's value unless it already has one
+     *
+     * @return the value the key now has: {@code value}, or the one it already had
+     */
+    public V putIfAbsent(K key, V value) {
+        lock.lock();
+        try {
+            Node<K, V> current = entries.get(key);
+            if (current != null) {
+                return current.value;
+            }
+            Node<K, V> node = new Node<>(key, value);
+            entries.put(key, node);
+            linkFirst(node);
+            evictOverflow();
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(K key) {
+        lock.lock();
+        try {
+            Node<K, V> node = entries.remove(key);
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the key only if it still maps to {@code value} (by identity),
+     * so a value replaced in the meantime isn't lost
+     */
+    public void remove(K key, V value) {
+        lock.lock();
+        try {
+            Node<K, V> node = entries.get(key);
+            if (node != null && node.value == value) {
+                entries.remove(key, node);
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            for (Node<K, V> node = head; node != null; node = node.next) {
+                node.linked = false;
+            }
+            entries.clear();
+            head = null;
+            tail = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the values held right now, in no particular order
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<>(entries.size());
+        for (Node<K, V> node : entries.values()) {
+            values.add(node.value);
+        }
+        return values;
+    }
+
+    // ---- list, all under lock ----
+
+    private void evictOverflow() {
+        while (entries.size() > maxEntries) {
+            Node<K, V> victim = tail;
+            unlink(victim);
+            entries.remove(victim.key, victim);
+            onEviction.accept(victim.value);
+        }
+    }
+
+    private void linkFirst(Node<K, V> node) {
+        node.prev = null;
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        } else {
+            tail = node;
+        }
+        head = node;
+        node.linked = true;
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (!node.linked) {
+            return;
+        }
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            head = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            tail = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.linked = false;
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        Node<K, V> prev;
+        Node<K, V> next;
+        boolean linked;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package org.ratelimiter.model;
+
+import org.ratelimiter.time.TimeSource;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bucket state for millions of keys, packed into flat long[] arrays
+ *
+ * A map of String -> TokenBucket costs a String, a map node, a bucket object
+ * and a lock per key. Here a key costs two longs in an open-addressing table:
+ * a 64-bit fingerprint of the key and the bucket's state word (same
+ * "instant the bucket was empty" encoding as AtomicTokenBucket). Keys
+ * themselves are never stored, so two keys with the same 64-bit fingerprint
+ * would share a bucket - at 10M keys that's a ~1 in 300k chance per node.
+ *
+ * DSA/Concepts Used:
+ * - Open addressing with linear probing, fingerprint + state interleaved
+ *   in one long[] so a lookup touches a single cache line
+ * - Lock striping: the top bits of the hash pick a stripe, each stripe is
+ *   its own table with its own lock and grows independently
+ * - O(1) average per request, no per-key objects
+ */
+public class PackedBucketStore {
+
+    private static final int INITIAL_SLOTS = 16;     // per stripe, power of two
+    private static final int MAX_LOAD_PERCENT = 75;  // grow past 75% full
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    private final long capacity;
+    private final long nanosPerToken;   // refill cost of one token
+    private final long burstNanos;      // capacity expressed in the same units
+    private final boolean refills;      // false when refill rate is 0
+    private final TimeSource timeSource;
+
+    public PackedBucketStore(long capacity, double refillRatePerSecond, int stripeCount, TimeSource timeSource) {
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("stripeCount must be a positive power of two");
+        }
+        this.capacity = RefillUnits.capacity(capacity);
+        this.refills = refillRatePerSecond > 0;
+        this.nanosPerToken = RefillUnits.nanosPerToken(capacity, refillRatePerSecond);
+        this.burstNanos = this.capacity * nanosPerToken;
+        this.timeSource = timeSource;
+
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        // top bits pick the stripe, low bits pick the slot inside it
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+    }
+
+    /**
+     * Try to consume a single token from the key's bucket, creating it full
+     * if this is the first time the key is seen
+     *
+     * @return true if token consumed, false if rate limit exceeded
+     */
+    public boolean tryConsume(String key) {
+        return tryConsume(key, 1);
+    }
+
+    /**
+     * Try to consume {@code permits} tokens from the key's bucket at once
+     *
+     * @return true if tokens consumed, false if rate limit exceeded
+     */
+    public boolean tryConsume(String key, long permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
+        if (permits > capacity) {
+            return false;
+        }
+        long cost = permits * nanosPerToken;
+        long fingerprint = hash(key);
+        Stripe stripe = stripeFor(fingerprint);
+        long now = now();
+
+        stripe.lock.lock();
+        try {
+            int index = stripe.findOrInsert(fingerprint, now - burstNanos);
+            long[] slots = stripe.slots;
+            long available = Math.min(now - slots[index + 1], burstNanos);
+            if (available < cost) {
+                return false;
+            }
+            slots[index + 1] = now - available + cost;
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Reserve {@code permits} tokens from the key's bucket, see Bucket.reserve
+     *
+     * @return nanos until the permits are available, Long.MAX_VALUE if never
+     */
+    public long reserve(String key, long permits, long maxWaitNanos) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
+        if (permits > capacity) {
+            return Long.MAX_VALUE;
+        }
+        long cost = permits * nanosPerToken;
+        long fingerprint = hash(key);
+        Stripe stripe = stripeFor(fingerprint);
+        long now = now();
+
+        stripe.lock.lock();
+        try {
+            int index = stripe.findOrInsert(fingerprint, now - burstNanos);
+            long[] slots = stripe.slots;
+            long next = Math.max(slots[index + 1], now - burstNanos) + cost;
+            long wait = Math.max(0, next - now);
+            if (wait > 0 && !refills) {
+                return Long.MAX_VALUE;
+            }
+            if (wait <= maxWaitNanos) {
+                slots[index + 1] = next;
+            }
+            return wait;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of keys currently holding a bucket
+     */
+    public long size() {
+        long total = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                total += stripe.size;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return total;
+    }
+
+    private Stripe stripeFor(long fingerprint) {
+        // the mask covers a single stripe, where the shift is 64 and so a no-op in Java
+        return stripes[(int) (fingerprint >>> stripeShift) & (stripes.length - 1)];
+    }
+
+    private long now() {
+        return refills ? timeSource.nanoTime() : 0;
+    }
+
+    /**
+     * 64-bit FNV-1a over the chars, then the murmur3 finalizer so the low
+     * bits (slot index) are as well mixed as the high bits (stripe index).
+     * Walks the String in place, nothing is allocated.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h; // 0 marks an empty slot
+    }
+
+    // One independently locked open-addressing table
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        // slots[2i] = fingerprint (0 = empty), slots[2i + 1] = bucket state
+        private long[] slots = new long[INITIAL_SLOTS * 2];
+        private int size;
+
+        /**
+         * @return array index of the key's fingerprint, its state is at index + 1
+         */
+        int findOrInsert(long fingerprint, long initialState) {
+            int index = probe(slots, fingerprint);
+            if (slots[index] == fingerprint) {
+                return index;
+            }
+            if ((size + 1) * 100L > (slots.length / 2) * (long) MAX_LOAD_PERCENT) {
+                grow();
+                index = probe(slots, fingerprint);
+            }
+            slots[index] = fingerprint;
+            slots[index + 1] = initialState;
+            size++;
+            return index;
+        }
+
+        private void grow() {
+            long[] old = slots;
+            long[] resized = new long[old.length * 2];
+            for (int i = 0; i < old.length; i += 2) {
+                if (old[i] != 0) {
+                    int index = probe(resized, old[i]);
+                    resized[index] = old[i];
+                    resized[index + 1] = old[i + 1];
+                }
+            }
+            slots = resized;
+        }
+
+        /**
+         * Linear probe from the fingerprint's home slot
+         *
+         * @return index of the matching fingerprint, or of the first empty slot
+         */
+        private static int probe(long[] slots, long fingerprint) {
+            int mask = slots.length / 2 - 1;
+            int slot = (int) fingerprint & mask;
+            while (slots[slot * 2] != 0 && slots[slot * 2] != fingerprint) {
+                slot = (slot + 1) & mask;
+            }
+            return slot * 2;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.ratelimiter.model;
+
+/**
+ * The fixed-point unit the in-JVM buckets count tokens in: one token is
+ * nanosPerToken nanos of refill, so a full bucket is capacity x nanosPerToken.
+ *
+ * That product has to fit in a long with room for the clock arithmetic
+ * around it (now - burst, now - emptyAt). Limits that would pass
+ * MAX_BURST_NANOS - a bucket taking more than about 73 years to refill from
+ * empty, e.g. capacity 1,000,000 at 0.0001/s - get a shorter nanosPerToken,
+ * so they refill a little faster than configured, rather than throw on the
+ * request that first builds their bucket. Capacities past it are clamped to
+ * it, which no request can tell apart from unlimited.
+ */
+final class RefillUnits {
+
+    /** Longest full-bucket refill, in nanos: a quarter of the long range */
+    static final long MAX_BURST_NANOS = Long.MAX_VALUE / 4;
+
+    private RefillUnits() {
+    }
+
+    static long capacity(long capacity) {
+        return Math.min(capacity, MAX_BURST_NANOS);
+    }
+
+    /**
+     * Refill cost of one token in nanos, for {@code capacity} tokens refilling
+     * at {@code refillRatePerSecond}; 1 when there is no refill, and a token
+     * is just a count
+     */
+    static long nanosPerToken(long capacity, double refillRatePerSecond) {
+        if (refillRatePerSecond <= 0) {
+            return 1;
+        }
+        long nanos = Math.max(1, Math.round(1_000_000_000.0 / refillRatePerSecond));
+        return Math.min(nanos, Math.max(1, MAX_BURST_NANOS / Math.max(1, capacity(capacity))));
+    }
+}
@@ -0,0 +1,206 @@
+package org.ratelimiter.model;
+
+import org.ratelimiter.time.TimeSource;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free token bucket split into stripes, so many threads hammering one
+ * key don't all CAS the same word - with the bucket's budget kept exact
+ *
+ * The capacity is divided among the stripes (5 over 4 stripes: 2, 1, 1, 1)
+ * and each refills at rate / stripes, so together they hold and refill
+ * exactly what one bucket would. Each stripe is an AtomicTokenBucket-style
+ * state word (the instant it was empty), a cache line apart from the next.
+ *
+ * A thread starts at its home stripe, picked from its id so it keeps coming
+ * back to the same one. When the home stripe can't cover the request it
+ * steals: first a whole-request take from any other stripe, then, if the
+ * tokens are scattered, a piece from each until the permits are covered.
+ * Pieces may be fractions of a token, so half a token refilled on each of
+ * two stripes still adds up to the one token a single bucket would have.
+ * A multi-stripe take that comes up short is put back, so the request is
+ * still all or nothing - though for that instant other threads may see the
+ * stripes emptier than they are. A reject that can't possibly fit is found
+ * by reading the stripes, without writing any of them.
+ *
+ * reserve() lands on a single stripe, at its share of the refill rate, so a
+ * reservation can wait up to stripes times longer than on one bucket, and
+ * one bigger than the largest stripe never fits. This is built for the
+ * hot-key pre-filter, which only ever calls tryConsume().
+ *
+ * DSA/Concepts Used:
+ * - Striping (as in LongAdder) over a padded AtomicLongArray, 64 bytes per stripe
+ * - Work stealing across stripes when the home stripe runs dry
+ * - Compensating refund, unwound by recursion, to keep multi-stripe takes all-or-nothing
+ */
+public class StripedTokenBucket implements Bucket {
+
+    // longs per stripe: one state word, the rest padding to a 64-byte line
+    private static final int PAD = 8;
+
+    private final long capacity;
+    private final int stripes;
+    private final long nanosPerToken;   // refill cost of one token on one stripe
+    private final long[] burstNanos;    // each stripe's capacity, in the same units
+    private final boolean refills;
+    private final TimeSource timeSource;
+
+    // stripe i's "empty at" instant lives at (i + 1) * PAD; the first line is padding too
+    private final AtomicLongArray emptyAt;
+
+    public StripedTokenBucket(long capacity, double refillRatePerSecond, int stripes, TimeSource timeSource) {
+        if (capacity < 1 || stripes < 1) {
+            throw new IllegalArgumentException("capacity and stripes must be at least 1");
+        }
+        this.capacity = RefillUnits.capacity(capacity);
+        // a stripe with no capacity could never give out a token
+        this.stripes = (int) Math.min(stripes, this.capacity);
+        this.refills = refillRatePerSecond > 0;
+        this.timeSource = timeSource;
+        // each stripe holds at most capacity / stripes rounded up, refilling at rate / stripes
+        this.nanosPerToken = RefillUnits.nanosPerToken(
+                (this.capacity + this.stripes - 1) / this.stripes, refillRatePerSecond / this.stripes);
+        this.burstNanos = new long[this.stripes];
+        this.emptyAt = new AtomicLongArray((this.stripes + 1) * PAD);
+        long now = now();
+        for (int i = 0; i < this.stripes; i++) {
+            long stripeCapacity = this.capacity / this.stripes + (i < this.capacity % this.stripes ? 1 : 0);
+            burstNanos[i] = stripeCapacity * nanosPerToken;
+            emptyAt.set(slot(i), now - burstNanos[i]); // start full
+        }
+    }
+
+    @Override
+    public boolean tryConsume(long permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
+        if (permits > capacity) {
+            return false;
+        }
+        long cost = permits * nanosPerToken;
+        long now = now();
+        int home = home();
+
+        // whole request from one stripe, home first
+        for (int i = 0; i < stripes; i++) {
+            if (take(Math.floorMod(home + i, stripes), cost, cost, now) == cost) {
+                return true;
+            }
+        }
+        if (stripes == 1 || available(now) < cost) {
+            return false;
+        }
+
+        // tokens are spread thin: gather them stripe by stripe
+        return gather(home, 0, cost, now);
+    }
+
+    @Override
+    public long reserve(long permits, long maxWaitNanos) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
+        if (tryConsume(permits)) {
+            return 0;
+        }
+        long cost = permits * nanosPerToken;
+        long now = now();
+        while (true) {
+            // the stripe whose tokens come back soonest
+            int best = -1;
+            long bestCurrent = 0;
+            long bestWait = Long.MAX_VALUE;
+            for (int i = 0; i < stripes; i++) {
+                if (burstNanos[i] < cost) {
+                    continue;
+                }
+                long current = emptyAt.get(slot(i));
+                long wait = Math.max(0, Math.max(current, now - burstNanos[i]) + cost - now);
+                if (wait < bestWait) {
+                    best = i;
+                    bestCurrent = current;
+                    bestWait = wait;
+                }
+            }
+            if (best < 0 || (bestWait > 0 && !refills)) {
+                return Long.MAX_VALUE;
+            }
+            if (bestWait > maxWaitNanos) {
+                return bestWait;
+            }
+            long next = Math.max(bestCurrent, now - burstNanos[best]) + cost;
+            if (emptyAt.compareAndSet(slot(best), bestCurrent, next)) {
+                return bestWait;
+            }
+        }
+    }
+
+    public int stripes() {
+        return stripes;
+    }
+
+    /**
+     * Take up to {@code want} from a stripe, but nothing unless at least
+     * {@code atLeast} is there.
+     *
+     * @return how much was taken
+     */
+    private long take(int stripe, long want, long atLeast, long now) {
+        int slot = slot(stripe);
+        while (true) {
+            long current = emptyAt.get(slot);
+            long available = Math.min(now - current, burstNanos[stripe]);
+            long amount = Math.min(want, available);
+            if (amount < atLeast || amount <= 0) {
+                return 0;
+            }
+            if (emptyAt.compareAndSet(slot, current, Math.max(current, now - burstNanos[stripe]) + amount)) {
+                return amount;
+            }
+        }
+    }
+
+    /**
+     * Take what's left of a request from stripe home + step onwards, putting
+     * this stripe's piece back if the later ones can't cover the rest.
+     * Recursion rather than a list of pieces, so a steal allocates nothing.
+     */
+    private boolean gather(int home, int step, long remaining, long now) {
+        if (step == stripes) {
+            return false;
+        }
+        int stripe = Math.floorMod(home + step, stripes);
+        long piece = take(stripe, remaining, 1, now);
+        if (piece == remaining || gather(home, step + 1, remaining - piece, now)) {
+            return true;
+        }
+        if (piece > 0) {
+            emptyAt.addAndGet(slot(stripe), -piece);
+        }
+        return false;
+    }
+
+    // tokens available over all stripes, in nanos; read-only
+    private long available(long now) {
+        long total = 0;
+        for (int i = 0; i < stripes; i++) {
+            total += Math.max(0, Math.min(now - emptyAt.get(slot(i)), burstNanos[i]));
+        }
+        return total;
+    }
+
+    private int home() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 33) % stripes;
+    }
+
+    private static int slot(int stripe) {
+        return (stripe + 1) * PAD;
+    }
+
+    private long now() {
+        return refills ? timeSource.nanoTime() : 0;
+    }
+}
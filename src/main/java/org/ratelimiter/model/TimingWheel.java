@@ -0,0 +1,164 @@
+package org.ratelimiter.model;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hierarchical timing wheel for expiring idle entries
+ *
+ * Four levels of 64 slots: level 0 slots are one tick wide, each level up is
+ * 64x coarser, so a deadline up to 64^4 ticks away is held without a sorted
+ * structure. As time advances, an upper-level slot is cascaded down once its
+ * span starts, and level-0 slots are expired as their tick passes.
+ *
+ * Deadlines are re-checked lazily: an entry that was touched after it was
+ * placed isn't moved on every touch, it's simply re-placed further out when
+ * its slot comes due. That keeps the per-request cost at whatever the entry
+ * does to remember its last access, nothing here.
+ *
+ * Not thread-safe apart from schedule() - a single thread at a time (the
+ * caller's lock) drives advance().
+ *
+ * DSA/Concepts Used:
+ * - Timing wheel (Varghese & Lauck), hierarchical with cascading
+ * - Intrusive singly linked lists, no per-entry node allocation
+ * - Amortized O(1) per entry per level
+ */
+public class TimingWheel {
+
+    private static final int WHEEL_BITS = 6;
+    private static final int SLOTS = 1 << WHEEL_BITS;   // 64 slots per level
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    private final long tickNanos;
+    private final long origin;
+    private final Entry[][] slots = new Entry[LEVELS][SLOTS];
+
+    // entries from other threads, placed on the wheel by the next advance()
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+
+    private long currentTick;
+
+    public TimingWheel(long tickNanos, long now) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be positive");
+        }
+        this.tickNanos = tickNanos;
+        this.origin = now;
+    }
+
+    /**
+     * Hand an entry to the wheel. Safe to call from any thread.
+     */
+    public void schedule(Entry entry) {
+        pending.add(entry);
+    }
+
+    /**
+     * Move the wheel forward to {@code now}, expiring every entry whose
+     * deadline has passed.
+     *
+     * @return number of entries expired
+     */
+    public int advance(long now) {
+        long targetTick = (now - origin) / tickNanos;
+        int expired = 0;
+
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade();
+
+            Entry entry;
+            while ((entry = pending.poll()) != null) {
+                place(entry, entry.deadline());
+            }
+
+            int slot = (int) (currentTick & SLOT_MASK);
+            Entry due = slots[0][slot];
+            slots[0][slot] = null;
+            while (due != null) {
+                Entry next = due.next;
+                due.next = null;
+                long deadline = due.deadline();
+                if (tickOf(deadline) <= currentTick && due.expire(now)) {
+                    expired++;
+                } else {
+                    // touched since it was placed (or raced with a touch) - push it out
+                    place(due, Math.max(deadline, origin + (currentTick + 1) * tickNanos));
+                }
+                due = next;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return the instant at which advance() next has work to do
+     */
+    public long nextTickAt() {
+        return origin + (currentTick + 1) * tickNanos;
+    }
+
+    // when a level's span rolls over, re-place its current slot one level (or more) down
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            long levelMask = (1L << (WHEEL_BITS * level)) - 1;
+            if ((currentTick & levelMask) != 0) {
+                return;
+            }
+            int slot = (int) ((currentTick >>> (WHEEL_BITS * level)) & SLOT_MASK);
+            Entry entry = slots[level][slot];
+            slots[level][slot] = null;
+            while (entry != null) {
+                Entry next = entry.next;
+                entry.next = null;
+                place(entry, entry.deadline());
+                entry = next;
+            }
+        }
+    }
+
+    private void place(Entry entry, long deadline) {
+        long tick = Math.max(tickOf(deadline), currentTick);
+        long delta = tick - currentTick;
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        if (delta >= 1L << (WHEEL_BITS * LEVELS)) {
+            // beyond the top level's span - park it as far out as it goes, it gets re-placed on cascade
+            tick = currentTick + (1L << (WHEEL_BITS * LEVELS)) - 1;
+        }
+
+        int slot = (int) ((tick >>> (WHEEL_BITS * level)) & SLOT_MASK);
+        entry.next = slots[level][slot];
+        slots[level][slot] = entry;
+    }
+
+    private long tickOf(long deadline) {
+        long elapsed = deadline - origin;
+        // round up, so an entry is never looked at before its deadline
+        return elapsed <= 0 ? 0 : (elapsed + tickNanos - 1) / tickNanos;
+    }
+
+    /**
+     * Something that can sit on the wheel. Subclasses decide what their
+     * deadline is and what expiring them means.
+     */
+    public abstract static class Entry {
+        private Entry next;
+
+        /**
+         * @return instant (same clock as advance()) after which this entry may expire
+         */
+        protected abstract long deadline();
+
+        /**
+         * Called once deadline() has passed.
+         *
+         * @return true if the entry is gone, false to keep it on the wheel
+         */
+        protected abstract boolean expire(long now);
+    }
+}
@@ -1,6 +1,8 @@
 // TokenBucket.java
 package org.ratelimiter.model;
 
+import org.ratelimiter.time.TimeSource;
+
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -12,39 +14,60 @@ import java.util.concurrent.locks.ReentrantLock;
  * - Sliding window logic (time-based refill)
  * - O(1) per request
  * - Lock for atomic operations in concurrent scenarios
+ * - Fixed-point tokens: counted in nanoseconds of refill time, so a
+ *   refill is exact to the nanosecond even at 10k+ tokens/sec
  */
-public class TokenBucket {
+public class TokenBucket implements Bucket {
 
-    private final long capacity;                // Maximum tokens in the bucket
-    private final double refillRatePerMillis;   // Tokens added per millisecond
+    private final long capacity;                // Max tokens
+    private final long nanosPerToken;           // Refill time of one token (fixed-point unit)
+    private final long burstNanos;              // Capacity in the same units
+    private final boolean refills;              // False when refill rate is 0
+    private final TimeSource timeSource;        // Monotonic clock
 
-    private double tokens;                      // Current token count (can be fractional)
-    private long lastRefillTimestamp;           // Last refill time in ms
+    private long storedNanos;                   // Current tokens x nanosPerToken
+    private long lastRefillNanos;               // Last refill time
 
     // Step 2: Lock ensures thread-safe refill + consume
     private final ReentrantLock lock = new ReentrantLock();
 
     public TokenBucket(long capacity, double refillRatePerSecond) {
-        this.capacity = capacity;
-        // Convert tokens/sec to tokens/ms for precise refill calculation
-        this.refillRatePerMillis = refillRatePerSecond / 1000.0;
-        this.tokens = capacity;                 // Start full
-        this.lastRefillTimestamp = System.currentTimeMillis();
+        this(capacity, refillRatePerSecond, TimeSource.SYSTEM);
+    }
+
+    public TokenBucket(long capacity, double refillRatePerSecond, TimeSource timeSource) {
+        this.capacity = RefillUnits.capacity(capacity);
+        this.refills = refillRatePerSecond > 0;
+        // Convert tokens/sec to nanos/token, the unit tokens are stored in
+        this.nanosPerToken = RefillUnits.nanosPerToken(capacity, refillRatePerSecond);
+        this.burstNanos = this.capacity * nanosPerToken;
+        this.timeSource = timeSource;
+        this.storedNanos = burstNanos;          // Start full
+        this.lastRefillNanos = timeSource.nanoTime();
     }
 
     /**
-     * Try to consume a single token
-     * Step 1: Check if token available
+     * Try to consume {@code permits} tokens at once (all or nothing)
+     * Step 1: Check if enough tokens available
      * Step 2: Thread-safe (lock) and refill tokens
      *
-     * @return true if token consumed, false if rate limit exceeded
+     * @return true if tokens consumed, false if rate limit exceeded
      */
-    public boolean tryConsume() {
+    @Override
+    public boolean tryConsume(long permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
+        if (permits > capacity) {
+            return false;        // Can never fit, whatever the refill
+        }
+        long cost = permits * nanosPerToken;
+
         lock.lock(); // Step 2: critical section
         try {
             refill();             // Refill tokens based on elapsed time
-            if (tokens >= 1) {   // Token available
-                tokens -= 1;     // Consume 1 token
+            if (storedNanos >= cost) {   // Enough tokens available
+                storedNanos -= cost;     // Consume all permits
                 return true;
             }
             return false;        // No tokens available → reject request
@@ -53,20 +76,54 @@ public class TokenBucket {
         }
     }
 
+    /**
+     * Reserve {@code permits} tokens, going into debt if they haven't refilled yet
+     * Step 1: Work out the wait from the token deficit (1 stored unit = 1 ns)
+     * Step 2: Take the tokens only if the caller accepts that wait
+     *
+     * @return nanos until the permits are available, Long.MAX_VALUE if never
+     */
+    @Override
+    public long reserve(long permits, long maxWaitNanos) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1");
+        }
+        if (permits > capacity) {
+            return Long.MAX_VALUE;
+        }
+        long cost = permits * nanosPerToken;
+
+        lock.lock();
+        try {
+            refill();
+            long wait = Math.max(0, cost - storedNanos);   // Step 1: deficit in nanos
+            if (wait > 0 && !refills) {
+                return Long.MAX_VALUE;                      // Never refills, never available
+            }
+            if (wait <= maxWaitNanos) {
+                storedNanos -= cost;                        // Step 2: may go negative (debt)
+            }
+            return wait;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Refill tokens based on elapsed time
      * Step 1: Sliding window time-based logic
      * Step 2: Atomic inside lock
      */
     private void refill() {
-        long now = System.currentTimeMillis();
-        long elapsedMillis = now - lastRefillTimestamp;
+        long now = timeSource.nanoTime();
+        long elapsedNanos = now - lastRefillNanos;
 
-        if (elapsedMillis > 0) {
-            // Step 1: refill proportional to time elapsed
-            double tokensToAdd = elapsedMillis * refillRatePerMillis;
-            tokens = Math.min(capacity, tokens + tokensToAdd); // cap at max
-            lastRefillTimestamp = now;
+        if (elapsedNanos > 0) {
+            if (refills) {
+                // Step 1: one elapsed nanosecond is worth exactly one stored unit
+                storedNanos = Math.min(burstNanos, storedNanos + elapsedNanos); // cap at max
+            }
+            lastRefillNanos = now;
         }
     }
 }
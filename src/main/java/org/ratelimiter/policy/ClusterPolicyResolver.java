@@ -0,0 +1,31 @@
+package org.ratelimiter.policy;
+
+import org.ratelimiter.core.RedisKeys;
+
+import java.util.List;
+
+/**
+ * Key resolution for Redis Cluster: same keys as DefaultPolicyResolver, but
+ * hash-tagged with the request's anchor - its org, else its user, else its
+ * ip - so the whole [ip, user, org] hierarchy lands in one slot and is still
+ * checked by a single script call.
+ *
+ * The trade-off is that ip and user buckets are per anchor: the same ip
+ * seen under two orgs gets two buckets. Users normally belong to one org,
+ * so in practice this only loosens the ip level for ips shared across orgs.
+ * Configs are not tagged, "<key>:config" is global whatever the anchor.
+ */
+public class ClusterPolicyResolver implements ResolvePolicy {
+
+    private final ResolvePolicy keys = new DefaultPolicyResolver();
+
+    @Override
+    public List<String> resolveKeys(String user, String ip, String org) {
+        String tag = org != null ? "org:" + org
+                : user != null ? "user:" + user
+                : "ip:" + ip;
+        return keys.resolveKeys(user, ip, org).stream()
+                .map(key -> RedisKeys.tagged(key, tag))
+                .toList();
+    }
+}
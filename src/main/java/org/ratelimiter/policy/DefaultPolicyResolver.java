@@ -1,13 +1,8 @@
 package org.ratelimiter.policy;
 
-import org.springframework.context.annotation.Primary;
-import org.springframework.stereotype.Component;
-
 import java.util.ArrayList;
 import java.util.List;
 
-@Component
-@Primary
 public class DefaultPolicyResolver implements ResolvePolicy {
 
     @Override
@@ -0,0 +1,40 @@
+package org.ratelimiter.time;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coarse clock for the cheapest possible reads
+ *
+ * A single daemon thread refreshes a volatile from System.nanoTime() every
+ * tick, so reading the time on the hot path is one volatile load instead of
+ * a clock call. Readings are at most one tick stale, and never go backwards.
+ */
+public class CachedTimeSource implements TimeSource, AutoCloseable {
+
+    private final ScheduledExecutorService ticker;
+    private volatile long now = System.nanoTime();
+
+    public CachedTimeSource(long tickMicros) {
+        if (tickMicros <= 0) {
+            throw new IllegalArgumentException("tickMicros must be positive");
+        }
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cached-time-source");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> now = System.nanoTime(), tickMicros, tickMicros, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+}
@@ -0,0 +1,22 @@
+package org.ratelimiter.time;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock that only moves when told to, so refill/expiry behavior can be
+ * tested without sleeping.
+ */
+public class ManualTimeSource implements TimeSource {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Override
+    public long nanoTime() {
+        return now.get();
+    }
+
+    public void advance(long amount, TimeUnit unit) {
+        now.addAndGet(unit.toNanos(amount));
+    }
+}
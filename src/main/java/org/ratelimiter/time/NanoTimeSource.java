@@ -0,0 +1,12 @@
+package org.ratelimiter.time;
+
+/**
+ * System.nanoTime() on every read - the precise default.
+ */
+public class NanoTimeSource implements TimeSource {
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+}
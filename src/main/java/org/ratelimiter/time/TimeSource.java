@@ -0,0 +1,23 @@
+package org.ratelimiter.time;
+
+/**
+ * Monotonic clock for the in-JVM limiters
+ *
+ * Only differences between two readings mean anything (like System.nanoTime()),
+ * which is exactly what refill math needs, and unlike currentTimeMillis() it
+ * never jumps when the wall clock is adjusted.
+ *
+ * Implementations:
+ * - NanoTimeSource   → System.nanoTime() on every read, full precision
+ * - CachedTimeSource → a volatile read of a value a background ticker refreshes
+ * - ManualTimeSource → only moves when told to, for deterministic tests
+ */
+public interface TimeSource {
+
+    TimeSource SYSTEM = new NanoTimeSource();
+
+    /**
+     * @return current time in nanoseconds, from an arbitrary fixed origin
+     */
+    long nanoTime();
+}
@@ -0,0 +1,132 @@
+package org.ratelimiter;
+
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisBatchDispatcher;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Manual benchmark, not a JUnit test - the blocking decision path
+// (tryAcquire, the /api/request controller) vs the async one
+// (tryAcquireAsync, /api/request-async) behind a fixed pool of "servlet"
+// worker threads, driven by more concurrent clients than there are workers.
+// A blocking worker holds its thread until Redis answers, an async worker only
+// queues the call and moves on. Latency is from hand-off to decision.
+// With spikeMicros > 0 a background connection keeps Redis busy for that long
+// every 10ms, to mimic the p99 spikes that saturate a blocking pool.
+// Needs a local Redis on 6379. Run it directly from the IDE, or
+// `java -cp target/classes:target/test-classes:<deps> org.ratelimiter.AsyncDecisionBenchmark [clients] [workers] [requests] [spikeMicros]`
+public class AsyncDecisionBenchmark {
+
+    // spins on Redis's own clock, blocking every other client meanwhile
+    private static final String BUSY_SCRIPT = """
+        local t = redis.call("TIME")
+        local until_us = tonumber(t[1]) * 1000000 + tonumber(t[2]) + tonumber(ARGV[1])
+        repeat
+            t = redis.call("TIME")
+        until tonumber(t[1]) * 1000000 + tonumber(t[2]) >= until_us
+        return 0
+    """;
+
+    public static void main(String[] args) throws InterruptedException {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        long spikeMicros = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+        JedisPoolConfig poolConfig = new JedisPoolConfig(); // same defaults the service runs with
+        poolConfig.setJmxEnabled(false);
+
+        try (JedisPool jedisPool = new JedisPool(poolConfig, "localhost", 6379);
+             JedisPool spikePool = new JedisPool("localhost", 6379)) {
+            System.out.printf("Clients: %d, workers: %d, requests: %d, spike: %dus every 10ms%n",
+                    clients, workers, requests, spikeMicros);
+            Thread spiker = spikeMicros > 0 ? startSpikes(spikePool, spikeMicros) : null;
+            try {
+                run("blocking, direct", jedisPool, null, false, clients, workers, requests);
+                try (RedisBatchDispatcher dispatcher = new RedisBatchDispatcher(jedisPool, 64, 200)) {
+                    run("blocking, batched", jedisPool, dispatcher, false, clients, workers, requests);
+                }
+                try (RedisBatchDispatcher dispatcher = new RedisBatchDispatcher(jedisPool, 64, 200)) {
+                    run("async, batched", jedisPool, dispatcher, true, clients, workers, requests);
+                }
+            } finally {
+                if (spiker != null) {
+                    spiker.interrupt();
+                    spiker.join();
+                }
+            }
+        }
+    }
+
+    private static void run(String label, JedisPool jedisPool, RedisBatchDispatcher dispatcher, boolean async,
+                            int clients, int workers, int requests) throws InterruptedException {
+        String prefix = "rate_limit:bench-async-" + System.nanoTime() + ":";
+        try (var jedis = jedisPool.getResource()) {
+            jedis.hset(prefix + "user:config", Map.of("capacity", "1000000000", "refill_rate", "1000000"));
+            jedis.hset(prefix + "org:config", Map.of("capacity", "1000000000", "refill_rate", "1000000"));
+        }
+        RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(jedisPool,
+                new InMemoryRateLimiterMetrics(), RedisFailMode.FAIL_CLOSED, RedisAlgorithm.TOKEN_BUCKET, dispatcher);
+        limiter.loadScripts();
+        List<String> keys = List.of(prefix + "user", prefix + "org");
+
+        long[] latencies = new long[requests];
+        ExecutorService workerPool = Executors.newFixedThreadPool(workers);
+        ExecutorService clientPool = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            // each client sends its next request once the previous one is answered
+            clientPool.execute(() -> {
+                for (int i = client; i < requests; i += clients) {
+                    long handedOff = System.nanoTime();
+                    CompletableFuture<Object> answered = new CompletableFuture<>();
+                    workerPool.execute(() -> {
+                        if (async) {
+                            limiter.tryAcquireAsync(keys, 1).thenAccept(answered::complete);
+                        } else {
+                            answered.complete(limiter.tryAcquire(keys, 1));
+                        }
+                    });
+                    answered.join();
+                    latencies[i] = System.nanoTime() - handedOff;
+                }
+            });
+        }
+        clientPool.shutdown();
+        clientPool.awaitTermination(10, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        workerPool.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-20s %9.0f decisions/sec  p50 %7.0f us  p99 %7.0f us%n", label, requests / seconds,
+                latencies[requests / 2] / 1e3, latencies[(int) (requests * 0.99)] / 1e3);
+    }
+
+    private static Thread startSpikes(JedisPool spikePool, long spikeMicros) {
+        Thread spiker = new Thread(() -> {
+            try (var jedis = spikePool.getResource()) {
+                while (!Thread.currentThread().isInterrupted()) {
+                    jedis.eval(BUSY_SCRIPT, 0, String.valueOf(spikeMicros));
+                    Thread.sleep(10);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "redis-spiker");
+        spiker.setDaemon(true);
+        spiker.start();
+        return spiker;
+    }
+}
@@ -0,0 +1,169 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.core.BucketEngine;
+import org.ratelimiter.core.LocalHotKeyRateLimiter;
+import org.ratelimiter.core.PackedTokenBucketRateLimiter;
+import org.ratelimiter.core.RateLimiter;
+import org.ratelimiter.core.ScopedHotKeyRateLimiter;
+import org.ratelimiter.core.TokenBucketRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.model.AtomicTokenBucket;
+import org.ratelimiter.model.StripedTokenBucket;
+import org.ratelimiter.model.TokenBucket;
+import org.ratelimiter.time.TimeSource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AtomicTokenBucketTest {
+
+    private static final int THREADS = 16;
+    private static final int REQUESTS_PER_THREAD = 2_000;
+
+    @Test
+    @DisplayName("Never allows more than capacity requests back-to-back")
+    void doesNotExceedCapacity() {
+        AtomicTokenBucket bucket = new AtomicTokenBucket(5, 1);
+
+        int allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (bucket.tryConsume()) allowed++;
+        }
+
+        assertEquals(5, allowed);
+    }
+
+    @Test
+    @DisplayName("Zero refill rate never grants new tokens")
+    void zeroRefillRateNeverRefills() throws InterruptedException {
+        AtomicTokenBucket bucket = new AtomicTokenBucket(2, 0);
+
+        assertTrue(bucket.tryConsume());
+        assertTrue(bucket.tryConsume());
+        assertFalse(bucket.tryConsume());
+
+        Thread.sleep(20);
+
+        assertFalse(bucket.tryConsume(), "refill rate 0 means it should still be empty after waiting");
+    }
+
+    @Test
+    @DisplayName("Refills after enough time passes, capped at capacity")
+    void refillsUpToCapacity() throws InterruptedException {
+        AtomicTokenBucket bucket = new AtomicTokenBucket(2, 1000); // 1 token/ms
+
+        while (bucket.tryConsume()) {
+            // drain whatever is there, including anything refilled meanwhile
+        }
+
+        Thread.sleep(20);
+
+        int allowed = 0;
+        for (int i = 0; i < 5; i++) {
+            if (bucket.tryConsume()) allowed++;
+        }
+        assertTrue(allowed >= 2 && allowed <= 3, "refill should cap at capacity, got " + allowed);
+    }
+
+    @Test
+    @DisplayName("Under contention, lock-free bucket accepts exactly as many as the locked one")
+    void sameAcceptCountAsLockedBucketUnderContention() throws InterruptedException {
+        int capacity = 5_000;
+
+        // no refill, so the only source of difference would be a lost/duplicated update
+        int locked = hammer(new TokenBucket(capacity, 0)::tryConsume);
+        int lockFree = hammer(new AtomicTokenBucket(capacity, 0)::tryConsume);
+
+        assertEquals(capacity, locked);
+        assertEquals(locked, lockFree);
+    }
+
+    @Test
+    @DisplayName("TokenBucketRateLimiter accepts the same count with either engine")
+    void tokenBucketRateLimiterEnginesAgree() throws InterruptedException {
+        int capacity = 1_000;
+        RateLimiter locked = new TokenBucketRateLimiter(capacity, 0, BucketEngine.LOCKED);
+        RateLimiter lockFree = new TokenBucketRateLimiter(capacity, 0, BucketEngine.LOCK_FREE);
+
+        assertEquals(hammer(() -> locked.allowRequest("hot")), hammer(() -> lockFree.allowRequest("hot")));
+    }
+
+    @Test
+    @DisplayName("Hot-key limiter passes through the same count with either engine")
+    void hotKeyLimiterEnginesAgree() throws InterruptedException {
+        int capacity = 500;
+        int shardCount = 4;
+        LocalHotKeyRateLimiter locked = new LocalHotKeyRateLimiter(
+                capacity, 0, shardCount, new InMemoryRateLimiterMetrics(), BucketEngine.LOCKED);
+        LocalHotKeyRateLimiter lockFree = new LocalHotKeyRateLimiter(
+                capacity, 0, shardCount, new InMemoryRateLimiterMetrics(), BucketEngine.LOCK_FREE);
+
+        // 32k requests against 500 tokens - striped or not, the key's budget is exact
+        int lockedPassed = hammer(() -> locked.allowRequest("hot"));
+        int lockFreePassed = hammer(() -> lockFree.allowRequest("hot"));
+
+        assertEquals(capacity, lockedPassed);
+        assertEquals(lockedPassed, lockFreePassed);
+    }
+
+    @Test
+    @DisplayName("Limits whose full refill would overflow a long still build working buckets")
+    void hugeRefillTimesDontOverflow() {
+        // 1,000,000 tokens at 0.0001/s: 10^19 nanos to refill, past Long.MAX_VALUE
+        long capacity = 1_000_000;
+        double refill = 0.0001;
+        assertTrue(new TokenBucket(capacity, refill).tryConsume(capacity));
+        assertTrue(new AtomicTokenBucket(capacity, refill).tryConsume(capacity));
+        assertTrue(new StripedTokenBucket(capacity, refill, 4, TimeSource.SYSTEM).tryConsume(capacity));
+        assertTrue(new PackedTokenBucketRateLimiter(capacity, refill).tryAcquire("key", capacity));
+
+        for (BucketEngine engine : BucketEngine.values()) {
+            TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1_000_000_000L, 0.01, engine);
+            assertTrue(limiter.tryAcquire("key", 1_000_000_000L));
+            assertFalse(limiter.tryAcquire("key", 1));
+        }
+        assertTrue(new TokenBucket(Long.MAX_VALUE, 0).tryConsume(Long.MAX_VALUE / 8));
+
+        // learned from Redis, where the admin endpoint accepts them
+        ScopedHotKeyRateLimiter scoped = new ScopedHotKeyRateLimiter(
+                Map.of("org", new ScopedHotKeyRateLimiter.Limits(10, 5)), new InMemoryRateLimiterMetrics());
+        scoped.learn("rate_limit:org:huge", "1000000", "0.0001");
+        assertNull(scoped.tryAcquire(List.of("rate_limit:org:huge"), 1));
+    }
+
+    private static int hammer(BooleanSupplier attempt) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger allowed = new AtomicInteger();
+
+        for (int t = 0; t < THREADS; t++) {
+            executor.submit(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                        if (attempt.getAsBoolean()) allowed.incrementAndGet();
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            });
+        }
+
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        return allowed.get();
+    }
+}
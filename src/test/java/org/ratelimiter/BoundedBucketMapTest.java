@@ -0,0 +1,97 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.core.BucketEngine;
+import org.ratelimiter.core.LocalHotKeyRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.model.AtomicTokenBucket;
+import org.ratelimiter.model.BoundedBucketMap;
+import org.ratelimiter.model.Bucket;
+import org.ratelimiter.time.TimeSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedBucketMapTest {
+
+    private static BoundedBucketMap newMap(int maxEntries, InMemoryRateLimiterMetrics metrics) {
+        return new BoundedBucketMap(maxEntries,
+                () -> new AtomicTokenBucket(5, 1),
+                new BoundedBucketMap.Listener() {
+                    public void hit() { metrics.incrementHotKeyTableHit(); }
+                    public void miss() { metrics.incrementHotKeyTableMiss(); }
+                    public void admissionRejected() { metrics.incrementHotKeyAdmissionRejected(); }
+                    public void evicted() { metrics.incrementHotKeyTableEviction(); }
+                });
+    }
+
+    @Test
+    @DisplayName("A scan over many more keys than the budget never grows the table past it")
+    void boundedUnderScan() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        BoundedBucketMap map = newMap(1_000, metrics);
+        for (int i = 0; i < 100_000; i++) {
+            map.get("scan-" + i);
+            assertTrue(map.size() <= 1_000);
+        }
+        assertEquals(100_000, metrics.getHotKeyTableMisses());
+        assertEquals(99_000, metrics.getHotKeyAdmissionRejections() + metrics.getHotKeyTableEvictions());
+    }
+
+    @Test
+    @DisplayName("Frequently used keys stay resident through a scan of one-off keys")
+    void hotKeysSurviveScan() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        BoundedBucketMap map = newMap(1_000, metrics);
+        List<Bucket> hotBuckets = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            hotBuckets.add(map.get("hot-" + i));
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                map.get("hot-" + i);
+            }
+        }
+
+        for (int i = 0; i < 100_000; i++) {
+            map.get("scan-" + i);
+            if (i % 100 == 0) {
+                map.get("hot-" + (i / 100 % 100));
+            }
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertSame(hotBuckets.get(i), map.get("hot-" + i), "hot-" + i + " was evicted and recreated");
+        }
+        assertTrue(metrics.getHotKeyAdmissionRejections() > 80_000, "most scan keys are turned away at the door");
+    }
+
+    @Test
+    @DisplayName("Hits and misses feed the hit ratio")
+    void hitRatio() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        BoundedBucketMap map = newMap(10, metrics);
+        map.get("a");
+        map.get("a");
+        map.get("a");
+        map.get("b");
+        assertEquals(2, metrics.getHotKeyTableHits());
+        assertEquals(2, metrics.getHotKeyTableMisses());
+        assertEquals(0.5, metrics.getHotKeyTableHitRatio(), 1e-9);
+    }
+
+    @Test
+    @DisplayName("The hot-key limiter's bucket table honours its entry budget")
+    void limiterBounded() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        LocalHotKeyRateLimiter limiter = new LocalHotKeyRateLimiter(5, 1, 4, metrics, BucketEngine.LOCK_FREE,
+                60_000, TimeSource.SYSTEM, null, 200);
+        for (int i = 0; i < 10_000; i++) {
+            limiter.tryAcquire("user-" + i, 1);
+        }
+        assertTrue(limiter.size() <= 200);
+    }
+}
@@ -0,0 +1,152 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.core.BucketEngine;
+import org.ratelimiter.core.LocalHotKeyRateLimiter;
+import org.ratelimiter.core.TokenBucketRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.model.TimingWheel;
+import org.ratelimiter.time.ManualTimeSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BucketExpiryTest {
+
+    @Test
+    @DisplayName("Timing wheel expires entries at their deadline across every level")
+    void wheelExpiresAcrossLevels() {
+        TimingWheel wheel = new TimingWheel(1, 0); // 1 "nano" per tick, so deadlines are tick numbers
+        List<Long> expiredAt = new ArrayList<>();
+
+        // level 0, level 1, level 2 and level 3 deadlines
+        long[] deadlines = {5, 70, 5_000, 300_000};
+        for (long deadline : deadlines) {
+            wheel.schedule(new FixedEntry(deadline, expiredAt));
+        }
+
+        for (long deadline : deadlines) {
+            wheel.advance(deadline - 1);
+            assertEquals(expiredAt.size(), indexOf(deadlines, deadline), "nothing expires before its deadline");
+            wheel.advance(deadline);
+            assertEquals(deadline, expiredAt.get(expiredAt.size() - 1));
+        }
+    }
+
+    @Test
+    @DisplayName("An entry whose deadline moved out is re-placed instead of expired")
+    void wheelReschedulesTouchedEntries() {
+        TimingWheel wheel = new TimingWheel(1, 0);
+        List<Long> expiredAt = new ArrayList<>();
+        FixedEntry entry = new FixedEntry(10, expiredAt);
+        wheel.schedule(entry);
+
+        wheel.advance(5);
+        entry.deadline = 1_000; // touched, e.g. by a request
+        wheel.advance(10);
+        assertTrue(expiredAt.isEmpty());
+
+        wheel.advance(1_000);
+        assertEquals(List.of(1_000L), expiredAt);
+    }
+
+    @Test
+    @DisplayName("Idle, refilled buckets are evicted and counted")
+    void idleBucketsAreEvicted() {
+        ManualTimeSource clock = new ManualTimeSource();
+        // 1 token/ms refill, so a full refill takes 1ms; 20ms idle TTL on top
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 1000, BucketEngine.LOCK_FREE, 20, clock);
+
+        for (int i = 0; i < 1_000; i++) {
+            limiter.allowRequest("ip:" + i);
+        }
+
+        clock.advance(20, TimeUnit.MILLISECONDS);
+        limiter.allowRequest("driver");
+        assertEquals(0, limiter.evictionCount(), "not refilled + idle for the full TTL yet");
+
+        clock.advance(5, TimeUnit.MILLISECONDS);
+        limiter.allowRequest("driver"); // any request advances the wheel
+
+        assertEquals(1_000, limiter.evictionCount());
+        assertEquals(1, limiter.size());
+    }
+
+    @Test
+    @DisplayName("A bucket that keeps being used is never evicted")
+    void activeBucketIsKept() {
+        ManualTimeSource clock = new ManualTimeSource();
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 1000, BucketEngine.LOCKED, 20, clock);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.allowRequest("busy");
+            clock.advance(5, TimeUnit.MILLISECONDS);
+        }
+
+        assertEquals(0, limiter.evictionCount());
+        assertEquals(1, limiter.size());
+    }
+
+    @Test
+    @DisplayName("Buckets that never refill are never evicted, so an exhausted key stays exhausted")
+    void nonRefillingBucketsAreKept() throws InterruptedException {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 0, BucketEngine.LOCKED, 0);
+
+        assertTrue(limiter.allowRequest("key"));
+        Thread.sleep(20);
+        assertFalse(limiter.allowRequest("key"));
+        assertEquals(0, limiter.evictionCount());
+    }
+
+    @Test
+    @DisplayName("Hot-key limiter reports evictions through metrics")
+    void hotKeyEvictionsReachMetrics() {
+        ManualTimeSource clock = new ManualTimeSource();
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        LocalHotKeyRateLimiter limiter = new LocalHotKeyRateLimiter(1, 1000, 1, metrics, BucketEngine.LOCK_FREE, 20, clock);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.allowRequest("user-" + i);
+        }
+        clock.advance(100, TimeUnit.MILLISECONDS);
+        limiter.allowRequest("driver");
+
+        assertEquals(100, metrics.getLocalBucketEvictions());
+        assertEquals(1, limiter.size());
+    }
+
+    private static int indexOf(long[] values, long value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) return i;
+        }
+        return -1;
+    }
+
+    // Entry with a settable deadline that records when it was expired
+    private static class FixedEntry extends TimingWheel.Entry {
+        long deadline;
+        final List<Long> expiredAt;
+
+        FixedEntry(long deadline, List<Long> expiredAt) {
+            this.deadline = deadline;
+            this.expiredAt = expiredAt;
+        }
+
+        @Override
+        protected long deadline() {
+            return deadline;
+        }
+
+        @Override
+        protected boolean expire(long now) {
+            expiredAt.add(now);
+            return true;
+        }
+    }
+}
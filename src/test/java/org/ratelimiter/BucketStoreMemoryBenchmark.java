@@ -0,0 +1,47 @@
+package org.ratelimiter;
+
+import org.ratelimiter.core.PackedTokenBucketRateLimiter;
+import org.ratelimiter.core.RateLimiter;
+import org.ratelimiter.core.TokenBucketRateLimiter;
+
+import java.util.function.Supplier;
+
+// Manual benchmark, not a JUnit test - compares retained heap per key for
+// the map-based TokenBucketRateLimiter vs PackedTokenBucketRateLimiter.
+// Run it directly from the IDE, or
+// `java -Xmx4g -cp target/classes:target/test-classes org.ratelimiter.BucketStoreMemoryBenchmark [keys]`
+public class BucketStoreMemoryBenchmark {
+
+    public static void main(String[] args) {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        System.out.println("Keys: " + keys);
+        measure(keys, () -> new TokenBucketRateLimiter(10, 5));
+        measure(keys, () -> new PackedTokenBucketRateLimiter(10, 5));
+    }
+
+    private static void measure(int keys, Supplier<RateLimiter> factory) {
+        long before = usedHeap();
+        RateLimiter limiter = factory.get();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < keys; i++) {
+            // IPv4-looking keys, built fresh so the map has to retain its own copy
+            limiter.allowRequest("rate_limit:ip:10." + (i >>> 16 & 0xff) + "." + (i >>> 8 & 0xff) + "." + (i & 0xff) + "#" + (i >>> 24));
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        long after = usedHeap();
+        // limiter is still referenced here, so it can't be collected before it's measured
+        System.out.printf("%-30s %8.1f bytes/key  %6d ms to insert%n",
+                limiter.getClass().getSimpleName(), (double) (after - before) / keys, elapsedMs);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
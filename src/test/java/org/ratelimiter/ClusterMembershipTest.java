@@ -0,0 +1,69 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.core.ClusterMembership;
+import redis.clients.jedis.JedisPooled;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterMembershipTest {
+
+    private final JedisPooled redis = new JedisPooled("localhost", 6379);
+
+    @BeforeEach
+    void clearNodes() {
+        redis.del(ClusterMembership.NODES_KEY);
+    }
+
+    @Test
+    @DisplayName("Nodes count each other from their heartbeats, and a clean leave is seen at once")
+    void joinAndLeave() {
+        List<Integer> seenByA = new ArrayList<>();
+        ClusterMembership a = new ClusterMembership(redis, "node-a", 1_000, 5_000, seenByA::add);
+        ClusterMembership b = new ClusterMembership(redis, "node-b", 1_000, 5_000, count -> { });
+
+        assertEquals(1, a.heartbeat());
+        assertEquals(2, b.heartbeat());
+        assertEquals(2, a.heartbeat());
+        assertEquals(2, a.heartbeat(), "a renewed heartbeat isn't a second node");
+
+        b.close();
+        assertEquals(1, a.heartbeat());
+        assertEquals(List.of(2, 1), seenByA, "told about changes only");
+        a.close();
+    }
+
+    @Test
+    @DisplayName("A node that stops heartbeating drops out once its ttl has passed")
+    void silentNodeExpires() throws InterruptedException {
+        ClusterMembership a = new ClusterMembership(redis, "node-a", 50, 200, count -> { });
+        ClusterMembership crashed = new ClusterMembership(redis, "node-crashed", 50, 200, count -> { });
+
+        crashed.heartbeat();
+        assertEquals(2, a.heartbeat());
+        Thread.sleep(300);
+        assertEquals(1, a.heartbeat());
+        a.close();
+    }
+
+    @Test
+    @DisplayName("Without Redis the last count stands")
+    void redisDownKeepsCount() {
+        ClusterMembership b = new ClusterMembership(redis, "node-b", 1_000, 5_000, count -> { });
+        b.heartbeat();
+        JedisPooled connection = new JedisPooled("localhost", 6379);
+        List<Integer> seen = new ArrayList<>();
+        ClusterMembership a = new ClusterMembership(connection, "node-a", 1_000, 5_000, seen::add);
+        assertEquals(2, a.heartbeat());
+
+        connection.close(); // Redis is gone as far as node-a can tell
+        assertEquals(2, a.heartbeat());
+        assertEquals(List.of(2), seen);
+        b.close();
+    }
+}
@@ -72,8 +72,8 @@ public class ConcurrentRateLimiterTest {
         executor.shutdown();
         executor.awaitTermination(10, TimeUnit.SECONDS);
 
-        System.out.println("Total allowed requests: " + metrics.allowed.get());
-        System.out.println("Total rejected requests: " + metrics.rejected.get());
+        System.out.println("Total allowed requests: " + metrics.getAllowed());
+        System.out.println("Total rejected requests: " + metrics.getRejected());
     }
 
     @AfterAll
@@ -0,0 +1,182 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.core.BucketEngine;
+import org.ratelimiter.core.HotKeyDetector;
+import org.ratelimiter.core.LocalHotKeyRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.time.ManualTimeSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HotKeyDetectorTest {
+
+    @Test
+    @DisplayName("Cold keys pass through with no local bucket at all")
+    void coldKeysGetNoBuckets() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        ManualTimeSource clock = new ManualTimeSource();
+        HotKeyDetector detector = new HotKeyDetector(10, 1_000, 100, 4, 4096, clock);
+        LocalHotKeyRateLimiter limiter = new LocalHotKeyRateLimiter(1, 0, 4, metrics, BucketEngine.LOCK_FREE,
+                60_000, clock, detector);
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(limiter.tryAcquire("user-" + i, 1));
+        }
+        assertEquals(0, limiter.size());
+        assertEquals(0, metrics.getLocalHits());
+        assertTrue(detector.hotKeys().isEmpty());
+    }
+
+    @Test
+    @DisplayName("A key over the threshold becomes hot and is then shed locally")
+    void hotKeyIsShed() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        ManualTimeSource clock = new ManualTimeSource();
+        // threshold 10/s over a 1s window = 10 permits
+        HotKeyDetector detector = new HotKeyDetector(10, 1_000, 100, 4, 4096, clock);
+        LocalHotKeyRateLimiter limiter = new LocalHotKeyRateLimiter(1, 0, 1, metrics, BucketEngine.LOCK_FREE,
+                60_000, clock, detector);
+
+        for (int i = 0; i < 9; i++) {
+            assertTrue(limiter.tryAcquire("hot", 1));
+        }
+        assertFalse(detector.isHot("hot"));
+        assertEquals(0, limiter.size());
+
+        assertTrue(limiter.tryAcquire("hot", 1), "10th permit: hot now, and its fresh bucket has a token");
+        assertTrue(detector.isHot("hot"));
+        assertFalse(limiter.tryAcquire("hot", 1), "the bucket is empty");
+        assertEquals(1, limiter.size());
+        assertEquals(List.of("hot"), detector.hotKeys().stream().map(HotKeyDetector.HotKey::key).toList());
+    }
+
+    @Test
+    @DisplayName("Decay halves the counts; a key that stops being busy leaves the hot set")
+    void decayDemotes() {
+        ManualTimeSource clock = new ManualTimeSource();
+        HotKeyDetector detector = new HotKeyDetector(10, 1_000, 100, 4, 4096, clock);
+        detector.record("burst", 16);
+        assertTrue(detector.isHot("burst"));
+
+        clock.advance(1, TimeUnit.SECONDS);
+        // the sweep is shared out over the next DECAY_STEPS requests
+        for (int i = 0; i < HotKeyDetector.DECAY_STEPS; i++) {
+            detector.record("other", 1);
+        }
+        assertEquals(8, detector.estimate("burst"));
+        assertFalse(detector.isHot("burst"), "8 < 10 after one halving");
+    }
+
+    @Test
+    @DisplayName("The hot set is bounded: a hotter key replaces the coldest one")
+    void boundedTopK() {
+        ManualTimeSource clock = new ManualTimeSource();
+        HotKeyDetector detector = new HotKeyDetector(10, 1_000, 2, 4, 4096, clock);
+        detector.record("a", 30);
+        detector.record("b", 20);
+        assertFalse(detector.record("c", 15), "c is over the threshold but colder than a and b");
+        assertTrue(detector.record("c", 15), "c at 30 now beats b");
+
+        List<String> hot = detector.hotKeys().stream().map(HotKeyDetector.HotKey::key).toList();
+        assertEquals(2, hot.size());
+        assertTrue(hot.containsAll(List.of("a", "c")));
+    }
+
+    @Test
+    @DisplayName("A sketch sized for the traffic keeps far more cold keys than its width out of the hot set")
+    void sizedSketchKeepsColdKeysCold() {
+        ManualTimeSource clock = new ManualTimeSource();
+        int width = HotKeyDetector.widthFor(100_000, 10);
+        HotKeyDetector detector = new HotKeyDetector(10, 1_000, 100, HotKeyDetector.DEFAULT_DEPTH, width, clock);
+
+        for (int i = 0; i < 100_000; i++) {
+            detector.record("cold-" + i, 1);
+        }
+        assertTrue(100_000 > width, "more keys than counters per row");
+        assertTrue(detector.hotKeys().isEmpty(), detector.hotKeys().size() + " cold keys looked hot");
+    }
+
+    @Test
+    @DisplayName("In an overloaded sketch every key looks hot, but admission stays bounded and lock-free")
+    void saturatedSketchStaysBounded() throws InterruptedException {
+        ManualTimeSource clock = new ManualTimeSource();
+        // 4096 counters a row, 100k keys: every counter is far past the threshold
+        HotKeyDetector detector = new HotKeyDetector(10, 1_000, 10, 4, 4096, clock);
+        detector.record("hot", 10_000);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            pool.execute(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    detector.record("cold-" + thread + "-" + i, 1);
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertTrue(detector.hotKeys().size() <= 10);
+        assertTrue(detector.isHot("hot"), "never the coldest of any sample");
+    }
+
+    @Test
+    @DisplayName("One request's share of a decay sweep is a small chunk, not the whole sketch")
+    void decaySpreadOverRequests() {
+        ManualTimeSource clock = new ManualTimeSource();
+        HotKeyDetector detector = new HotKeyDetector(10, 1_000, 100, 4, 4096, clock);
+        detector.record("burst", 16);
+
+        clock.advance(1, TimeUnit.SECONDS);
+        detector.record("other", 1);
+        assertTrue(detector.isHot("burst"), "the hot set is swept last, after every counter");
+        for (int i = 1; i < HotKeyDetector.DECAY_STEPS; i++) {
+            detector.record("other", 1);
+        }
+        assertEquals(8, detector.estimate("burst"));
+        assertFalse(detector.isHot("burst"));
+    }
+
+    @Test
+    @DisplayName("Keys crafted to share a String.hashCode don't pool their counts")
+    void hashCodeCollisionsDontPool() {
+        ManualTimeSource clock = new ManualTimeSource();
+        HotKeyDetector detector = new HotKeyDetector(10, 1_000, 100, 4, 4096, clock);
+        // "Aa" and "BB" hash alike, and so does every string made of them
+        List<String> colliding = new ArrayList<>();
+        for (int bits = 0; bits < 64; bits++) {
+            StringBuilder key = new StringBuilder("rate_limit:ip:");
+            for (int i = 0; i < 6; i++) {
+                key.append((bits >>> i & 1) == 0 ? "Aa" : "BB");
+            }
+            colliding.add(key.toString());
+        }
+        assertEquals(1, colliding.stream().mapToInt(String::hashCode).distinct().count());
+
+        for (String key : colliding) {
+            assertFalse(detector.record(key, 5), key + " is at half the threshold");
+        }
+        assertTrue(detector.hotKeys().isEmpty());
+    }
+
+    @Test
+    @DisplayName("The count-min estimate never undercounts, even in a tiny sketch")
+    void neverUndercounts() {
+        ManualTimeSource clock = new ManualTimeSource();
+        HotKeyDetector detector = new HotKeyDetector(1_000_000, 1_000, 10, 2, 16, clock);
+        for (int i = 0; i < 1_000; i++) {
+            detector.record("key-" + i, i % 7 + 1);
+        }
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(detector.estimate("key-" + i) >= i % 7 + 1);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.metrics.HyperLogLog;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.metrics.KeyCardinality;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyCardinalityTest {
+
+    @Test
+    @DisplayName("HyperLogLog stays within a few percent from tiny to large counts")
+    void estimatesAccurately() {
+        for (int distinct : new int[]{10, 1_000, 200_000}) {
+            KeyCardinality cardinality = new KeyCardinality(12, 0, 1);
+            for (int i = 0; i < distinct; i++) {
+                cardinality.record("rate_limit:ip:10." + (i >>> 16 & 0xff) + "." + (i >>> 8 & 0xff) + "." + (i & 0xff));
+            }
+            assertEquals(distinct, cardinality.allTime("ip"), distinct * 0.05 + 1, distinct + " keys");
+        }
+    }
+
+    @Test
+    @DisplayName("Repeats, hash tags and scopes: each key counts once, under its own scope")
+    void countsPerScope() {
+        KeyCardinality cardinality = new KeyCardinality(12, 0, 1);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                cardinality.record("rate_limit:user:" + i);
+                // cluster mode: the same ip anchored by different orgs
+                cardinality.record("rate_limit:{org:o" + round + "}:ip:1.1.1." + i);
+            }
+        }
+        cardinality.record("rate_limit:org:acme");
+        cardinality.record("something-else");
+
+        assertEquals(100, cardinality.allTime("user"), 3);
+        assertEquals(100, cardinality.allTime("ip"), 3);
+        assertEquals(1, cardinality.allTime("org"));
+        assertEquals(1, cardinality.allTime("other"));
+    }
+
+    @Test
+    @DisplayName("Sliding window forgets keys not seen for a whole window, all-time doesn't")
+    void windowForgets() throws InterruptedException {
+        KeyCardinality cardinality = new KeyCardinality(10, 200, 2);
+        for (int i = 0; i < 50; i++) {
+            cardinality.record("rate_limit:user:old-" + i);
+        }
+        assertEquals(50, cardinality.window("user"), 2);
+
+        Thread.sleep(300);
+        for (int i = 0; i < 20; i++) {
+            cardinality.record("rate_limit:user:new-" + i);
+        }
+        assertEquals(20, cardinality.window("user"), 2);
+        assertEquals(70, cardinality.allTime("user"), 3);
+    }
+
+    @Test
+    @DisplayName("Concurrent adds converge on the same registers as sequential ones")
+    void concurrentAdds() throws InterruptedException {
+        HyperLogLog sequential = new HyperLogLog(12);
+        HyperLogLog concurrent = new HyperLogLog(12);
+        long[] hashes = new long[100_000];
+        Random random = new Random(7);
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = random.nextLong();
+            sequential.add(hashes[i]);
+        }
+
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            executor.submit(() -> {
+                for (int i = offset; i < hashes.length; i += threads) {
+                    concurrent.add(hashes[i]);
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(sequential.estimate(), concurrent.estimate());
+    }
+
+    @Test
+    @DisplayName("getKeyCardinality() sums the scopes, in constant memory")
+    void metricsKeyCardinality() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        for (int i = 0; i < 1_000; i++) {
+            metrics.recordKeys(List.of("rate_limit:ip:" + i, "rate_limit:user:" + (i % 10), "rate_limit:org:acme"));
+        }
+        assertEquals(1_011, metrics.getKeyCardinality(), 1_011 * 0.05);
+    }
+}
@@ -0,0 +1,102 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.metrics.LatencyHistogram;
+import org.ratelimiter.metrics.LatencyStage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    @DisplayName("Percentiles are within ~3% at any magnitude, sub-millisecond included")
+    void percentilesArePrecise() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1µs .. 1000µs, one each
+        for (long micros = 1; micros <= 1_000; micros++) {
+            histogram.record(micros * 1_000);
+        }
+
+        LatencyHistogram.Snapshot interval = histogram.intervalSnapshot();
+        assertEquals(1_000, interval.getCount());
+        assertEquals(1_000_000, interval.getMaxNanos());
+        assertEquals(500_000, interval.valueAt(0.5), 500_000 * 0.04);
+        assertEquals(990_000, interval.valueAt(0.99), 990_000 * 0.04);
+        assertEquals(999_000, interval.valueAt(0.999), 999_000 * 0.04);
+        assertTrue(interval.valueAt(1.0) <= interval.getMaxNanos());
+    }
+
+    @Test
+    @DisplayName("Cumulative buckets at powers of two count exactly the values below them")
+    void powerOfTwoBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1023);
+        histogram.record(1024);
+        histogram.record(5_000_000);
+
+        assertEquals(1, histogram.countBelowPowerOfTwo(10));
+        assertEquals(2, histogram.countBelowPowerOfTwo(11));
+        assertEquals(2, histogram.countBelowPowerOfTwo(22));
+        assertEquals(3, histogram.countBelowPowerOfTwo(23));
+        assertEquals(3, histogram.getCount());
+        assertEquals(1023 + 1024 + 5_000_000, histogram.getSumNanos());
+    }
+
+    @Test
+    @DisplayName("Each interval snapshot covers only what came after the previous one")
+    void intervalsReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+        histogram.intervalSnapshot();
+
+        histogram.record(20_000);
+        LatencyHistogram.Snapshot interval = histogram.intervalSnapshot();
+        assertEquals(1, interval.getCount());
+        assertEquals(20_000, interval.getMaxNanos());
+        assertTrue(interval.valueAt(0.99) <= 20_000);
+
+        assertEquals(0, histogram.intervalSnapshot().getCount());
+        assertEquals(2, histogram.getCount(), "cumulative counts never reset");
+    }
+
+    @Test
+    @DisplayName("Concurrent recording loses nothing")
+    void concurrentRecording() throws InterruptedException {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        int threads = 8;
+        int perThread = 50_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    metrics.recordLatency(LatencyStage.DECISION, i);
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        LatencyHistogram decision = metrics.latency(LatencyStage.DECISION);
+        assertEquals((long) threads * perThread, decision.getCount());
+        assertEquals((long) threads * perThread * (perThread - 1) / 2, decision.getSumNanos());
+        assertEquals(perThread - 1, decision.intervalSnapshot().getMaxNanos());
+    }
+
+    @Test
+    @DisplayName("Redis latency is kept in nanoseconds, so sub-millisecond calls aren't averaged as 0")
+    void subMillisecondRedisLatency() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        metrics.recordRedisLatency(200_000);
+        metrics.recordRedisLatency(400_000);
+        assertEquals(0.3, metrics.getAverageRedisLatencyMs(), 1e-9);
+    }
+}
@@ -27,11 +27,11 @@ public class LoadTests {
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("\n=== RATE LIMITER METRICS ===");
-            System.out.println("Total Requests : " + metrics.total.get());
-            System.out.println("Allowed        : " + metrics.allowed.get());
-            System.out.println("Rejected       : " + metrics.rejected.get());
-            System.out.println("Local Hits     : " + metrics.localHits.get());
-            System.out.println("Redis Hits     : " + metrics.redisHits.get());
+            System.out.println("Total Requests : " + metrics.getTotal());
+            System.out.println("Allowed        : " + metrics.getAllowed());
+            System.out.println("Rejected       : " + metrics.getRejected());
+            System.out.println("Local Hits     : " + metrics.getLocalHits());
+            System.out.println("Redis Hits     : " + metrics.getRedisHits());
         }));
     }
 
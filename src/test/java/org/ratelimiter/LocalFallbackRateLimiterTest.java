@@ -0,0 +1,131 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.core.BucketEngine;
+import org.ratelimiter.core.LocalFallbackRateLimiter;
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.time.ManualTimeSource;
+import redis.clients.jedis.JedisPool;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LocalFallbackRateLimiterTest {
+
+    @Test
+    @DisplayName("Each node enforces its share of a key's limits, defaults for unknown keys")
+    void scaledByClusterSize() {
+        ManualTimeSource clock = new ManualTimeSource();
+        LocalFallbackRateLimiter fallback = new LocalFallbackRateLimiter(4, 1_000, BucketEngine.LOCKED, 60_000, clock);
+        fallback.learn("rate_limit:org:acme", "40", "8");
+
+        List<String> org = List.of("rate_limit:org:acme");
+        for (int i = 0; i < 10; i++) {
+            assertTrue(fallback.tryAcquire(org, 1).allowed());
+        }
+        RedisHierarchicalRateLimiter.Result blocked = fallback.tryAcquire(org, 1);
+        assertFalse(blocked.allowed(), "40 / 4 nodes = 10");
+        assertEquals("rate_limit:org:acme", blocked.blockedKey());
+        assertEquals(500_000_000L, blocked.waitNanos(), "refills at 8 / 4 = 2 per second");
+
+        clock.advance(500, TimeUnit.MILLISECONDS);
+        assertTrue(fallback.tryAcquire(org, 1).allowed());
+
+        // never seen: default capacity 10 / 4 nodes = 2
+        List<String> unknown = List.of("rate_limit:user:nobody");
+        assertTrue(fallback.tryAcquire(unknown, 1).allowed());
+        assertTrue(fallback.tryAcquire(unknown, 1).allowed());
+        assertFalse(fallback.tryAcquire(unknown, 1).allowed());
+    }
+
+    @Test
+    @DisplayName("The share follows the live node count without resetting buckets")
+    void followsLiveNodes() {
+        ManualTimeSource clock = new ManualTimeSource();
+        LocalFallbackRateLimiter fallback = new LocalFallbackRateLimiter(1, 1_000, BucketEngine.LOCKED, 60_000, clock);
+        fallback.learn("rate_limit:org:acme", "40", "0");
+        List<String> org = List.of("rate_limit:org:acme");
+
+        fallback.setLiveNodes(4);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(fallback.tryAcquire(org, 1).allowed());
+        }
+        // half of this node's 10 is spent; with 2 nodes the same fill is 10 of 20
+        fallback.setLiveNodes(2);
+        assertEquals(2, fallback.liveNodes());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(fallback.tryAcquire(org, 1).allowed());
+        }
+        assertFalse(fallback.tryAcquire(org, 1).allowed());
+
+        // fewer tokens than nodes: every node still gets one
+        fallback.learn("rate_limit:org:tiny", "1", "0");
+        fallback.setLiveNodes(8);
+        assertTrue(fallback.tryAcquire(List.of("rate_limit:org:tiny"), 1).allowed());
+        assertFalse(fallback.tryAcquire(List.of("rate_limit:org:tiny"), 1).allowed());
+    }
+
+    @Test
+    @DisplayName("Keys learned after the table filled get their real limits, not the defaults")
+    void fullTableStillLearns() {
+        LocalFallbackRateLimiter fallback = new LocalFallbackRateLimiter(1, 2, BucketEngine.LOCKED, 60_000,
+                new ManualTimeSource());
+        fallback.learn("rate_limit:org:old-1", "20", "0");
+        fallback.learn("rate_limit:org:old-2", "20", "0");
+        fallback.learn("rate_limit:org:new", "3", "0");
+
+        List<String> org = List.of("rate_limit:org:new");
+        for (int i = 0; i < 3; i++) {
+            assertTrue(fallback.tryAcquire(org, 1).allowed());
+        }
+        assertFalse(fallback.tryAcquire(org, 1).allowed(), "its own capacity 3, not the default 10");
+    }
+
+    @Test
+    @DisplayName("Limits learned while Redis was up are enforced locally once it's gone")
+    void learnsFromRedisThenFallsBack() {
+        String key = "rate_limit:user:fallback-" + System.nanoTime();
+        LocalFallbackRateLimiter fallback = new LocalFallbackRateLimiter(2, 1_000);
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+
+        try (JedisPool pool = new JedisPool("localhost", 6379)) {
+            try (var jedis = pool.getResource()) {
+                jedis.hset(key + ":config", Map.of("capacity", "6", "refill_rate", "0"));
+            }
+            RedisHierarchicalRateLimiter up = new RedisHierarchicalRateLimiter(pool, metrics,
+                    RedisFailMode.LOCAL_FALLBACK, RedisAlgorithm.TOKEN_BUCKET, null, 0, null, null, fallback);
+            assertTrue(up.allowRequest(List.of(key)).allowed());
+        }
+
+        // nothing listens on port 1
+        try (JedisPool deadPool = new JedisPool("localhost", 1)) {
+            RedisHierarchicalRateLimiter down = new RedisHierarchicalRateLimiter(deadPool, metrics,
+                    RedisFailMode.LOCAL_FALLBACK, RedisAlgorithm.TOKEN_BUCKET, null, 0, null, null, fallback);
+            for (int i = 0; i < 3; i++) {
+                assertTrue(down.allowRequest(List.of(key)).allowed(), "6 / 2 nodes = 3 locally");
+            }
+            RedisHierarchicalRateLimiter.Result result = down.allowRequest(List.of(key));
+            assertFalse(result.allowed());
+            assertEquals(key, result.blockedKey());
+            assertEquals(1, metrics.getBlockedUser());
+            assertEquals(4, metrics.getRedisFailure());
+        }
+    }
+
+    @Test
+    @DisplayName("LOCAL_FALLBACK without a fallback limiter is a configuration error")
+    void needsFallback() {
+        try (JedisPool pool = new JedisPool("localhost", 6379)) {
+            assertThrows(IllegalArgumentException.class, () -> new RedisHierarchicalRateLimiter(pool,
+                    new InMemoryRateLimiterMetrics(), RedisFailMode.LOCAL_FALLBACK, RedisAlgorithm.TOKEN_BUCKET,
+                    null, 0, null, null, null));
+        }
+    }
+}
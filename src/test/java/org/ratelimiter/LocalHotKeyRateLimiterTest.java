@@ -2,33 +2,67 @@ package org.ratelimiter;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.ratelimiter.core.BucketEngine;
 import org.ratelimiter.core.LocalHotKeyRateLimiter;
 import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.time.TimeSource;
 
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class LocalHotKeyRateLimiterTest {
 
     @Test
-    @DisplayName("Random shard selection spreads a hot key's load across more than one shard")
-    void spreadsLoadAcrossShards() {
+    @DisplayName("Striping spreads a hot key over its stripes without multiplying its budget")
+    void stripesKeepBudgetExact() {
         int shardCount = 10;
         InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
-        // capacity 1 per shard, no refill - each shard can only ever pass one request through
-        LocalHotKeyRateLimiter limiter = new LocalHotKeyRateLimiter(1, 0, shardCount, metrics);
+        // capacity 10 over 10 stripes, no refill - exactly 10 requests ever pass
+        LocalHotKeyRateLimiter limiter = new LocalHotKeyRateLimiter(10, 0, shardCount, metrics, BucketEngine.LOCK_FREE);
 
         int passedThrough = 0;
         for (int i = 0; i < 500; i++) {
             if (limiter.allowRequest("hot-key")) passedThrough++;
         }
 
-        // if every request landed on the same shard (the old key-hash based bug),
-        // this would be capped at 1 no matter how many attempts were made.
-        assertTrue(passedThrough > 1,
-                "expected requests for the same key to spread across more than one shard");
-        assertTrue(passedThrough <= shardCount,
-                "cannot pass through more than one request per shard when each shard's capacity is 1");
+        // the old random "key#shard" buckets let shardCount x capacity through
+        assertEquals(10, passedThrough);
+        assertEquals(1, limiter.size(), "one table entry per key, not one per shard");
+    }
+
+    @Test
+    @DisplayName("A request for a key that already has its bucket allocates nothing")
+    void steadyStateAllocatesNothing() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        LocalHotKeyRateLimiter expiring = new LocalHotKeyRateLimiter(1_000, 1_000_000, 4, metrics,
+                BucketEngine.LOCK_FREE);
+        LocalHotKeyRateLimiter bounded = new LocalHotKeyRateLimiter(1_000, 1_000_000, 4, metrics,
+                BucketEngine.LOCK_FREE, 60_000, TimeSource.SYSTEM, null, 100);
+
+        for (LocalHotKeyRateLimiter limiter : List.of(expiring, bounded)) {
+            String key = "hot-key";
+            for (int i = 0; i < 50_000; i++) {
+                limiter.tryAcquire(key, 1); // bucket created, paths warmed up
+            }
+            long threadId = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 100_000; i++) {
+                limiter.tryAcquire(key, 1);
+            }
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+            // a shard-key string per request would be several megabytes here
+            assertTrue(allocated < 100_000, "allocated " + allocated + " bytes over 100k requests");
+        }
     }
 
     @Test
@@ -37,8 +71,8 @@ public class LocalHotKeyRateLimiterTest {
         InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
         LocalHotKeyRateLimiter limiter = new LocalHotKeyRateLimiter(1, 0, 1, metrics);
 
-        assertTrue(limiter.allowRequest("key")); // shard has its one token
-        // second call must be rejected locally (shard is out of tokens, no refill)
+        assertTrue(limiter.allowRequest("key")); // bucket has its one token
+        // second call must be rejected locally (bucket is out of tokens, no refill)
         assertFalse(limiter.allowRequest("key"));
     }
 }
@@ -0,0 +1,69 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.model.LruMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LruMapTest {
+
+    @Test
+    @DisplayName("A full map still takes new keys, evicting the least recently used")
+    void evictsLeastRecentlyUsed() {
+        LruMap<String, Integer> map = new LruMap<>(3);
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+        map.get("a"); // b is now the oldest
+
+        map.put("d", 4);
+        assertEquals(3, map.size());
+        assertNull(map.get("b"));
+        assertEquals(1, map.get("a"));
+        assertEquals(4, map.get("d"));
+    }
+
+    @Test
+    @DisplayName("A scan over many more keys than the bound never grows the map past it")
+    void boundedUnderScan() {
+        LruMap<String, Integer> map = new LruMap<>(1_000);
+        for (int i = 0; i < 100_000; i++) {
+            map.put("scan-" + i, i);
+            assertTrue(map.size() <= 1_000);
+        }
+        assertEquals(99_999, map.get("scan-99999"));
+        assertNull(map.get("scan-0"));
+    }
+
+    @Test
+    @DisplayName("Conditional remove leaves a value that was replaced in the meantime")
+    void conditionalRemove() {
+        LruMap<String, String> map = new LruMap<>(10);
+        String old = new String("v");
+        map.put("k", old);
+        map.put("k", "w");
+        map.remove("k", old);
+        assertEquals("w", map.get("k"));
+        map.remove("k", "w");
+        assertNull(map.get("k"));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    @DisplayName("putIfAbsent keeps the value already held, and evictions are reported")
+    void putIfAbsentAndEvictionCallback() {
+        List<Integer> evicted = new ArrayList<>();
+        LruMap<String, Integer> map = new LruMap<>(2, evicted::add);
+        assertEquals(1, map.putIfAbsent("a", 1));
+        assertEquals(1, map.putIfAbsent("a", 9));
+        map.put("b", 2);
+        map.putIfAbsent("c", 3);
+
+        assertEquals(List.of(1), evicted);
+        assertNull(map.get("a"));
+    }
+}
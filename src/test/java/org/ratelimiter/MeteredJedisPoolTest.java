@@ -0,0 +1,68 @@
+package org.ratelimiter;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.core.MeteredJedisPool;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MeteredJedisPoolTest {
+
+    private static MeteredJedisPool newPool(int maxTotal, int minIdle, long maxWaitMillis,
+                                            InMemoryRateLimiterMetrics metrics) {
+        GenericObjectPoolConfig<Jedis> config = new GenericObjectPoolConfig<>();
+        config.setMaxTotal(maxTotal);
+        config.setMinIdle(minIdle);
+        config.setMaxWait(Duration.ofMillis(maxWaitMillis));
+        config.setJmxEnabled(false);
+        return new MeteredJedisPool(config, new HostAndPort("localhost", 6379),
+                DefaultJedisClientConfig.builder().build(), metrics);
+    }
+
+    @Test
+    @DisplayName("Pre-warming opens min-idle connections before the first borrow")
+    void prewarmOpensMinIdle() {
+        try (MeteredJedisPool pool = newPool(8, 4, 500, new InMemoryRateLimiterMetrics())) {
+            assertEquals(0, pool.getNumIdle());
+            pool.prewarm();
+            assertEquals(4, pool.getNumIdle());
+            assertEquals(4, pool.getCreatedCount());
+
+            try (Jedis jedis = pool.getResource()) {
+                assertEquals("PONG", jedis.ping());
+            }
+            assertEquals(4, pool.getCreatedCount(), "borrow reused a warm connection");
+        }
+    }
+
+    @Test
+    @DisplayName("Borrows are timed, and giving up after max-wait counts as an exhaustion")
+    void borrowWaitAndExhaustion() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        try (MeteredJedisPool pool = newPool(1, 0, 50, metrics)) {
+            try (Jedis held = pool.getResource()) {
+                assertEquals("PONG", held.ping());
+                assertEquals(1, pool.getNumActive());
+                long start = System.nanoTime();
+                assertThrows(JedisException.class, pool::getResource);
+                assertTrue(System.nanoTime() - start >= 40_000_000L, "waited for max-wait before giving up");
+            }
+            assertEquals(1, metrics.getRedisPoolBorrows());
+            assertEquals(1, metrics.getRedisPoolExhausted());
+
+            try (Jedis again = pool.getResource()) {
+                assertEquals("PONG", again.ping());
+                assertEquals(2, metrics.getRedisPoolBorrows());
+            }
+            assertTrue(metrics.getRedisPoolBorrowWaitNanos() > 0);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.ratelimiter;
+
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.metrics.RateLimiterMetrics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Manual benchmark, not a JUnit test - per-request metrics updates from 1 to
+// 64 threads: one shared AtomicLong per counter (how InMemoryRateLimiterMetrics
+// used to count) vs the LongAdder-backed InMemoryRateLimiterMetrics.
+// Each "request" does what an allowed Redis decision does: total, allowed,
+// redisHits. Needs several cores to show anything.
+// `java -cp target/classes:target/test-classes org.ratelimiter.MetricsContentionBenchmark [seconds per run]`
+public class MetricsContentionBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws InterruptedException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 2;
+
+        System.out.println("Cores: " + Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %18s %18s %8s%n", "threads", "AtomicLong ops/s", "LongAdder ops/s", "ratio");
+        for (int threads : THREADS) {
+            AtomicCounters atomic = new AtomicCounters();
+            InMemoryRateLimiterMetrics striped = new InMemoryRateLimiterMetrics();
+
+            // warm up both, then measure
+            run(atomic::request, threads, 1);
+            run(() -> request(striped), threads, 1);
+            double atomicRate = run(atomic::request, threads, seconds);
+            double stripedRate = run(() -> request(striped), threads, seconds);
+
+            System.out.printf("%-8d %18.0f %18.0f %7.1fx%n", threads, atomicRate, stripedRate, stripedRate / atomicRate);
+        }
+    }
+
+    private static void request(RateLimiterMetrics metrics) {
+        metrics.incrementTotalRequests();
+        metrics.incrementAllowed();
+        metrics.incrementRedisHit();
+    }
+
+    // requests per second across all threads
+    private static double run(Runnable request, int threads, long seconds) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder done = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch finished = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ready.countDown();
+                long count = 0;
+                while (!stop.get()) {
+                    for (int i = 0; i < 1_000; i++) {
+                        request.run();
+                    }
+                    count += 1_000;
+                }
+                done.add(count);
+                finished.countDown();
+            });
+            worker.setDaemon(true);
+            worker.start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        stop.set(true);
+        finished.await();
+        return done.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    // the old layout: adjacent AtomicLongs, every thread on the same few cache lines
+    private static final class AtomicCounters {
+        final AtomicLong total = new AtomicLong();
+        final AtomicLong allowed = new AtomicLong();
+        final AtomicLong redisHits = new AtomicLong();
+
+        void request() {
+            total.incrementAndGet();
+            allowed.incrementAndGet();
+            redisHits.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.core.PackedTokenBucketRateLimiter;
+import org.ratelimiter.core.TokenBucketRateLimiter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PackedTokenBucketRateLimiterTest {
+
+    @Test
+    @DisplayName("Each key gets its own bucket, capped at capacity")
+    void keysAreIndependent() {
+        PackedTokenBucketRateLimiter limiter = new PackedTokenBucketRateLimiter(3, 0, 1);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.allowRequest("a"));
+        }
+        assertFalse(limiter.allowRequest("a"), "a is exhausted");
+        assertTrue(limiter.allowRequest("b"), "b has its own full bucket");
+        assertEquals(2, limiter.size());
+    }
+
+    @Test
+    @DisplayName("Tables grow past their initial size without losing bucket state")
+    void growsWithoutLosingState() {
+        // a single stripe so every key goes through the same table's resizes
+        PackedTokenBucketRateLimiter limiter = new PackedTokenBucketRateLimiter(1, 0, 1);
+        int keys = 100_000;
+
+        for (int i = 0; i < keys; i++) {
+            assertTrue(limiter.allowRequest("ip:" + i));
+        }
+        for (int i = 0; i < keys; i++) {
+            assertFalse(limiter.allowRequest("ip:" + i), "bucket for ip:" + i + " should still be empty after resizes");
+        }
+        assertEquals(keys, limiter.size());
+    }
+
+    @Test
+    @DisplayName("Concurrent writers across many keys accept the same count as the map-based limiter")
+    void sameAcceptCountAsMapBasedLimiter() throws InterruptedException {
+        int capacity = 5;
+        PackedTokenBucketRateLimiter packed = new PackedTokenBucketRateLimiter(capacity, 0);
+        TokenBucketRateLimiter map = new TokenBucketRateLimiter(capacity, 0);
+
+        int packedAllowed = hammer(packed::allowRequest);
+        int mapAllowed = hammer(map::allowRequest);
+
+        assertEquals(1_000 * capacity, mapAllowed);
+        assertEquals(mapAllowed, packedAllowed);
+    }
+
+    private static int hammer(Predicate<String> limiter) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger allowed = new AtomicInteger();
+
+        for (int t = 0; t < 8; t++) {
+            executor.submit(() -> {
+                // every thread walks the same 1000 keys, 10 times over
+                for (int round = 0; round < 10; round++) {
+                    for (int k = 0; k < 1_000; k++) {
+                        if (limiter.test("user:" + k)) allowed.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        return allowed.get();
+    }
+}
@@ -133,7 +133,7 @@ public class RateLimiterTests {
         InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
 
         /*
-         * How to choose shardCount
+         * How to choose shardCount (stripes per key with the LOCK_FREE engine)
          * - Low / moderate traffic 1–2
          * - Hot keys (bursts)	4–8
          * - Very high QPS	16+
@@ -191,11 +191,10 @@ public class RateLimiterTests {
         executor.shutdown();
 
         System.out.println("Total Allowed Requests: " + allowedCount.get());
-        System.out.println("Local Hits: " + metrics.localHits.get());
-        System.out.println("Redis Hits: " + metrics.redisHits.get());
+        System.out.println("Local Hits: " + metrics.getLocalHits());
+        System.out.println("Redis Hits: " + metrics.getRedisHits());
 
-        int hotKeyShardCount = 4;
-        int hotKeyCapacity = 5 * hotKeyShardCount; // shards pick randomly, so the local budget is spread across all of them
+        int hotKeyCapacity = 5; // stripes split the key's budget, they don't multiply it
         int redisCapacity = 10; // min(user=10, ip=20, org=50)
         int maxAllowed = hotKeyCapacity + redisCapacity;
 
@@ -203,10 +202,10 @@ public class RateLimiterTests {
         Assertions.assertTrue(allowedCount.get() <= maxAllowed,
                 "Allowed requests should not exceed hot-key + Redis user capacity");
 
-        Assertions.assertTrue(metrics.localHits.get() <= hotKeyCapacity,
+        Assertions.assertTrue(metrics.getLocalHits() <= hotKeyCapacity,
                 "Local hits should not exceed hot-key capacity");
 
-        Assertions.assertTrue(metrics.redisHits.get() <= redisCapacity,
+        Assertions.assertTrue(metrics.getRedisHits() <= redisCapacity,
                 "Redis hits should not exceed Redis min capacity");
     }
 
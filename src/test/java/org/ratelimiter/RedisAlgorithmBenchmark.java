@@ -0,0 +1,113 @@
+package org.ratelimiter;
+
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Manual benchmark, not a JUnit test - compares the token bucket and GCRA
+// scripts of RedisHierarchicalRateLimiter on decisions/sec for a 3-level
+// (ip -> user -> org) hierarchy, Redis-side script time per decision
+// (INFO commandstats, so client round trips don't hide it) and Redis memory
+// per bucket key.
+// Needs a local Redis on 6379. Run it directly from the IDE, or
+// `java -cp target/classes:target/test-classes:<deps> org.ratelimiter.RedisAlgorithmBenchmark [threads] [requests] [keys]`
+public class RedisAlgorithmBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int keys = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(threads);
+        poolConfig.setJmxEnabled(false);
+
+        try (JedisPool jedisPool = new JedisPool(poolConfig, "localhost", 6379)) {
+            System.out.printf("Threads: %d, requests: %d, users: %d%n", threads, requests, keys);
+            for (RedisAlgorithm algorithm : RedisAlgorithm.values()) {
+                run(jedisPool, algorithm, threads, requests, keys);
+            }
+        }
+    }
+
+    private static void run(JedisPool jedisPool, RedisAlgorithm algorithm, int threads, int requests, int keys)
+            throws InterruptedException {
+        String prefix = "rate_limit:bench-" + algorithm.name().toLowerCase() + "-" + System.nanoTime() + ":";
+        String org = prefix + "org";
+        writeConfigs(jedisPool, prefix, org, keys);
+
+        RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(
+                jedisPool, new InMemoryRateLimiterMetrics(), RedisFailMode.FAIL_CLOSED, algorithm);
+        limiter.loadScripts();
+
+        try (var jedis = jedisPool.getResource()) {
+            jedis.configResetStat();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.submit(() -> {
+                for (int i = thread; i < requests; i += threads) {
+                    int user = i % keys;
+                    limiter.allowRequest(List.of(prefix + "ip:" + user, prefix + "user:" + user, org));
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        try (var jedis = jedisPool.getResource()) {
+            String evalUsec = commandStat(jedis.info("commandstats"), "cmdstat_evalsha", "usec_per_call");
+
+            // a GCRA key only lives until its bucket is full again, so probe one
+            // that's been drained with a slow refill rate
+            String probe = prefix + "probe";
+            jedis.hset(probe + ":config", Map.of("capacity", "10", "refill_rate", "1"));
+            limiter.allowRequest(List.of(probe));
+            Long bytes = jedis.memoryUsage(algorithm == RedisAlgorithm.GCRA ? probe + ":tat" : probe);
+
+            System.out.printf("%-13s %9.0f decisions/sec  %6s us/script in Redis  %4d bytes/bucket key (MEMORY USAGE)%n",
+                    algorithm, requests / seconds, evalUsec, bytes == null ? -1 : bytes);
+        }
+    }
+
+    private static String commandStat(String info, String command, String field) {
+        for (String line : info.split("\r?\n")) {
+            if (line.startsWith(command + ":")) {
+                for (String pair : line.substring(command.length() + 1).split(",")) {
+                    if (pair.startsWith(field + "=")) {
+                        return pair.substring(field.length() + 1);
+                    }
+                }
+            }
+        }
+        return "?";
+    }
+
+    // every level gets a roomy config, so the run measures the scripts, not rejections
+    private static void writeConfigs(JedisPool jedisPool, String prefix, String org, int keys) {
+        Map<String, String> config = Map.of("capacity", "1000000", "refill_rate", "1000");
+        try (var jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.hset(org + ":config", config);
+            for (int i = 0; i < keys; i++) {
+                pipeline.hset(prefix + "ip:" + i + ":config", config);
+                pipeline.hset(prefix + "user:" + i + ":config", config);
+            }
+            pipeline.sync();
+        }
+    }
+}
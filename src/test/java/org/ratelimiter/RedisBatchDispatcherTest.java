@@ -0,0 +1,172 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.*;
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisBatchDispatcher;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class RedisBatchDispatcherTest {
+
+    private JedisPool jedisPool;
+
+    @BeforeAll
+    void setup() {
+        jedisPool = new JedisPool("localhost", 6379);
+    }
+
+    @AfterAll
+    void teardown() {
+        jedisPool.close();
+    }
+
+    @Test
+    @DisplayName("Concurrent callers share pipelines and each gets its own key's answer back")
+    void demultiplexesResultsPerCaller() throws InterruptedException {
+        int threads = 16;
+        int requestsPerThread = 50;
+        String suffix = String.valueOf(System.nanoTime());
+
+        // thread i owns a key whose capacity is i + 1, so any mix-up of replies shows
+        try (var jedis = jedisPool.getResource()) {
+            for (int i = 0; i < threads; i++) {
+                jedis.hset("rate_limit:user:batch-" + suffix + "-" + i + ":config",
+                        Map.of("capacity", String.valueOf(i + 1), "refill_rate", "0"));
+            }
+        }
+
+        try (RedisBatchDispatcher dispatcher = new RedisBatchDispatcher(jedisPool, 32, 500)) {
+            RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(jedisPool,
+                    new InMemoryRateLimiterMetrics(), RedisFailMode.FAIL_CLOSED, RedisAlgorithm.TOKEN_BUCKET, dispatcher);
+
+            AtomicIntegerArray allowed = new AtomicIntegerArray(threads);
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                executor.submit(() -> {
+                    start.await();
+                    List<String> keys = List.of("rate_limit:user:batch-" + suffix + "-" + thread);
+                    for (int i = 0; i < requestsPerThread; i++) {
+                        if (limiter.allowRequest(keys).allowed()) {
+                            allowed.incrementAndGet(thread);
+                        }
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+            for (int t = 0; t < threads; t++) {
+                assertEquals(t + 1, allowed.get(t), "thread " + t + " got someone else's answers");
+            }
+            assertEquals(threads * requestsPerThread, dispatcher.calls());
+            assertTrue(dispatcher.batches() < dispatcher.calls(), "concurrent calls should have shared pipelines");
+        }
+    }
+
+    @Test
+    @DisplayName("Closing the limiter stops the dispatcher it was built with")
+    void closedWithLimiter() {
+        RedisBatchDispatcher dispatcher = new RedisBatchDispatcher(jedisPool, 8, 0);
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(jedisPool,
+                metrics, RedisFailMode.FAIL_CLOSED, RedisAlgorithm.TOKEN_BUCKET, dispatcher);
+        List<String> keys = List.of("rate_limit:user:batch-close-" + System.nanoTime());
+        assertTrue(limiter.allowRequest(keys).allowed());
+
+        limiter.close();
+        assertFalse(limiter.allowRequest(keys).allowed(), "no flusher left, so the fail mode decides");
+        assertEquals(1, metrics.getRedisFailure());
+    }
+
+    @Test
+    @DisplayName("A script flushed from Redis is reloaded and the batch is resent")
+    void reloadsScriptsInsidePipeline() {
+        try (RedisBatchDispatcher dispatcher = new RedisBatchDispatcher(jedisPool, 8, 0)) {
+            InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+            RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(jedisPool,
+                    metrics, RedisFailMode.FAIL_CLOSED, RedisAlgorithm.GCRA, dispatcher);
+
+            try (var jedis = jedisPool.getResource()) {
+                jedis.scriptFlush();
+            }
+
+            assertTrue(limiter.allowRequest(List.of("rate_limit:user:batch-flush-" + System.nanoTime())).allowed());
+            assertEquals(0, metrics.getRedisFailure());
+        }
+    }
+
+    @Test
+    @DisplayName("Redis being unreachable fails every caller in the batch over to the fail mode")
+    void connectionFailureAppliesFailMode() {
+        try (JedisPool deadPool = new JedisPool("localhost", 1);
+             RedisBatchDispatcher dispatcher = new RedisBatchDispatcher(deadPool, 8, 0)) {
+            InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+            RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(deadPool,
+                    metrics, RedisFailMode.FAIL_CLOSED, RedisAlgorithm.TOKEN_BUCKET, dispatcher);
+
+            assertFalse(limiter.allowRequest(List.of("rate_limit:user:dead")).allowed());
+            assertEquals(1, metrics.getRedisFailure());
+        }
+    }
+
+    @Test
+    @DisplayName("Async decisions are all in flight at once and still honor the budget")
+    void asyncDecisionsHonorBudget() {
+        String key = "rate_limit:user:batch-async-" + System.nanoTime();
+        try (var jedis = jedisPool.getResource()) {
+            jedis.hset(key + ":config", Map.of("capacity", "20", "refill_rate", "0"));
+        }
+
+        try (RedisBatchDispatcher dispatcher = new RedisBatchDispatcher(jedisPool, 64, 0)) {
+            RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(jedisPool,
+                    new InMemoryRateLimiterMetrics(), RedisFailMode.FAIL_CLOSED, RedisAlgorithm.TOKEN_BUCKET, dispatcher);
+
+            // one thread issues every request without waiting for any answer
+            List<CompletableFuture<RedisHierarchicalRateLimiter.Result>> pending = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                pending.add(limiter.allowRequestAsync(List.of(key)).toCompletableFuture());
+            }
+
+            long allowed = pending.stream()
+                    .map(CompletableFuture::join)
+                    .filter(RedisHierarchicalRateLimiter.Result::allowed)
+                    .count();
+            assertEquals(20, allowed);
+            assertEquals(key, pending.get(99).join().blockedKey());
+            assertTrue(dispatcher.batches() < 100, "requests in flight together should have shared pipelines");
+        }
+    }
+
+    @Test
+    @DisplayName("An async decision against an unreachable Redis completes with the fail mode, not an exception")
+    void asyncConnectionFailureAppliesFailMode() {
+        try (JedisPool deadPool = new JedisPool("localhost", 1);
+             RedisBatchDispatcher dispatcher = new RedisBatchDispatcher(deadPool, 8, 0)) {
+            InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+            RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(deadPool,
+                    metrics, RedisFailMode.FAIL_OPEN, RedisAlgorithm.TOKEN_BUCKET, dispatcher);
+
+            assertTrue(limiter.allowRequestAsync(List.of("rate_limit:user:dead")).toCompletableFuture().join().allowed());
+            assertEquals(1, metrics.getRedisFailure());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.ratelimiter;
+
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisBatchDispatcher;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Manual benchmark, not a JUnit test - decisions/sec and per-request latency
+// of RedisHierarchicalRateLimiter calling Redis directly (one pooled
+// connection per in-flight request, default pool of 8) vs through a
+// RedisBatchDispatcher at a few batch size / latency budget settings.
+// Needs a local Redis on 6379. Run it directly from the IDE, or
+// `java -cp target/classes:target/test-classes:<deps> org.ratelimiter.RedisBatchingBenchmark [threads] [requests]`
+public class RedisBatchingBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        JedisPoolConfig poolConfig = new JedisPoolConfig(); // same defaults the service runs with
+        poolConfig.setJmxEnabled(false);
+
+        try (JedisPool jedisPool = new JedisPool(poolConfig, "localhost", 6379)) {
+            System.out.printf("Threads: %d, requests: %d%n", threads, requests);
+            run("direct", jedisPool, null, threads, requests);
+            int[][] settings = {{64, 0}, {64, 200}, {256, 500}};
+            for (int[] setting : settings) {
+                try (RedisBatchDispatcher dispatcher = new RedisBatchDispatcher(jedisPool, setting[0], setting[1])) {
+                    run("batch " + setting[0] + " / " + setting[1] + "us", jedisPool, dispatcher, threads, requests);
+                    System.out.printf("    average batch size %.1f%n", (double) dispatcher.calls() / dispatcher.batches());
+                }
+            }
+        }
+    }
+
+    private static void run(String label, JedisPool jedisPool, RedisBatchDispatcher dispatcher,
+                            int threads, int requests) throws InterruptedException {
+        String prefix = "rate_limit:bench-batch-" + System.nanoTime() + ":";
+        try (var jedis = jedisPool.getResource()) {
+            jedis.hset(prefix + "org:config", Map.of("capacity", "1000000000", "refill_rate", "1000000"));
+        }
+        RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(jedisPool,
+                new InMemoryRateLimiterMetrics(), RedisFailMode.FAIL_CLOSED, RedisAlgorithm.TOKEN_BUCKET, dispatcher);
+        limiter.loadScripts();
+
+        long[] latencies = new long[requests];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.submit(() -> {
+                for (int i = thread; i < requests; i += threads) {
+                    long begin = System.nanoTime();
+                    limiter.allowRequest(List.of(prefix + "user:" + (i % 1000), prefix + "org"));
+                    latencies[i] = System.nanoTime() - begin;
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Arrays.sort(latencies);
+        System.out.printf("%-20s %9.0f decisions/sec  p50 %6.0f us  p99 %6.0f us%n", label, requests / seconds,
+                latencies[requests / 2] / 1e3, latencies[(int) (requests * 0.99)] / 1e3);
+    }
+}
@@ -0,0 +1,131 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisCircuitBreaker;
+import org.ratelimiter.core.RedisCircuitBreaker.State;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import redis.clients.jedis.JedisPool;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RedisCircuitBreakerTest {
+
+    private static final long FAST = 1_000_000;        // 1 ms
+    private static final long SLOW = 500_000_000;      // 500 ms
+
+    private static RedisCircuitBreaker newBreaker(InMemoryRateLimiterMetrics metrics, long openMillis) {
+        // window 10, trips at 5 calls with half of them failed or slow (>= 100ms), 2 probes
+        return new RedisCircuitBreaker(10, 5, 0.5, 100, 0.5, openMillis, 2, metrics);
+    }
+
+    @Test
+    @DisplayName("Trips once the failure rate crosses the threshold, not before min-calls")
+    void tripsOnFailureRate() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        RedisCircuitBreaker breaker = newBreaker(metrics, 60_000);
+
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(State.CLOSED, breaker.state(), "3 calls is below min-calls");
+
+        breaker.onSuccess(FAST);
+        breaker.onFailure();
+        assertEquals(State.OPEN, breaker.state());
+        assertEquals(1, metrics.getCircuitOpened());
+
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(1, metrics.getCircuitShortCircuited());
+    }
+
+    @Test
+    @DisplayName("Trips on slow calls even when they all succeed")
+    void tripsOnSlowCalls() {
+        RedisCircuitBreaker breaker = newBreaker(new InMemoryRateLimiterMetrics(), 60_000);
+        for (int i = 0; i < 10; i++) {
+            breaker.onSuccess(i % 2 == 0 ? FAST : SLOW);
+        }
+        assertEquals(State.OPEN, breaker.state());
+    }
+
+    @Test
+    @DisplayName("A healthy window keeps it closed as old failures slide out")
+    void windowSlides() {
+        RedisCircuitBreaker breaker = newBreaker(new InMemoryRateLimiterMetrics(), 60_000);
+        for (int i = 0; i < 10; i++) {
+            breaker.onSuccess(FAST);
+        }
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        for (int i = 0; i < 10; i++) {
+            breaker.onSuccess(FAST);
+        }
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(State.CLOSED, breaker.state(), "4 of the last 10 failed");
+    }
+
+    @Test
+    @DisplayName("Half-open lets a few probes through: all fine closes it, one failure reopens it")
+    void halfOpenProbing() throws InterruptedException {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        RedisCircuitBreaker breaker = newBreaker(metrics, 20);
+        for (int i = 0; i < 5; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(State.OPEN, breaker.state());
+
+        Thread.sleep(30);
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(State.HALF_OPEN, breaker.state());
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission(), "only 2 probes at a time");
+        breaker.onSuccess(FAST);
+        breaker.onFailure();
+        assertEquals(State.OPEN, breaker.state());
+
+        Thread.sleep(30);
+        assertTrue(breaker.tryAcquirePermission());
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onSuccess(FAST);
+        breaker.onSuccess(FAST);
+        assertEquals(State.CLOSED, breaker.state());
+
+        assertEquals(2, metrics.getCircuitOpened());
+        assertEquals(2, metrics.getCircuitHalfOpened());
+        assertEquals(1, metrics.getCircuitClosed());
+    }
+
+    @Test
+    @DisplayName("With the breaker open, an unreachable Redis costs no connection attempt")
+    void openBreakerSkipsRedis() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        RedisCircuitBreaker breaker = newBreaker(metrics, 60_000);
+        // nothing listens on port 1
+        try (JedisPool deadPool = new JedisPool("localhost", 1)) {
+            RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(deadPool, metrics,
+                    RedisFailMode.FAIL_CLOSED, RedisAlgorithm.TOKEN_BUCKET, null, 0, null, breaker, null);
+            List<String> keys = List.of("rate_limit:user:breaker-" + System.nanoTime());
+
+            for (int i = 0; i < 5; i++) {
+                assertFalse(limiter.allowRequest(keys).allowed());
+            }
+            assertEquals(State.OPEN, breaker.state());
+            assertEquals(5, metrics.getRedisFailure());
+
+            for (int i = 0; i < 100; i++) {
+                assertFalse(limiter.allowRequest(keys).allowed());
+            }
+            assertEquals(5, metrics.getRedisFailure(), "no further calls reached the pool");
+            assertEquals(100, metrics.getCircuitShortCircuited());
+        }
+    }
+}
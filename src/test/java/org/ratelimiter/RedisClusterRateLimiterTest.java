@@ -0,0 +1,224 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.*;
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisConfigCache;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.core.RedisKeys;
+import org.ratelimiter.core.TokenLeaseRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.policy.ClusterPolicyResolver;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.util.JedisClusterCRC16;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Needs the local 3-node cluster from scripts/local-redis-cluster.sh on
+// 7000-7002; the cluster tests are skipped when it isn't running. Unformed
+// nodes (started without redis-cli around) are joined and given slots here.
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class RedisClusterRateLimiterTest {
+
+    private static final int[] PORTS = {7000, 7001, 7002};
+    private static final int SLOTS = 16384;
+
+    private JedisCluster cluster;
+
+    @BeforeAll
+    void setup() throws InterruptedException {
+        if (formCluster()) {
+            cluster = new JedisCluster(new HostAndPort("localhost", PORTS[0]));
+        }
+    }
+
+    @AfterAll
+    void teardown() {
+        if (cluster != null) {
+            cluster.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Every level of a request hashes to the same slot, different anchors spread out")
+    void hierarchySharesASlot() {
+        ClusterPolicyResolver resolver = new ClusterPolicyResolver();
+
+        List<String> keys = resolver.resolveKeys("bob", "10.0.0.1", "acme");
+        assertEquals("rate_limit:{org:acme}:ip:10.0.0.1", keys.get(0));
+        assertEquals(1, keys.stream().map(JedisClusterCRC16::getSlot).distinct().count());
+        assertEquals("rate_limit:ip:10.0.0.1", RedisKeys.untagged(keys.get(0)));
+
+        // no org: anchored on the user instead
+        assertEquals(List.of("rate_limit:{user:bob}:ip:10.0.0.1", "rate_limit:{user:bob}:user:bob"),
+                resolver.resolveKeys("bob", "10.0.0.1", null));
+
+        Set<Integer> slots = new HashSet<>();
+        for (int org = 0; org < 100; org++) {
+            slots.add(JedisClusterCRC16.getSlot(resolver.resolveKeys("u", null, "org-" + org).get(0)));
+        }
+        assertTrue(slots.size() > 90, "orgs should spread over the keyspace");
+    }
+
+    @Test
+    @DisplayName("Hierarchical limits hold on a cluster, whichever node owns the org")
+    void hierarchicalLimitOnCluster() throws InterruptedException {
+        assumeTrue(cluster != null, "local Redis Cluster not running on 7000-7002");
+        ClusterPolicyResolver resolver = new ClusterPolicyResolver();
+
+        for (RedisAlgorithm algorithm : RedisAlgorithm.values()) {
+            InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+            try (RedisConfigCache cache = new RedisConfigCache(() -> new Jedis("localhost", PORTS[0], 2000, 0),
+                    60_000, 1_000, metrics)) {
+                assertTrue(cache.awaitSubscribed(5, TimeUnit.SECONDS));
+                RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(cluster, metrics,
+                        RedisFailMode.FAIL_CLOSED, algorithm, 0, cache);
+                limiter.loadScripts();
+
+                Set<Long> nodes = new HashSet<>();
+                for (int i = 0; i < 6; i++) {
+                    String org = "cluster-" + algorithm + "-" + System.nanoTime() + "-" + i;
+                    // configs are global, untagged keys - on whatever slot they hash to
+                    cluster.hset("rate_limit:org:" + org + ":config", Map.of("capacity", "3", "refill_rate", "0"));
+                    cluster.hset("rate_limit:user:bob:config", Map.of("capacity", "1000", "refill_rate", "0"));
+
+                    List<String> keys = resolver.resolveKeys("bob", null, org);
+                    nodes.add(nodeFor(keys.get(0)));
+                    for (int request = 0; request < 3; request++) {
+                        assertTrue(limiter.allowRequest(keys).allowed(), algorithm + ": within org budget");
+                    }
+                    RedisHierarchicalRateLimiter.Result blocked = limiter.allowRequest(keys);
+                    assertFalse(blocked.allowed());
+                    assertEquals(keys.get(1), blocked.blockedKey());
+                }
+                assertEquals(0, metrics.getRedisFailure());
+                assertTrue(nodes.size() > 1, "orgs should have landed on more than one node");
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("A config change published through the cluster reaches the node's cache")
+    void invalidationAcrossCluster() throws InterruptedException {
+        assumeTrue(cluster != null, "local Redis Cluster not running on 7000-7002");
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        // subscribed on the last node, published through whichever node the client picks
+        try (RedisConfigCache cache = new RedisConfigCache(() -> new Jedis("localhost", PORTS[2], 2000, 0),
+                60_000, 1_000, metrics)) {
+            assertTrue(cache.awaitSubscribed(5, TimeUnit.SECONDS));
+            RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(cluster, metrics,
+                    RedisFailMode.FAIL_CLOSED, RedisAlgorithm.GCRA, 0, cache);
+
+            String org = "cluster-invalidate-" + System.nanoTime();
+            cluster.hset("rate_limit:org:" + org + ":config", Map.of("capacity", "1", "refill_rate", "0"));
+            List<String> keys = new ClusterPolicyResolver().resolveKeys(null, null, org);
+            assertTrue(limiter.allowRequest(keys).allowed());
+            assertFalse(limiter.allowRequest(keys).allowed());
+
+            cluster.hset("rate_limit:org:" + org + ":config", Map.of("capacity", "2", "refill_rate", "0"));
+            RedisConfigCache.publishInvalidation(cluster, "rate_limit:org:" + org);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (metrics.getConfigInvalidations() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+
+            assertTrue(limiter.allowRequest(keys).allowed(), "GCRA picks up the raised capacity");
+            assertFalse(limiter.allowRequest(keys).allowed());
+        }
+    }
+
+    @Test
+    @DisplayName("Leases on a hash-tagged key use the org's own limits, not the defaults")
+    void leasesReadUntaggedConfig() {
+        assumeTrue(cluster != null, "local Redis Cluster not running on 7000-7002");
+        String org = "cluster-lease-" + System.nanoTime();
+        cluster.hset("rate_limit:org:" + org + ":config", Map.of("capacity", "30", "refill_rate", "0"));
+        String key = new ClusterPolicyResolver().resolveKeys(null, null, org).get(0);
+
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        try (TokenLeaseRateLimiter leases = new TokenLeaseRateLimiter(cluster, metrics, RedisFailMode.FAIL_CLOSED,
+                Set.of("org"), 100, 1, 1, 60_000)) {
+            for (int i = 0; i < 30; i++) {
+                assertTrue(leases.tryAcquire(key, 1), "within the configured 30, past the default 10");
+            }
+            assertFalse(leases.tryAcquire(key, 1));
+        }
+        assertEquals(0, metrics.getRedisFailure());
+    }
+
+    // port of the primary that owns the key's slot, per CLUSTER SLOTS
+    private static long nodeFor(String key) {
+        int slot = JedisClusterCRC16.getSlot(key);
+        try (Jedis jedis = new Jedis("localhost", PORTS[0])) {
+            for (Object range : jedis.clusterSlots()) {
+                List<?> entry = (List<?>) range;
+                List<?> primary = (List<?>) entry.get(2);
+                if (slot >= (Long) entry.get(0) && slot <= (Long) entry.get(1)) {
+                    return (Long) primary.get(1);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true once the three nodes form a healthy cluster, false if they aren't running
+     */
+    private static boolean formCluster() throws InterruptedException {
+        try (Jedis first = new Jedis("localhost", PORTS[0], 500)) {
+            if (!first.ping().equals("PONG")) {
+                return false;
+            }
+            if (first.clusterInfo().contains("cluster_state:ok")) {
+                return true;
+            }
+            for (int i = 0; i < PORTS.length; i++) {
+                try (Jedis node = new Jedis("localhost", PORTS[i])) {
+                    if (i > 0) {
+                        node.clusterMeet("127.0.0.1", PORTS[0]);
+                    }
+                    if (node.clusterInfo().contains("cluster_slots_assigned:0")) {
+                        int from = SLOTS * i / PORTS.length;
+                        int to = SLOTS * (i + 1) / PORTS.length;
+                        int[] slots = new int[to - from];
+                        for (int slot = from; slot < to; slot++) {
+                            slots[slot - from] = slot;
+                        }
+                        node.clusterAddSlots(slots);
+                    }
+                }
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (System.nanoTime() < deadline) {
+                if (allOk()) {
+                    return true;
+                }
+                Thread.sleep(100);
+            }
+            return false;
+        } catch (Exception e) {
+            return false; // not running
+        }
+    }
+
+    private static boolean allOk() {
+        for (int port : PORTS) {
+            try (Jedis node = new Jedis("localhost", port)) {
+                String info = node.clusterInfo();
+                if (!info.contains("cluster_state:ok") || !info.contains("cluster_known_nodes:" + PORTS.length)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,171 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.*;
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisConfigCache;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class RedisConfigCacheTest {
+
+    private JedisPool jedisPool;
+
+    @BeforeAll
+    void setup() {
+        jedisPool = new JedisPool("localhost", 6379);
+    }
+
+    @AfterAll
+    void teardown() {
+        jedisPool.close();
+    }
+
+    @Test
+    @DisplayName("Limits are read once, then served from the cache until an invalidation arrives")
+    void cachedUntilInvalidated() throws InterruptedException {
+        for (RedisAlgorithm algorithm : RedisAlgorithm.values()) {
+            InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+            try (RedisConfigCache cache = newCache(60_000, metrics)) {
+                RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(jedisPool, metrics,
+                        RedisFailMode.FAIL_CLOSED, algorithm, null, 0, cache);
+                String key = "rate_limit:user:config-cache-" + algorithm + "-" + System.nanoTime();
+                setConfig(key, 2);
+
+                assertTrue(limiter.allowRequest(List.of(key)).allowed());
+                assertEquals(1, metrics.getConfigCacheMisses());
+                assertEquals(1, cache.size());
+
+                // changed behind the cache's back, no invalidation: the cached capacity still applies
+                setConfig(key, 5);
+                assertTrue(limiter.allowRequest(List.of(key)).allowed());
+                assertFalse(limiter.allowRequest(List.of(key)).allowed(), algorithm + ": cached capacity 2 is used");
+                assertEquals(2, metrics.getConfigCacheHits());
+
+                try (Jedis jedis = jedisPool.getResource()) {
+                    RedisConfigCache.publishInvalidation(jedis, key);
+                }
+                awaitInvalidation(metrics);
+
+                // dropped, so the next decision reads the hash again and caches the new limits
+                limiter.allowRequest(List.of(key));
+                assertEquals(2, metrics.getConfigCacheMisses(), algorithm + ": invalidated entry is re-read");
+                assertEquals("5", cache.get(key).capacity());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Entries older than the max age are re-read even without an invalidation")
+    void maxAgeBackstop() throws InterruptedException {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        try (RedisConfigCache cache = newCache(50, metrics)) {
+            RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(jedisPool, metrics,
+                    RedisFailMode.FAIL_CLOSED, RedisAlgorithm.TOKEN_BUCKET, null, 0, cache);
+            String key = "rate_limit:user:config-cache-age-" + System.nanoTime();
+            setConfig(key, 1);
+
+            assertTrue(limiter.allowRequest(List.of(key)).allowed());
+            setConfig(key, 3);
+            Thread.sleep(60);
+
+            limiter.allowRequest(List.of(key));
+            assertEquals(2, metrics.getConfigCacheMisses());
+            assertEquals("3", cache.get(key).capacity());
+        }
+    }
+
+    @Test
+    @DisplayName("A read that raced with an invalidation doesn't make it into the cache")
+    void staleFillIsDropped() throws InterruptedException {
+        try (RedisConfigCache cache = newCache(60_000, new InMemoryRateLimiterMetrics())) {
+            long generation = cache.generation();
+            cache.invalidate("rate_limit:user:raced");
+            cache.put("rate_limit:user:raced", "10", "5", generation);
+            assertNull(cache.get("rate_limit:user:raced"));
+
+            cache.put("rate_limit:user:raced", null, null, cache.generation());
+            RedisConfigCache.Limits limits = cache.get("rate_limit:user:raced");
+            assertEquals("10", limits.capacity(), "an unconfigured key caches the script's defaults");
+            assertEquals("5", limits.refillRate());
+        }
+    }
+
+    @Test
+    @DisplayName("A full cache evicts its least recently used key rather than refusing new ones")
+    void fullCacheKeepsCaching() throws InterruptedException {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        try (RedisConfigCache cache = new RedisConfigCache(() -> new Jedis("localhost", 6379, 2000, 0),
+                60_000, 10, metrics)) {
+            assertTrue(cache.awaitSubscribed(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 100; i++) {
+                cache.put("rate_limit:user:cold-" + i, "10", "5", cache.generation());
+            }
+            cache.put("rate_limit:user:hot", "7", "1", cache.generation());
+
+            assertEquals(10, cache.size());
+            assertEquals("7", cache.get("rate_limit:user:hot").capacity());
+            assertNull(cache.get("rate_limit:user:cold-0"));
+        }
+    }
+
+    @Test
+    @DisplayName("Without cluster hash tags, braces are part of the key its config is read and cached under")
+    void bracesAreLiteralOnASingleNode() throws InterruptedException {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        try (RedisConfigCache cache = newCache(60_000, metrics)) {
+            RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(jedisPool, metrics,
+                    RedisFailMode.FAIL_CLOSED, RedisAlgorithm.TOKEN_BUCKET, null, 0, cache);
+            String plain = "rate_limit:user:braced-" + System.nanoTime();
+            String braced = plain + "{x}";
+            setConfig(plain, 5);
+            setConfig(braced, 1);
+
+            assertTrue(limiter.allowRequest(List.of(braced)).allowed());
+            assertFalse(limiter.allowRequest(List.of(braced)).allowed(), "the braced key's own capacity 1 applies");
+            assertEquals("1", cache.get(braced).capacity());
+            assertNull(cache.get(plain), "nothing is cached under the key with its braces stripped");
+        }
+    }
+
+    @Test
+    @DisplayName("An entry past its max age is dropped when read, not left holding a slot")
+    void staleEntryRemoved() throws InterruptedException {
+        try (RedisConfigCache cache = newCache(20, new InMemoryRateLimiterMetrics())) {
+            cache.put("rate_limit:user:stale", "10", "5", cache.generation());
+            Thread.sleep(30);
+            assertNull(cache.get("rate_limit:user:stale"));
+            assertEquals(0, cache.size());
+        }
+    }
+
+    private RedisConfigCache newCache(long maxAgeMillis, InMemoryRateLimiterMetrics metrics) throws InterruptedException {
+        RedisConfigCache cache = new RedisConfigCache(() -> new Jedis("localhost", 6379, 2000, 0),
+                maxAgeMillis, 1_000, metrics);
+        assertTrue(cache.awaitSubscribed(5, TimeUnit.SECONDS));
+        return cache;
+    }
+
+    private void setConfig(String key, long capacity) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.hset(key + ":config", Map.of("capacity", String.valueOf(capacity), "refill_rate", "0"));
+        }
+    }
+
+    private static void awaitInvalidation(InMemoryRateLimiterMetrics metrics) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (metrics.getConfigInvalidations() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, metrics.getConfigInvalidations(), "invalidation should arrive over pub/sub");
+    }
+}
@@ -0,0 +1,122 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.*;
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import redis.clients.jedis.JedisPool;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class RedisGcraRateLimiterTest {
+
+    private JedisPool jedisPool;
+
+    @BeforeAll
+    void setup() {
+        jedisPool = new JedisPool("localhost", 6379);
+    }
+
+    @AfterAll
+    void teardown() {
+        jedisPool.close();
+    }
+
+    private RedisHierarchicalRateLimiter gcra(InMemoryRateLimiterMetrics metrics) {
+        return new RedisHierarchicalRateLimiter(jedisPool, metrics, RedisFailMode.FAIL_CLOSED, RedisAlgorithm.GCRA);
+    }
+
+    @Test
+    @DisplayName("GCRA blocks at the tightest level, charges weighted permits all or nothing")
+    void blocksAtTightestLevel() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        RedisHierarchicalRateLimiter limiter = gcra(metrics);
+
+        String suffix = String.valueOf(System.nanoTime());
+        String ipKey = "rate_limit:ip:gcra-" + suffix;
+        String orgKey = "rate_limit:org:gcra-" + suffix;
+        List<String> keys = List.of(ipKey, orgKey);
+
+        try (var jedis = jedisPool.getResource()) {
+            jedis.hset(ipKey + ":config", Map.of("capacity", "10", "refill_rate", "0"));
+            jedis.hset(orgKey + ":config", Map.of("capacity", "6", "refill_rate", "0"));
+        }
+
+        assertTrue(limiter.tryAcquire(keys, 4).allowed());
+
+        RedisHierarchicalRateLimiter.Result result = limiter.tryAcquire(keys, 4);
+        assertFalse(result.allowed(), "org has only 2 left");
+        assertEquals(orgKey, result.blockedKey());
+        assertEquals(Long.MAX_VALUE, result.waitNanos(), "a level with no refill never recovers");
+        assertEquals(1, metrics.getBlockedOrg());
+
+        assertTrue(limiter.tryAcquire(keys, 2).allowed(), "the rejected request must not have charged anything");
+        assertFalse(limiter.allowRequest(keys).allowed());
+    }
+
+    @Test
+    @DisplayName("GCRA keeps one string per key, which expires once the bucket is full again")
+    void storesSingleExpiringTimestamp() {
+        RedisHierarchicalRateLimiter limiter = gcra(new InMemoryRateLimiterMetrics());
+
+        String key = "rate_limit:user:gcra-ttl-" + System.nanoTime();
+        try (var jedis = jedisPool.getResource()) {
+            jedis.hset(key + ":config", Map.of("capacity", "5", "refill_rate", "10")); // 100ms per token
+        }
+
+        assertTrue(limiter.tryAcquire(List.of(key), 3).allowed());
+
+        try (var jedis = jedisPool.getResource()) {
+            assertEquals("string", jedis.type(key + ":tat"));
+            assertFalse(jedis.exists(key), "no token-bucket hash is written");
+
+            long tatMicros = Long.parseLong(jedis.get(key + ":tat"));
+            long nowMicros = System.currentTimeMillis() * 1000;
+            assertTrue(Math.abs(tatMicros - (nowMicros + 300_000)) < 5_000_000,
+                    "TAT should sit 3 intervals ahead of Redis's clock");
+
+            long ttl = jedis.pttl(key + ":tat");
+            assertTrue(ttl > 200 && ttl <= 300, "expires when the 3 permits have refilled, was " + ttl);
+        }
+    }
+
+    @Test
+    @DisplayName("GCRA admits again after one emission interval, and reports the wait until then")
+    void refillsAfterEmissionInterval() throws InterruptedException {
+        RedisHierarchicalRateLimiter limiter = gcra(new InMemoryRateLimiterMetrics());
+
+        String key = "rate_limit:user:gcra-refill-" + System.nanoTime();
+        try (var jedis = jedisPool.getResource()) {
+            jedis.hset(key + ":config", Map.of("capacity", "2", "refill_rate", "5")); // 200ms per token
+        }
+        List<String> keys = List.of(key);
+
+        assertTrue(limiter.allowRequest(keys).allowed());
+        assertTrue(limiter.allowRequest(keys).allowed());
+
+        RedisHierarchicalRateLimiter.Result rejected = limiter.allowRequest(keys);
+        assertFalse(rejected.allowed());
+        assertTrue(rejected.waitNanos() > 0 && rejected.waitNanos() <= 200_000_000,
+                "at most one emission interval away, was " + rejected.waitNanos());
+
+        // sleep exactly as long as told to, not a fixed guess
+        Thread.sleep(rejected.waitNanos() / 1_000_000 + 5);
+        assertTrue(limiter.allowRequest(keys).allowed());
+        assertFalse(limiter.allowRequest(keys).allowed(), "only one interval has passed");
+    }
+
+    @Test
+    @DisplayName("Missing config falls back to the same defaults as the token bucket")
+    void missingConfigUsesDefaults() {
+        RedisHierarchicalRateLimiter limiter = gcra(new InMemoryRateLimiterMetrics());
+        List<String> keys = List.of("rate_limit:user:gcra-no-config-" + System.nanoTime());
+
+        assertTrue(limiter.tryAcquire(keys, 10).allowed(), "default capacity is 10");
+        assertFalse(limiter.allowRequest(keys).allowed());
+    }
+}
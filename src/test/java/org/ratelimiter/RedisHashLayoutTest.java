@@ -0,0 +1,108 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.*;
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class RedisHashLayoutTest {
+
+    private JedisPool jedisPool;
+
+    @BeforeAll
+    void setup() {
+        jedisPool = new JedisPool("localhost", 6379);
+    }
+
+    @AfterAll
+    void teardown() {
+        jedisPool.close();
+    }
+
+    private RedisHierarchicalRateLimiter limiter(RedisAlgorithm algorithm) {
+        return new RedisHierarchicalRateLimiter(jedisPool, new InMemoryRateLimiterMetrics(),
+                RedisFailMode.FAIL_CLOSED, algorithm);
+    }
+
+    @Test
+    @DisplayName("Buckets and configs written in the old layout carry on where they left off")
+    void readsOldLayout() {
+        String key = "rate_limit:user:hash-layout-old-" + System.nanoTime();
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.hset(key + ":config", Map.of("capacity", "3", "refill_rate", "0"));
+        }
+
+        assertTrue(limiter(RedisAlgorithm.TOKEN_BUCKET).allowRequest(List.of(key)).allowed());
+
+        RedisHierarchicalRateLimiter hashLayout = limiter(RedisAlgorithm.TOKEN_BUCKET_HASH);
+        assertTrue(hashLayout.allowRequest(List.of(key)).allowed());
+        assertTrue(hashLayout.allowRequest(List.of(key)).allowed());
+        assertFalse(hashLayout.allowRequest(List.of(key)).allowed(), "old bucket's 1 spent token still counts");
+    }
+
+    @Test
+    @DisplayName("Limits in the bucket hash are used without reading the config hash")
+    void limitsInBucketHash() {
+        String key = "rate_limit:user:hash-layout-new-" + System.nanoTime();
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.hset(key, Map.of("capacity", "2", "refill_rate", "0"));
+            // deliberately different, must not be read
+            jedis.hset(key + ":config", Map.of("capacity", "100", "refill_rate", "0"));
+        }
+
+        RedisHierarchicalRateLimiter hashLayout = limiter(RedisAlgorithm.TOKEN_BUCKET_HASH);
+        assertTrue(hashLayout.allowRequest(List.of(key)).allowed());
+        assertTrue(hashLayout.allowRequest(List.of(key)).allowed());
+        assertFalse(hashLayout.allowRequest(List.of(key)).allowed());
+
+        try (Jedis jedis = jedisPool.getResource()) {
+            assertEquals("2", jedis.hget(key, "capacity"), "limits survive the state writes");
+            assertTrue(jedis.pttl(key) > 0, "bucket still expires when idle");
+        }
+    }
+
+    @Test
+    @DisplayName("A level is read with one HMGET instead of a config HMGET plus two HGETs")
+    void fewerCommandsPerDecision() {
+        String prefix = "rate_limit:user:hash-layout-count-" + System.nanoTime() + "-";
+        List<String> keys = List.of(prefix + "a", prefix + "b", prefix + "c");
+        try (Jedis jedis = jedisPool.getResource()) {
+            for (String key : keys) {
+                Map<String, String> limits = Map.of("capacity", "100", "refill_rate", "0");
+                jedis.hset(key, limits);
+                jedis.hset(key + ":config", limits);
+            }
+        }
+
+        RedisHierarchicalRateLimiter hashLayout = limiter(RedisAlgorithm.TOKEN_BUCKET_HASH);
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.configResetStat();
+            for (int i = 0; i < 10; i++) {
+                assertTrue(hashLayout.allowRequest(keys).allowed());
+            }
+            String stats = jedis.info("commandstats");
+            assertEquals(30, calls(stats, "hmget"));
+            assertEquals(0, calls(stats, "hget"));
+            assertEquals(30, calls(stats, "hset"));
+        }
+    }
+
+    private static long calls(String commandStats, String command) {
+        for (String line : commandStats.split("\r?\n")) {
+            if (line.startsWith("cmdstat_" + command + ":calls=")) {
+                String value = line.substring(("cmdstat_" + command + ":calls=").length());
+                return Long.parseLong(value.substring(0, value.indexOf(',')));
+            }
+        }
+        return 0;
+    }
+}
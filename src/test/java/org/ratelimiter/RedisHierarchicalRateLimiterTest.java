@@ -4,6 +4,7 @@ import org.junit.jupiter.api.*;
 import org.ratelimiter.core.RedisFailMode;
 import org.ratelimiter.core.RedisHierarchicalRateLimiter;
 import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.policy.ClusterPolicyResolver;
 import redis.clients.jedis.JedisPool;
 
 import java.util.List;
@@ -53,9 +54,62 @@ public class RedisHierarchicalRateLimiterTest {
         RedisHierarchicalRateLimiter.Result result = limiter.allowRequest(keys);
         assertFalse(result.allowed(), "ip capacity should be exhausted by now");
         assertEquals(ipKey, result.blockedKey());
-        assertEquals(1, metrics.blockedIp.get());
-        assertEquals(0, metrics.blockedUser.get());
-        assertEquals(0, metrics.blockedOrg.get());
+        assertEquals(1, metrics.getBlockedIp());
+        assertEquals(0, metrics.getBlockedUser());
+        assertEquals(0, metrics.getBlockedOrg());
+    }
+
+    @Test
+    @DisplayName("A hash-tagged blocking key is still counted against its level")
+    void taggedBlockedKeyCountsItsLevel() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        RedisHierarchicalRateLimiter limiter =
+                new RedisHierarchicalRateLimiter(jedisPool, metrics, RedisFailMode.FAIL_CLOSED);
+
+        // rate_limit:{org:...}:org:... as ClusterPolicyResolver builds it; tags are plain characters standalone
+        List<String> keys = new ClusterPolicyResolver().resolveKeys(null, null, "tagged-" + System.nanoTime());
+        try (var jedis = jedisPool.getResource()) {
+            jedis.hset(keys.get(0) + ":config", Map.of("capacity", "1", "refill_rate", "0"));
+        }
+
+        assertTrue(limiter.allowRequest(keys).allowed());
+        RedisHierarchicalRateLimiter.Result blocked = limiter.allowRequest(keys);
+        assertFalse(blocked.allowed());
+        assertEquals(keys.get(0), blocked.blockedKey());
+        assertEquals(1, metrics.getBlockedOrg());
+    }
+
+    @Test
+    @DisplayName("A weighted request is charged its full cost at every level, or not at all")
+    void weightedRequestChargesEveryLevel() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        RedisHierarchicalRateLimiter limiter =
+                new RedisHierarchicalRateLimiter(jedisPool, metrics, RedisFailMode.FAIL_CLOSED);
+
+        String suffix = String.valueOf(System.nanoTime());
+        String userKey = "rate_limit:user:weighted-" + suffix;
+        String orgKey = "rate_limit:org:weighted-" + suffix;
+        List<String> keys = List.of(userKey, orgKey);
+
+        try (var jedis = jedisPool.getResource()) {
+            jedis.hset(userKey + ":config", Map.of("capacity", "100", "refill_rate", "0"));
+            jedis.hset(orgKey + ":config", Map.of("capacity", "60", "refill_rate", "0"));
+        }
+
+        assertTrue(limiter.tryAcquire(keys, 50).allowed());
+
+        // 50 more fits the user (50 left) but not the org (10 left), so nothing is charged
+        RedisHierarchicalRateLimiter.Result result = limiter.tryAcquire(keys, 50);
+        assertFalse(result.allowed());
+        assertEquals(orgKey, result.blockedKey());
+
+        try (var jedis = jedisPool.getResource()) {
+            assertEquals(50.0, Double.parseDouble(jedis.hget(userKey, "tokens")), "a rejected request must not charge any level");
+            assertEquals(10.0, Double.parseDouble(jedis.hget(orgKey, "tokens")));
+        }
+
+        assertTrue(limiter.tryAcquire(keys, 10).allowed());
+        assertFalse(limiter.allowRequest(keys).allowed());
     }
 
     @Test
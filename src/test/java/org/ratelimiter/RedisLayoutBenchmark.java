@@ -0,0 +1,125 @@
+package org.ratelimiter;
+
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisConfigCache;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Manual benchmark, not a JUnit test - the old token bucket layout (limits in
+// "<key>:config", state read with two HGETs) against TOKEN_BUCKET_HASH (limits
+// and state in one hash, one HMGET), with and without the config cache, on a
+// 3-level (ip -> user -> org) hierarchy. Reports Redis commands run inside
+// the script per decision (INFO commandstats) and decisions/sec.
+// Needs a local Redis on 6379. Run it directly from the IDE, or
+// `java -cp target/classes:target/test-classes:<deps> org.ratelimiter.RedisLayoutBenchmark [threads] [requests] [keys]`
+public class RedisLayoutBenchmark {
+
+    private static final List<String> SCRIPT_COMMANDS = List.of("time", "hget", "hmget", "hset", "pexpire");
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int keys = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(threads);
+        poolConfig.setJmxEnabled(false);
+
+        try (JedisPool jedisPool = new JedisPool(poolConfig, "localhost", 6379)) {
+            System.out.printf("Threads: %d, requests: %d, users: %d%n", threads, requests, keys);
+            for (boolean cached : new boolean[]{false, true}) {
+                for (RedisAlgorithm algorithm : List.of(RedisAlgorithm.TOKEN_BUCKET, RedisAlgorithm.TOKEN_BUCKET_HASH)) {
+                    run(jedisPool, algorithm, cached, threads, requests, keys);
+                }
+            }
+        }
+    }
+
+    private static void run(JedisPool jedisPool, RedisAlgorithm algorithm, boolean cached, int threads,
+                            int requests, int keys) throws InterruptedException {
+        String prefix = "rate_limit:bench-layout-" + System.nanoTime() + ":";
+        String org = prefix + "org";
+        writeConfigs(jedisPool, prefix, org, keys);
+
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        RedisConfigCache cache = cached ? new RedisConfigCache(() -> new Jedis("localhost", 6379), 60_000, 100_000, metrics) : null;
+        RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(
+                jedisPool, metrics, RedisFailMode.FAIL_CLOSED, algorithm, null, 0, cache);
+        limiter.loadScripts();
+
+        try (var jedis = jedisPool.getResource()) {
+            jedis.configResetStat();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.submit(() -> {
+                for (int i = thread; i < requests; i += threads) {
+                    int user = i % keys;
+                    limiter.allowRequest(List.of(prefix + "ip:" + user, prefix + "user:" + user, org));
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (cache != null) {
+            cache.close();
+        }
+
+        try (var jedis = jedisPool.getResource()) {
+            String stats = jedis.info("commandstats");
+            StringBuilder breakdown = new StringBuilder();
+            long commands = 0;
+            for (String command : SCRIPT_COMMANDS) {
+                long calls = calls(stats, command);
+                commands += calls;
+                breakdown.append(String.format(" %s=%.1f", command, (double) calls / requests));
+            }
+            System.out.printf("%-17s cache=%-5s %9.0f decisions/sec  %5.2f commands/decision (%s )%n",
+                    algorithm, cached, requests / seconds, (double) commands / requests, breakdown);
+        }
+    }
+
+    private static long calls(String commandStats, String command) {
+        String prefix = "cmdstat_" + command + ":calls=";
+        for (String line : commandStats.split("\r?\n")) {
+            if (line.startsWith(prefix)) {
+                String value = line.substring(prefix.length());
+                return Long.parseLong(value.substring(0, value.indexOf(',')));
+            }
+        }
+        return 0;
+    }
+
+    // every level gets a roomy config, written the way /admin/config writes it:
+    // the config hash, plus the copy the single-hash layout reads
+    private static void writeConfigs(JedisPool jedisPool, String prefix, String org, int keys) {
+        Map<String, String> config = Map.of("capacity", "1000000", "refill_rate", "1000");
+        try (var jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.hset(org + ":config", config);
+            pipeline.hset(org, config);
+            for (int i = 0; i < keys; i++) {
+                for (String key : List.of(prefix + "ip:" + i, prefix + "user:" + i)) {
+                    pipeline.hset(key + ":config", config);
+                    pipeline.hset(key, config);
+                }
+            }
+            pipeline.sync();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.*;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.core.RedisScript;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import redis.clients.jedis.JedisPool;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class RedisScriptTest {
+
+    private JedisPool jedisPool;
+
+    @BeforeAll
+    void setup() {
+        jedisPool = new JedisPool("localhost", 6379);
+    }
+
+    @AfterAll
+    void teardown() {
+        jedisPool.close();
+    }
+
+    @Test
+    @DisplayName("Locally computed SHA matches what SCRIPT LOAD returns")
+    void shaMatchesRedis() {
+        String source = "return tonumber(ARGV[1]) + 1";
+        RedisScript script = new RedisScript(source);
+
+        try (var jedis = jedisPool.getResource()) {
+            assertEquals(jedis.scriptLoad(source), new String(script.sha(), StandardCharsets.US_ASCII));
+            assertEquals(42L, script.eval(jedis, List.of(), RedisScript.encode(List.of("41"))));
+        }
+    }
+
+    @Test
+    @DisplayName("A script Redis has forgotten (SCRIPT FLUSH, restart, failover) is reloaded transparently")
+    void reloadsAfterNoScript() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        RedisHierarchicalRateLimiter limiter =
+                new RedisHierarchicalRateLimiter(jedisPool, metrics, RedisFailMode.FAIL_CLOSED);
+        limiter.loadScripts();
+
+        List<String> keys = List.of("rate_limit:user:script-" + System.nanoTime());
+        assertTrue(limiter.allowRequest(keys).allowed());
+
+        try (var jedis = jedisPool.getResource()) {
+            jedis.scriptFlush();
+        }
+
+        assertTrue(limiter.allowRequest(keys).allowed(), "NOSCRIPT must be handled, not surface as a failure");
+        assertEquals(0, metrics.getRedisFailure());
+    }
+}
@@ -0,0 +1,133 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.*;
+import org.ratelimiter.core.RedisAlgorithm;
+import org.ratelimiter.core.RedisBatchDispatcher;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.core.SingleFlight;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import redis.clients.jedis.JedisPool;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class RequestCoalescingTest {
+
+    private JedisPool jedisPool;
+
+    @BeforeAll
+    void setup() {
+        jedisPool = new JedisPool("localhost", 6379);
+    }
+
+    @AfterAll
+    void teardown() {
+        jedisPool.close();
+    }
+
+    @Test
+    @DisplayName("Single-flight hands every member a distinct position and runs one call per group")
+    void singleFlightMergesCallers() throws InterruptedException {
+        SingleFlight<String, Integer> flight = new SingleFlight<>(20_000, 1024); // 20ms window
+        AtomicInteger calls = new AtomicInteger();
+        Set<Integer> indexes = ConcurrentHashMap.newKeySet();
+        Set<Integer> sizesSeen = ConcurrentHashMap.newKeySet();
+
+        runConcurrently(8, 1, () -> {
+            SingleFlight.Ticket<Integer> ticket = flight.join("key", size -> {
+                calls.incrementAndGet();
+                return size;
+            });
+            indexes.add(ticket.index());
+            sizesSeen.add(ticket.result());
+        });
+
+        assertEquals(1, calls.get(), "8 callers inside one window should make a single call");
+        assertEquals(Set.of(0, 1, 2, 3, 4, 5, 6, 7), indexes);
+        assertEquals(Set.of(8), sizesSeen);
+    }
+
+    @Test
+    @DisplayName("Merged callers get exactly as many grants as the budget has, for both algorithms")
+    void grantsAreSplitAcrossCallers() throws InterruptedException {
+        for (RedisAlgorithm algorithm : RedisAlgorithm.values()) {
+            String suffix = algorithm + "-" + System.nanoTime();
+            String userKey = "rate_limit:user:coalesce-" + suffix;
+            String orgKey = "rate_limit:org:coalesce-" + suffix;
+            List<String> keys = List.of(userKey, orgKey);
+            try (var jedis = jedisPool.getResource()) {
+                jedis.hset(userKey + ":config", Map.of("capacity", "1000", "refill_rate", "0"));
+                jedis.hset(orgKey + ":config", Map.of("capacity", "100", "refill_rate", "0"));
+            }
+
+            InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+            try (RedisBatchDispatcher dispatcher = new RedisBatchDispatcher(jedisPool, 64, 0)) {
+                RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(jedisPool, metrics,
+                        RedisFailMode.FAIL_CLOSED, algorithm, dispatcher, 2_000);
+
+                AtomicInteger allowed = new AtomicInteger();
+                AtomicInteger blockedByOrg = new AtomicInteger();
+                runConcurrently(32, 10, () -> {
+                    RedisHierarchicalRateLimiter.Result result = limiter.tryAcquire(keys, 1);
+                    if (result.allowed()) {
+                        allowed.incrementAndGet();
+                    } else if (orgKey.equals(result.blockedKey())) {
+                        blockedByOrg.incrementAndGet();
+                    }
+                });
+
+                assertEquals(100, allowed.get(), algorithm + ": org budget is exactly 100");
+                assertEquals(220, blockedByOrg.get(), algorithm + ": every reject is pinned on the org");
+                assertEquals(320, metrics.getTotal());
+                assertTrue(dispatcher.calls() < 320 / 4,
+                        algorithm + ": identical requests should share script calls, made " + dispatcher.calls());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Coalescing is off by default - one script call per request")
+    void offByDefault() {
+        try (RedisBatchDispatcher dispatcher = new RedisBatchDispatcher(jedisPool, 64, 0)) {
+            RedisHierarchicalRateLimiter limiter = new RedisHierarchicalRateLimiter(jedisPool,
+                    new InMemoryRateLimiterMetrics(), RedisFailMode.FAIL_CLOSED, RedisAlgorithm.TOKEN_BUCKET, dispatcher);
+            List<String> keys = List.of("rate_limit:user:no-coalesce-" + System.nanoTime());
+
+            for (int i = 0; i < 5; i++) {
+                limiter.tryAcquire(keys, 1);
+            }
+            assertEquals(5, dispatcher.calls());
+        }
+    }
+
+    private static void runConcurrently(int threads, int iterations, Runnable task) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                ready.countDown();
+                start.await();
+                for (int i = 0; i < iterations; i++) {
+                    task.run();
+                }
+                return null;
+            });
+        }
+        ready.await(); // every thread is up, so they really do arrive together
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    }
+}
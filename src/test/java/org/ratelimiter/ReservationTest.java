@@ -0,0 +1,153 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.*;
+import org.ratelimiter.core.BucketEngine;
+import org.ratelimiter.core.PackedTokenBucketRateLimiter;
+import org.ratelimiter.core.RateLimiter;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.core.TokenBucketRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.time.ManualTimeSource;
+import redis.clients.jedis.JedisPool;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ReservationTest {
+
+    private static final long MS = 1_000_000;
+
+    private JedisPool jedisPool;
+
+    @BeforeAll
+    void setup() {
+        jedisPool = new JedisPool("localhost", 6379);
+    }
+
+    @AfterAll
+    void teardown() {
+        jedisPool.close();
+    }
+
+    @Test
+    @DisplayName("Reserve reports the exact refill wait and queues reservations behind each other")
+    void reserveReturnsExactWait() {
+        ManualTimeSource clock = new ManualTimeSource();
+        RateLimiter[] limiters = {
+                new TokenBucketRateLimiter(2, 100, BucketEngine.LOCKED, 60_000, clock),   // a token every 10ms
+                new TokenBucketRateLimiter(2, 100, BucketEngine.LOCK_FREE, 60_000, clock),
+                new PackedTokenBucketRateLimiter(2, 100, 1, clock)
+        };
+
+        for (RateLimiter limiter : limiters) {
+            assertEquals(0, limiter.reserve("key", 2), "bucket starts full");
+            assertEquals(10 * MS, limiter.reserve("key", 1));
+            assertEquals(30 * MS, limiter.reserve("key", 2), "queued behind the first reservation");
+            assertFalse(limiter.tryAcquire("key", 1), "the bucket is in debt");
+        }
+
+        clock.advance(30, TimeUnit.MILLISECONDS); // every reservation is now due
+        for (RateLimiter limiter : limiters) {
+            assertFalse(limiter.tryAcquire("key", 1), "reserved tokens aren't handed out twice");
+        }
+
+        clock.advance(10, TimeUnit.MILLISECONDS);
+        for (RateLimiter limiter : limiters) {
+            assertTrue(limiter.tryAcquire("key", 1));
+        }
+    }
+
+    @Test
+    @DisplayName("A wait longer than the caller accepts reserves nothing")
+    void reserveBeyondMaxWaitTakesNothing() {
+        ManualTimeSource clock = new ManualTimeSource();
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 100, BucketEngine.LOCK_FREE, 60_000, clock);
+
+        assertTrue(limiter.tryAcquire("key", 1));
+        assertEquals(10 * MS, limiter.reserve("key", 1, 5 * MS));
+
+        clock.advance(10, TimeUnit.MILLISECONDS);
+        assertTrue(limiter.tryAcquire("key", 1), "the refused reservation must not have taken the token");
+
+        assertEquals(Long.MAX_VALUE, limiter.reserve("key", 2), "more than capacity never fits");
+        assertEquals(Long.MAX_VALUE, new TokenBucketRateLimiter(1, 0).reserve("key", 2));
+    }
+
+    @Test
+    @DisplayName("Evicting an idle bucket never forgives an outstanding reservation")
+    void reservationKeepsBucketAlive() {
+        ManualTimeSource clock = new ManualTimeSource();
+        // 1 token/sec, 10ms idle TTL
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 1, BucketEngine.LOCKED, 10, clock);
+
+        assertEquals(0, limiter.reserve("key", 1));
+        assertEquals(1_000 * MS, limiter.reserve("key", 1));
+        assertEquals(2_000 * MS, limiter.reserve("key", 1));
+
+        // well past refill + idle TTL counted from the last request, but not from the last reservation
+        clock.advance(1_500, TimeUnit.MILLISECONDS);
+        limiter.allowRequest("driver");
+        assertEquals(0, limiter.evictionCount());
+        assertFalse(limiter.tryAcquire("key", 1), "still in debt");
+    }
+
+    @Test
+    @DisplayName("acquireAsync completes once the tokens are due, or fails fast past the timeout")
+    void acquireAsyncWaitsExactly() throws Exception {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 50); // a token every 20ms
+
+        assertTrue(limiter.acquireAsync("key", Duration.ofSeconds(1)).get());
+
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> delayed = limiter.acquireAsync("key", Duration.ofSeconds(1));
+        assertFalse(delayed.isDone(), "should be parked on the timer, not spinning");
+        assertTrue(delayed.get(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= 15 * MS, "completed before the token refilled");
+
+        // next token is 20ms out, caller will only wait 1ms
+        CompletableFuture<Boolean> tooLong = limiter.acquireAsync("key", Duration.ofMillis(1));
+        assertTrue(tooLong.isDone());
+        assertFalse(tooLong.get());
+    }
+
+    @Test
+    @DisplayName("Redis scripts report how long the blocking level needs")
+    void redisReportsWait() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        RedisHierarchicalRateLimiter limiter =
+                new RedisHierarchicalRateLimiter(jedisPool, metrics, RedisFailMode.FAIL_CLOSED);
+
+        String suffix = String.valueOf(System.nanoTime());
+        String userKey = "rate_limit:user:reserve-" + suffix;
+        String orgKey = "rate_limit:org:reserve-" + suffix;
+        List<String> keys = List.of(userKey, orgKey);
+
+        try (var jedis = jedisPool.getResource()) {
+            jedis.hset(userKey + ":config", Map.of("capacity", "1", "refill_rate", "1"));   // 1 token/sec
+            jedis.hset(orgKey + ":config", Map.of("capacity", "100", "refill_rate", "0"));
+        }
+
+        assertTrue(limiter.tryAcquire(keys, 1).allowed());
+
+        RedisHierarchicalRateLimiter.Result rejected = limiter.tryAcquire(keys, 1);
+        assertFalse(rejected.allowed());
+        assertEquals(userKey, rejected.blockedKey());
+        assertTrue(rejected.waitNanos() > 900 * MS && rejected.waitNanos() <= 1_000 * MS,
+                "about a second until the user refills, was " + rejected.waitNanos());
+
+        RedisHierarchicalRateLimiter.Result reserved = limiter.reserve(keys, 1, 2_000 * MS);
+        assertTrue(reserved.allowed());
+        assertTrue(reserved.waitNanos() > 900 * MS, "the user bucket is now in debt");
+
+        RedisHierarchicalRateLimiter.Result never = limiter.tryAcquire(keys, 500);
+        assertFalse(never.allowed());
+        assertEquals(Long.MAX_VALUE, never.waitNanos(), "more than capacity never refills");
+    }
+}
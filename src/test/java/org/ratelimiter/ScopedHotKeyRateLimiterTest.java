@@ -0,0 +1,303 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.core.BucketEngine;
+import org.ratelimiter.core.HotKeyDetector;
+import org.ratelimiter.core.LocalHotKeyRateLimiter;
+import org.ratelimiter.core.RedisConfigCache;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.core.ScopedHotKeyRateLimiter;
+import org.ratelimiter.core.ScopedHotKeyRateLimiter.Limits;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.policy.ClusterPolicyResolver;
+import org.ratelimiter.policy.DefaultPolicyResolver;
+import org.ratelimiter.time.ManualTimeSource;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class ScopedHotKeyRateLimiterTest {
+
+    private static final Limits NO_REFILL = new Limits(3, 0);
+
+    @Test
+    @DisplayName("A flood from one IP is shed locally, with no user on the request")
+    void shedsIpFlood() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(Map.of("ip", NO_REFILL), metrics);
+        List<String> keys = new DefaultPolicyResolver().resolveKeys(null, "10.0.0.1", null);
+
+        for (int i = 0; i < 3; i++) {
+            assertNull(limiter.tryAcquire(keys, 1));
+        }
+        assertEquals("rate_limit:ip:10.0.0.1", limiter.tryAcquire(keys, 1));
+
+        assertEquals(3, metrics.getLocalHits());
+        assertEquals(1, metrics.getRejected());
+        assertEquals(1, metrics.getBlockedIp());
+    }
+
+    @Test
+    @DisplayName("Every level is checked; the first one out of budget sheds the request")
+    void checksEveryLevel() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(Map.of(
+                "ip", new Limits(100, 0),
+                "user", new Limits(100, 0),
+                "org", NO_REFILL), metrics);
+
+        // different ips and users, one org: only the org level runs dry
+        for (int i = 0; i < 3; i++) {
+            assertNull(limiter.tryAcquire(
+                    new DefaultPolicyResolver().resolveKeys("user-" + i, "10.0.0." + i, "acme"), 1));
+        }
+        List<String> keys = new DefaultPolicyResolver().resolveKeys("user-9", "10.0.0.9", "acme");
+        assertEquals("rate_limit:org:acme", limiter.tryAcquire(keys, 1));
+        assertEquals(1, metrics.getBlockedOrg());
+        assertEquals(0, metrics.getBlockedIp() + metrics.getBlockedUser());
+    }
+
+    @Test
+    @DisplayName("Scopes that aren't configured are left to Redis")
+    void unconfiguredScopesPass() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(Map.of("user", NO_REFILL), metrics);
+        List<String> keys = new DefaultPolicyResolver().resolveKeys(null, "10.0.0.1", "acme");
+
+        for (int i = 0; i < 100; i++) {
+            assertNull(limiter.tryAcquire(keys, 1));
+        }
+        assertEquals(0, metrics.getLocalHits(), "nothing was checked, so nothing counts as a local pass");
+        assertEquals(0, limiter.size());
+    }
+
+    @Test
+    @DisplayName("A key's learned Redis limits replace its scope's, tagged or not")
+    void learnedLimitsWin() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(Map.of("org", NO_REFILL), metrics);
+        limiter.learn("rate_limit:org:big", "20", "0");
+        limiter.learn("rate_limit:org:unset", null, null);
+        limiter.learn("rate_limit:org:zero", "0", "0");
+
+        // cluster keys carry a hash tag; limits are looked up without it
+        List<String> big = new ClusterPolicyResolver().resolveKeys(null, null, "big");
+        assertEquals(20, passes(limiter, big));
+        assertEquals(ScopedHotKeyRateLimiter.REDIS_DEFAULT_LIMITS.capacity(),
+                passes(limiter, List.of("rate_limit:org:unset")), "no config hash: the scripts' defaults");
+        assertEquals(NO_REFILL.capacity(), passes(limiter, List.of("rate_limit:org:other")));
+        assertEquals(100, passes(limiter, List.of("rate_limit:org:zero")),
+                "capacity 0 can't be held locally, only Redis enforces it");
+    }
+
+    @Test
+    @DisplayName("A full table of learned limits evicts the least recently used, and still learns")
+    void fullTableStillLearns() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(Map.of("org", NO_REFILL), 2, metrics,
+                limits -> new LocalHotKeyRateLimiter(limits.capacity(), limits.refillRate(), 1, metrics));
+        limiter.learn("rate_limit:org:first", "10", "0");
+        limiter.learn("rate_limit:org:second", "20", "0");
+        limiter.learn("rate_limit:org:late", "30", "0");
+
+        assertEquals(30, passes(limiter, List.of("rate_limit:org:late")), "learned after the table filled");
+        assertEquals(NO_REFILL.capacity(), passes(limiter, List.of("rate_limit:org:first")),
+                "evicted: back to its scope's limits");
+    }
+
+    @Test
+    @DisplayName("A key in use keeps its learned limits while a scan churns the tables")
+    void learnedLimitsSurviveScan() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(Map.of("ip", NO_REFILL, "org", NO_REFILL),
+                100, metrics, limits -> new LocalHotKeyRateLimiter(limits.capacity(), limits.refillRate(), 1, metrics));
+        limiter.learn("rate_limit:org:acme", "1000", "1000");
+        List<String> org = List.of("rate_limit:org:acme");
+        assertNull(limiter.tryAcquire(org, 1));
+
+        // twice the tables' size in new keys, each one learned and requested, between the org's requests
+        for (int i = 0; i < 200; i++) {
+            String ip = "rate_limit:ip:10.0.0." + i;
+            limiter.learn(ip, "5", "0");
+            assertNull(limiter.tryAcquire(List.of(ip), 1));
+            assertNull(limiter.tryAcquire(org, 1), "still on its learned 1000, not the scope's 3");
+        }
+        assertEquals(100, passes(limiter, org));
+    }
+
+    @Test
+    @DisplayName("A key resolved afresh takes its Redis limits from the config cache, not its scope's")
+    void relearnedFromConfigCache() throws InterruptedException {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        try (RedisConfigCache cache = new RedisConfigCache(() -> new Jedis("localhost", 6379, 2000, 0),
+                60_000, 1_000, metrics)) {
+            assertTrue(cache.awaitSubscribed(5, TimeUnit.SECONDS));
+            ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(Map.of("org", NO_REFILL), 2, metrics,
+                    limits -> new LocalHotKeyRateLimiter(limits.capacity(), limits.refillRate(), 1, metrics), 1.0,
+                    null, cache, ScopedHotKeyRateLimiter.DEFAULT_MAX_LIMIT_PAIRS);
+            // learned once, then pushed out by other keys before it was ever requested
+            limiter.learn("rate_limit:org:acme", "8", "0");
+            cache.put("rate_limit:org:acme", "8", "0", cache.generation());
+            limiter.learn("rate_limit:org:globex", "5", "0");
+            limiter.learn("rate_limit:org:initech", "5", "0");
+
+            assertEquals(8, passes(limiter, List.of("rate_limit:org:acme")));
+        }
+    }
+
+    @Test
+    @DisplayName("Cold keys go no further than the detector: nothing is resolved, stored or allocated")
+    void coldKeysOnlyTouchTheSketch() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        HotKeyDetector detector = new HotKeyDetector(1_000_000, 1_000, 100, 4, 4096, new ManualTimeSource());
+        ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(Map.of("ip", NO_REFILL), 100, metrics,
+                limits -> new LocalHotKeyRateLimiter(limits.capacity(), limits.refillRate(), 1, metrics), 1.0,
+                detector, null, ScopedHotKeyRateLimiter.DEFAULT_MAX_LIMIT_PAIRS);
+        List<List<String>> scan = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            scan.add(List.of("rate_limit:ip:" + i));
+        }
+        for (int round = 0; round < 4; round++) {
+            for (List<String> keys : scan) {
+                limiter.tryAcquire(keys, 1); // warm up
+            }
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (List<String> keys : scan) {
+            assertNull(limiter.tryAcquire(keys, 1));
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(0, limiter.size());
+        // resolving each key (a KnownKey and two map entries) would be megabytes here
+        assertTrue(allocated < 100_000, "allocated " + allocated + " bytes over 50k cold keys");
+    }
+
+    @Test
+    @DisplayName("Bucket tables are kept for a bounded number of limit pairs")
+    void limitPairsBounded() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(Map.of("org", NO_REFILL), 100, metrics,
+                limits -> new LocalHotKeyRateLimiter(limits.capacity(), limits.refillRate(), 1, metrics), 1.0,
+                null, null, 2);
+        for (int org = 0; org < 10; org++) {
+            limiter.learn("rate_limit:org:o" + org, String.valueOf(10 + org), "0");
+            assertNull(limiter.tryAcquire(List.of("rate_limit:org:o" + org), 1));
+        }
+        assertEquals(2, limiter.size(), "only the two most recent limit pairs still have buckets");
+
+        // a dropped pair's keys start over with a full bucket
+        assertEquals(10, passes(limiter, List.of("rate_limit:org:o0")));
+    }
+
+    @Test
+    @DisplayName("A known key, hash-tagged or not, is checked without allocating")
+    void steadyStateAllocatesNothing() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(Map.of(
+                "ip", new Limits(1_000, 1_000_000),
+                "user", new Limits(1_000, 1_000_000),
+                "org", new Limits(1_000, 1_000_000)), 1_000, metrics,
+                limits -> new LocalHotKeyRateLimiter(limits.capacity(), limits.refillRate(), 4, metrics,
+                        BucketEngine.LOCK_FREE), 1.5);
+        limiter.learn("rate_limit:org:acme", "2000", "2000000");
+        limiter.setLiveNodes(3);
+        List<String> keys = new ClusterPolicyResolver().resolveKeys("alice", "10.0.0.1", "acme");
+
+        for (int i = 0; i < 200_000; i++) {
+            limiter.tryAcquire(keys, 1); // keys resolved, buckets created, paths warmed up
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            limiter.tryAcquire(keys, 1);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // a scaled Limits or an untagged key per level per request would be megabytes here
+        assertTrue(allocated < 100_000, "allocated " + allocated + " bytes over 100k requests");
+    }
+
+    @Test
+    @DisplayName("The Redis limiter feeds the limits it reads to the pre-filter")
+    void learnsFromRedis() {
+        String org = "scoped-" + System.nanoTime();
+        String key = "rate_limit:org:" + org;
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(Map.of("org", NO_REFILL), metrics);
+
+        try (JedisPool pool = new JedisPool("localhost", 6379)) {
+            try (var jedis = pool.getResource()) {
+                jedis.hset(key + ":config", Map.of("capacity", "7", "refill_rate", "0"));
+            }
+            RedisHierarchicalRateLimiter redis = new RedisHierarchicalRateLimiter(pool, metrics,
+                    RedisFailMode.FAIL_CLOSED);
+            redis.addLimitsListener(limiter);
+            assertTrue(redis.allowRequest(List.of(key)).allowed());
+        }
+
+        assertEquals(7, passes(limiter, List.of(key)));
+    }
+
+    @Test
+    @DisplayName("Each node holds its share of a key's limit, with headroom, rescaled as nodes come and go")
+    void dividedOverLiveNodes() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        ScopedHotKeyRateLimiter limiter = new ScopedHotKeyRateLimiter(Map.of("org", NO_REFILL), 1_000, metrics,
+                limits -> new LocalHotKeyRateLimiter(limits.capacity(), limits.refillRate(), 1, metrics), 1.5);
+        limiter.learn("rate_limit:org:acme", "40", "0");
+        limiter.learn("rate_limit:org:globex", "40", "0");
+        limiter.learn("rate_limit:org:initech", "40", "0");
+        List<String> acme = List.of("rate_limit:org:acme");
+        List<String> globex = List.of("rate_limit:org:globex");
+
+        assertEquals(60, passes(limiter, acme), "alone: 40 x 1.5");
+        for (int i = 0; i < 30; i++) {
+            assertNull(limiter.tryAcquire(globex, 1));
+        }
+
+        limiter.setLiveNodes(4);
+        assertEquals(0, passes(limiter, acme), "an empty bucket stays empty, no fresh burst");
+        assertEquals(7, passes(limiter, globex), "half of 40 x 1.5 / 4 left");
+        assertEquals(15, passes(limiter, List.of("rate_limit:org:initech")), "a new key: 40 x 1.5 / 4");
+
+        limiter.setLiveNodes(100);
+        assertEquals(1, passes(limiter, List.of("rate_limit:org:other")), "never less than one request");
+        assertEquals(100, limiter.liveNodes());
+    }
+
+    @Test
+    @DisplayName("Headroom below 1 would shed what Redis allows")
+    void headroomAtLeastOne() {
+        assertThrows(IllegalArgumentException.class, () -> new ScopedHotKeyRateLimiter(Map.of(), 1_000,
+                new InMemoryRateLimiterMetrics(), limits -> null, 0.9));
+    }
+
+    // how many single-permit requests pass before one is shed, up to 100
+    private static int passes(ScopedHotKeyRateLimiter limiter, List<String> keys) {
+        int passed = 0;
+        while (passed < 100 && limiter.tryAcquire(keys, 1) == null) {
+            passed++;
+        }
+        return passed;
+    }
+}
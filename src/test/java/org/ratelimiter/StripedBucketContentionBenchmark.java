@@ -0,0 +1,78 @@
+package org.ratelimiter;
+
+import org.ratelimiter.core.BucketEngine;
+import org.ratelimiter.core.LocalHotKeyRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Manual benchmark, not a JUnit test - every thread hammers the same hot key
+// through LocalHotKeyRateLimiter, from 1 to 64 threads: a locked TokenBucket,
+// one AtomicTokenBucket (every thread CASing one word), and a StripedTokenBucket
+// over 8 stripes. The refill rate is high enough that nearly every call is an
+// allow, so this measures contention, not rejection. Needs several cores to
+// show anything.
+// `java -cp target/classes:target/test-classes org.ratelimiter.StripedBucketContentionBenchmark [seconds per run]`
+public class StripedBucketContentionBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+    private static final long CAPACITY = 1_000_000;
+    private static final double REFILL_PER_SECOND = 100_000_000;
+    private static final int STRIPES = 8;
+
+    public static void main(String[] args) throws InterruptedException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 2;
+
+        System.out.println("Cores: " + Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %16s %16s %16s %8s%n", "threads", "locked ops/s", "one CAS ops/s", "striped ops/s", "ratio");
+        for (int threads : THREADS) {
+            double locked = measure(limiter(BucketEngine.LOCKED, 1), threads, seconds);
+            double single = measure(limiter(BucketEngine.LOCK_FREE, 1), threads, seconds);
+            double striped = measure(limiter(BucketEngine.LOCK_FREE, STRIPES), threads, seconds);
+
+            System.out.printf("%-8d %16.0f %16.0f %16.0f %7.1fx%n", threads, locked, single, striped, striped / single);
+        }
+    }
+
+    private static LocalHotKeyRateLimiter limiter(BucketEngine engine, int stripes) {
+        return new LocalHotKeyRateLimiter(CAPACITY, REFILL_PER_SECOND, stripes, new InMemoryRateLimiterMetrics(), engine);
+    }
+
+    // warm up, then requests per second across all threads
+    private static double measure(LocalHotKeyRateLimiter limiter, int threads, long seconds) throws InterruptedException {
+        run(limiter, threads, 1);
+        return run(limiter, threads, seconds);
+    }
+
+    private static double run(LocalHotKeyRateLimiter limiter, int threads, long seconds) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder done = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch finished = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ready.countDown();
+                long count = 0;
+                while (!stop.get()) {
+                    for (int i = 0; i < 1_000; i++) {
+                        limiter.tryAcquire("hot-key", 1);
+                    }
+                    count += 1_000;
+                }
+                done.add(count);
+                finished.countDown();
+            });
+            worker.setDaemon(true);
+            worker.start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        stop.set(true);
+        finished.await();
+        return done.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
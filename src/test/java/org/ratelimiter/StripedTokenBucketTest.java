@@ -0,0 +1,115 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.model.StripedTokenBucket;
+import org.ratelimiter.time.ManualTimeSource;
+import org.ratelimiter.time.TimeSource;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StripedTokenBucketTest {
+
+    @Test
+    @DisplayName("Many threads on one key get exactly capacity, however the stripes are hit")
+    void exactBudgetUnderContention() throws InterruptedException {
+        StripedTokenBucket bucket = new StripedTokenBucket(1_000, 0, 8, TimeSource.SYSTEM);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger allowed = new AtomicInteger();
+
+        for (int t = 0; t < 16; t++) {
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 2_000; i++) {
+                    if (bucket.tryConsume()) allowed.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(1_000, allowed.get());
+    }
+
+    @Test
+    @DisplayName("One thread drains every stripe by stealing once its own runs dry")
+    void stealsFromOtherStripes() {
+        StripedTokenBucket bucket = new StripedTokenBucket(10, 0, 4, TimeSource.SYSTEM);
+        int allowed = 0;
+        for (int i = 0; i < 20; i++) {
+            if (bucket.tryConsume()) allowed++;
+        }
+        assertEquals(10, allowed);
+    }
+
+    @Test
+    @DisplayName("A request bigger than any one stripe is gathered across stripes")
+    void gathersAcrossStripes() {
+        StripedTokenBucket bucket = new StripedTokenBucket(4, 0, 4, TimeSource.SYSTEM);
+        assertTrue(bucket.tryConsume(4));
+        assertFalse(bucket.tryConsume(1));
+    }
+
+    @Test
+    @DisplayName("A gather that comes up short puts back what it took")
+    void shortGatherRefunds() {
+        StripedTokenBucket bucket = new StripedTokenBucket(4, 0, 4, TimeSource.SYSTEM);
+        assertTrue(bucket.tryConsume(1));
+        assertFalse(bucket.tryConsume(4));
+        assertTrue(bucket.tryConsume(3), "the failed request left the other three tokens in place");
+        assertFalse(bucket.tryConsume(1));
+    }
+
+    @Test
+    @DisplayName("Stripes refill at their share of the rate, adding up to the bucket's rate")
+    void refillAddsUp() {
+        ManualTimeSource clock = new ManualTimeSource();
+        StripedTokenBucket bucket = new StripedTokenBucket(8, 4, 4, clock);
+        while (bucket.tryConsume()) {
+            // drain
+        }
+
+        clock.advance(1, TimeUnit.SECONDS);
+        int allowed = 0;
+        while (bucket.tryConsume()) allowed++;
+        assertEquals(4, allowed);
+
+        // half a token on each stripe is two tokens' worth between them
+        clock.advance(500, TimeUnit.MILLISECONDS);
+        allowed = 0;
+        while (bucket.tryConsume()) allowed++;
+        assertEquals(2, allowed);
+    }
+
+    @Test
+    @DisplayName("Never holds more stripes than tokens; over-capacity requests are refused")
+    void edges() {
+        StripedTokenBucket bucket = new StripedTokenBucket(3, 1, 8, TimeSource.SYSTEM);
+        assertEquals(3, bucket.stripes());
+        assertFalse(bucket.tryConsume(4));
+        assertTrue(bucket.tryConsume(3));
+    }
+
+    @Test
+    @DisplayName("reserve() hands out a wait on the stripe that refills first")
+    void reserveWaitsOnOneStripe() {
+        ManualTimeSource clock = new ManualTimeSource();
+        StripedTokenBucket bucket = new StripedTokenBucket(2, 2, 2, clock);
+        assertEquals(0, bucket.reserve(2, 0));
+        // each stripe refills at 1/s
+        assertEquals(TimeUnit.SECONDS.toNanos(1), bucket.reserve(1, TimeUnit.SECONDS.toNanos(5)));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), bucket.reserve(1, TimeUnit.SECONDS.toNanos(5)));
+        assertEquals(TimeUnit.SECONDS.toNanos(2), bucket.reserve(1, 0), "too long: not taken");
+    }
+}
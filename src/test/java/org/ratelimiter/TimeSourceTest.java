@@ -0,0 +1,50 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.ratelimiter.core.BucketEngine;
+import org.ratelimiter.core.TokenBucketRateLimiter;
+import org.ratelimiter.time.CachedTimeSource;
+import org.ratelimiter.time.ManualTimeSource;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TimeSourceTest {
+
+    @Test
+    @DisplayName("Cached clock keeps moving forward and never goes backwards")
+    void cachedClockIsMonotonic() throws InterruptedException {
+        try (CachedTimeSource clock = new CachedTimeSource(100)) {
+            long first = clock.nanoTime();
+            long previous = first;
+            for (int i = 0; i < 1_000; i++) {
+                long now = clock.nanoTime();
+                assertTrue(now >= previous);
+                previous = now;
+            }
+
+            Thread.sleep(20);
+            assertTrue(clock.nanoTime() - first >= TimeUnit.MILLISECONDS.toNanos(10),
+                    "a 100us ticker should have caught up with 20ms of real time");
+        }
+    }
+
+    @Test
+    @DisplayName("Limiters refill on the TimeSource they're given, not the wall clock")
+    void limiterUsesInjectedClock() {
+        ManualTimeSource clock = new ManualTimeSource();
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 10, BucketEngine.LOCK_FREE, 60_000, clock);
+
+        assertTrue(limiter.allowRequest("key"));
+        assertFalse(limiter.allowRequest("key"));
+
+        clock.advance(99, TimeUnit.MILLISECONDS);
+        assertFalse(limiter.allowRequest("key"), "10/sec is one token per 100ms");
+
+        clock.advance(1, TimeUnit.MILLISECONDS);
+        assertTrue(limiter.allowRequest("key"));
+    }
+}
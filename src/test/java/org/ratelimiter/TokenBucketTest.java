@@ -2,10 +2,16 @@ package org.ratelimiter;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.ratelimiter.model.AtomicTokenBucket;
+import org.ratelimiter.model.Bucket;
 import org.ratelimiter.model.TokenBucket;
+import org.ratelimiter.time.ManualTimeSource;
+
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TokenBucketTest {
@@ -40,14 +46,15 @@ public class TokenBucketTest {
 
     @Test
     @DisplayName("Refills back up to (but never past) capacity after enough time passes")
-    void refillsUpToCapacityOverTime() throws InterruptedException {
-        TokenBucket bucket = new TokenBucket(2, 1000); // 1 token/ms, refills fast
+    void refillsUpToCapacityOverTime() {
+        ManualTimeSource clock = new ManualTimeSource();
+        TokenBucket bucket = new TokenBucket(2, 1000, clock); // 1 token/ms, refills fast
 
         assertTrue(bucket.tryConsume());
         assertTrue(bucket.tryConsume());
         assertFalse(bucket.tryConsume());
 
-        Thread.sleep(20); // plenty of time to refill past capacity if unclamped
+        clock.advance(20, TimeUnit.MILLISECONDS); // plenty of time to refill past capacity if unclamped
 
         int allowed = 0;
         for (int i = 0; i < 5; i++) {
@@ -56,4 +63,69 @@ public class TokenBucketTest {
 
         assertEquals(2, allowed, "refill should cap at capacity, not accumulate unbounded");
     }
+
+    @Test
+    @DisplayName("Sub-millisecond refill is exact at 10k tokens/sec, for both engines")
+    void refillIsNanosecondPrecise() {
+        ManualTimeSource clock = new ManualTimeSource();
+        Bucket[] buckets = {
+                new TokenBucket(5, 10_000, clock),       // one token every 100 microseconds
+                new AtomicTokenBucket(5, 10_000, clock)
+        };
+
+        for (Bucket bucket : buckets) {
+            while (bucket.tryConsume()) {
+                // drain
+            }
+        }
+
+        // 250us is under a millisecond - a millisecond clock would refill nothing here
+        clock.advance(250, TimeUnit.MICROSECONDS);
+        for (Bucket bucket : buckets) {
+            assertTrue(bucket.tryConsume());
+            assertTrue(bucket.tryConsume());
+            assertFalse(bucket.tryConsume(), "only 2.5 tokens have refilled");
+        }
+
+        // the leftover half token isn't lost, another 50us completes it
+        clock.advance(50, TimeUnit.MICROSECONDS);
+        for (Bucket bucket : buckets) {
+            assertTrue(bucket.tryConsume());
+            assertFalse(bucket.tryConsume());
+        }
+    }
+
+    @Test
+    @DisplayName("A clock that doesn't move never refills, whatever the wall clock does")
+    void refillFollowsTimeSourceOnly() throws InterruptedException {
+        ManualTimeSource clock = new ManualTimeSource();
+        TokenBucket bucket = new TokenBucket(1, 1000, clock);
+
+        assertTrue(bucket.tryConsume());
+        Thread.sleep(5);
+        assertFalse(bucket.tryConsume(), "real time passing must not matter, only the TimeSource");
+    }
+
+    @Test
+    @DisplayName("Weighted consume takes all permits or none, for both engines")
+    void weightedConsumeIsAllOrNothing() {
+        ManualTimeSource clock = new ManualTimeSource();
+        Bucket[] buckets = {
+                new TokenBucket(10, 10, clock),
+                new AtomicTokenBucket(10, 10, clock)
+        };
+
+        for (Bucket bucket : buckets) {
+            assertTrue(bucket.tryConsume(7));
+            assertFalse(bucket.tryConsume(4), "only 3 left");
+            assertTrue(bucket.tryConsume(3), "the rejected request must not have taken anything");
+            assertFalse(bucket.tryConsume(11), "more than capacity never fits");
+        }
+
+        clock.advance(1, TimeUnit.SECONDS); // back to full
+        for (Bucket bucket : buckets) {
+            assertTrue(bucket.tryConsume(10));
+            assertThrows(IllegalArgumentException.class, () -> bucket.tryConsume(0));
+        }
+    }
 }
@@ -0,0 +1,300 @@
+package org.ratelimiter;
+
+import org.junit.jupiter.api.*;
+import org.ratelimiter.api.controller.RateLimiterController;
+import org.ratelimiter.core.RedisConfigCache;
+import org.ratelimiter.core.RedisFailMode;
+import org.ratelimiter.core.RedisHierarchicalRateLimiter;
+import org.ratelimiter.core.ScopedHotKeyRateLimiter;
+import org.ratelimiter.core.TokenLeaseRateLimiter;
+import org.ratelimiter.metrics.InMemoryRateLimiterMetrics;
+import org.ratelimiter.policy.DefaultPolicyResolver;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPooled;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TokenLeaseRateLimiterTest {
+
+    private JedisPooled redis;
+
+    @BeforeAll
+    void setup() {
+        redis = new JedisPooled("localhost", 6379);
+    }
+
+    @AfterAll
+    void teardown() {
+        redis.close();
+    }
+
+    @Test
+    @DisplayName("Two nodes leasing from one bucket never grant more than it holds")
+    void budgetSharedAcrossNodes() throws InterruptedException {
+        String key = "rate_limit:org:lease-budget-" + System.nanoTime();
+        setConfig(key, 200, 0);
+
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        AtomicInteger granted = new AtomicInteger();
+        try (TokenLeaseRateLimiter nodeA = newLimiter(metrics, 1, 50, 60_000);
+             TokenLeaseRateLimiter nodeB = newLimiter(metrics, 1, 50, 60_000)) {
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            for (int i = 0; i < 1_000; i++) {
+                TokenLeaseRateLimiter node = i % 2 == 0 ? nodeA : nodeB;
+                pool.execute(() -> {
+                    if (node.tryAcquire(key, 1)) {
+                        granted.incrementAndGet();
+                    }
+                });
+            }
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        assertTrue(granted.get() <= 200, "granted " + granted.get() + " of 200");
+        // a lease can strand at most what the other node holds, bounded by max-size
+        assertTrue(granted.get() >= 150, "granted " + granted.get());
+        assertTrue(metrics.getLeaseRefills() < granted.get(), "leases are shared by many decisions");
+    }
+
+    @Test
+    @DisplayName("Lease size grows with the key's rate, so a busy key rarely touches Redis")
+    void leaseSizeAdapts() {
+        String key = "rate_limit:org:lease-adapt-" + System.nanoTime();
+        setConfig(key, 100_000, 0);
+
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        try (TokenLeaseRateLimiter limiter = newLimiter(metrics, 1, 500, 60_000)) {
+            for (int i = 0; i < 5_000; i++) {
+                assertTrue(limiter.tryAcquire(key, 1));
+            }
+        }
+
+        assertTrue(metrics.getLeaseRefills() < 100,
+                "5000 decisions took " + metrics.getLeaseRefills() + " leases");
+        assertTrue(metrics.getLocalHits() > 4_900);
+    }
+
+    @Test
+    @DisplayName("Unused tokens go back to Redis when the key goes idle, and on close")
+    void unusedTokensReturned() throws InterruptedException {
+        String idleKey = "rate_limit:org:lease-idle-" + System.nanoTime();
+        String closeKey = "rate_limit:org:lease-close-" + System.nanoTime();
+        setConfig(idleKey, 100, 0);
+        setConfig(closeKey, 100, 0);
+
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        try (TokenLeaseRateLimiter limiter = newLimiter(metrics, 20, 20, 50)) {
+            assertTrue(limiter.tryAcquire(idleKey, 1));
+            assertEquals(19, limiter.held(idleKey));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (metrics.getReturnedTokens() < 19 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, limiter.held(idleKey));
+            assertEquals(99, tokens(idleKey), 0.01);
+
+            assertTrue(limiter.tryAcquire(closeKey, 1));
+        }
+        assertEquals(99, tokens(closeKey), 0.01);
+        assertEquals(38, metrics.getReturnedTokens());
+    }
+
+    @Test
+    @DisplayName("Refunded tokens are spent again without a new lease")
+    void refund() {
+        String key = "rate_limit:org:lease-refund-" + System.nanoTime();
+        setConfig(key, 1, 0);
+
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        try (TokenLeaseRateLimiter limiter = newLimiter(metrics, 1, 1, 60_000)) {
+            assertTrue(limiter.tryAcquire(key, 1));
+            assertFalse(limiter.tryAcquire(key, 1));
+            limiter.refund(key, 1);
+            assertTrue(limiter.tryAcquire(key, 1));
+            assertEquals(1, metrics.getLeaseRefills());
+        }
+    }
+
+    @Test
+    @DisplayName("A refund that lands after the lease was returned is kept, not lost or sent twice")
+    void refundAfterRetire() throws InterruptedException {
+        String key = "rate_limit:org:lease-late-refund-" + System.nanoTime();
+        setConfig(key, 100, 0);
+
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        try (TokenLeaseRateLimiter limiter = newLimiter(metrics, 5, 5, 50)) {
+            assertTrue(limiter.tryAcquire(key, 1));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (metrics.getReturnedTokens() < 4 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, limiter.held(key));
+
+            limiter.refund(key, 1);
+            assertEquals(1, limiter.held(key), "kept on the key's next lease");
+        }
+        assertEquals(100, tokens(key), 0.01, "every token found its way back exactly once");
+    }
+
+    @Test
+    @DisplayName("A fail-open pass takes no tokens, so a reject elsewhere refunds none")
+    void failOpenTakesNothing() {
+        String org = "lease-down-" + System.nanoTime();
+        String key = "rate_limit:org:" + org;
+        setConfig(key, 1, 0);
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+
+        try (JedisPooled down = new JedisPooled("localhost", 1);
+             TokenLeaseRateLimiter leases = new TokenLeaseRateLimiter(down, metrics, RedisFailMode.FAIL_OPEN,
+                     Set.of("org"), 100, 1, 1, 60_000);
+             JedisPool pool = new JedisPool("localhost", 6379)) {
+            TokenLeaseRateLimiter.Grant grant = leases.acquire(key, 1);
+            assertTrue(grant.allowed());
+            assertFalse(grant.debited());
+
+            // the unleased org level goes to Redis, which allows one request and turns the next away
+            RateLimiterController controller = newController(leases,
+                    new RedisHierarchicalRateLimiter(pool, metrics, RedisFailMode.FAIL_CLOSED), metrics);
+            assertEquals(200, controller.handleRequest(null, null, org, 1)
+                    .getStatusCode().value());
+            assertEquals(429, controller.handleRequest(null, null, org, 1)
+                    .getStatusCode().value());
+            assertEquals(0, leases.held(key), "no phantom tokens minted by the refund");
+        }
+    }
+
+    @Test
+    @DisplayName("The async endpoint never refills a lease on the request thread")
+    void asyncSkipsBlockingRefill() throws Exception {
+        String org = "lease-async-" + System.nanoTime();
+        setConfig("rate_limit:org:" + org, 5, 0);
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+
+        // a lease refill here would fail, and FAIL_CLOSED would turn the request away
+        try (JedisPooled down = new JedisPooled("localhost", 1);
+             TokenLeaseRateLimiter leases = new TokenLeaseRateLimiter(down, metrics, RedisFailMode.FAIL_CLOSED,
+                     Set.of("org"), 100, 1, 1, 60_000);
+             JedisPool pool = new JedisPool("localhost", 6379)) {
+            RateLimiterController controller = newController(leases,
+                    new RedisHierarchicalRateLimiter(pool, metrics, RedisFailMode.FAIL_CLOSED), metrics);
+
+            assertEquals(200, controller.handleRequestAsync(null, null, org, 1)
+                    .get(5, TimeUnit.SECONDS).getStatusCode().value(), "nothing held: Redis decides the org level");
+            assertEquals(429, controller.handleRequest(null, null, org, 1)
+                    .getStatusCode().value(), "the blocking endpoint does refill, and fails closed");
+        }
+        assertEquals(4, tokens("rate_limit:org:" + org), 0.01);
+    }
+
+    @Test
+    @DisplayName("Requests decided by leases alone are counted like any other decision")
+    void leaseDecisionsCounted() {
+        String org = "lease-metrics-" + System.nanoTime();
+        setConfig("rate_limit:org:" + org, 2, 0);
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+
+        try (TokenLeaseRateLimiter leases = newLimiter(metrics, 1, 1, 60_000);
+             JedisPool pool = new JedisPool("localhost", 6379)) {
+            RateLimiterController controller = newController(leases,
+                    new RedisHierarchicalRateLimiter(pool, metrics, RedisFailMode.FAIL_CLOSED), metrics);
+            for (int i = 0; i < 3; i++) {
+                controller.handleRequest(null, null, org, 1);
+            }
+        }
+
+        assertEquals(3, metrics.getTotal());
+        assertEquals(2, metrics.getAllowed());
+        assertEquals(1, metrics.getRejected());
+        assertEquals(1, metrics.getBlockedOrg());
+    }
+
+    @Test
+    @DisplayName("Only keys of the configured scopes are leased")
+    void coversScopes() {
+        try (TokenLeaseRateLimiter limiter = newLimiter(new InMemoryRateLimiterMetrics(), 1, 1, 60_000)) {
+            assertTrue(limiter.covers("rate_limit:org:acme"));
+            assertTrue(limiter.covers("rate_limit:{org:acme}:org:acme"));
+            assertFalse(limiter.covers("rate_limit:user:alice"));
+            assertFalse(limiter.covers("rate_limit:{org:acme}:user:alice"));
+        }
+    }
+
+    @Test
+    @DisplayName("Ids with braces are rejected before they can act as a cluster hash tag")
+    void hashTagsRejected() {
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        try (TokenLeaseRateLimiter leases = newLimiter(metrics, 1, 1, 60_000);
+             JedisPool pool = new JedisPool("localhost", 6379)) {
+            RateLimiterController controller = newController(leases,
+                    new RedisHierarchicalRateLimiter(pool, metrics, RedisFailMode.FAIL_CLOSED), metrics);
+
+            assertEquals(400, controller.handleRequest("x{y}", null, null, 1).getStatusCode().value());
+            assertEquals(400, controller.handleRequest(null, "10.0.0.1}", null, 1).getStatusCode().value());
+            assertEquals(400, controller.handleRequest(null, null, "{acme", 1).getStatusCode().value());
+            assertEquals(0, metrics.getTotal(), "never reaches a limiter");
+        }
+    }
+
+    @Test
+    @DisplayName("Leases take their limits from the config cache the hierarchical limiter reads")
+    void limitsFromConfigCache() throws InterruptedException {
+        String key = "rate_limit:org:lease-cached-" + System.nanoTime();
+        setConfig(key, 5, 0);
+
+        InMemoryRateLimiterMetrics metrics = new InMemoryRateLimiterMetrics();
+        try (RedisConfigCache cache = new RedisConfigCache(() -> new Jedis("localhost", 6379, 2000, 0),
+                60_000, 1_000, metrics)) {
+            assertTrue(cache.awaitSubscribed(5, TimeUnit.SECONDS));
+            // cached before the hash changed, and not invalidated: 2 is what requests are held to
+            cache.put(key, "2", "0", cache.generation());
+            try (TokenLeaseRateLimiter leases = new TokenLeaseRateLimiter(redis, metrics, RedisFailMode.FAIL_CLOSED,
+                    Set.of("org"), 100, 1, 1, 60_000, cache)) {
+                assertTrue(leases.tryAcquire(key, 1));
+                assertTrue(leases.tryAcquire(key, 1));
+                assertFalse(leases.tryAcquire(key, 1), "the cached capacity applies");
+            }
+
+            // a miss is read once and cached for the next lease
+            String missed = "rate_limit:org:lease-missed-" + System.nanoTime();
+            setConfig(missed, 3, 0);
+            try (TokenLeaseRateLimiter leases = new TokenLeaseRateLimiter(redis, metrics, RedisFailMode.FAIL_CLOSED,
+                    Set.of("org"), 100, 1, 1, 60_000, cache)) {
+                assertTrue(leases.tryAcquire(missed, 1));
+                assertEquals("3", cache.get(missed).capacity());
+            }
+        }
+    }
+
+    private TokenLeaseRateLimiter newLimiter(InMemoryRateLimiterMetrics metrics, long minLease, long maxLease,
+                                             long idleReturnMillis) {
+        return new TokenLeaseRateLimiter(redis, metrics, RedisFailMode.FAIL_CLOSED, Set.of("org"),
+                100, minLease, maxLease, idleReturnMillis);
+    }
+
+    private static RateLimiterController newController(TokenLeaseRateLimiter leases,
+                                                       RedisHierarchicalRateLimiter redisLimiter,
+                                                       InMemoryRateLimiterMetrics metrics) {
+        return new RateLimiterController(new ScopedHotKeyRateLimiter(Map.of(), metrics), redisLimiter, leases,
+                new DefaultPolicyResolver(), metrics);
+    }
+
+    private void setConfig(String key, long capacity, long refillRate) {
+        redis.hset(key + ":config", Map.of("capacity", String.valueOf(capacity),
+                "refill_rate", String.valueOf(refillRate)));
+    }
+
+    private double tokens(String key) {
+        return Double.parseDouble(redis.hget(key, "tokens"));
+    }
+}